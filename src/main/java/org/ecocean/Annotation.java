@@ -9,6 +9,7 @@ import org.ecocean.ImageAttributes;
 import org.ecocean.media.Feature;
 import org.ecocean.media.MediaAsset;
 import org.ecocean.media.MediaAssetFactory;
+import org.ecocean.identity.IATargetList;
 import org.json.JSONObject;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import javax.jdo.Query;
@@ -267,6 +268,7 @@ public class Annotation implements java.io.Serializable {
         return isExemplar;
     }
     public void setIsExemplar(boolean b) {
+        if (b != isExemplar) IATargetList.invalidate(species);
         isExemplar = b;
     }
 
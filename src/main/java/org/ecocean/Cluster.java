@@ -362,7 +362,7 @@ System.out.println(ael.getAttribute("attributeKey") + " -> " + aval);
     ArrayList<MediaAsset> invalid = new ArrayList<MediaAsset>();
 
     for (MediaAsset ma : assets) {
-      if (ma.getDateTime()==null) { // lat or lon can be set to -1 (for null values) with no issue
+      if (new TimePlace(ma).datetime==null) { // lat or lon can be set to -1 (for null values) with no issue
         invalid.add(ma);
       } else {
         valid.add(ma);
@@ -418,6 +418,7 @@ System.out.println(ael.getAttribute("attributeKey") + " -> " + aval);
     for (List<MediaAsset> occGroup : assetGroups) {
       Occurrence occ = new Occurrence(occGroup, myShepherd);
       myShepherd.storeNewOccurrence(occ);
+      occs.add(occ);
     }
     return occs;
 
@@ -428,9 +429,7 @@ System.out.println(ael.getAttribute("attributeKey") + " -> " + aval);
     List<MediaAsset> validAssets = groupedAssets.get(0);
     List<MediaAsset> invalidAssets = groupedAssets.get(1);
 
-    String command = buildCommand(validAssets);
-    String output = runPythonCommand(command);
-    int[] occNums = parseJonsOutput(output);
+    int[] occNums = clusterAssets(validAssets, getClusterer(myShepherd));
 
     List<List<MediaAsset>> occurrenceGroups = groupAssetsByJonsOutput(validAssets, occNums);
 
@@ -458,9 +457,8 @@ System.out.println(ael.getAttribute("attributeKey") + " -> " + aval);
     List<MediaAsset> invalidAssets = groupedAssets.get(1);
 
 
-    String command = buildCommand(validAssets);
-    String output = runPythonCommand(command);
-    int[] occNums = parseJonsOutput(output);
+    OccurrenceClusterer clusterer = getClusterer(myShepherd);
+    int[] occNums = clusterAssets(validAssets, clusterer);
 
 
     List<List<MediaAsset>> occurrenceGroups = groupAssetsByJonsOutput(validAssets, occNums);
@@ -486,13 +484,44 @@ System.out.println(ael.getAttribute("attributeKey") + " -> " + aval);
       out.write(newline);
     }
 
-    String s = null;
-
-    out.write(runPythonCommand(command));
+    out.write(newline);
+    out.write(validAssets.size() + " assets in " + occurrenceGroups.size() + " groups (kmPerSec=" + clusterer.getKmPerSec() + ", thresholdKm=" + clusterer.getThresholdKm() + ")");
 
     return out.toString();
   }
 
+  /**
+   * Clusters assets (which all need a DateTime, see groupAssetsByValidity) in-process; returns one occurrence
+   * number per asset, 1-based, like parseJonsOutput does for the python script.
+   */
+  public static int[] clusterAssets(List<MediaAsset> validAssets, OccurrenceClusterer clusterer) {
+    int n = validAssets.size();
+    double[] secs = new double[n];
+    double[] lats = new double[n];
+    double[] lons = new double[n];
+    int i = 0;
+    for (MediaAsset ma : validAssets) {
+      TimePlace tp = new TimePlace(ma);
+      secs[i] = tp.datetime.getMillis() / 1000.0;
+      lats[i] = tp.lat;
+      lons[i] = tp.lon;
+      i++;
+    }
+    return clusterer.cluster(secs, lats, lons);
+  }
+
+  // occurrenceClusterKmPerSec and occurrenceClusterThresholdKm in commonConfiguration.properties
+  public static OccurrenceClusterer getClusterer(Shepherd myShepherd) {
+    String context = (myShepherd == null) ? "context0" : myShepherd.getContext();
+    double kmPerSec = OccurrenceClusterer.DEFAULT_KM_PER_SEC;
+    double thresholdKm = OccurrenceClusterer.DEFAULT_THRESHOLD_KM;
+    Double d = strToDoubleNoExceptions(CommonConfiguration.getProperty("occurrenceClusterKmPerSec", context));
+    if ((d != null) && (d > 0)) kmPerSec = d;
+    d = strToDoubleNoExceptions(CommonConfiguration.getProperty("occurrenceClusterThresholdKm", context));
+    if ((d != null) && (d > 0)) thresholdKm = d;
+    return new OccurrenceClusterer(kmPerSec, thresholdKm);
+  }
+
 
   private static String newline = "<br/>";
 
@@ -556,9 +585,36 @@ class TimePlace {
   }
 
   public TimePlace(MediaAsset ma) {
-    datetime = ma.getDateTime();
-    lat = makeNullDefault(ma.getLatitude());
-    lon = makeNullDefault(ma.getLongitude());
+    this(ma, probeLocal(ma));
+  }
+
+  // user-set values win, as in MediaAsset.getDateTime() etc; otherwise the file's own headers (cached, no decoding),
+  // which also saves crawling the stored exif json for every asset on every clustering run
+  private TimePlace(MediaAsset ma, ImageProbe.Result probe) {
+    if ((probe != null) && (ma.getUserDateTime() == null) && (probe.getDateTime() != null)) {
+      datetime = probe.getDateTime();
+    } else {
+      datetime = ma.getDateTime();
+    }
+    if ((probe != null) && (ma.getUserLatitude() == null) && (ma.getUserLongitude() == null) && (probe.getLatitude() != null)) {
+      lat = probe.getLatitude();
+      lon = probe.getLongitude();
+    } else {
+      lat = makeNullDefault(ma.getLatitude());
+      lon = makeNullDefault(ma.getLongitude());
+    }
+  }
+
+  // only when the file is already here (no downloading from remote stores just for this)
+  private static ImageProbe.Result probeLocal(MediaAsset ma) {
+    if ((ma == null) || !(ma.getStore() instanceof LocalAssetStore) || !ma.isMimeTypeMajor("image")) return null;
+    try {
+      java.nio.file.Path path = ma.localPath();
+      if ((path == null) || !path.toFile().isFile()) return null;
+      return ImageProbe.probe(path.toFile());
+    } catch (Exception ex) {
+      return null;
+    }
   }
 
   private Double defaultLatLon = -1.0;
@@ -48,16 +48,20 @@ public class CommonConfiguration {
   //private static String currentContext;
 
 
+  //read-only view shared via ShepherdPropertiesCache; no lock and no disk i/o once the context is cached
   private static Properties initialize(String context) {
-    //set up the file input stream
-    //if ((currentContext==null)||(!currentContext.equals(context))||(propsSize == 0)) {
-      return loadProps(context);
-    //}
+      try {
+        return ShepherdProperties.getCachedProperties(COMMON_CONFIGURATION_PROPERTIES, "", context);
+      } catch (Exception ioe) {
+        ioe.printStackTrace();
+        return new Properties();
+      }
   }
 
 
   
-  public static synchronized Properties loadProps(String context) {
+  //returns a private copy the caller may modify
+  public static Properties loadProps(String context) {
       InputStream resourceAsStream = null;
       Properties props=new Properties();
       try {
@@ -571,21 +571,7 @@ public final class EmailTemplate {
         debugPS = new PrintStream(debugOS);
         sess.setDebugOut(debugPS);
       }
-      MimeMessage m = new MimeMessage(sess);
-      m.setFrom(new InternetAddress(from));
-
-			m.setRecipients(Message.RecipientType.TO, convertAddresses(to));
-			if (cc != null && !cc.isEmpty())
-				m.setRecipients(Message.RecipientType.CC, convertAddresses(cc));
-			if (bcc != null && !bcc.isEmpty())
-				m.setRecipients(Message.RecipientType.BCC, convertAddresses(bcc));
-
-      m.setSubject(subj.getText(), getPlainTextCharset().name());
-      if (html && hasHtmlText())
-        m.setContent(createMultipartEmail());
-      else
-        m.setText(plainBody.getText(), getPlainTextCharset().name());
-      m.saveChanges();
+      MimeMessage m = createMessage(sess, from, to, cc, bcc, html);
 
       boolean ok = openSession(from);
       if (ok)
@@ -606,6 +592,81 @@ public final class EmailTemplate {
     }
   }
 
+  /**
+   * Creates the message for this email, ready to be sent on any
+   * {@code Transport} for the same mail server (see {@link #createSession()}).
+   *
+   * @param sess mail session for the message
+   * @param from email sender
+   * @param to email recipients
+   * @param cc email recipients (CC)
+   * @param bcc email recipients (BCC)
+   * @param html whether to try to send in HTML format (will default to plain text if not possible)
+   * @return message ready to send
+   * @throws MessagingException if a problem occurs while creating the message
+   */
+  public MimeMessage createMessage(Session sess, String from, Collection<String> to, Collection<String> cc, Collection<String> bcc, boolean html) throws MessagingException {
+    MimeMessage m = new MimeMessage(sess);
+    m.setFrom(new InternetAddress(from));
+
+		m.setRecipients(Message.RecipientType.TO, convertAddresses(to));
+		if (cc != null && !cc.isEmpty())
+			m.setRecipients(Message.RecipientType.CC, convertAddresses(cc));
+		if (bcc != null && !bcc.isEmpty())
+			m.setRecipients(Message.RecipientType.BCC, convertAddresses(bcc));
+
+    m.setSubject(subj.getText(), getPlainTextCharset().name());
+    if (html && hasHtmlText())
+      m.setContent(createMultipartEmail());
+    else
+      m.setText(plainBody.getText(), getPlainTextCharset().name());
+    m.setSentDate(new Date());
+    m.saveChanges();
+    return m;
+  }
+
+  /**
+   * Creates a new mail session for this template's mail server settings.
+   * Unlike {@link #openSession(String)}, the session is not kept by the
+   * template, so it can be shared by other templates with the same
+   * {@link #getServerKey()}.
+   *
+   * @return new mail session
+   */
+  public Session createSession() {
+    Properties p = new Properties();
+    p.putAll(props);
+    if (useStartTLS)
+      p.setProperty("mail." + (useSSL ? "smtps" : "smtp") + ".starttls.enable", "true");
+    Session sess = Session.getInstance(p, auth);
+    sess.setDebug(isDebug());
+    return sess;
+  }
+
+  /**
+   * Connects a transport to the mail server of the specified session
+   * (made by {@link #createSession()}).
+   *
+   * @param sess mail session
+   * @return connected transport
+   * @throws MessagingException if the connection fails
+   */
+  public Transport connect(Session sess) throws MessagingException {
+    Transport t = sess.getTransport(useSSL ? "smtps" : "smtp");
+    if (auth != null)
+      t.connect(auth.pa.getUserName(), auth.pa.getPassword());
+    else
+      t.connect();
+    return t;
+  }
+
+  /**
+   * @return string identifying the mail server settings (protocol, user, host, port), so that templates with the same key can share a connection
+   */
+  public String getServerKey() {
+    return (useSSL ? "smtps" : "smtp") + (useStartTLS ? "+tls" : "") + "://" + ((auth == null) ? "" : auth.pa.getUserName() + "@") + getHost() + ":" + getPort();
+  }
+
   /**
    * Sends this email to the recipients specified.
    * If an HTML format has been included in the template, then a call
@@ -26,6 +26,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Calendar;
 import java.util.StringTokenizer;
 import java.text.SimpleDateFormat;
@@ -51,6 +52,7 @@ import org.ecocean.tag.SatelliteTag;
 import org.ecocean.Util;
 import org.ecocean.servlet.ServletUtilities;
 import org.ecocean.identity.IBEISIA;
+import org.ecocean.identity.IATargetList;
 import org.ecocean.media.*;
 import org.ecocean.PointLocation;
 import org.ecocean.Survey;
@@ -908,6 +910,11 @@ public class Encounter implements java.io.Serializable {
    * @see java.util.Date
    */
   public String getDate() {
+    return formatDate(year, month, day, hour, minutes);
+  }
+
+  //getDate() from the date fields alone, for when they are read without the Encounter (e.g. a projection query)
+  public static String formatDate(int year, int month, int day, int hour, String minutes) {
     String date = "";
     String time = "";
     if (year <= 0) {
@@ -1088,6 +1095,7 @@ public class Encounter implements java.io.Serializable {
 
   public void assignToMarkedIndividual(String sharky) {
     individualID = sharky;
+    IATargetList.encounterAssigned(this);
   }
 
   /*
@@ -1771,9 +1779,11 @@ System.out.println("did not find MediaAsset for params=" + sp + "; creating one?
   public void setIndividualID(String indy) {
     if(indy==null){
       individualID=null;
+      IATargetList.encounterAssigned(this);
       return;
     }
     this.individualID = indy;
+    IATargetList.encounterAssigned(this);
   }
 
 /* i cant for the life of me figure out why/how gps stuff is stored on encounters, cuz we have
@@ -2859,9 +2869,10 @@ System.out.println(" (final)cluster [" + groupsMade + "] -> " + newEnc);
 	//pass in a Vector of Encounters, get out a list that the user can NOT see
 	public static Vector blocked(Vector encs, HttpServletRequest request) {
 		Vector blk = new Vector();
+		Map<String,Boolean> access = Collaboration.canUserAccess((Collection<Encounter>)encs, request);
 		for (int i = 0; i < encs.size() ; i++) {
 			Encounter e = (Encounter) encs.get(i);
-			if (!e.canUserAccess(request)) blk.add(e);
+			if (!Boolean.TRUE.equals(access.get(e.getCatalogNumber()))) blk.add(e);
 		}
 		return blk;
 	}
@@ -23,6 +23,7 @@ import javax.servlet.http.HttpServletRequest;
 import org.ecocean.Util.MeasurementDesc;
 import org.ecocean.servlet.ServletUtilities;
 import org.ecocean.security.Collaboration;
+import org.ecocean.security.CollaborationAuditLog;
 
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormatter;
@@ -33,6 +34,17 @@ public class EncounterQueryProcessor {
   private static final String SELECT_FROM_ORG_ECOCEAN_ENCOUNTER_WHERE = "SELECT FROM org.ecocean.Encounter WHERE catalogNumber != null && ";
 
   public static String queryStringBuilder(HttpServletRequest request, StringBuffer prettyPrint, Map<String, Object> paramMap){
+    String[] parts=queryParts(request, prettyPrint, paramMap);
+    String filter=parts[0]+parts[1]+parts[2];
+    System.out.println("EncounterQueryProcessor filter: "+filter);
+    return filter;
+  }
+
+  /*
+   * Builds the query from the request as {"SELECT ... WHERE ..." filter, VARIABLES declaration, PARAMETERS declaration},
+   * kept apart so EncounterQueryStream can add its own conditions and parameters to the filter.
+   */
+  private static String[] queryParts(HttpServletRequest request, StringBuffer prettyPrint, Map<String, Object> paramMap){
     String filter= SELECT_FROM_ORG_ECOCEAN_ENCOUNTER_WHERE;
     String jdoqlVariableDeclaration = "";
     String parameterDeclaration = "";
@@ -1332,12 +1344,7 @@ This code is no longer necessary with Charles Overbeck's new multi-measurement f
     if(filter.equals(SELECT_FROM_ORG_ECOCEAN_ENCOUNTER_WHERE)){filter="SELECT FROM org.ecocean.Encounter WHERE catalogNumber != null";}
 
 
-    filter+=jdoqlVariableDeclaration;
-
-    filter += parameterDeclaration;
-    System.out.println("EncounterQueryProcessor filter: "+filter);
-    
-    return filter;
+    return new String[]{filter, jdoqlVariableDeclaration, parameterDeclaration};
 
   }
 
@@ -1346,10 +1353,6 @@ This code is no longer necessary with Charles Overbeck's new multi-measurement f
     Vector<Encounter> rEncounters=new Vector<Encounter>();
     Iterator<Encounter> allEncounters;
 
-
-		String currentUser = null;
-		if (request.getUserPrincipal() != null) currentUser = request.getUserPrincipal().getName();
-
     //Extent<Encounter> encClass=myShepherd.getPM().getExtent(Encounter.class, true);
     //Query query=myShepherd.getPM().newQuery(encClass);
     //if(!order.equals("")){query.setOrdering(order);}
@@ -1453,40 +1456,67 @@ This code is no longer necessary with Charles Overbeck's new multi-measurement f
 
 
 		//silo security logging
-		List<Collaboration> collabs = Collaboration.collaborationsForCurrentUser(request);
-		String url = request.getRequestURL().toString() + "?" + request.getQueryString();
-		Date now = new Date();
+		AccessLog accessLog = new AccessLog(request, prettyPrint.toString());
+		for (int i = 0 ; i < rEncounters.size() ; i++) {
+			accessLog.log((Encounter)rEncounters.get(i));
+		}
+		//System.out.println("rEncounters size is: "+rEncounters.size());
+    return (new EncounterQueryResult(rEncounters,filter,prettyPrint.toString()));
 
-		String context="context0";
-		context = ServletUtilities.getContext(request);
-		String rootWebappPath = request.getSession().getServletContext().getRealPath("/");
-		File webappsDir = new File(rootWebappPath).getParentFile();
-		File shepherdDataDir = new File(webappsDir, CommonConfiguration.getDataDirectoryName(context));
+  }
 
-		for (int i = 0 ; i < rEncounters.size() ; i++) {
-			Encounter rEnc = (Encounter)rEncounters.get(i);
+
+  /**
+   * Like processQuery, but the matching encounters are read a page at a time (pageSize per query) as the caller
+   * iterates, so the full result is never held in memory. Use EncounterQueryStream.count() for the total.
+   * The stream should be closed when done with; the Shepherd's transaction must stay open while iterating.
+   */
+  public static EncounterQueryStream processQueryStreaming(Shepherd myShepherd, HttpServletRequest request, String order, int pageSize){
+    StringBuffer prettyPrint=new StringBuffer("");
+    Map<String,Object> paramMap = new HashMap<String, Object>();
+    String[] parts=queryParts(request, prettyPrint, paramMap);
+    return new EncounterQueryStream(myShepherd, parts[0], parts[1], parts[2], paramMap, order, pageSize, prettyPrint.toString(), new AccessLog(request, prettyPrint.toString()));
+  }
+
+  /*
+   * Silo security logging: records in the owner's collaboration.log each of their encounters that a query
+   * showed to a collaborator.
+   */
+  static class AccessLog {
+    private final String currentUser;
+    private final List<Collaboration> collabs;
+    private final String url;
+    private final String prettyPrint;
+    private final Date now = new Date();
+    private final File shepherdDataDir;
+
+    AccessLog(HttpServletRequest request, String prettyPrint) {
+      String currentUser = null;
+      if (request.getUserPrincipal() != null) currentUser = request.getUserPrincipal().getName();
+      this.currentUser = currentUser;
+      this.collabs = Collaboration.collaborationsForCurrentUser(request);
+      this.url = request.getRequestURL().toString() + "?" + request.getQueryString();
+      this.prettyPrint = prettyPrint;
+
+      String context="context0";
+      context = ServletUtilities.getContext(request);
+      String rootWebappPath = request.getSession().getServletContext().getRealPath("/");
+      File webappsDir = new File(rootWebappPath).getParentFile();
+      this.shepherdDataDir = new File(webappsDir, CommonConfiguration.getDataDirectoryName(context));
+    }
+
+    void log(Encounter rEnc) {
 			String owner = rEnc.getAssignedUsername();
 			if ((currentUser != null) && !currentUser.equals("") && (owner != null) && !owner.equals(currentUser)) {
 				Collaboration c = Collaboration.findCollaborationWithUser(owner, collabs);
 				if ((c != null) && c.getState().equals(Collaboration.STATE_APPROVED)) {  //log it
 
+					//written out in the background, so this doesn't wait on the disk
 					File userDir=new File(shepherdDataDir.getAbsolutePath() + "/users/" + owner);
-    			if(!userDir.exists()){userDir.mkdir();}
-					Writer logw = null;
-					try {
-						logw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(userDir, "collaboration.log"), true)));
-						logw.write(now.getTime() + "\t" + currentUser + "\t" + rEnc.getCatalogNumber() + "\t" + url + "\t" + prettyPrint.toString() + "\n");
-					} catch (IOException ex) {
-						System.out.println(ex);
-					} finally {
-						try { logw.close(); } catch (Exception ex) {}
-					}
+					CollaborationAuditLog.append(userDir, now.getTime() + "\t" + currentUser + "\t" + rEnc.getCatalogNumber() + "\t" + url + "\t" + prettyPrint + "\n");
 				}
 			}
-		}
-		//System.out.println("rEncounters size is: "+rEncounters.size());
-    return (new EncounterQueryResult(rEncounters,filter,prettyPrint.toString()));
-
+    }
   }
 
 
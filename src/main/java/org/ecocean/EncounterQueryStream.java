@@ -0,0 +1,247 @@
+package org.ecocean;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.jdo.Query;
+
+
+/**
+ * The encounters matching an EncounterQueryProcessor search, read from the database a page at a time as they
+ * are iterated over instead of all at once into a Vector. Each page is its own query limited with setRange,
+ * and the page before is evicted from the PersistenceManager, so memory use stays at about one page.
+ * <p>
+ * Pages follow on from each other by keyset (WHERE the ordering key is past the last encounter returned) when
+ * every ordering field is a primitive Encounter field, which can't be null; catalogNumber is always added as
+ * the final key so the order is total. Otherwise they fall back to offsets (setRange(offset, offset+pageSize)).
+ * <p>
+ * Get one from EncounterQueryProcessor.processQueryStreaming. The Shepherd's transaction must stay open while
+ * iterating, and close() should be called when done.
+ */
+public class EncounterQueryStream implements Iterator<Encounter>, Iterable<Encounter> {
+
+  public static final int DEFAULT_PAGE_SIZE = 500;
+
+  private static final String CATALOG_NUMBER = "catalogNumber";
+
+  private final Shepherd myShepherd;
+  //"SELECT FROM org.ecocean.Encounter WHERE ..."
+  private final String filter;
+  private final String variableDeclaration;
+  private final String parameterDeclaration;
+  private final Map<String, Object> paramMap;
+  private final String ordering;
+  private final int pageSize;
+  private final String prettyPrint;
+  private final EncounterQueryProcessor.AccessLog accessLog;
+
+  //ordering keys, catalogNumber last; keyGetters is null if we have to page by offset
+  private final List<String> keyFields = new ArrayList<String>();
+  private final List<Boolean> keyDescending = new ArrayList<Boolean>();
+  private final List<String> keyTypes = new ArrayList<String>();
+  private List<Method> keyGetters = new ArrayList<Method>();
+
+  private Object[] lastKey = null;
+  private long offset = 0;
+  private Query query = null;
+  private List<Encounter> page = null;
+  private int pageIndex = 0;
+  private boolean exhausted = false;
+
+
+  EncounterQueryStream(Shepherd myShepherd, String filter, String variableDeclaration, String parameterDeclaration, Map<String, Object> paramMap,
+                       String order, int pageSize, String prettyPrint, EncounterQueryProcessor.AccessLog accessLog) {
+    this.myShepherd = myShepherd;
+    this.filter = filter;
+    this.variableDeclaration = variableDeclaration;
+    this.parameterDeclaration = parameterDeclaration;
+    this.paramMap = paramMap;
+    this.pageSize = (pageSize > 0) ? pageSize : DEFAULT_PAGE_SIZE;
+    this.prettyPrint = prettyPrint;
+    this.accessLog = accessLog;
+    this.ordering = parseOrdering((order == null) ? "" : order.trim());
+  }
+
+  public Iterator<Encounter> iterator() {
+    return this;
+  }
+
+  public boolean hasNext() {
+    if ((page != null) && (pageIndex < page.size())) return true;
+    if (exhausted) return false;
+    fetchPage();
+    return (pageIndex < page.size());
+  }
+
+  public Encounter next() {
+    if (!hasNext()) throw new NoSuchElementException();
+    Encounter enc = page.get(pageIndex++);
+    if (accessLog != null) accessLog.log(enc);
+    return enc;
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Number of matching encounters, from a separate count query.
+   */
+  public long count() {
+    String countFilter = filter.replaceFirst("^SELECT FROM ", "SELECT count(this) FROM ");
+    Query countQuery = myShepherd.getPM().newQuery(countFilter + variableDeclaration + parameterDeclaration);
+    try {
+      return ((Number) countQuery.executeWithMap(paramMap)).longValue();
+    } finally {
+      countQuery.closeAll();
+    }
+  }
+
+  public boolean isKeyset() {
+    return (keyGetters != null);
+  }
+
+  public String getQueryPrettyPrint() {
+    return prettyPrint;
+  }
+
+  public String getJDOQLRepresentation() {
+    return filter + variableDeclaration + parameterDeclaration;
+  }
+
+  public void close() {
+    if (query != null) {
+      query.closeAll();
+      query = null;
+    }
+    page = null;
+    exhausted = true;
+  }
+
+
+  private void fetchPage() {
+    if ((page != null) && !page.isEmpty()) {
+      myShepherd.getPM().evictAll(page);
+    }
+    if (query != null) query.closeAll();
+
+    String where = filter;
+    String parameters = parameterDeclaration;
+    Map<String, Object> params = paramMap;
+    if ((keyGetters != null) && (lastKey != null)) {
+      int whereAt = filter.indexOf(" WHERE ") + 7;
+      where = filter.substring(0, whereAt) + "(" + filter.substring(whereAt) + ") && (" + keysetCondition() + ")";
+      params = new HashMap<String, Object>(paramMap);
+      for (int i = 0; i < lastKey.length; i++) {
+        String decl = keyTypes.get(i) + " keyset" + i;
+        parameters = parameters.equals("") ? (" PARAMETERS " + decl) : (parameters + ", " + decl);
+        params.put("keyset" + i, lastKey[i]);
+      }
+    }
+
+    query = myShepherd.getPM().newQuery(where + variableDeclaration + parameters);
+    query.setOrdering(ordering);
+    if (keyGetters != null) {
+      query.setRange(0, pageSize);
+    } else {
+      query.setRange(offset, offset + pageSize);
+    }
+    Collection c = (Collection) query.executeWithMap(params);
+    page = new ArrayList<Encounter>(c);
+    pageIndex = 0;
+    offset += page.size();
+    if (page.size() < pageSize) exhausted = true;
+    if ((keyGetters != null) && !page.isEmpty()) {
+      lastKey = keyOf(page.get(page.size() - 1));
+    }
+  }
+
+  //(k0 > :keyset0) || (k0 == :keyset0 && k1 > :keyset1) || ..., with < for descending keys
+  private String keysetCondition() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < keyFields.size(); i++) {
+      if (i > 0) sb.append(" || ");
+      sb.append('(');
+      for (int j = 0; j < i; j++) {
+        sb.append(keyFields.get(j)).append(" == keyset").append(j).append(" && ");
+      }
+      sb.append(keyFields.get(i)).append(keyDescending.get(i) ? " < keyset" : " > keyset").append(i);
+      sb.append(')');
+    }
+    return sb.toString();
+  }
+
+  private Object[] keyOf(Encounter enc) {
+    Object[] key = new Object[keyGetters.size()];
+    try {
+      for (int i = 0; i < key.length; i++) {
+        key[i] = keyGetters.get(i).invoke(enc);
+      }
+    } catch (Exception e) {
+      throw new IllegalStateException("could not read the keyset from encounter " + enc.getCatalogNumber(), e);
+    }
+    return key;
+  }
+
+  //returns the ordering to use, and sets up the keyset if the ordering allows one
+  private String parseOrdering(String order) {
+    boolean hasCatalogNumber = false;
+    if (!order.equals("")) {
+      for (String term : order.split(",")) {
+        String[] tokens = term.trim().split("\\s+");
+        String field = tokens[0];
+        boolean descending = (tokens.length > 1) && tokens[1].toLowerCase().startsWith("desc");
+        if (hasCatalogNumber) {
+          //anything after the unique key can't change the order
+          break;
+        }
+        if (field.equals(CATALOG_NUMBER)) hasCatalogNumber = true;
+        addKey(field, descending);
+      }
+    }
+    if (!hasCatalogNumber) {
+      addKey(CATALOG_NUMBER, false);
+      order = order.equals("") ? "catalogNumber ascending" : (order + ", catalogNumber ascending");
+    }
+    return order;
+  }
+
+  private void addKey(String field, boolean descending) {
+    keyFields.add(field);
+    keyDescending.add(descending);
+    if (keyGetters == null) return;
+    Method getter = keyGetter(field);
+    if (getter == null) {
+      keyGetters = null;
+      return;
+    }
+    keyGetters.add(getter);
+    keyTypes.add(getter.getReturnType().getName());
+  }
+
+  //the getter of a non-null Encounter field that JDOQL can compare with < and >, or null
+  private static Method keyGetter(String field) {
+    if (!field.matches("[A-Za-z_][A-Za-z0-9_]*")) return null;
+    try {
+      Field f = Encounter.class.getDeclaredField(field);
+      Class<?> type = f.getType();
+      boolean comparable = field.equals(CATALOG_NUMBER) || (type.isPrimitive() && (type != boolean.class) && (type != char.class));
+      if (!comparable) return null;
+      Method getter = Encounter.class.getMethod("get" + Character.toUpperCase(field.charAt(0)) + field.substring(1));
+      if (getter.getReturnType() != type) return null;
+      return getter;
+    } catch (NoSuchFieldException e) {
+      return null;
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+}
@@ -137,19 +137,14 @@ public final class ImageProcessor implements Runnable {
             return;            
         }
 
-        String comment = CommonConfiguration.getProperty("imageComment", this.context);
-        if (comment == null) comment = "%year All rights reserved. | wildbook.org";
-        String cname = ContextConfiguration.getNameForContext(this.context);
-        if (cname != null) comment += " | " + cname;
+        String comment = imageComment(this.context, this.parentMA);
         String maId = "unknown";
         String rotation = "";
         if (this.parentMA != null) {
             if (this.parentMA.getUUID() != null) {
                 maId = this.parentMA.getUUID();
-                comment += " | parent " + maId;
             } else {
                 maId = this.parentMA.setHashCode();
-                comment += " | parent hash " + maId; //a stretch, but maybe should never happen?
             }
             if (this.parentMA.hasLabel("rotate90")) {
                 rotation = "-flip -transpose";
@@ -159,16 +154,6 @@ public final class ImageProcessor implements Runnable {
                 rotation = "-flip -transverse";
             }
         }
-        comment += " | v" + Long.toString(System.currentTimeMillis());
-        try {
-            InetAddress ip = InetAddress.getLocalHost();
-            comment += ":" + ip.toString() + ":" + ip.getHostName();
-        } catch (UnknownHostException e) {}
-
-        int year = Calendar.getInstance().get(Calendar.YEAR);
-        comment = comment.replaceAll("%year", Integer.toString(year));
-        //TODO should we handle ' better? -- this also assumes command uses '%comment' quoting  :/
-        comment = comment.replaceAll("'", "");
 
         String fullCommand;
         fullCommand = this.command.replaceAll("%width", Integer.toString(this.width))
@@ -226,4 +211,30 @@ System.out.println("DONE?????");
         }
 System.out.println("RETURN");
     }
+
+    //the comment embedded in derived images (%comment in the commands); also used by ImageDerivatives
+    public static String imageComment(String context, MediaAsset parentMA) {
+        String comment = CommonConfiguration.getProperty("imageComment", context);
+        if (comment == null) comment = "%year All rights reserved. | wildbook.org";
+        String cname = ContextConfiguration.getNameForContext(context);
+        if (cname != null) comment += " | " + cname;
+        if (parentMA != null) {
+            if (parentMA.getUUID() != null) {
+                comment += " | parent " + parentMA.getUUID();
+            } else {
+                comment += " | parent hash " + parentMA.setHashCode(); //a stretch, but maybe should never happen?
+            }
+        }
+        comment += " | v" + Long.toString(System.currentTimeMillis());
+        try {
+            InetAddress ip = InetAddress.getLocalHost();
+            comment += ":" + ip.toString() + ":" + ip.getHostName();
+        } catch (UnknownHostException e) {}
+
+        int year = Calendar.getInstance().get(Calendar.YEAR);
+        comment = comment.replaceAll("%year", Integer.toString(year));
+        //TODO should we handle ' better? -- this also assumes command uses '%comment' quoting  :/
+        comment = comment.replaceAll("'", "");
+        return comment;
+    }
 }
@@ -0,0 +1,284 @@
+package org.ecocean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/*
+    sends NotificationMailers in the background: one bounded queue and one sender thread per context (replacing
+    a new single-use thread pool for every email).  the sender drains whatever is queued and sends it over a
+    connection to the mail server that stays open between emails (one per server, reconnecting when it has
+    dropped), closing it once the queue has been idle for IDLE_CLOSE_SECONDS.  when the queue is full, submit()
+    waits up to SUBMIT_WAIT_MILLIS and then sends on the caller's thread, so a flood of emails slows callers
+    down rather than piling up (or being lost).
+
+    status on appadmin/mailDispatch.jsp
+*/
+public class MailDispatcher {
+    public static final int QUEUE_SIZE = 1000;
+    public static final int MAX_BATCH = 50;
+    public static final long SUBMIT_WAIT_MILLIS = 2000;
+    public static final long IDLE_CLOSE_SECONDS = 30;
+
+    private static final ConcurrentHashMap<String, MailDispatcher> dispatchers = new ConcurrentHashMap<String, MailDispatcher>();
+
+    private final String context;
+    private final LinkedBlockingQueue<Item> queue = new LinkedBlockingQueue<Item>(QUEUE_SIZE);
+    private final Thread thread;
+    private volatile boolean running = true;
+    //server key -> session/transport; only touched by the sender thread
+    private final Map<String, Session> sessions = new HashMap<String, Session>();
+    private final Map<String, Transport> transports = new HashMap<String, Transport>();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong callerRuns = new AtomicLong();
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong dequeued = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong maxBatch = new AtomicLong();
+    private final AtomicLong totalWait = new AtomicLong();
+    private final AtomicLong maxWait = new AtomicLong();
+    private final AtomicLong totalSend = new AtomicLong();
+    private final AtomicLong maxSend = new AtomicLong();
+
+    private static class Item {
+        final NotificationMailer mailer;
+        final long queuedAt = System.currentTimeMillis();
+        Item(NotificationMailer mailer) {
+            this.mailer = mailer;
+        }
+    }
+
+    private MailDispatcher(String context) {
+        this.context = context;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                work();
+            }
+        }, "MailDispatcher-" + context);
+        thread.setDaemon(true);
+    }
+
+    public static MailDispatcher get(String context) {
+        MailDispatcher d = dispatchers.get(context);
+        if (d != null) return d;
+        d = new MailDispatcher(context);
+        MailDispatcher prev = dispatchers.putIfAbsent(context, d);
+        if (prev != null) return prev;
+        d.thread.start();
+        return d;
+    }
+
+    //queues the email to be sent in the background (see above for when it is sent on this thread instead)
+    public static void submit(String context, NotificationMailer mailer) {
+        get(context).submit(mailer);
+    }
+
+    public void submit(NotificationMailer mailer) {
+        if (mailer == null) return;
+        submitted.incrementAndGet();
+        boolean queued = false;
+        if (running) {
+            try {
+                queued = queue.offer(new Item(mailer), SUBMIT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (queued) return;
+        System.out.println("WARNING: MailDispatcher[" + context + "] queue full (or stopped); sending on caller thread");
+        callerRuns.incrementAndGet();
+        long t = System.currentTimeMillis();
+        if (mailer.isSendable()) {
+            mailer.run();
+            sent.incrementAndGet();
+            record(totalSend, maxSend, System.currentTimeMillis() - t);
+        } else {
+            skipped.incrementAndGet();
+        }
+    }
+
+    private void work() {
+        List<Item> batch = new ArrayList<Item>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Item first = queue.poll(IDLE_CLOSE_SECONDS, TimeUnit.SECONDS);
+                if (first == null) {
+                    closeTransports();
+                    continue;
+                }
+                batch.clear();
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                sendBatch(batch);
+            } catch (InterruptedException ie) {
+                if (!running) continue;  //drain what is left, then stop
+            } catch (Exception ex) {
+                System.out.println("WARNING: MailDispatcher[" + context + "] sender got " + ex.toString());
+                ex.printStackTrace();
+            }
+        }
+        closeTransports();
+    }
+
+    private void sendBatch(List<Item> batch) {
+        batches.incrementAndGet();
+        record(null, maxBatch, batch.size());
+        //same server together, in the order they came in otherwise (sort is stable)
+        final Map<Item, String> keys = new HashMap<Item, String>();
+        for (Item item : batch) {
+            keys.put(item, item.mailer.isSendable() ? item.mailer.getServerKey() : "");
+        }
+        Collections.sort(batch, new Comparator<Item>() {
+            public int compare(Item a, Item b) {
+                return keys.get(a).compareTo(keys.get(b));
+            }
+        });
+        for (Item item : batch) {
+            dequeued.incrementAndGet();
+            record(totalWait, maxWait, System.currentTimeMillis() - item.queuedAt);
+            String key = keys.get(item);
+            if ("".equals(key)) {
+                skipped.incrementAndGet();
+                continue;
+            }
+            long t = System.currentTimeMillis();
+            if (send(item.mailer, key)) {
+                sent.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+            record(totalSend, maxSend, System.currentTimeMillis() - t);
+        }
+    }
+
+    //one retry on a fresh connection, in case the kept one went stale
+    private boolean send(NotificationMailer mailer, String key) {
+        for (int attempt = 0 ; attempt < 2 ; attempt++) {
+            try {
+                Session sess = sessions.get(key);
+                if (sess == null) {
+                    sess = mailer.createSession();
+                    sessions.put(key, sess);
+                }
+                Transport transport = transports.get(key);
+                if ((transport == null) || !transport.isConnected()) {
+                    close(key);
+                    transport = mailer.connect(sess);
+                    transports.put(key, transport);
+                    connects.incrementAndGet();
+                }
+                MimeMessage m = mailer.createMessage(sess);
+                transport.sendMessage(m, m.getAllRecipients());
+                return true;
+            } catch (SendFailedException sfe) {  //bad addresses; the connection is fine
+                mailer.logSendError(sfe);
+                return false;
+            } catch (Exception ex) {
+                close(key);
+                if (attempt > 0) mailer.logSendError(ex);
+            }
+        }
+        return false;
+    }
+
+    private void close(String key) {
+        Transport t = transports.remove(key);
+        if (t == null) return;
+        try {
+            t.close();
+        } catch (MessagingException ex) {}
+    }
+
+    private void closeTransports() {
+        for (String key : new ArrayList<String>(transports.keySet())) {
+            close(key);
+        }
+    }
+
+    private static void record(AtomicLong total, AtomicLong max, long val) {
+        if (total != null) total.addAndGet(val);
+        long m;
+        while (val > (m = max.get())) {
+            if (max.compareAndSet(m, val)) break;
+        }
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public JSONObject toJSONObject() {
+        JSONObject j = new JSONObject();
+        j.put("context", context);
+        j.put("queued", queue.size());
+        j.put("queueCapacity", QUEUE_SIZE);
+        j.put("submitted", submitted.get());
+        j.put("sent", sent.get());
+        j.put("failed", failed.get());
+        j.put("skipped", skipped.get());
+        j.put("callerRuns", callerRuns.get());
+        j.put("connects", connects.get());
+        j.put("batches", batches.get());
+        j.put("maxBatch", maxBatch.get());
+        long n = sent.get() + failed.get();
+        j.put("meanSendMillis", (n < 1) ? 0 : totalSend.get() / n);
+        j.put("maxSendMillis", maxSend.get());
+        long w = dequeued.get();
+        j.put("meanQueueMillis", (w < 1) ? 0 : totalWait.get() / w);
+        j.put("maxQueueMillis", maxWait.get());
+        return j;
+    }
+
+    public static JSONObject statusJSON() {
+        JSONObject rtn = new JSONObject();
+        JSONArray arr = new JSONArray();
+        for (MailDispatcher d : dispatchers.values()) {
+            arr.put(d.toJSONObject());
+        }
+        rtn.put("dispatchers", arr);
+        JSONObject t = new JSONObject();
+        t.put("size", NotificationMailer.getTemplateCacheSize());
+        t.put("hits", NotificationMailer.getTemplateCacheHits());
+        t.put("misses", NotificationMailer.getTemplateCacheMisses());
+        rtn.put("templateCache", t);
+        return rtn;
+    }
+
+    //sends what is queued (waiting up to 20s for that), then stops; for StartupWildbook.contextDestroyed()
+    public static void cleanup() {
+        for (MailDispatcher d : dispatchers.values()) {
+            d.running = false;
+            d.thread.interrupt();
+        }
+        for (MailDispatcher d : dispatchers.values()) {
+            try {
+                d.thread.join(20000);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (d.thread.isAlive()) System.out.println("!!! MailDispatcher[" + d.context + "] did not finish; " + d.queue.size() + " emails not sent");
+        }
+        dispatchers.clear();
+        System.out.println("MailDispatcher.cleanup() finished.");
+    }
+
+}
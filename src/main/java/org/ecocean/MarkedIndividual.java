@@ -27,6 +27,7 @@ import org.ecocean.genetics.*;
 import org.ecocean.social.Relationship;
 import org.ecocean.security.Collaboration;
 import org.ecocean.media.MediaAsset;
+import org.ecocean.identity.IATargetList;
 import org.ecocean.servlet.ServletUtilities;
 import javax.servlet.http.HttpServletRequest;
 import org.apache.commons.lang3.builder.ToStringBuilder;
@@ -581,10 +582,12 @@ public class MarkedIndividual implements java.io.Serializable {
   }
 
   public void setName(String newName) {
+    IATargetList.individualRenamed(individualID, newName);
     individualID = newName;
   }
 
     public void setIndividualID(String newName) {
+      IATargetList.individualRenamed(individualID, newName);
       individualID = newName;
     }
 
@@ -31,6 +31,12 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
 import javax.servlet.http.HttpServletRequest;
 import org.ecocean.servlet.ServletUtilities;
 import org.slf4j.Logger;
@@ -166,6 +172,10 @@ public final class NotificationMailer implements Runnable {
   private EmailTemplate mailer;
   /** Flag indicating whether setup failed. */
   private boolean failedSetup;
+  /** Assembled templates, keyed by &quot;langCode/type&quot;. */
+  private static final ConcurrentHashMap<String, CompiledTemplate> templateCache = new ConcurrentHashMap<>();
+  private static final AtomicLong templateCacheHits = new AtomicLong();
+  private static final AtomicLong templateCacheMisses = new AtomicLong();
   private String urlScheme="http";
 
   /**
@@ -334,11 +344,7 @@ public final class NotificationMailer implements Runnable {
    * @return true if the template type exists, false otherwise
    */
   public boolean existsEmailTemplate(String langCode, String type) {
-    try {
-      return resolveTemplatesFromRoot(langCode, type)[0] != null;
-    } catch (IOException ex) {
-      return false;
-    }
+    return getCompiledTemplate(langCode, type) != null;
   }
 
   /**
@@ -355,18 +361,77 @@ public final class NotificationMailer implements Runnable {
 
     if (langCode != null && !"".equals(langCode.trim())) {
       for (String type : types) {
-        if (existsEmailTemplate(langCode, type))
-          return loadEmailTemplate(langCode, type);
+        CompiledTemplate ct = getCompiledTemplate(langCode, type);
+        if (ct != null)
+          return ct.newTemplate();
       }
     }
     // Default to "en" if none found yet.
     for (String type : types) {
-      if (existsEmailTemplate("en", type))
-        return loadEmailTemplate("en", type);
+      CompiledTemplate ct = getCompiledTemplate("en", type);
+      if (ct != null)
+        return ct.newTemplate();
     }
     throw new FileNotFoundException("Failed to find valid email template in specified types");
   }
 
+  /**
+   * Finds the cached, fully assembled template (base template with type
+   * template inserted) for the specified language and type, loading it if
+   * not yet cached or if any of its files have changed since.
+   *
+   * @param langCode language code for template loading
+   * @param type string specifying type of email (e.g. <em>individualAddEncounter</em>), or null for the base template alone
+   * @return cached template, or null if no such template exists
+   */
+  private CompiledTemplate getCompiledTemplate(String langCode, String type) {
+    String key = langCode + "/" + type;
+    long now = System.currentTimeMillis();
+    CompiledTemplate ct = templateCache.get(key);
+    if (ct != null && ct.isCurrent(now)) {
+      templateCacheHits.incrementAndGet();
+      return ct.missing ? null : ct;
+    }
+    templateCacheMisses.incrementAndGet();
+    try {
+      if (type != null && resolveTemplatesFromRoot(langCode, type)[0] == null)
+        ct = new CompiledTemplate(now);
+      else
+        ct = new CompiledTemplate(loadEmailTemplate(langCode, type), templateFiles(langCode, type), now);
+    } catch (IOException ex) {
+      ct = new CompiledTemplate(now);
+    }
+    templateCache.put(key, ct);
+    return ct.missing ? null : ct;
+  }
+
+  //the files (that exist) a template for this language and type is built from
+  private List<File> templateFiles(String langCode, String type) throws IOException {
+    List<File> files = new ArrayList<>();
+    for (String name : (type == null) ? Arrays.asList(BASE_TEMPLATE_ROOT) : Arrays.asList(BASE_TEMPLATE_ROOT, type)) {
+      for (File f : resolveTemplatesFromRoot(langCode, name)) {
+        if (f != null)
+          files.add(f);
+      }
+    }
+    return files;
+  }
+
+  /** Drops all cached email templates (they are also reloaded when their files change). */
+  public static void clearTemplateCache() {
+    templateCache.clear();
+  }
+
+  public static int getTemplateCacheSize() {
+    return templateCache.size();
+  }
+  public static long getTemplateCacheHits() {
+    return templateCacheHits.get();
+  }
+  public static long getTemplateCacheMisses() {
+    return templateCacheMisses.get();
+  }
+
   /**
    * Loads an email template for the specified email type.
    * An email template references two files, one for each of plain/HTML text.
@@ -509,27 +574,66 @@ public final class NotificationMailer implements Runnable {
     mailer.replaceRegexInHtmlText(search, replace, true);
   }
 
+  /**
+   * Sends the email on its own connection to the mail server, on the calling thread.
+   * Use {@link MailDispatcher#submit(String, NotificationMailer)} to send in
+   * the background on a shared connection instead.
+   */
   @Override
   public void run() {
-    if (failedSetup) {
-      log.info("*** Not processing email as setup failed; see previous error log. ***");
+    if (!isSendable())
       return;
+    try {
+      mailer.sendSingle(sender, recipients);
     }
-    if (CommonConfiguration.sendEmailNotifications(context)) {
-      if (!"".equals(host.trim()) && !"none".equalsIgnoreCase(host)) {
-        try {
-          mailer.sendSingle(sender, recipients);
-        }
-        catch (Exception ex) {
-          ex.printStackTrace();
-          log.error("Error sending notification email", ex);
-          log.error("     from: " + sender);
-          log.error("     to  : " + EmailTemplate.join(",", recipients));
-        }
-      }
+    catch (Exception ex) {
+      logSendError(ex);
     }
   }
 
+  /**
+   * @return true if this email should be sent (setup worked, and notifications are on with a mail host set)
+   */
+  boolean isSendable() {
+    if (failedSetup) {
+      log.info("*** Not processing email as setup failed; see previous error log. ***");
+      return false;
+    }
+    if (!CommonConfiguration.sendEmailNotifications(context))
+      return false;
+    return !"".equals(host.trim()) && !"none".equalsIgnoreCase(host);
+  }
+
+  void logSendError(Exception ex) {
+    ex.printStackTrace();
+    log.error("Error sending notification email", ex);
+    log.error("     from: " + sender);
+    log.error("     to  : " + EmailTemplate.join(",", recipients));
+  }
+
+  /**
+   * @return mail server settings of this email; those with the same key can be sent on the same connection
+   */
+  String getServerKey() {
+    return mailer.getServerKey();
+  }
+
+  Session createSession() {
+    return mailer.createSession();
+  }
+
+  Transport connect(Session sess) throws MessagingException {
+    return mailer.connect(sess);
+  }
+
+  MimeMessage createMessage(Session sess) throws MessagingException {
+    return mailer.createMessage(sess, sender, recipients, null, null, mailer.hasHtmlText());
+  }
+
+  String getContext() {
+    return context;
+  }
+
   /**
    * Creates a basic tag map for the specified adoption.
    * This map can subsequently be enhanced with extra tags.
@@ -812,5 +916,65 @@ public final class NotificationMailer implements Runnable {
   }
   
   public void setUrlScheme(String scheme){this.urlScheme=scheme;}
+
+  /**
+   * Subject and texts of an assembled email template, from which each
+   * email gets its own {@code EmailTemplate} without going back to the files.
+   * A template that doesn't exist is also cached (as missing), but only
+   * for {@link #MISSING_RECHECK_MILLIS}.
+   */
+  private static final class CompiledTemplate {
+    /** How often to check whether template files have changed. */
+    private static final long RECHECK_MILLIS = 10000;
+    private static final long MISSING_RECHECK_MILLIS = 60000;
+    private final boolean missing;
+    private final String subject;
+    private final String plain;
+    private final String html;
+    private final List<File> files;
+    private final long[] modified;
+    private volatile long checked;
+
+    private CompiledTemplate(long now) {
+      missing = true;
+      subject = plain = html = null;
+      files = Collections.emptyList();
+      modified = new long[0];
+      checked = now;
+    }
+
+    private CompiledTemplate(EmailTemplate t, List<File> files, long now) {
+      missing = false;
+      subject = t.getSubject();
+      plain = t.getPlainText();
+      html = t.hasHtmlText() ? t.getHtmlText() : null;
+      this.files = files;
+      modified = new long[files.size()];
+      for (int i = 0; i < modified.length; i++)
+        modified[i] = files.get(i).lastModified();
+      checked = now;
+    }
+
+    private boolean isCurrent(long now) {
+      if (now - checked < (missing ? MISSING_RECHECK_MILLIS : RECHECK_MILLIS))
+        return true;
+      if (missing)
+        return false;
+      for (int i = 0; i < modified.length; i++) {
+        if (files.get(i).lastModified() != modified[i])
+          return false;
+      }
+      checked = now;
+      return true;
+    }
+
+    private EmailTemplate newTemplate() {
+      EmailTemplate t = new EmailTemplate(subject, "", CHARSET_PLAIN);
+      t.setPlainText(plain, CHARSET_PLAIN);
+      if (html != null)
+        t.setHtmlText(html, CHARSET_HTML);
+      return t;
+    }
+  }
   
 }
@@ -0,0 +1,174 @@
+package org.ecocean;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Groups time+place points (e.g. MediaAssets from a batch import) into occurrences, in the JVM rather than by
+ * running occurrence_blackbox.py with every point on the command line.
+ * <p>
+ * Same model as the script: the distance between two points is the great-circle (haversine) distance in km plus
+ * the time between them times a speed in km/sec, and points are single-linkage clustered, so two points end up
+ * in the same occurrence if there is a chain of points between them each within thresholdKm of the next.
+ * <p>
+ * Single linkage at a fixed cutoff is just the connected components of "within thresholdKm", so rather than
+ * building a dendrogram we sweep over the points in time order, keeping only those within
+ * thresholdKm / kmPerSec seconds of the current one, bucketed by a grid of cells thresholdKm on a side over
+ * 3-d earth coordinates, and union each point with the neighbours it is close enough to.
+ */
+public class OccurrenceClusterer {
+
+  public static final double EARTH_RADIUS_KM = 6367.0;
+  public static final double DEFAULT_KM_PER_SEC = 0.02;
+  public static final double DEFAULT_THRESHOLD_KM = 1.0;
+
+  private final double kmPerSec;
+  private final double thresholdKm;
+
+
+  public OccurrenceClusterer() {
+    this(DEFAULT_KM_PER_SEC, DEFAULT_THRESHOLD_KM);
+  }
+
+  public OccurrenceClusterer(double kmPerSec, double thresholdKm) {
+    if (!(kmPerSec > 0) || !(thresholdKm > 0)) throw new IllegalArgumentException("kmPerSec and thresholdKm must be > 0");
+    this.kmPerSec = kmPerSec;
+    this.thresholdKm = thresholdKm;
+  }
+
+  public double getKmPerSec() {
+    return kmPerSec;
+  }
+
+  public double getThresholdKm() {
+    return thresholdKm;
+  }
+
+  /**
+   * Clusters the points secs[i] (seconds since the epoch), lats[i], lons[i] (decimal degrees).
+   *
+   * @return the occurrence number of each point, 1..(number of occurrences), numbered in order of first appearance
+   *         in the input -- the same as the output of occurrence_blackbox.py, so it can go straight to
+   *         Cluster.groupAssetsByJonsOutput
+   */
+  public int[] cluster(double[] secs, double[] lats, double[] lons) {
+    int n = secs.length;
+    if ((lats.length != n) || (lons.length != n)) throw new IllegalArgumentException("Unequal input sizes.");
+    int[] parent = new int[n];
+    for (int i = 0; i < n; i++) parent[i] = i;
+    if (n == 0) return new int[0];
+
+    //earth-centred coordinates in km; the chord between two points is never longer than the arc, so anything
+    //within thresholdKm is in the same or a neighbouring cell
+    double[] latRad = new double[n];
+    double[] lonRad = new double[n];
+    int[][] cells = new int[n][];
+    for (int i = 0; i < n; i++) {
+      latRad[i] = Math.toRadians(lats[i]);
+      lonRad[i] = Math.toRadians(lons[i]);
+      double cosLat = Math.cos(latRad[i]);
+      double x = EARTH_RADIUS_KM * cosLat * Math.cos(lonRad[i]);
+      double y = EARTH_RADIUS_KM * cosLat * Math.sin(lonRad[i]);
+      double z = EARTH_RADIUS_KM * Math.sin(latRad[i]);
+      cells[i] = new int[] { cell(x), cell(y), cell(z) };
+    }
+
+    Integer[] boxed = new Integer[n];
+    for (int i = 0; i < n; i++) boxed[i] = i;
+    final double[] s = secs;
+    Arrays.sort(boxed, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return Double.compare(s[a], s[b]);
+      }
+    });
+
+    double windowSec = thresholdKm / kmPerSec;
+    //points within windowSec of the current one, by cell, each in time order
+    Map<Long, ArrayDeque<Integer>> window = new HashMap<Long, ArrayDeque<Integer>>();
+    int oldest = 0;
+    for (int k = 0; k < n; k++) {
+      int i = boxed[k];
+      while (secs[boxed[oldest]] < secs[i] - windowSec) {
+        int old = boxed[oldest++];
+        Long key = key(cells[old][0], cells[old][1], cells[old][2]);
+        ArrayDeque<Integer> q = window.get(key);
+        q.pollFirst();
+        if (q.isEmpty()) window.remove(key);
+      }
+      int[] c = cells[i];
+      for (int dx = -1; dx <= 1; dx++) {
+        for (int dy = -1; dy <= 1; dy++) {
+          for (int dz = -1; dz <= 1; dz++) {
+            ArrayDeque<Integer> q = window.get(key(c[0] + dx, c[1] + dy, c[2] + dz));
+            if (q == null) continue;
+            for (Integer j : q) {
+              int ri = find(parent, i);
+              int rj = find(parent, j);
+              if (ri == rj) continue;
+              if (distanceKmRadians(latRad[i], lonRad[i], secs[i], latRad[j], lonRad[j], secs[j]) <= thresholdKm) {
+                parent[ri] = rj;
+              }
+            }
+          }
+        }
+      }
+      Long key = key(c[0], c[1], c[2]);
+      ArrayDeque<Integer> q = window.get(key);
+      if (q == null) {
+        q = new ArrayDeque<Integer>();
+        window.put(key, q);
+      }
+      q.addLast(i);
+    }
+
+    int[] labels = new int[n];
+    int[] labelOfRoot = new int[n];
+    int next = 0;
+    for (int i = 0; i < n; i++) {
+      int r = find(parent, i);
+      if (labelOfRoot[r] == 0) labelOfRoot[r] = ++next;
+      labels[i] = labelOfRoot[r];
+    }
+    return labels;
+  }
+
+  /**
+   * The distance the clustering uses: haversine km plus the time apart times kmPerSec.
+   */
+  public double distanceKm(double lat1, double lon1, double sec1, double lat2, double lon2, double sec2) {
+    return distanceKmRadians(Math.toRadians(lat1), Math.toRadians(lon1), sec1, Math.toRadians(lat2), Math.toRadians(lon2), sec2);
+  }
+
+  private double distanceKmRadians(double lat1, double lon1, double sec1, double lat2, double lon2, double sec2) {
+    return haversineKm(lat1, lon1, lat2, lon2) + Math.abs(sec1 - sec2) * kmPerSec;
+  }
+
+  private static double haversineKm(double lat1, double lon1, double lat2, double lon2) {
+    double sinDLat = Math.sin((lat2 - lat1) / 2);
+    double sinDLon = Math.sin((lon2 - lon1) / 2);
+    double a = sinDLat * sinDLat + Math.cos(lat1) * Math.cos(lat2) * sinDLon * sinDLon;
+    return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+  }
+
+  private int cell(double v) {
+    return (int) Math.floor(v / thresholdKm);
+  }
+
+  //collisions just mean a few more distance checks
+  private static Long key(int cx, int cy, int cz) {
+    return Long.valueOf(((cx * 0x9E3779B1L) + cy) * 0x85EBCA77L + cz);
+  }
+
+  private static int find(int[] parent, int i) {
+    while (parent[i] != i) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+}
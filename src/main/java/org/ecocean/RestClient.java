@@ -14,8 +14,19 @@ import java.net.MalformedURLException;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import javax.crypto.spec.SecretKeySpec;
 import javax.crypto.Mac;
@@ -27,6 +38,10 @@ import org.apache.http.client.utils.URIBuilder;
 /*
 javax.ws.rs.core.UriBuilder
 https://stackoverflow.com/a/29053050/1525311
+
+connections: HttpURLConnection keeps connections alive and reuses them (up to http.maxConnections, default 5, idle
+ones per host) as long as each response is read to the end and its stream closed -- which is what we do below, on
+errors too.  so MAX_CONCURRENT is the same 5: the async calls never open connections that would not be kept.
 */
 
 public class RestClient {
@@ -34,6 +49,14 @@ public class RestClient {
     private static final String HMAC_SHA1_ALGORITHM = "HmacSHA1";
     private static final int CONNECTION_TIMEOUT = 180000;  //maybe this should be service-specific?
 
+    public static final int MAX_CONCURRENT = Integer.getInteger("http.maxConnections", 5);
+    private static final int MAX_QUEUED = 1000;
+    private static ThreadPoolExecutor executor = null;
+
+    //Mac instances are not thread-safe but are costly to make, so one per thread
+    private static final ThreadLocal<Mac> authMac = new ThreadLocal<Mac>();
+    private static final ThreadLocal<String> authMacKey = new ThreadLocal<String>();
+
     public static JSONObject post(URL url, JSONObject data) throws RuntimeException, MalformedURLException, IOException, NoSuchAlgorithmException, InvalidKeyException {
         return anyMethod("POST", url, data);
     }
@@ -62,54 +85,15 @@ System.out.println("TRYING anyMethod(" + method + ") url -> " + url);
         }
         conn.connect();
 
-        boolean success = true;
         //TODO the 600 response here is IBEIS-specific, so we need to genericize this
-        if ((conn.getResponseCode() != HttpURLConnection.HTTP_OK) && (conn.getResponseCode() != 600)) {
-            //conn.disconnnect();
-System.out.println("!!!!!!!!!!!!!!!!!!! [url = " + url.toString() + "] bad response code = " + conn.getResponseCode());
-            success = false;
-        }
-
-        BufferedReader br = null;
-/*
-        if (success) {
-            br = new BufferedReader(new InputStreamReader((conn.getInputStream())));
-        } else {
-            br = new BufferedReader(new InputStreamReader((conn.getErrorStream())));
-        }
-*/
-        try {
-            br = new BufferedReader(new InputStreamReader((conn.getInputStream())));
-        } catch (IOException ioe) {
-            br = new BufferedReader(new InputStreamReader((conn.getErrorStream())));
+        int code = conn.getResponseCode();
+        if ((code != HttpURLConnection.HTTP_OK) && (code != 600)) {
+System.out.println("!!!!!!!!!!!!!!!!!!! [url = " + url.toString() + "] bad response code = " + code);
+            String jtext = readText(conn);
+            System.out.println("========= anyMethod failed with code=" + code + "\n" + jtext + "\n============");
+            throw new RuntimeException("Failed : HTTP error code : " + code);
         }
-
-        String output;
-        String jtext = "";
-        while ((output = br.readLine()) != null) {
-            jtext += output;
-        }
-        br.close();
-        //conn.disconnect();
-        if (!success) {
-            System.out.println("========= anyMethod failed with code=" + conn.getResponseCode() + "\n" + jtext + "\n============");
-            throw new RuntimeException("Failed : HTTP error code : " + conn.getResponseCode());
-        }
-
-        if (jtext.equals("")) return null;
-        return new JSONObject(jtext);
-
-/*
-      } catch (MalformedURLException e) {
-
-        e.printStackTrace();
-
-      } catch (IOException e) {
-
-        e.printStackTrace();
-
-     }
-*/
+        return readJSONObject(conn);
     }
 
     public static JSONObject postStream(URL url, InputStream in) throws RuntimeException, MalformedURLException, IOException, NoSuchAlgorithmException, InvalidKeyException {
@@ -135,61 +119,126 @@ System.out.println("!!!!!!!!!!!!!!!!!!! [url = " + url.toString() + "] bad respo
         os.close();
         conn.connect();
 
-        boolean success = true;
-        if ((conn.getResponseCode() != HttpURLConnection.HTTP_OK)) {
-            //conn.disconnnect();
-System.out.println("!!!!!!!!!!!!!!!!!!! bad response code = " + conn.getResponseCode());
-            success = false;
-        }
-
-        if (!success) {
+        int code = conn.getResponseCode();
+        if (code != HttpURLConnection.HTTP_OK) {
+System.out.println("!!!!!!!!!!!!!!!!!!! bad response code = " + code);
+            readText(conn);  //so the connection can be reused
             JSONObject rtn = new JSONObject();
-            rtn.put("error", conn.getResponseCode());
+            rtn.put("error", code);
             return rtn;
         }
+        JSONObject rtn = readJSONObject(conn);
+System.out.println("======================== postStream -> " + rtn);
+        return rtn;
+    }
 
-/*
-InputStream is = request.getInputStream();
-byte buffer[] = new byte[10240];
-int i;
-System.out.println("before....");
-while ((i = is.read(buffer)) > 0) {
-    System.out.write(buffer, 0, i);
-}
-*/
 
-        BufferedReader br = null;
-/*
-        if (success) {
-            br = new BufferedReader(new InputStreamReader((conn.getInputStream())));
-        } else {
-            br = new BufferedReader(new InputStreamReader((conn.getErrorStream())));
+    /*
+        for many requests at once: each is run (on up to MAX_CONCURRENT threads) as get(url) would be. results are in
+        the same order as urls.  if any fails, this throws its exception once they have all finished.
+    */
+    public static List<JSONObject> getAll(List<URL> urls) throws RuntimeException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        List<Future<JSONObject>> futures = new ArrayList<Future<JSONObject>>();
+        for (URL url : urls) {
+            futures.add(getAsync(url));
         }
-*/
+        List<JSONObject> rtn = new ArrayList<JSONObject>();
+        Exception failed = null;
+        for (Future<JSONObject> f : futures) {
+            try {
+                rtn.add(f.get());
+            } catch (ExecutionException ex) {
+                if (failed == null) failed = (ex.getCause() instanceof Exception) ? (Exception)ex.getCause() : ex;
+                rtn.add(null);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("RestClient.getAll() interrupted");
+            }
+        }
+        if (failed instanceof RuntimeException) throw (RuntimeException)failed;
+        if (failed instanceof IOException) throw (IOException)failed;
+        if (failed instanceof NoSuchAlgorithmException) throw (NoSuchAlgorithmException)failed;
+        if (failed instanceof InvalidKeyException) throw (InvalidKeyException)failed;
+        if (failed != null) throw new IOException(failed.toString());
+        return rtn;
+    }
+
+    //get(url) in the background.  if MAX_QUEUED are already waiting, this runs it right here instead (and so blocks)
+    public static Future<JSONObject> getAsync(final URL url) {
+        return getExecutor().submit(new Callable<JSONObject>() {
+            public JSONObject call() throws Exception {
+                return get(url);
+            }
+        });
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            final AtomicInteger num = new AtomicInteger();
+            executor = new ThreadPoolExecutor(MAX_CONCURRENT, MAX_CONCURRENT, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "RestClient-" + num.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    //for StartupWildbook.contextDestroyed()
+    public static synchronized void cleanup() {
+        if (executor != null) executor.shutdownNow();
+        executor = null;
+    }
+
+
+    //parsed straight off the stream (responses can be big); null for an empty body, as before
+    private static JSONObject readJSONObject(HttpURLConnection conn) throws IOException {
+        InputStream in;
         try {
-            br = new BufferedReader(new InputStreamReader((conn.getInputStream())));
+            in = conn.getInputStream();
         } catch (IOException ioe) {
-            success = false;
-            br = new BufferedReader(new InputStreamReader((conn.getErrorStream())));
+            in = conn.getErrorStream();
+        }
+        if (in == null) return null;
+        BufferedReader br = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            JSONTokener tok = new JSONTokener(br);
+            if (tok.nextClean() == 0) return null;
+            tok.back();
+            JSONObject rtn = new JSONObject(tok);
+            while (br.read() != -1) { }  //anything after it, so the connection can go back to the pool
+            return rtn;
+        } finally {
+            br.close();
         }
+    }
 
-        String output;
-        String jtext = "";
-        while ((output = br.readLine()) != null) {
-            jtext += output;
+    private static String readText(HttpURLConnection conn) throws IOException {
+        InputStream in;
+        try {
+            in = conn.getInputStream();
+        } catch (IOException ioe) {
+            in = conn.getErrorStream();
         }
-        br.close();
-        //conn.disconnect();
-/*
-        if (!success) {
-            System.out.println("========= anyMethod failed with code=" + conn.getResponseCode() + "\n" + jtext + "\n============");
-            throw new RuntimeException("Failed : HTTP error code : " + conn.getResponseCode());
+        if (in == null) return "";
+        BufferedReader br = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[4096];
+        int n;
+        try {
+            while ((n = br.read(buf)) != -1) {
+                sb.append(buf, 0, n);
+            }
+        } finally {
+            br.close();
         }
-*/
-
-        if (jtext.equals("")) return null;
-System.out.println("======================== postStream -> " + jtext);
-        return new JSONObject(jtext);
+        return sb.toString();
     }
 
 
@@ -197,10 +246,14 @@ System.out.println("======================== postStream -> " + jtext);
 
 
     private static String getSignature(String key, byte[] messageToSendBytes) throws NoSuchAlgorithmException, InvalidKeyException {
-        SecretKeySpec keyHmac = new SecretKeySpec(key.getBytes(), HMAC_SHA1_ALGORITHM);
-        Mac mac = Mac.getInstance(HMAC_SHA1_ALGORITHM);
-        mac.init(keyHmac);
-        return new String(Base64.encodeBase64(mac.doFinal(messageToSendBytes)));
+        Mac mac = authMac.get();
+        if ((mac == null) || !key.equals(authMacKey.get())) {
+            mac = Mac.getInstance(HMAC_SHA1_ALGORITHM);
+            mac.init(new SecretKeySpec(key.getBytes(), HMAC_SHA1_ALGORITHM));
+            authMac.set(mac);
+            authMacKey.set(key);
+        }
+        return new String(Base64.encodeBase64(mac.doFinal(messageToSendBytes)));  //doFinal() also resets it for next time
     }
 
     public static String getAuthorizationHeader(String url) throws NoSuchAlgorithmException, InvalidKeyException {
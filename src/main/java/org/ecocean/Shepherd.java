@@ -79,6 +79,9 @@ public class Shepherd {
 
   private String action="undefined";
   private String shepherdID="";
+  //for ShepherdLifecycle: when the PM was opened / the current transaction begun (0 = not)
+  private long openedAt=0;
+  private long beganAt=0;
 
 
   /**
@@ -92,7 +95,8 @@ public class Shepherd {
         pm = ShepherdPMF.getPMF(localContext).getPersistenceManager();
         this.shepherdID=Util.generateUUID();
 
-        ShepherdPMF.setShepherdState(action+"_"+shepherdID, "new");
+        openedAt=System.currentTimeMillis();
+        ShepherdLifecycle.opened(action);
       }
       catch (JDOUserException e) {
         System.out.println("Hit an excpetion while trying to instantiate a PM. Not fatal I think.");
@@ -3008,12 +3012,19 @@ public class Shepherd {
     try {
       if (pm == null || pm.isClosed()) {
         pm = ShepherdPMF.getPMF(localContext).getPersistenceManager();
+        if (openedAt==0) {
+          openedAt=System.currentTimeMillis();
+          ShepherdLifecycle.opened(action);
+        }
         pm.currentTransaction().begin();
       } else if (!pm.currentTransaction().isActive()) {
 
         pm.currentTransaction().begin();
       }
-      ShepherdPMF.setShepherdState(action+"_"+shepherdID, "begin");
+      if (beganAt==0) {
+        beganAt=System.currentTimeMillis();
+        ShepherdLifecycle.began(action);
+      }
 
 
     }
@@ -3046,14 +3057,16 @@ public class Shepherd {
         System.out.println("You are trying to commit an inactive transaction.");
         //return false;
       }
-      ShepherdPMF.setShepherdState(action+"_"+shepherdID, "commit");
+      endTransaction(true);
 
 
     } catch (JDOUserException jdoe) {
+      endTransaction(false);
       jdoe.printStackTrace();
       System.out.println("I failed to commit a transaction." + "\n" + jdoe.getStackTrace());
       //return false;
     } catch (JDOException jdoe2) {
+      endTransaction(false);
       jdoe2.printStackTrace();
       Throwable[] throwables=jdoe2.getNestedExceptions();
       int numThrowables=throwables.length;
@@ -3070,12 +3083,21 @@ public class Shepherd {
     }
     //added to prevent conflicting calls jah 1/19/04
     catch (NullPointerException npe) {
+      endTransaction(false);
       System.out.println("A null pointer exception was thrown while trying to commit a transaction!");
       npe.printStackTrace();
       //return false;
 		}
   }
 
+  //a commit that was not begun through this Shepherd is not counted
+  private void endTransaction(boolean ok) {
+    if (beganAt==0) return;
+    if (ok) ShepherdLifecycle.committed(action, beganAt);
+    else ShepherdLifecycle.commitFailed(action, beganAt);
+    beganAt=0;
+  }
+
   /**
    * Commits (makes permanent) any changes made to an open database
    */
@@ -3093,8 +3115,11 @@ public class Shepherd {
         pm.close();
 
       }
-      //ShepherdPMF.setShepherdState(action+"_"+shepherdID, "close");
-      ShepherdPMF.removeShepherdState(action+"_"+shepherdID);
+      if (openedAt>0) {
+        ShepherdLifecycle.closed(action, openedAt, beganAt);
+        openedAt=0;
+        beganAt=0;
+      }
 
       //logger.info("A PersistenceManager has been successfully closed.");
     } catch (JDOUserException jdoe) {
@@ -3121,7 +3146,10 @@ public class Shepherd {
       } else {
         //System.out.println("You are trying to rollback an inactive transaction.");
       }
-      ShepherdPMF.setShepherdState(action+"_"+shepherdID, "rollback");
+      if (beganAt>0) {
+        ShepherdLifecycle.rolledBack(action, beganAt);
+        beganAt=0;
+      }
 
 
     } catch (JDOUserException jdoe) {
@@ -4175,14 +4203,8 @@ public class Shepherd {
   //used to describe where this Shepherd is and what it is supposed to be doing
   public void setAction(String newAction){
 
-    String state="";
-
-    if(ShepherdPMF.getShepherdState(action+"_"+shepherdID)!=null){
-      state=ShepherdPMF.getShepherdState(action+"_"+shepherdID);
-      ShepherdPMF.removeShepherdState(action+"_"+shepherdID);
-    }
+    ShepherdLifecycle.actionChanged(action, newAction, (openedAt>0), (beganAt>0));
     this.action=newAction;
-    ShepherdPMF.setShepherdState(action+"_"+shepherdID, state);
   }
 
   public String getAction(){return action;}
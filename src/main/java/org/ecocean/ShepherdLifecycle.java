@@ -0,0 +1,252 @@
+package org.ecocean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/*
+    counts of PersistenceManagers opened/closed and transactions begun/committed/rolled back, per Shepherd action
+    (plus RestServlet and LightRestServlet), with histograms of transaction and PM lifetimes.  replaces the
+    ShepherdPMF map of every shepherd's state, which kept an entry for each Shepherd that was never closed.
+    memory is fixed: a few counters per action, and actions are code-chosen names (anything past MAX_ACTIONS
+    is lumped into OTHER_ACTION).  a PM that leaks (never closed) shows up as a stuck "open" count for its action.
+
+    shown on appadmin/dbconnections.jsp
+*/
+public class ShepherdLifecycle {
+  public static final int MAX_ACTIONS = 1000;
+  public static final String OTHER_ACTION = "(other)";
+
+  private static final ConcurrentHashMap<String,ActionStats> actions = new ConcurrentHashMap<String,ActionStats>();
+  private static final long started = System.currentTimeMillis();
+
+  public static void opened(String action) {
+    ActionStats s = get(action);
+    s.opened.incrementAndGet();
+    s.open.incrementAndGet();
+  }
+
+  //Shepherd.setAction() after it has been opened (and maybe begun)
+  public static void actionChanged(String oldAction, String newAction, boolean open, boolean inTransaction) {
+    if ((oldAction == null) || oldAction.equals(newAction)) return;
+    ActionStats from = get(oldAction);
+    ActionStats to = get(newAction);
+    if (open) {
+      from.open.decrementAndGet();
+      to.open.incrementAndGet();
+      //the open gets counted under the action it was doing its work as
+      from.opened.decrementAndGet();
+      to.opened.incrementAndGet();
+    }
+    if (inTransaction) {
+      from.inTransaction.decrementAndGet();
+      to.inTransaction.incrementAndGet();
+    }
+  }
+
+  public static void began(String action) {
+    ActionStats s = get(action);
+    s.began.incrementAndGet();
+    s.inTransaction.incrementAndGet();
+  }
+
+  public static void committed(String action, long beganAt) {
+    ActionStats s = get(action);
+    s.committed.incrementAndGet();
+    endTransaction(s, beganAt);
+  }
+
+  public static void commitFailed(String action, long beganAt) {
+    ActionStats s = get(action);
+    s.commitFailed.incrementAndGet();
+    endTransaction(s, beganAt);
+  }
+
+  public static void rolledBack(String action, long beganAt) {
+    ActionStats s = get(action);
+    s.rolledBack.incrementAndGet();
+    endTransaction(s, beganAt);
+  }
+
+  //beganAt > 0 means the transaction was never committed or rolled back
+  public static void closed(String action, long openedAt, long beganAt) {
+    ActionStats s = get(action);
+    s.closed.incrementAndGet();
+    s.open.decrementAndGet();
+    s.pmMillis.add(System.currentTimeMillis() - openedAt);
+    if (beganAt > 0) {
+      s.closedInTransaction.incrementAndGet();
+      endTransaction(s, beganAt);
+    }
+  }
+
+  private static void endTransaction(ActionStats s, long beganAt) {
+    s.inTransaction.decrementAndGet();
+    s.transactionMillis.add(System.currentTimeMillis() - beganAt);
+  }
+
+  private static ActionStats get(String action) {
+    if (action == null) action = "undefined";
+    ActionStats s = actions.get(action);
+    if (s != null) return s;
+    if (actions.size() >= MAX_ACTIONS) action = OTHER_ACTION;
+    s = new ActionStats(action);
+    ActionStats prev = actions.putIfAbsent(action, s);
+    return (prev == null) ? s : prev;
+  }
+
+  public static long getOpen() {
+    long n = 0;
+    for (ActionStats s : actions.values()) {
+      n += s.open.get();
+    }
+    return n;
+  }
+
+  //actions with open PMs first (most first), then by name
+  public static List<ActionStats> getActionStats() {
+    List<ActionStats> all = new ArrayList<ActionStats>(actions.values());
+    Collections.sort(all, new java.util.Comparator<ActionStats>() {
+      public int compare(ActionStats a, ActionStats b) {
+        long ao = a.open.get();
+        long bo = b.open.get();
+        if (ao != bo) return (ao > bo) ? -1 : 1;
+        return a.action.compareTo(b.action);
+      }
+    });
+    return all;
+  }
+
+  public static JSONObject statusJSON() {
+    JSONObject rtn = new JSONObject();
+    Histogram tx = new Histogram();
+    Histogram pm = new Histogram();
+    long open = 0;
+    long inTx = 0;
+    JSONArray arr = new JSONArray();
+    for (ActionStats s : getActionStats()) {
+      arr.put(s.toJSONObject());
+      open += s.open.get();
+      inTx += s.inTransaction.get();
+      tx.addAll(s.transactionMillis);
+      pm.addAll(s.pmMillis);
+    }
+    rtn.put("open", open);
+    rtn.put("inTransaction", inTx);
+    rtn.put("transactionMillis", tx.toJSONObject());
+    rtn.put("pmMillis", pm.toJSONObject());
+    rtn.put("actions", arr);
+    rtn.put("since", started);
+    rtn.put("timestamp", System.currentTimeMillis());
+    return rtn;
+  }
+
+
+  public static class ActionStats {
+    public final String action;
+    final AtomicLong open = new AtomicLong();
+    final AtomicLong inTransaction = new AtomicLong();
+    final AtomicLong opened = new AtomicLong();
+    final AtomicLong closed = new AtomicLong();
+    final AtomicLong began = new AtomicLong();
+    final AtomicLong committed = new AtomicLong();
+    final AtomicLong commitFailed = new AtomicLong();
+    final AtomicLong rolledBack = new AtomicLong();
+    final AtomicLong closedInTransaction = new AtomicLong();
+    final Histogram transactionMillis = new Histogram();
+    final Histogram pmMillis = new Histogram();
+
+    ActionStats(String action) {
+      this.action = action;
+    }
+
+    public long getOpen() { return open.get(); }
+    public long getInTransaction() { return inTransaction.get(); }
+    public long getOpened() { return opened.get(); }
+    public long getClosed() { return closed.get(); }
+    public long getBegan() { return began.get(); }
+    public long getCommitted() { return committed.get(); }
+    public long getCommitFailed() { return commitFailed.get(); }
+    public long getRolledBack() { return rolledBack.get(); }
+    public long getClosedInTransaction() { return closedInTransaction.get(); }
+    public Histogram getTransactionMillis() { return transactionMillis; }
+    public Histogram getPmMillis() { return pmMillis; }
+
+    public JSONObject toJSONObject() {
+      JSONObject j = new JSONObject();
+      j.put("action", action);
+      j.put("open", open.get());
+      j.put("inTransaction", inTransaction.get());
+      j.put("opened", opened.get());
+      j.put("closed", closed.get());
+      j.put("began", began.get());
+      j.put("committed", committed.get());
+      j.put("commitFailed", commitFailed.get());
+      j.put("rolledBack", rolledBack.get());
+      j.put("closedInTransaction", closedInTransaction.get());
+      j.put("transactionMillis", transactionMillis.toJSONObject());
+      j.put("pmMillis", pmMillis.toJSONObject());
+      return j;
+    }
+  }
+
+  //fixed buckets of millis: count of values < each bound, and the rest in the last one
+  public static class Histogram {
+    public static final long[] BOUNDS = {1, 5, 10, 50, 100, 500, 1000, 5000, 10000, 60000, 300000};
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void add(long millis) {
+      if (millis < 0) millis = 0;
+      int i = 0;
+      while ((i < BOUNDS.length) && (millis >= BOUNDS[i])) i++;
+      counts.incrementAndGet(i);
+      count.incrementAndGet();
+      total.addAndGet(millis);
+      long m;
+      while (millis > (m = max.get())) {
+        if (max.compareAndSet(m, millis)) break;
+      }
+    }
+
+    void addAll(Histogram other) {
+      for (int i = 0 ; i < counts.length() ; i++) {
+        counts.addAndGet(i, other.counts.get(i));
+      }
+      count.addAndGet(other.count.get());
+      total.addAndGet(other.total.get());
+      long m = other.max.get();
+      if (m > max.get()) max.set(m);
+    }
+
+    public long getCount() { return count.get(); }
+    public long getMean() {
+      long n = count.get();
+      return (n < 1) ? 0 : total.get() / n;
+    }
+    public long getMax() { return max.get(); }
+
+    //labelled buckets, e.g. "<50": 12, ... ">=300000": 1
+    public JSONObject toJSONObject() {
+      JSONObject j = new JSONObject();
+      j.put("count", count.get());
+      j.put("mean", getMean());
+      j.put("max", max.get());
+      JSONObject b = new JSONObject();
+      for (int i = 0 ; i < BOUNDS.length ; i++) {
+        if (counts.get(i) > 0) b.put("<" + BOUNDS[i], counts.get(i));
+      }
+      if (counts.get(BOUNDS.length) > 0) b.put(">=" + BOUNDS[BOUNDS.length - 1], counts.get(BOUNDS.length));
+      j.put("buckets", b);
+      return j;
+    }
+  }
+
+}
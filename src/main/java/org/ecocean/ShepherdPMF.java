@@ -29,8 +29,6 @@ import java.io.IOException;
 import java.util.Enumeration;
 import java.util.Properties;
 
-import java.util.TreeMap;
-
 import java.util.concurrent.ConcurrentHashMap;
 
 
@@ -38,16 +36,17 @@ public class ShepherdPMF {
 
   //private static PersistenceManagerFactory pmf;
   //private static String currentContext="context0";
-  private static TreeMap<String,PersistenceManagerFactory> pmfs=new TreeMap<String,PersistenceManagerFactory>();
+  private static final ConcurrentHashMap<String,PersistenceManagerFactory> pmfs=new ConcurrentHashMap<String,PersistenceManagerFactory>();
 
-  private static ConcurrentHashMap<String,String> shepherds=new ConcurrentHashMap<String, String>();
 
+  //called by every new Shepherd, so the usual case (already made, still open) takes no lock
+  public static PersistenceManagerFactory getPMF(String context) {
+    PersistenceManagerFactory pmf=pmfs.get(context);
+    if ((pmf!=null)&&(!pmf.isClosed())) return pmf;
+    return createPMF(context);
+  }
 
-  public synchronized static PersistenceManagerFactory getPMF(String context) {
-    //public static PersistenceManagerFactory getPMF(String dbLocation) {
-    
-    if(pmfs==null){pmfs=new TreeMap<String,PersistenceManagerFactory>();}
-    
+  private synchronized static PersistenceManagerFactory createPMF(String context) {
     try {
       if ((!pmfs.containsKey(context))||(pmfs.get(context).isClosed())) {
 
@@ -94,8 +93,10 @@ public class ShepherdPMF {
         //make sure to close an old PMF if switching
         //if(pmf!=null){pmf.close();}
 
-        pmfs.put(context, JDOHelper.getPersistenceManagerFactory(dnProperties));
-        return pmfs.get(context);
+        PersistenceManagerFactory pmf=JDOHelper.getPersistenceManagerFactory(dnProperties);
+        SiteSearchIndex.listen(context, pmf);
+        pmfs.put(context, pmf);
+        return pmf;
 
       }
       else{
@@ -149,28 +150,4 @@ public class ShepherdPMF {
     return myProps;
   }
   
-  public static void setShepherdState(String shepherdID, String state){
-    if(shepherds==null) shepherds=new ConcurrentHashMap<String, String>();
-
-    shepherds.put(shepherdID, state);
-  }
-  
-  public static void removeShepherdState(String shepherdID){
-    if(shepherds==null) shepherds=new ConcurrentHashMap<String, String>();
-
-    shepherds.remove(shepherdID);
-  }
-  
-  public static String getShepherdState(String shepherdID){
-    if(shepherds==null) shepherds=new ConcurrentHashMap<String, String>();
-
-    return shepherds.get(shepherdID);
-  }
-  
-  public static ConcurrentHashMap<String,String> getAllShepherdStates(){
-    if(shepherds==null) shepherds=new ConcurrentHashMap<String, String>();
-    return shepherds;
-  }
-  
-
 }
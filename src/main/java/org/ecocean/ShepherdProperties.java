@@ -20,6 +20,22 @@ public class ShepherdProperties {
   }
 
   public static Properties getProperties(String fileName, String langCode, String context){
+    //hand out a copy so callers are free to modify it without touching the cached instance
+    Properties props=new Properties();
+    props.putAll(getCachedProperties(fileName, langCode, context));
+    return props;
+  }
+
+  //the shared instance held in ShepherdPropertiesCache -- read-only!
+  static Properties getCachedProperties(String fileName, String langCode, String context){
+    String key=ShepherdPropertiesCache.key(fileName, langCode, context);
+    Properties props=ShepherdPropertiesCache.get(key);
+    if(props!=null){return props;}
+    long generation=ShepherdPropertiesCache.currentGeneration();
+    return ShepherdPropertiesCache.put(key, loadProperties(fileName, langCode, context), generation);
+  }
+
+  private static Properties loadProperties(String fileName, String langCode, String context){
     Properties props=new Properties();
 
     String shepherdDataDir="wildbook_data_dir";
@@ -31,7 +47,7 @@ public class ShepherdProperties {
     //  shepherdDataDir=CommonConfiguration.getProperty("dataDirectoryName",context);
     //}
     
-    Properties contextsProps=getContextsProperties();
+    Properties contextsProps=getCachedContextsProperties();
     if(contextsProps.getProperty(context+"DataDir")!=null){
       shepherdDataDir=contextsProps.getProperty(context+"DataDir");
       
@@ -57,7 +73,7 @@ public class ShepherdProperties {
         //OK, we couldn't find the overridden file, and we couldn't find the local file in the webapp
         //default to the English version
         if(!langCode.equals("en")) {
-          props=getProperties(fileName, "en", context);
+          props=getCachedProperties(fileName, "en", context);
         }
         else {
           ioe.printStackTrace();
@@ -73,6 +89,16 @@ public class ShepherdProperties {
   
   public static Properties getContextsProperties(){
     Properties props=new Properties();
+    props.putAll(getCachedContextsProperties());
+    return props;
+  }
+
+  private static Properties getCachedContextsProperties(){
+    String key=ShepherdPropertiesCache.key("contexts.properties", "", "");
+    Properties props=ShepherdPropertiesCache.get(key);
+    if(props!=null){return props;}
+    long generation=ShepherdPropertiesCache.currentGeneration();
+    props=new Properties();
       try {
         InputStream inputStream = ShepherdProperties.class.getResourceAsStream("/bundles/contexts.properties");
         props.load(inputStream);
@@ -83,7 +109,7 @@ public class ShepherdProperties {
       }
     
 
-    return props;
+    return ShepherdPropertiesCache.put(key, props, generation);
   }
 
   private static Properties loadOverrideProps(String shepherdDataDir, String fileName, String langCode) {
@@ -108,6 +134,8 @@ public class ShepherdProperties {
     }
     //System.out.println("ShepherdProps: "+configDir.getAbsolutePath());
     if(!configDir.exists()){configDir.mkdirs();}
+    //any change in here drops the cached properties
+    ShepherdPropertiesCache.watch(configDir);
     File configFile = new File(configDir, fileName);
     if (configFile.exists()) {
       //System.out.println("ShepherdProps: "+"Overriding default properties with " + configFile.getAbsolutePath());
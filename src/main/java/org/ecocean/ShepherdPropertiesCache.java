@@ -0,0 +1,153 @@
+package org.ecocean;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    in-memory cache of the Properties that ShepherdProperties loads, keyed by (fileName, langCode, context).
+    reads are a ConcurrentHashMap lookup (no global lock, no disk i/o).  the cache is dropped whenever a
+    WatchService sees a change in one of the override bundle directories, or when refresh() is called
+    (e.g. from appadmin/propertiesCache.jsp).
+*/
+public class ShepherdPropertiesCache {
+    private static final ConcurrentHashMap<String,Properties> cache = new ConcurrentHashMap<String,Properties>();
+    private static final ConcurrentHashMap<Path,WatchKey> watchedDirs = new ConcurrentHashMap<Path,WatchKey>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong invalidations = new AtomicLong();
+    //bumped on every invalidation, so a load that straddles one does not put stale values back
+    private static final AtomicLong generation = new AtomicLong();
+
+    private static WatchService watcher = null;
+    private static Thread watcherThread = null;
+
+    public static String key(String fileName, String langCode, String context) {
+        return context + ":" + langCode + ":" + fileName;
+    }
+
+    //returns the shared instance (or null on miss) -- callers must not modify it
+    public static Properties get(String key) {
+        Properties props = cache.get(key);
+        if (props == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return props;
+    }
+
+    //used to pair with put(), so we know if an invalidation happened while loading
+    public static long currentGeneration() {
+        return generation.get();
+    }
+
+    public static Properties put(String key, Properties props, long loadedAtGeneration) {
+        if (props == null) return null;
+        if (generation.get() != loadedAtGeneration) return props;  //cache was refreshed during the load; dont keep it
+        Properties existing = cache.putIfAbsent(key, props);
+        return (existing == null) ? props : existing;
+    }
+
+    public static void refresh() {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        cache.clear();
+        System.out.println("ShepherdPropertiesCache.refresh() cleared cache");
+    }
+
+    //registers an override bundle directory with the WatchService; a no-op if already watched
+    public static void watch(File dir) {
+        if ((dir == null) || !dir.isDirectory()) return;
+        Path path = dir.toPath().toAbsolutePath().normalize();
+        if (watchedDirs.containsKey(path)) return;
+        synchronized (ShepherdPropertiesCache.class) {
+            if (watchedDirs.containsKey(path)) return;
+            try {
+                if (watcher == null) startWatcher();
+                WatchKey wkey = path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirs.put(path, wkey);
+            } catch (IOException ex) {
+                System.out.println("WARNING: ShepherdPropertiesCache.watch() could not watch " + path + ": " + ex.toString());
+            }
+        }
+    }
+
+    private static void startWatcher() throws IOException {
+        watcher = FileSystems.getDefault().newWatchService();
+        final WatchService ws = watcher;
+        watcherThread = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    WatchKey wkey = null;
+                    try {
+                        wkey = ws.take();
+                    } catch (InterruptedException ex) {
+                        return;
+                    } catch (ClosedWatchServiceException ex) {
+                        return;
+                    }
+                    boolean changed = false;
+                    for (WatchEvent<?> ev : wkey.pollEvents()) {
+                        if (ev.kind() != StandardWatchEventKinds.OVERFLOW) System.out.println("ShepherdPropertiesCache: " + ev.kind().name() + " " + wkey.watchable() + "/" + ev.context());
+                        changed = true;
+                    }
+                    if (changed) refresh();
+                    if (!wkey.reset()) watchedDirs.values().remove(wkey);
+                }
+            }
+        }, "ShepherdPropertiesCache-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    //for StartupWildbook.contextDestroyed()
+    public static void cleanup() {
+        synchronized (ShepherdPropertiesCache.class) {
+            if (watcher != null) {
+                try {
+                    watcher.close();
+                } catch (IOException ex) {
+                    System.out.println("WARNING: ShepherdPropertiesCache.cleanup() " + ex.toString());
+                }
+            }
+            if (watcherThread != null) watcherThread.interrupt();
+            watcher = null;
+            watcherThread = null;
+            watchedDirs.clear();
+        }
+        cache.clear();
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+    public static long getMisses() {
+        return misses.get();
+    }
+    public static long getInvalidations() {
+        return invalidations.get();
+    }
+    public static int size() {
+        return cache.size();
+    }
+    public static int numWatchedDirectories() {
+        return watchedDirs.size();
+    }
+
+    public static String toStatusString() {
+        return "ShepherdPropertiesCache [size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+            + ", invalidations=" + getInvalidations() + ", watchedDirs=" + numWatchedDirectories() + "]";
+    }
+}
@@ -0,0 +1,565 @@
+package org.ecocean;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jdo.JDOHelper;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Query;
+import javax.jdo.Transaction;
+import javax.jdo.listener.DeleteLifecycleListener;
+import javax.jdo.listener.InstanceLifecycleEvent;
+import javax.jdo.listener.StoreLifecycleListener;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+/*
+    in-memory autocomplete for SiteSearch, so typing in the header search box does not run a
+    .matches('.*term.*') scan over MarkedIndividual per keystroke.  indexes individual IDs, nicknames and
+    alternate IDs, encounter catalog numbers, and usernames:
+      - a sorted term -> entries map, for exact and prefix matches
+      - a trigram -> entries map, for matches in the middle of a term (3+ characters typed).  encounter
+        catalog numbers (mostly uuids) are only in the prefix map; trigrams of every uuid would be most of the memory.
+    built in the background at startup (StartupWildbook); until it is ready SiteSearch queries the db as before.
+    kept current by a lifecycle listener on the PMF (see ShepherdPMF), which applies stores/deletes when
+    their transaction commits (and drops them if it rolls back).
+*/
+public class SiteSearchIndex {
+    public static final String TYPE_INDIVIDUAL = "individual";
+    public static final String TYPE_ENCOUNTER = "encounter";
+    public static final String TYPE_USER = "user";
+    //prefix matching stops after this many distinct terms (e.g. a single character typed)
+    public static final int MAX_PREFIX_TERMS = 1000;
+    //and substring matching after checking this many candidates
+    public static final int MAX_SUBSTRING_CHECKS = 5000;
+    //a trigram in more entries than this (like "ws-" when every ID starts WS-) is useless for narrowing down,
+    //and costly to keep current, so it is only marked as COMMON
+    public static final int MAX_TRIGRAM_ENTRIES = 10000;
+
+    private static final int SCORE_EXACT = 0;
+    private static final int SCORE_PREFIX = 1;
+    private static final int SCORE_SUBSTRING = 2;
+    private static final Entry[] NONE = new Entry[0];
+    private static final Entry[] COMMON = new Entry[0];
+
+    private static final int NOT_STARTED = 0;
+    private static final int BUILDING = 1;
+    private static final int READY = 2;
+
+    private static final ConcurrentHashMap<String, SiteSearchIndex> indexes = new ConcurrentHashMap<String, SiteSearchIndex>();
+
+    private final String context;
+    private volatile int state = NOT_STARTED;
+    //changes committed while building; applied on top of what the build loaded
+    private final Map<String, Entry> backlog = new LinkedHashMap<String, Entry>();
+    private volatile ConcurrentHashMap<String, Entry> byKey = new ConcurrentHashMap<String, Entry>();
+    private volatile ConcurrentSkipListMap<String, Entry[]> terms = new ConcurrentSkipListMap<String, Entry[]>();
+    private volatile ConcurrentHashMap<String, Entry[]> trigrams = new ConcurrentHashMap<String, Entry[]>();
+    private volatile long buildMillis = -1;
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
+
+
+    public static class Entry {
+        public final String type;
+        public final String id;
+        public final String label;
+        public final String species;
+        final String[] terms;  //lowercased
+        final boolean trigrams;
+
+        Entry(String type, String id, String label, String species, boolean trigrams, String... values) {
+            this.type = type;
+            this.id = id;
+            this.label = label;
+            this.species = species;
+            this.trigrams = trigrams;
+            Set<String> t = new LinkedHashSet<String>();
+            for (String v : values) {
+                if ((v == null) || v.trim().equals("")) continue;
+                t.add(normalize(v));
+            }
+            this.terms = t.toArray(new String[t.size()]);
+        }
+
+        String key() {
+            return SiteSearchIndex.key(type, id);
+        }
+
+        boolean contains(String q) {
+            for (String t : terms) {
+                if (t.contains(q)) return true;
+            }
+            return false;
+        }
+
+        int typeOrder() {
+            if (TYPE_INDIVIDUAL.equals(type)) return 0;
+            if (TYPE_ENCOUNTER.equals(type)) return 1;
+            return 2;
+        }
+
+        public String toString() {
+            return type + ":" + id;
+        }
+    }
+
+    public static Entry individualEntry(String individualID, String nickName, String alternateID, String species) {
+        if ((nickName != null) && (nickName.trim().equals("") || nickName.equals("Unassigned"))) nickName = null;  //getNickName() default
+        if ((alternateID != null) && alternateID.equals("None")) alternateID = null;  //getAlternateID() default
+        String label = (nickName == null) ? individualID : nickName + " (" + individualID + ")";
+        return new Entry(TYPE_INDIVIDUAL, individualID, label, species, true, individualID, nickName, alternateID);
+    }
+
+    public static Entry encounterEntry(String catalogNumber) {
+        return new Entry(TYPE_ENCOUNTER, catalogNumber, catalogNumber, null, false, catalogNumber);
+    }
+
+    public static Entry userEntry(String username, String fullName) {
+        String label = ((fullName == null) || fullName.trim().equals("")) ? username : fullName + " (" + username + ")";
+        return new Entry(TYPE_USER, username, label, null, true, username);
+    }
+
+    //null for anything we do not index
+    static Entry entryFor(Object obj) {
+        if (obj instanceof MarkedIndividual) {
+            MarkedIndividual ind = (MarkedIndividual)obj;
+            if (ind.getIndividualID() == null) return null;
+            return individualEntry(ind.getIndividualID(), ind.getNickName(), ind.getAlternateID(), ind.getGenusSpecies());
+        } else if (obj instanceof Encounter) {
+            Encounter enc = (Encounter)obj;
+            if (enc.getCatalogNumber() == null) return null;
+            return encounterEntry(enc.getCatalogNumber());
+        } else if (obj instanceof User) {
+            User user = (User)obj;
+            if (user.getUsername() == null) return null;
+            return userEntry(user.getUsername(), user.getFullName());
+        }
+        return null;
+    }
+
+    static String keyFor(Object obj) {
+        if (obj instanceof MarkedIndividual) return key(TYPE_INDIVIDUAL, ((MarkedIndividual)obj).getIndividualID());
+        if (obj instanceof Encounter) return key(TYPE_ENCOUNTER, ((Encounter)obj).getCatalogNumber());
+        if (obj instanceof User) return key(TYPE_USER, ((User)obj).getUsername());
+        return null;
+    }
+
+    static String key(String type, String id) {
+        return type + ":" + id;
+    }
+
+    static String normalize(String s) {
+        return s.trim().toLowerCase(Locale.ROOT);
+    }
+
+
+    private SiteSearchIndex(String context) {
+        this.context = context;
+    }
+
+    public static SiteSearchIndex get(String context) {
+        SiteSearchIndex idx = indexes.get(context);
+        if (idx != null) return idx;
+        idx = new SiteSearchIndex(context);
+        SiteSearchIndex prev = indexes.putIfAbsent(context, idx);
+        return (prev == null) ? idx : prev;
+    }
+
+    public boolean isReady() {
+        return state == READY;
+    }
+
+    public int size() {
+        return byKey.size();
+    }
+
+    //loads everything from the db on a background thread; from StartupWildbook
+    public static void startBuilding(final String context) {
+        final SiteSearchIndex idx = get(context);
+        synchronized (idx) {
+            if (idx.state != NOT_STARTED) return;
+            idx.state = BUILDING;
+        }
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    long t0 = System.currentTimeMillis();
+                    List<Entry> all = idx.loadAll();
+                    idx.load(all);
+                    idx.buildMillis = System.currentTimeMillis() - t0;
+                    System.out.println("SiteSearchIndex: " + context + " ready with " + idx.size() + " entries (" + idx.terms.size() + " terms, " + idx.trigrams.size() + " trigrams) in " + idx.buildMillis + "ms");
+                } catch (Exception ex) {
+                    System.out.println("SiteSearchIndex: building " + context + " failed; SiteSearch will keep querying the db");
+                    ex.printStackTrace();
+                    synchronized (idx) {
+                        idx.backlog.clear();
+                        idx.state = NOT_STARTED;
+                    }
+                }
+            }
+        }, "SiteSearchIndexBuilder_" + context);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Entry> loadAll() {
+        List<Entry> all = new ArrayList<Entry>();
+        Shepherd myShepherd = new Shepherd(context);
+        myShepherd.setAction("SiteSearchIndex.loadAll");
+        myShepherd.beginDBTransaction();
+        try {
+            Query q = myShepherd.getPM().newQuery(MarkedIndividual.class);
+            q.setResult("individualID, nickName, alternateid, genus, specificEpithet");
+            for (Object[] row : (Collection<Object[]>)q.execute()) {
+                if (row[0] == null) continue;
+                all.add(individualEntry((String)row[0], (String)row[1], (String)row[2], Util.taxonomyString((String)row[3], (String)row[4])));
+            }
+            q.closeAll();
+
+            q = myShepherd.getPM().newQuery(Encounter.class);
+            q.setResult("catalogNumber");
+            for (Object num : (Collection<Object>)q.execute()) {
+                if (num != null) all.add(encounterEntry((String)num));
+            }
+            q.closeAll();
+
+            q = myShepherd.getPM().newQuery(User.class);
+            q.setResult("username, fullName");
+            for (Object[] row : (Collection<Object[]>)q.execute()) {
+                if (row[0] != null) all.add(userEntry((String)row[0], (String)row[1]));
+            }
+            q.closeAll();
+        } finally {
+            myShepherd.rollbackDBTransaction();
+            myShepherd.closeDBTransaction();
+        }
+        return all;
+    }
+
+    //replaces the whole index with these entries (plus anything committed meanwhile), and marks it ready
+    public void load(Collection<Entry> all) {
+        Map<String, Entry> keys = new HashMap<String, Entry>(all.size() * 2);
+        for (Entry e : all) {
+            keys.put(e.key(), e);
+        }
+        Map<String, List<Entry>> termLists = new TreeMap<String, List<Entry>>();
+        Map<String, List<Entry>> triLists = new HashMap<String, List<Entry>>();
+        for (Entry e : keys.values()) {
+            for (String t : e.terms) {
+                addToList(termLists, t, e);
+            }
+            if (e.trigrams) {
+                for (String tri : trigramsOf(e.terms)) {
+                    addToList(triLists, tri, e);
+                }
+            }
+        }
+        ConcurrentSkipListMap<String, Entry[]> newTerms = new ConcurrentSkipListMap<String, Entry[]>();
+        for (Map.Entry<String, List<Entry>> me : termLists.entrySet()) {
+            newTerms.put(me.getKey(), me.getValue().toArray(NONE));
+        }
+        ConcurrentHashMap<String, Entry[]> newTrigrams = new ConcurrentHashMap<String, Entry[]>(triLists.size() * 2);
+        for (Map.Entry<String, List<Entry>> me : triLists.entrySet()) {
+            newTrigrams.put(me.getKey(), (me.getValue().size() > MAX_TRIGRAM_ENTRIES) ? COMMON : me.getValue().toArray(NONE));
+        }
+        synchronized (this) {
+            byKey = new ConcurrentHashMap<String, Entry>(keys);
+            terms = newTerms;
+            trigrams = newTrigrams;
+            state = READY;
+            for (Map.Entry<String, Entry> me : backlog.entrySet()) {
+                apply(me.getKey(), me.getValue());
+            }
+            backlog.clear();
+        }
+    }
+
+    private static void addToList(Map<String, List<Entry>> map, String key, Entry e) {
+        List<Entry> l = map.get(key);
+        if (l == null) {
+            l = new ArrayList<Entry>(2);
+            map.put(key, l);
+        }
+        l.add(e);
+    }
+
+    static Set<String> trigramsOf(String... strs) {
+        Set<String> tris = new LinkedHashSet<String>();
+        for (String s : strs) {
+            for (int i = 0 ; i + 3 <= s.length() ; i++) {
+                tris.add(s.substring(i, i + 3));
+            }
+        }
+        return tris;
+    }
+
+
+    public void put(Entry e) {
+        update(e.key(), e);
+    }
+
+    public void remove(String type, String id) {
+        update(key(type, id), null);
+    }
+
+    //entry null means removed
+    synchronized void update(String key, Entry e) {
+        if (state == NOT_STARTED) return;  //nothing to keep current (yet); the build will read the db
+        if (state == BUILDING) {
+            backlog.put(key, e);
+            return;
+        }
+        apply(key, e);
+    }
+
+    //writes are serialized (synchronized callers); readers see copy-on-write arrays, so never a half-updated one
+    private void apply(String key, Entry e) {
+        updates.incrementAndGet();
+        Entry old = (e == null) ? byKey.remove(key) : byKey.put(key, e);
+        if (old != null) {
+            for (String t : old.terms) {
+                removeFrom(terms, t, old);
+            }
+            if (old.trigrams) {
+                for (String tri : trigramsOf(old.terms)) {
+                    removeFrom(trigrams, tri, old);
+                }
+            }
+        }
+        if (e == null) return;
+        for (String t : e.terms) {
+            addTo(terms, t, e, Integer.MAX_VALUE);
+        }
+        if (e.trigrams) {
+            for (String tri : trigramsOf(e.terms)) {
+                addTo(trigrams, tri, e, MAX_TRIGRAM_ENTRIES);
+            }
+        }
+    }
+
+    private static void addTo(Map<String, Entry[]> map, String key, Entry e, int max) {
+        Entry[] cur = map.get(key);
+        if (cur == null) {
+            map.put(key, new Entry[]{e});
+            return;
+        }
+        if (cur == COMMON) return;
+        if (cur.length >= max) {
+            map.put(key, COMMON);
+            return;
+        }
+        Entry[] next = Arrays.copyOf(cur, cur.length + 1);
+        next[cur.length] = e;
+        map.put(key, next);
+    }
+
+    private static void removeFrom(Map<String, Entry[]> map, String key, Entry e) {
+        Entry[] cur = map.get(key);
+        if (cur == null) return;
+        int i = 0;
+        while ((i < cur.length) && (cur[i] != e)) i++;
+        if (i == cur.length) return;
+        if (cur.length == 1) {
+            map.remove(key);
+            return;
+        }
+        Entry[] next = new Entry[cur.length - 1];
+        System.arraycopy(cur, 0, next, 0, i);
+        System.arraycopy(cur, i + 1, next, i, cur.length - i - 1);
+        map.put(key, next);
+    }
+
+
+    /*
+        best matches for what has been typed so far: exact matches, then prefix matches, then (for 3+ characters)
+        matches anywhere in a term; individuals before encounters before users, shorter IDs first.
+        types null means all types.
+    */
+    public List<Entry> search(String term, int limit, Set<String> types) {
+        searches.incrementAndGet();
+        if ((term == null) || (limit < 1)) return Collections.emptyList();
+        String q = normalize(term);
+        if (q.equals("")) return Collections.emptyList();
+        Map<Entry, Hit> hits = new HashMap<Entry, Hit>();
+
+        int maxTerms = Math.min(MAX_PREFIX_TERMS, limit * 10);  //enough to rank from, without walking every ID starting with "a"
+        int scanned = 0;
+        for (Map.Entry<String, Entry[]> me : terms.subMap(q, true, q + Character.MAX_VALUE, false).entrySet()) {
+            int score = (me.getKey().length() == q.length()) ? SCORE_EXACT : SCORE_PREFIX;
+            for (Entry e : me.getValue()) {
+                if ((types != null) && !types.contains(e.type)) continue;
+                Hit h = hits.get(e);
+                if (h == null) {
+                    hits.put(e, new Hit(e, score));
+                } else if (score < h.score) {
+                    h.score = score;
+                }
+            }
+            if ((++scanned >= maxTerms) || (hits.size() >= maxTerms)) break;
+        }
+
+        //substring matches rank below all of these, so only look when there are not enough yet
+        if ((q.length() >= 3) && (hits.size() < limit)) {
+            //every entry containing q has all of its trigrams, so the rarest one is enough candidates to check.
+            //if they are all COMMON, then matches are everywhere and any entries will do
+            Entry[] candidates = null;
+            for (String tri : trigramsOf(q)) {
+                Entry[] p = trigrams.get(tri);
+                if (p == null) {
+                    candidates = NONE;
+                    break;
+                }
+                if (p == COMMON) continue;
+                if ((candidates == null) || (p.length < candidates.length)) candidates = p;
+            }
+            int checked = 0;
+            for (Entry e : (candidates == null) ? byKey.values() : Arrays.asList(candidates)) {
+                if (!e.trigrams || hits.containsKey(e) || ((types != null) && !types.contains(e.type))) continue;
+                if (e.contains(q)) hits.put(e, new Hit(e, SCORE_SUBSTRING));
+                if (++checked >= MAX_SUBSTRING_CHECKS) break;
+            }
+        }
+
+        List<Hit> sorted = new ArrayList<Hit>(hits.values());
+        Collections.sort(sorted);
+        List<Entry> found = new ArrayList<Entry>(Math.min(limit, sorted.size()));
+        for (Hit h : sorted) {
+            if (found.size() >= limit) break;
+            found.add(h.entry);
+        }
+        return found;
+    }
+
+    private static class Hit implements Comparable<Hit> {
+        final Entry entry;
+        final int typeOrder;
+        int score;
+
+        Hit(Entry entry, int score) {
+            this.entry = entry;
+            this.typeOrder = entry.typeOrder();
+            this.score = score;
+        }
+
+        public int compareTo(Hit other) {
+            if (score != other.score) return score - other.score;
+            if (typeOrder != other.typeOrder) return typeOrder - other.typeOrder;
+            if (entry.id.length() != other.entry.id.length()) return entry.id.length() - other.entry.id.length();
+            return entry.id.compareTo(other.entry.id);
+        }
+    }
+
+    public org.json.JSONObject toJSONObject() {
+        org.json.JSONObject j = new org.json.JSONObject();
+        j.put("context", context);
+        j.put("ready", isReady());
+        j.put("entries", byKey.size());
+        j.put("terms", terms.size());
+        j.put("trigrams", trigrams.size());
+        j.put("buildMillis", buildMillis);
+        j.put("searches", searches.get());
+        j.put("updates", updates.get());
+        return j;
+    }
+
+
+    //from ShepherdPMF, when the PMF for a context is made
+    public static void listen(String context, PersistenceManagerFactory pmf) {
+        pmf.addInstanceLifecycleListener(new Listener(get(context)), new Class[]{MarkedIndividual.class, Encounter.class, User.class});
+    }
+
+    /*
+        stores and deletes are collected per transaction and applied once it commits.  this uses the
+        transaction's Synchronization, which nothing else in wildbook sets; if something ever does, we just
+        apply right away instead of replacing it.
+    */
+    static class Listener implements StoreLifecycleListener, DeleteLifecycleListener {
+        private final SiteSearchIndex index;
+
+        Listener(SiteSearchIndex index) {
+            this.index = index;
+        }
+
+        public void preStore(InstanceLifecycleEvent event) {}
+
+        public void postStore(InstanceLifecycleEvent event) {
+            if (index.state == NOT_STARTED) return;
+            Object obj = event.getPersistentInstance();
+            try {
+                Entry e = entryFor(obj);
+                if (e != null) pending(obj, e.key(), e);
+            } catch (Exception ex) {
+                System.out.println("WARNING: SiteSearchIndex.postStore() on " + obj + " got " + ex.toString());
+            }
+        }
+
+        public void preDelete(InstanceLifecycleEvent event) {
+            if (index.state == NOT_STARTED) return;
+            Object obj = event.getPersistentInstance();
+            try {
+                String key = keyFor(obj);
+                if (key != null) pending(obj, key, null);
+            } catch (Exception ex) {
+                System.out.println("WARNING: SiteSearchIndex.preDelete() on " + obj + " got " + ex.toString());
+            }
+        }
+
+        public void postDelete(InstanceLifecycleEvent event) {}
+
+        private void pending(Object obj, String key, Entry e) {
+            PersistenceManager pm = JDOHelper.getPersistenceManager(obj);
+            Transaction tx = (pm == null) ? null : pm.currentTransaction();
+            if ((tx == null) || !tx.isActive()) {
+                index.update(key, e);
+                return;
+            }
+            Synchronization sync = tx.getSynchronization();
+            if (sync == null) {
+                sync = new Pending(index);
+                tx.setSynchronization(sync);
+            }
+            if (sync instanceof Pending) {
+                ((Pending)sync).changes.put(key, e);
+            } else {
+                index.update(key, e);
+            }
+        }
+    }
+
+    //stays on the transaction (a PM can run several), so it is emptied every time one finishes
+    static class Pending implements Synchronization {
+        private final SiteSearchIndex index;
+        final Map<String, Entry> changes = new LinkedHashMap<String, Entry>();
+
+        Pending(SiteSearchIndex index) {
+            this.index = index;
+        }
+
+        public void beforeCompletion() {}
+
+        public void afterCompletion(int status) {
+            if (status == Status.STATUS_COMMITTED) {
+                for (Map.Entry<String, Entry> me : changes.entrySet()) {
+                    index.update(me.getKey(), me.getValue());
+                }
+            }
+            changes.clear();
+        }
+    }
+
+}
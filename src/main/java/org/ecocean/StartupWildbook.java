@@ -13,12 +13,15 @@ import java.net.URL;
 
 import org.ecocean.*;
 import org.ecocean.queue.*;
+import org.ecocean.grid.GridManager;
 import org.ecocean.grid.MatchGraphCreationThread;
+import org.ecocean.grid.MatchGraphStore;
 //import org.ecocean.grid.ScanTaskCleanupThread;
 import org.ecocean.grid.SharkGridThreadExecutorService;
 import org.ecocean.media.LocalAssetStore;
 import org.ecocean.servlet.ServletUtilities;
 import org.ecocean.identity.IBEISIA;
+import org.ecocean.identity.IdentityServiceLog;
 
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -38,6 +41,9 @@ import java.util.concurrent.ThreadPoolExecutor;
 
 public class StartupWildbook implements ServletContextListener {
 
+    //file name of the match graph snapshot, in the data directory
+    public static final String MATCH_GRAPH_SNAPSHOT = "matchGraph.bin";
+
   // this function is automatically run on webapp init
   // it is attached via web.xml's <listener></listener>
   public static void initializeWildbook(HttpServletRequest request, Shepherd myShepherd) {
@@ -121,7 +127,9 @@ public class StartupWildbook implements ServletContextListener {
         }
 
         if (!skipInit(sce, "PRIMEIA")) IBEISIA.primeIA();
-        //createMatchGraph();
+        if (!skipInit(sce, "MATCHGRAPH") && CommonConfiguration.useSpotPatternRecognition("context0")) createMatchGraph(new File(ServletUtilities.dataDir("context0", sContext.getRealPath("/")), MATCH_GRAPH_SNAPSHOT));
+        if (!skipInit(sce, "IALOGINDEX")) IdentityServiceLog.startObjectIndexing("context0");
+        if (!skipInit(sce, "SITESEARCH")) SiteSearchIndex.startBuilding("context0");
 
         //TODO genericize starting "all" consumers ... configurable? how?  etc.
         startIAQueues("context0");
@@ -187,6 +195,13 @@ public class StartupWildbook implements ServletContextListener {
         System.out.println("* StartupWildbook destroyed called for: " + servletContextInfo(sContext));
         QueueUtil.cleanup();
         TwitterBot.cleanup();
+        ShepherdPropertiesCache.cleanup();
+        org.ecocean.security.CollaborationAuditLog.cleanup();
+        org.ecocean.ia.IAJobTracker.cleanup();
+        RestClient.cleanup();
+        MailDispatcher.cleanup();
+        org.ecocean.media.ImageDerivatives.cleanup();
+        if (GridManager.getMatchGraphStore() != null) GridManager.getMatchGraphStore().close();
     }
 
 
@@ -196,6 +211,13 @@ public class StartupWildbook implements ServletContextListener {
       es.execute(new MatchGraphCreationThread());
     }
 
+    //loads the match graph from its snapshot in the data directory if there is one, else builds it and writes one
+    public static void createMatchGraph(File snapshot){
+      System.out.println("Entering createMatchGraph StartupWildbook method with snapshot " + snapshot);
+      ThreadPoolExecutor es=SharkGridThreadExecutorService.getExecutorService();
+      es.execute(new MatchGraphCreationThread(new MatchGraphStore(snapshot)));
+    }
+
     private static boolean skipInit(ServletContextEvent sce, String extra) {
         String fname = "/tmp/WB_SKIP_INIT" + ((extra == null) ? "" : "_" + extra);
         boolean skip = new File(fname).exists();
@@ -58,6 +58,13 @@ public class EncounterLite implements java.io.Serializable {
   private String sex = "Unknown";
   private String encounterNumber = "";
   private String belongsToMarkedIndividual="";
+
+  //first-pass Groth triangles of the left and right patterns, built on demand by getGrothTriangles()
+  private transient volatile GrothMatcher.Triangles leftGrothTriangles;
+  private transient volatile GrothMatcher.Triangles rightGrothTriangles;
+  //spots normalized to the fiducial points for I3S, built on demand by getI3SPrint()
+  private transient volatile I3SMatcher.Print leftI3SPrint;
+  private transient volatile I3SMatcher.Print rightI3SPrint;
   String date = "";
 
   public EncounterLite() {
@@ -194,6 +201,81 @@ public class EncounterLite implements java.io.Serializable {
     return encounterNumber;
   }
 
+  //raw pattern data, used by GridWireFormat to ship patterns without java serialization
+  EncounterLite(String encounterNumber, String belongsToMarkedIndividual, String sex, String date, double size, double[][] patternArrays) {
+    this.encounterNumber = encounterNumber;
+    this.belongsToMarkedIndividual = belongsToMarkedIndividual;
+    this.sex = sex;
+    this.date = date;
+    this.size = size;
+    this.spotsX = patternArrays[0];
+    this.spotsY = patternArrays[1];
+    this.rightSpotsX = patternArrays[2];
+    this.rightSpotsY = patternArrays[3];
+    this.leftReferenceSpotsX = patternArrays[4];
+    this.leftReferenceSpotsY = patternArrays[5];
+    this.rightReferenceSpotsX = patternArrays[6];
+    this.rightReferenceSpotsY = patternArrays[7];
+  }
+
+  double[][] getPatternArrays() {
+    return new double[][]{spotsX, spotsY, rightSpotsX, rightSpotsY, leftReferenceSpotsX, leftReferenceSpotsY, rightReferenceSpotsX, rightReferenceSpotsY};
+  }
+
+  String getBelongsToMarkedIndividual() {
+    return belongsToMarkedIndividual;
+  }
+
+  String getSex() {
+    return sex;
+  }
+
+  double getSize() {
+    return size;
+  }
+
+  //cached, so a catalog pattern's triangles are only built once per set of parameters (null if there are no spots)
+  GrothMatcher.Triangles getGrothTriangles(boolean rightScan, double epsilon, double R, double C, double Sizelim) {
+    double[] x = rightScan ? rightSpotsX : spotsX;
+    double[] y = rightScan ? rightSpotsY : spotsY;
+    if ((x == null) || (y == null)) return null;
+    GrothMatcher.Triangles t = rightScan ? rightGrothTriangles : leftGrothTriangles;
+    if ((t != null) && t.isFor(x, y, epsilon, R, C, Sizelim)) return t;
+    t = GrothMatcher.firstPassTriangles(x, y, epsilon, R, C, Sizelim);
+    if (rightScan) {
+      rightGrothTriangles = t;
+    } else {
+      leftGrothTriangles = t;
+    }
+    return t;
+  }
+
+  //cached like the Groth triangles; rebuilt if the spots or reference spots have changed since
+  I3SMatcher.Print getI3SPrint(boolean rightScan) {
+    double[] x = rightScan ? rightSpotsX : spotsX;
+    double[] y = rightScan ? rightSpotsY : spotsY;
+    double[] refX = rightScan ? rightReferenceSpotsX : leftReferenceSpotsX;
+    double[] refY = rightScan ? rightReferenceSpotsY : leftReferenceSpotsY;
+    I3SMatcher.Print p = rightScan ? rightI3SPrint : leftI3SPrint;
+    if ((p != null) && p.isFor(x, y, refX, refY)) return p;
+    com.reijns.I3S.Point2D[] control = null;
+    if (x != null) control = rightScan ? getThreeRightFiducialPoints() : getThreeLeftFiducialPoints();
+    p = I3SMatcher.print(x, y, refX, refY, control);
+    if (rightScan) {
+      rightI3SPrint = p;
+    } else {
+      leftI3SPrint = p;
+    }
+    return p;
+  }
+
+  /**
+   * Same result as getPointsForBestMatch(newEnc's spots, ...), computed by GrothMatcher on primitive arrays with cached triangles.
+   */
+  public MatchObject getPointsForBestMatch(EncounterLite newEnc, double epsilon, double R, double Sizelim, double maxTriangleRotation, double C, boolean secondRun, boolean rightScan) {
+    return GrothMatcher.match(this, newEnc, epsilon, R, Sizelim, maxTriangleRotation, C, rightScan);
+  }
+
   public MatchObject getPointsForBestMatch(SuperSpot[] newspotsTemp, double epsilon, double R, double Sizelim, double maxTriangleRotation, double C, boolean secondRun, boolean rightScan) {
     System.out.println("\nNow comparing against encounter " + encounterNumber + " of " + belongsToMarkedIndividual + "...");
     try {
@@ -1362,8 +1444,16 @@ public class EncounterLite implements java.io.Serializable {
 
   /**
    * This method allows us to use the I3S match algorithm as well.
+   * Computed by I3SMatcher; same score as i3sScanLegacy().
    */
   public I3SMatchObject i3sScan(EncounterLite newEnc, boolean scanRight) {
+    return I3SMatcher.match(this, newEnc, scanRight);
+  }
+
+  /**
+   * The original I3S comparison through com.reijns.I3S.Compare, kept to check I3SMatcher against.
+   */
+  public I3SMatchObject i3sScanLegacy(EncounterLite newEnc, boolean scanRight) {
 
     //superSpot objects are my equivalent in my DB of Point2D
     //these spots are for the unknown encounter
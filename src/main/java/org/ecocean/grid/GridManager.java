@@ -27,6 +27,7 @@ import org.ecocean.Shepherd;
 import org.ecocean.servlet.ServletUtilities;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -54,9 +55,7 @@ public class GridManager {
   private long gridStatsRefreshPeriod = 300000;
   private int numScanTasks = 0;
   private int numScanWorkItems = 0;
-  private int numCollisions = 0;
   public int maxGroupSize = 100;
-  public int numCompletedWorkItems = 0;
   
   //public ConcurrentHashMap<String,Integer> scanTaskSizes=new ConcurrentHashMap<String, Integer>();
 
@@ -69,15 +68,20 @@ public class GridManager {
   private String secondRun = "true";
   
   private static ConcurrentHashMap<String,EncounterLite> matchGraph=new ConcurrentHashMap<String, EncounterLite>();
-  private static int numRightPatterns=0;
-  private static int numLeftPatterns=0;
+  //kept up to date on every add/remove rather than recounted over the whole graph
+  private static final AtomicInteger numRightPatterns=new AtomicInteger();
+  private static final AtomicInteger numLeftPatterns=new AtomicInteger();
+  //on-disk copy of the match graph, if one has been set up
+  private static volatile MatchGraphStore matchGraphStore;
+  //candidate indexes over the match graph's left and right patterns, built on first use by getPatternIndex()
+  private static volatile PatternIndex leftPatternIndex;
+  private static volatile PatternIndex rightPatternIndex;
 
 
-  //hold uncompleted scanWorkItems
-  private ArrayList<ScanWorkItem> toDo = new ArrayList<ScanWorkItem>();
-
-  //hold incomplete scanWorkItems
-  private ArrayList<ScanWorkItemResult> done = new ArrayList<ScanWorkItemResult>();
+  //holds uncompleted scanWorkItems and the results checked in for them, indexed by work item and task
+  private final WorkItemQueue workItems = new WorkItemQueue();
+  //task ID -> the best results so far, for the scan tasks that asked for one with startScanResults()
+  private final ConcurrentHashMap<String, ScanResultStore.Collector> scanResults = new ConcurrentHashMap<String, ScanResultStore.Collector>();
 
   public GridManager() {
   }
@@ -91,11 +95,11 @@ public class GridManager {
   }
 
   public int getNumCollisions() {
-    return numCollisions;
+    return workItems.getNumCollisions();
   }
 
-  public synchronized void reportCollision() {
-    numCollisions++;
+  public void reportCollision() {
+    workItems.addCollision();
   }
 
   public void setNodeTimeout(long timeout) {
@@ -331,18 +335,19 @@ public class GridManager {
   }
 
   public int getNumCompletedWorkItems() {
-    return numCompletedWorkItems;
+    return workItems.getNumCompleted();
   }
 
-  public synchronized void incrementCompletedWorkItems(int numCompleted) {
-    numCompletedWorkItems += numCompleted;
+  public void incrementCompletedWorkItems(int numCompleted) {
+    workItems.addCompleted(numCompleted);
   }
 
   public double getCollisionRatePercentage() {
+    int numCompletedWorkItems = getNumCompletedWorkItems();
     if (numCompletedWorkItems == 0) {
       return 0;
     } else {
-      return (100 * numCollisions / numCompletedWorkItems);
+      return (100 * getNumCollisions() / numCompletedWorkItems);
     }
   }
 
@@ -371,237 +376,124 @@ public class GridManager {
   }
 
 
+  //snapshot copies; the live store is workItems
   public ArrayList<ScanWorkItem> getIncompleteWork() {
-    return toDo;
+    return workItems.getAllItems();
   }
 
   public ArrayList<ScanWorkItemResult> getCompletedWork() {
-    return done;
+    return workItems.getAllResults();
   }
 
   public void removeAllCompletedWorkItems() {
-    done = new ArrayList<ScanWorkItemResult>();
+    workItems.removeAllResults();
+    scanResults.clear();
   }
 
   public void removeAllWorkItems() {
-    toDo = new ArrayList<ScanWorkItem>();
+    workItems.removeAllItems();
   }
 
-  public synchronized void addWorkItem(ScanWorkItem swi) {
-    toDo.add(swi);
+  public void addWorkItem(ScanWorkItem swi) {
+    workItems.add(swi);
   }
 
-  public synchronized ArrayList<ScanWorkItem> getWorkItems(int num) {
-    ArrayList<ScanWorkItem> returnItems = new ArrayList<ScanWorkItem>();
-    int iterNum = toDo.size();
-    boolean cont = true;
-    for (int i = 0; i < iterNum; i++) {
-      if (cont) {
-        ScanWorkItem item = toDo.get(i);
-        if ((!item.isCheckedOut(checkoutTimeout)) && (!item.isDone())) {
-          item.setStartTime(System.currentTimeMillis());
-          returnItems.add(item);
-          if (returnItems.size() >= num) {
-            cont = false;
-          }
-        }
-      }
-    }
-    if (returnItems.size() > 0) {
-      return returnItems;
-    } else {
-      for (int i = 0; i < iterNum; i++) {
-        if (cont) {
-          ScanWorkItem item = toDo.get(i);
-          if (!item.isDone()) {
-            //item.setStartTime(System.currentTimeMillis());
-            returnItems.add(item);
-            if (returnItems.size() >= num) {
-              cont = false;
-            }
-          }
-        }
-      }
-    }
-    return returnItems;
+  //tracked like any other work item, but never checked out to a grid node
+  public void addLocalWorkItem(ScanWorkItem swi) {
+    workItems.add(swi, false);
+  }
+
+  public ArrayList<ScanWorkItem> getWorkItems(int num) {
+    return workItems.checkout(num, checkoutTimeout);
   }
 
   public void removeWorkItem(String uniqueNumberWorkItem) {
-    int iter = toDo.size();
-    for (int i = 0; i < iter; i++) {
-      if (toDo.get(i).getUniqueNumber().equals(uniqueNumberWorkItem)) {
-        toDo.remove(i);
-        i--;
-        iter--;
-      }
-    }
+    workItems.remove(uniqueNumberWorkItem);
   }
 
-  public synchronized void removeWorkItemsForTask(String taskID) {
-    for (int i = 0; i < toDo.size(); i++) {
-      if (toDo.get(i).getTaskIdentifier().equals(taskID)) {
-        toDo.remove(i);
-        i--;
-      }
-    }
+  public void removeWorkItemsForTask(String taskID) {
+    workItems.removeItemsForTask(taskID);
   }
 
   public void removeCompletedWorkItemsForTask(String taskID) {
-    //int iter=done.size();
-    try{
-      for (int i = 0; i < done.size(); i++) {
-        if ((done.get(i)!=null)&&(done.get(i).getUniqueNumberTask().equals(taskID))) {
-          done.remove(i);
-          i--;
-          //iter--;
-        }
-      }
-    }
-    catch(Exception e){e.printStackTrace();}
+    workItems.removeResultsForTask(taskID);
+    scanResults.remove(taskID);
   }
 
-  public synchronized void checkinResult(ScanWorkItemResult swir) {
+  public void checkinResult(ScanWorkItemResult swir) {
     try{
-    
-      //System.out.println("GM checking in a scan result!");
-  
-      if (!doneContains(swir)) {
-        done.add(swir);
-        numCompletedWorkItems++;
-      } 
-      else {
-        numCollisions++;
-      }
-      //if(!done.contains(swir)){done.add(swir);}
-  
-      if ((!swir.getUniqueNumberTask().equals("TuningTask")) && (!swir.getUniqueNumberTask().equals("FalseMatchTask"))) {
-        removeWorkItem(swir.getUniqueNumberWorkItem());
-      } 
-      else {
-        ScanWorkItem swi = getWorkItem(swir.getUniqueNumberWorkItem());
-        swi.setDone(true);
+      //tuning tasks reuse their work items, so those just get marked done
+      boolean removeItem = (!swir.getUniqueNumberTask().equals("TuningTask")) && (!swir.getUniqueNumberTask().equals("FalseMatchTask"));
+      boolean isNew = workItems.checkin(swir, removeItem);
+      if (isNew) {
+        ScanResultStore.Collector collector = scanResults.get(swir.getUniqueNumberTask());
+        if (collector != null) collector.add(swir.getResult());
       }
     }
     catch(Exception e){e.printStackTrace();}
   }
 
   public boolean doneContains(ScanWorkItemResult swir) {
-    boolean hasit = false;
-    try{
-      int iter = done.size();
-      for (int i = 0; i < iter; i++) {
-        if ((done.get(i)!=null)&&(done.get(i).getUniqueNumberWorkItem().equals(swir.getUniqueNumberWorkItem()))) {
-          hasit = true;
-        }
-      }
-      }
-    catch(Exception e){}
-    return hasit;
+    return workItems.containsResult(swir.getUniqueNumberTask(), swir.getUniqueNumberWorkItem());
   }
 
   public boolean toDoContains(ScanWorkItem swi) {
-    boolean hasit = false;
-    int iter = toDo.size();
-    for (int i = 0; i < iter; i++) {
-      if (toDo.get(i).getUniqueNumber().equals(swi.getUniqueNumber())) {
-        hasit = true;
-      }
-    }
-    return hasit;
+    return workItems.containsItem(swi.getUniqueNumber());
   }
 
   public int getNumWorkItemsCompleteForTask(String taskID) {
-    int num = 0;
-    try{
-      if(done==null){done = new ArrayList<ScanWorkItemResult>();}
-      int iter = done.size();
-      for (int i = 0; i < iter; i++) {
-        if ((done.get(i)!=null)&&(done.get(i).getUniqueNumberTask().equals(taskID))) {
-          num++;
-        }
-      }
-      }
-    catch(Exception e){}
-    return num;
+    return workItems.getNumCompleteForTask(taskID);
   }
 
   public int getNumWorkItemsIncompleteForTask(String taskID) {
-    int num = 0;
-    try{
-      if(toDo==null){toDo = new ArrayList<ScanWorkItem>();}
-    	int iter = toDo.size();
-    	for (int i = 0; i < toDo.size(); i++) {
-      		if ((toDo.get(i)!=null)&&(toDo.get(i).getTaskIdentifier().equals(taskID))) {
-      		  	num++;
-      		}
-    	}
-	}
-	catch(Exception e){e.printStackTrace();}
-    return num;
+    return workItems.getNumIncompleteForTask(taskID);
   }
 
   public ArrayList<ScanWorkItem> getRemainingWorkItemsForTask(String taskID) {
-    ArrayList<ScanWorkItem> list = new ArrayList<ScanWorkItem>();
-    if(toDo==null){toDo = new ArrayList<ScanWorkItem>();}
-    int iter = toDo.size();
-    for (int i = 0; i < iter; i++) {
-      if (toDo.get(i).getTaskIdentifier().equals(taskID)) {
-        list.add(toDo.get(i));
-      }
-    }
-    return list;
+    return workItems.getItemsForTask(taskID);
   }
 
 
   public ArrayList<MatchObject> getMatchObjectsForTask(String taskID) {
     ArrayList<MatchObject> list = new ArrayList<MatchObject>();
-    int iter = done.size();
-    for (int i = 0; i < iter; i++) {
-      try{
-        if ((done.get(i)!=null)&&(done.get(i).getUniqueNumberTask().equals(taskID))) {
-          list.add(done.get(i).getResult());
-        }
-      }
-      catch(Exception e) {
-        //do nothing for now
-      }
+    for (ScanWorkItemResult swir : workItems.getResultsForTask(taskID)) {
+      list.add(swir.getResult());
     }
     return list;
   }
 
+  /**
+   * Keeps the best topK results of a task as they are checked in (see ScanResultStore), so writing them out
+   * doesn't have to sort every MatchObject.
+   */
+  public void startScanResults(String taskID, int topK) {
+    scanResults.putIfAbsent(taskID, new ScanResultStore.Collector(topK));
+  }
+
+  //null if startScanResults() wasn't called for the task (or it has been cleaned up)
+  public ScanResultStore.Collector getScanResults(String taskID) {
+    return scanResults.get(taskID);
+  }
+
   public ArrayList<ScanWorkItemResult> getResultsForTask(String taskID) {
-    ArrayList<ScanWorkItemResult> list = new ArrayList<ScanWorkItemResult>();
-    int iter = done.size();
-    for (int i = 0; i < iter; i++) {
-      if (done.get(i).getUniqueNumberTask().equals(taskID)) {
-        list.add(done.get(i));
-      }
-    }
-    return list;
+    return workItems.getResultsForTask(taskID);
   }
 
   public int getNumWorkItemsAndResults() {
-    if(toDo==null){toDo = new ArrayList<ScanWorkItem>();}
-    if(done==null){done = new ArrayList<ScanWorkItemResult>();}
-    return (done.size() + toDo.size());
+    return (workItems.numResults() + workItems.numItems());
   }
 
   public int getToDoSize() {
-    return toDo.size();
+    return workItems.numItems();
   }
 
   public int getDoneSize() {
-    return done.size();
+    return workItems.numResults();
   }
 
   public ScanWorkItem getWorkItem(String uniqueNum) {
-    int iter = toDo.size();
-    ScanWorkItem swi = new ScanWorkItem();
-    for (int i = 0; i < iter; i++) {
-      if (toDo.get(i).getUniqueNumber().equals(uniqueNum)) {
-        return toDo.get(i);
-      }
-    }
+    ScanWorkItem swi = workItems.getItem(uniqueNum);
+    if (swi == null) return new ScanWorkItem();
     return swi;
   }
 
@@ -647,38 +539,85 @@ public class GridManager {
   
   public static ConcurrentHashMap<String,EncounterLite> getMatchGraph(){return matchGraph;}
   public static void addMatchGraphEntry(String elID,EncounterLite el){
-    matchGraph.put(elID, el);
-    resetPatternCounts();
+    EncounterLite previous=matchGraph.put(elID, el);
+    countPatterns(previous, -1);
+    countPatterns(el, 1);
+    MatchGraphStore store=matchGraphStore;
+    if(store!=null){store.put(elID, el, matchGraph);}
+    indexPattern(elID, el);
   }
   public static void removeMatchGraphEntry(String elID){
-    if(matchGraph.containsKey(elID)){
-      matchGraph.remove(elID);
+    EncounterLite previous=matchGraph.remove(elID);
+    if(previous!=null){
+      countPatterns(previous, -1);
+      MatchGraphStore store=matchGraphStore;
+      if(store!=null){store.remove(elID, matchGraph);}
+      indexPattern(elID, null);
     }
-    resetPatternCounts();
    }
   public static EncounterLite getMatchGraphEncounterLiteEntry(String elID){
     return matchGraph.get(elID);
   }
-  public static synchronized int getNumRightPatterns(){return numRightPatterns;}
-  public static synchronized int getNumLeftPatterns(){return numLeftPatterns;}
-  
+  public static int getNumRightPatterns(){return numRightPatterns.get();}
+  public static int getNumLeftPatterns(){return numLeftPatterns.get();}
+
+  public static MatchGraphStore getMatchGraphStore(){return matchGraphStore;}
+  public static void setMatchGraphStore(MatchGraphStore store){matchGraphStore=store;}
+
   /*
-   * Convenience method to speed ScanWorkItemCreationThread by always maintaining and recalculating accurate counts of potential patterns to compare against.
+   * Adds entries read back from the MatchGraphStore, without journaling them again.
    */
-  private static synchronized void resetPatternCounts(){
-    numLeftPatterns=0;
-    numRightPatterns=0;
-    Enumeration<String> keys=getMatchGraph().keys();
-    while(keys.hasMoreElements()){
-      String key=keys.nextElement();
-      EncounterLite el=getMatchGraphEncounterLiteEntry(key);
-      if((el.getSpots()!=null)&&(el.getSpots().size()>0)){numLeftPatterns++;}
-      if((el.getRightSpots()!=null)&&(el.getRightSpots().size()>0)){numRightPatterns++;}
+  static void loadMatchGraphEntries(java.util.Map<String,EncounterLite> entries){
+    for(java.util.Map.Entry<String,EncounterLite> entry:entries.entrySet()){
+      EncounterLite previous=matchGraph.put(entry.getKey(), entry.getValue());
+      countPatterns(previous, -1);
+      countPatterns(entry.getValue(), 1);
+      indexPattern(entry.getKey(), entry.getValue());
     }
-    
+  }
+
+  /*
+   * Keeps the counts of potential patterns to compare against (used to size scans) current by applying one
+   * entry's contribution, so ScanWorkItemCreationThread never waits on a recount of the whole graph.
+   */
+  private static void countPatterns(EncounterLite el, int delta){
+    if(el==null){return;}
+    if((el.getSpots()!=null)&&(el.getSpots().size()>0)){numLeftPatterns.addAndGet(delta);}
+    if((el.getRightSpots()!=null)&&(el.getRightSpots().size()>0)){numRightPatterns.addAndGet(delta);}
   }
   
-  public void clearDoneItems(){done = new ArrayList<ScanWorkItemResult>();}
+  /*
+   * The candidate index for one side of the match graph, built from the whole graph the first time it's asked
+   * for (or when the Groth parameters have changed) and kept current by add/removeMatchGraphEntry after that.
+   */
+  public synchronized PatternIndex getPatternIndex(boolean rightSide){
+    double eps=Double.parseDouble(epsilon);
+    double maxR=Double.parseDouble(R);
+    double maxC=Double.parseDouble(C);
+    double sizelim=Double.parseDouble(Sizelim);
+    PatternIndex index=rightSide ? rightPatternIndex : leftPatternIndex;
+    if((index==null)||!index.isFor(rightSide, eps, maxR, maxC, sizelim)){
+      long start=System.currentTimeMillis();
+      index=new PatternIndex(rightSide, eps, maxR, maxC, sizelim);
+      //set first so entries added while we build are indexed too (put replaces, so doubles are harmless)
+      if(rightSide){rightPatternIndex=index;}
+      else{leftPatternIndex=index;}
+      index.putAll(matchGraph);
+      System.out.println("GridManager: indexed "+index.size()+(rightSide ? " right" : " left")+" patterns in "+(System.currentTimeMillis()-start)+"ms");
+    }
+    return index;
+  }
+
+  private static void indexPattern(String elID, EncounterLite el){
+    PatternIndex[] indexes={leftPatternIndex, rightPatternIndex};
+    for(PatternIndex index:indexes){
+      if(index==null){continue;}
+      if(el==null){index.remove(elID);}
+      else{index.put(elID, el);}
+    }
+  }
+
+  public void clearDoneItems(){workItems.removeAllResults();scanResults.clear();}
     
 
 }
@@ -21,6 +21,7 @@ package org.ecocean.grid;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class GridNode {
 
@@ -42,6 +43,9 @@ public class GridNode {
   //whether this node is dedicated to a single scanTask (true) or running as a generic node (false)
   public boolean targeted = false;
 
+  //patterns (encounter number -> fingerprint) this node has been sent via GridWireFormat and so has cached
+  private ConcurrentHashMap<String, Integer> sentPatterns = new ConcurrentHashMap<String, Integer>();
+
 
   public GridNode(HttpServletRequest request, int startGroupSize) {
     String nodeIdentifier = request.getParameter("nodeIdentifier");
@@ -136,6 +140,15 @@ public class GridNode {
     groupSize = size;
   }
 
+  public ConcurrentHashMap<String, Integer> getSentPatterns() {
+    return sentPatterns;
+  }
+
+  //e.g. the node lost its cache, or a batch never made it there
+  public void clearSentPatterns() {
+    sentPatterns.clear();
+  }
+
   public String getDisplayCountry() {
     return locale.getDisplayCountry();
   }
@@ -0,0 +1,462 @@
+package org.ecocean.grid;
+
+import com.reijns.I3S.Pair;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Compact, versioned binary format for the work exchanged between ScanAppletSupport/ScanWorkItemResultsHandler
+ * and grid nodes (WorkAppletHeadlessEpic), used instead of java serialization of Vectors of ScanWorkItems
+ * and ScanWorkItemResults when a node asks for it with the <code>wire=binary</code> parameter.
+ * <p>
+ * A work batch holds a pattern table, a table of algorithm parameter sets and a table of task IDs; each work
+ * item is then just its ID plus indexes into those tables.  A pattern's spot arrays are sent in full only the
+ * first time a given node needs it (tracked in GridNode.getSentPatterns()); after that it is referred to by
+ * encounter number and fingerprint, and the node takes it from its PatternCache.
+ * <p>
+ * Results go back as packed score records (MatchObject values, VertexPointMatch scores and I3S pairs).
+ * Spot coordinates and scores are written as full doubles so results are identical to the serialized ones.
+ */
+public class GridWireFormat {
+
+  public static final String CONTENT_TYPE = "application/x-wildbook-grid";
+  public static final String PARAMETER = "wire";
+  public static final String PARAMETER_VALUE = "binary";
+
+  private static final int MAGIC = 0x57424752;  //"WBGR"
+  public static final byte VERSION = 1;
+
+  private static final byte TYPE_WORK = 1;
+  private static final byte TYPE_RESULTS = 2;
+
+  private static final byte PATTERN_FULL = 0;
+  private static final byte PATTERN_REF = 1;
+
+  private static final int FLAG_RIGHT_SCAN = 1;
+  private static final int FLAG_SECOND_RUN = 2;
+  private static final int FLAG_PLACEHOLDER = 4;
+
+
+  /**
+   * Thrown on the node when a batch refers to a pattern it does not have cached (e.g. it restarted or
+   * a previous batch got lost); the node should clear its cache and ask again with resetPatternCache=true.
+   */
+  public static class MissingPatternException extends IOException {
+    public MissingPatternException(String msg) {
+      super(msg);
+    }
+  }
+
+
+  /**
+   * Node-side cache of patterns sent by one server, keyed by encounter number.
+   */
+  public static class PatternCache {
+    private final ConcurrentHashMap<String, EncounterLite> patterns = new ConcurrentHashMap<String, EncounterLite>();
+    private final ConcurrentHashMap<String, Integer> fingerprints = new ConcurrentHashMap<String, Integer>();
+
+    public EncounterLite get(String encounterNumber, int fingerprint) {
+      Integer fp = fingerprints.get(encounterNumber);
+      if ((fp == null) || (fp.intValue() != fingerprint)) return null;
+      return patterns.get(encounterNumber);
+    }
+
+    public void put(String encounterNumber, int fingerprint, EncounterLite el) {
+      patterns.put(encounterNumber, el);
+      fingerprints.put(encounterNumber, fingerprint);
+    }
+
+    public int size() {
+      return patterns.size();
+    }
+
+    public void clear() {
+      patterns.clear();
+      fingerprints.clear();
+    }
+  }
+
+
+  public static boolean isRequested(javax.servlet.http.HttpServletRequest request) {
+    return PARAMETER_VALUE.equals(request.getParameter(PARAMETER)) || CONTENT_TYPE.equals(request.getContentType());
+  }
+
+  //changes whenever anything writePattern() sends changes: the spots, the reference spots, or the individual, sex, date or size
+  public static int fingerprint(EncounterLite el) {
+    int h = 17;
+    for (double[] arr : el.getPatternArrays()) {
+      h = 31 * h + Arrays.hashCode(arr);
+    }
+    h = 31 * h + hash(el.getBelongsToMarkedIndividual());
+    h = 31 * h + hash(el.getSex());
+    h = 31 * h + hash(el.getDate());
+    long size = Double.doubleToLongBits(el.getSize());
+    h = 31 * h + (int) (size ^ (size >>> 32));
+    return h;
+  }
+
+  private static int hash(String s) {
+    return (s == null) ? 0 : s.hashCode();
+  }
+
+
+  /**
+   * Writes a batch of work items.
+   *
+   * @param sentPatterns the receiving node's patterns (encounter number -> fingerprint); updated with what this batch sends in full.
+   *                     Pass null to send every pattern in full.
+   */
+  public static void writeWorkItems(OutputStream os, List<ScanWorkItem> items, Map<String, Integer> sentPatterns) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    out.writeByte(TYPE_WORK);
+
+    //build the tables
+    Map<EncounterLite, Integer> patternIndex = new HashMap<EncounterLite, Integer>();
+    List<EncounterLite> patterns = new ArrayList<EncounterLite>();
+    Map<String, Integer> paramIndex = new HashMap<String, Integer>();
+    List<ScanWorkItem> paramSets = new ArrayList<ScanWorkItem>();
+    Map<String, Integer> taskIndex = new HashMap<String, Integer>();
+    List<String> tasks = new ArrayList<String>();
+    for (ScanWorkItem swi : items) {
+      if (swi.getNewEncounterLite() == null) continue;  //placeholder
+      indexOf(swi.getNewEncounterLite(), patternIndex, patterns);
+      indexOf(swi.getExistingEncounterLite(), patternIndex, patterns);
+      String pkey = paramKey(swi);
+      if (!paramIndex.containsKey(pkey)) {
+        paramIndex.put(pkey, paramSets.size());
+        paramSets.add(swi);
+      }
+      indexOf(swi.getTaskIdentifier(), taskIndex, tasks);
+    }
+
+    out.writeInt(patterns.size());
+    for (EncounterLite el : patterns) {
+      int fp = fingerprint(el);
+      Integer had = (sentPatterns == null) ? null : sentPatterns.get(el.getEncounterNumber());
+      if ((had != null) && (had.intValue() == fp)) {
+        out.writeByte(PATTERN_REF);
+        out.writeUTF(el.getEncounterNumber());
+        out.writeInt(fp);
+      } else {
+        out.writeByte(PATTERN_FULL);
+        out.writeUTF(el.getEncounterNumber());
+        out.writeInt(fp);
+        writePattern(out, el);
+        if (sentPatterns != null) sentPatterns.put(el.getEncounterNumber(), fp);
+      }
+    }
+
+    out.writeInt(paramSets.size());
+    for (ScanWorkItem swi : paramSets) {
+      out.writeDouble(swi.epsilon.doubleValue());
+      out.writeDouble(swi.R.doubleValue());
+      out.writeDouble(swi.Sizelim.doubleValue());
+      out.writeDouble(swi.maxTriangleRotation.doubleValue());
+      out.writeDouble(swi.C.doubleValue());
+    }
+
+    writeStrings(out, tasks);
+
+    out.writeInt(items.size());
+    for (ScanWorkItem swi : items) {
+      int flags = (swi.isRightScan() ? FLAG_RIGHT_SCAN : 0);
+      if (swi.getNewEncounterLite() == null) {
+        out.writeByte(flags | FLAG_PLACEHOLDER);
+        out.writeInt(swi.getTotalWorkItemsInTask());
+        out.writeInt(swi.getWorkItemsCompleteInTask());
+        continue;
+      }
+      if (swi.isSecondRun()) flags |= FLAG_SECOND_RUN;
+      out.writeByte(flags);
+      out.writeInt(swi.getTotalWorkItemsInTask());
+      out.writeInt(swi.getWorkItemsCompleteInTask());
+      out.writeUTF(swi.getUniqueNumber());
+      out.writeShort(taskIndex.get(swi.getTaskIdentifier()));
+      out.writeShort(paramIndex.get(paramKey(swi)));
+      out.writeInt(patternIndex.get(swi.getNewEncounterLite()));
+      out.writeInt(patternIndex.get(swi.getExistingEncounterLite()));
+    }
+    out.flush();
+  }
+
+  public static Vector<ScanWorkItem> readWorkItems(InputStream is, PatternCache cache) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+    readHeader(in, TYPE_WORK);
+
+    int numPatterns = in.readInt();
+    EncounterLite[] patterns = new EncounterLite[numPatterns];
+    String missing = null;
+    for (int i = 0; i < numPatterns; i++) {
+      byte kind = in.readByte();
+      String id = in.readUTF();
+      int fp = in.readInt();
+      if (kind == PATTERN_FULL) {
+        patterns[i] = readPattern(in, id);
+        cache.put(id, fp, patterns[i]);
+      } else {
+        patterns[i] = cache.get(id, fp);
+        if (patterns[i] == null) missing = id;
+      }
+    }
+
+    int numParams = in.readInt();
+    double[][] params = new double[numParams][];
+    for (int i = 0; i < numParams; i++) {
+      params[i] = new double[]{in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble()};
+    }
+
+    List<String> tasks = readStrings(in);
+
+    int numItems = in.readInt();
+    Vector<ScanWorkItem> items = new Vector<ScanWorkItem>(numItems);
+    for (int i = 0; i < numItems; i++) {
+      int flags = in.readByte();
+      int total = in.readInt();
+      int complete = in.readInt();
+      ScanWorkItem swi;
+      if ((flags & FLAG_PLACEHOLDER) != 0) {
+        swi = new ScanWorkItem();
+        swi.rightScan = ((flags & FLAG_RIGHT_SCAN) != 0);
+      } else {
+        String uniqueNum = in.readUTF();
+        String taskID = tasks.get(in.readShort());
+        double[] p = params[in.readShort()];
+        EncounterLite newEnc = patterns[in.readInt()];
+        EncounterLite existingEnc = patterns[in.readInt()];
+        swi = new ScanWorkItem(newEnc, existingEnc, uniqueNum, taskID, p[0], p[1], p[2], p[3], p[4],
+          ((flags & FLAG_SECOND_RUN) != 0), ((flags & FLAG_RIGHT_SCAN) != 0));
+      }
+      swi.setTotalWorkItemsInTask(total);
+      swi.setWorkItemsCompleteInTask(complete);
+      items.add(swi);
+    }
+    if (missing != null) throw new MissingPatternException("pattern for encounter " + missing + " is not in the local cache");
+    return items;
+  }
+
+
+  public static void writeResults(OutputStream os, List<ScanWorkItemResult> results) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    out.writeByte(TYPE_RESULTS);
+
+    Map<String, Integer> taskIndex = new HashMap<String, Integer>();
+    List<String> tasks = new ArrayList<String>();
+    for (ScanWorkItemResult swir : results) {
+      indexOf(swir.getUniqueNumberTask(), taskIndex, tasks);
+    }
+    writeStrings(out, tasks);
+
+    out.writeInt(results.size());
+    for (ScanWorkItemResult swir : results) {
+      out.writeShort(taskIndex.get(swir.getUniqueNumberTask()));
+      out.writeUTF(swir.getUniqueNumberWorkItem());
+      MatchObject mo = swir.getResult();
+      out.writeBoolean(mo != null);
+      if (mo != null) writeMatchObject(out, mo);
+    }
+    out.flush();
+  }
+
+  public static Vector<ScanWorkItemResult> readResults(InputStream is) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+    readHeader(in, TYPE_RESULTS);
+    List<String> tasks = readStrings(in);
+    int n = in.readInt();
+    Vector<ScanWorkItemResult> results = new Vector<ScanWorkItemResult>(n);
+    for (int i = 0; i < n; i++) {
+      String taskID = tasks.get(in.readShort());
+      String wiUniqueNum = in.readUTF();
+      MatchObject mo = in.readBoolean() ? readMatchObject(in) : null;
+      results.add(new ScanWorkItemResult(taskID, wiUniqueNum, mo));
+    }
+    return results;
+  }
+
+
+  private static void readHeader(DataInputStream in, byte type) throws IOException {
+    if (in.readInt() != MAGIC) throw new IOException("not a grid wire format stream");
+    byte version = in.readByte();
+    if (version != VERSION) throw new IOException("unsupported grid wire format version " + version);
+    byte t = in.readByte();
+    if (t != type) throw new IOException("unexpected grid wire format message type " + t);
+  }
+
+  private static <T> int indexOf(T obj, Map<T, Integer> index, List<T> list) {
+    Integer i = index.get(obj);
+    if (i != null) return i;
+    index.put(obj, list.size());
+    list.add(obj);
+    return list.size() - 1;
+  }
+
+  private static String paramKey(ScanWorkItem swi) {
+    return swi.epsilon + ":" + swi.R + ":" + swi.Sizelim + ":" + swi.maxTriangleRotation + ":" + swi.C;
+  }
+
+  private static void writePattern(DataOutputStream out, EncounterLite el) throws IOException {
+    writeNullableString(out, el.getBelongsToMarkedIndividual());
+    writeNullableString(out, el.getSex());
+    writeNullableString(out, el.getDate());
+    out.writeDouble(el.getSize());
+    for (double[] arr : el.getPatternArrays()) {
+      writeDoubles(out, arr);
+    }
+  }
+
+  private static EncounterLite readPattern(DataInputStream in, String encounterNumber) throws IOException {
+    String indiv = readNullableString(in);
+    String sex = readNullableString(in);
+    String date = readNullableString(in);
+    double size = in.readDouble();
+    double[][] arrays = new double[8][];
+    for (int i = 0; i < arrays.length; i++) {
+      arrays[i] = readDoubles(in);
+    }
+    return new EncounterLite(encounterNumber, indiv, sex, date, size, arrays);
+  }
+
+  private static void writeMatchObject(DataOutputStream out, MatchObject mo) throws IOException {
+    writeNullableString(out, mo.individualName);
+    writeNullableString(out, mo.date);
+    writeNullableString(out, mo.encounterNumber);
+    writeNullableString(out, mo.pointBreakdown);
+    writeNullableString(out, mo.newSex);
+    writeNullableString(out, mo.catalogSex);
+    writeNullableString(out, mo.wiUniqueNum);
+    writeNullableString(out, mo.taskID);
+    out.writeDouble(mo.matchValue);
+    out.writeDouble(mo.adjustedMatchValue);
+    out.writeDouble(mo.size);
+    out.writeDouble(mo.i3sMatchValue);
+    out.writeInt(mo.numTriangles);
+    writeDoubles(out, mo.logMbreakdown);
+
+    int numScores = (mo.scores == null) ? -1 : mo.scores.size();
+    out.writeInt(numScores);
+    for (int i = 0; i < numScores; i++) {
+      VertexPointMatch vpm = (VertexPointMatch) mo.scores.get(i);
+      out.writeDouble(vpm.newX);
+      out.writeDouble(vpm.newY);
+      out.writeDouble(vpm.oldX);
+      out.writeDouble(vpm.oldY);
+      out.writeInt(vpm.points);
+    }
+
+    int numPairs = (mo.Points == null) ? -1 : mo.Points.size();
+    out.writeInt(numPairs);
+    for (int i = 0; i < numPairs; i++) {
+      Pair p = (Pair) mo.Points.get(i);
+      out.writeInt(p.m1);
+      out.writeInt(p.m2);
+      out.writeDouble(p.dist);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static MatchObject readMatchObject(DataInputStream in) throws IOException {
+    MatchObject mo = new MatchObject();
+    mo.individualName = readNullableString(in);
+    mo.date = readNullableString(in);
+    mo.encounterNumber = readNullableString(in);
+    mo.pointBreakdown = readNullableString(in);
+    mo.newSex = readNullableString(in);
+    mo.catalogSex = readNullableString(in);
+    mo.wiUniqueNum = readNullableString(in);
+    mo.taskID = readNullableString(in);
+    mo.matchValue = in.readDouble();
+    mo.adjustedMatchValue = in.readDouble();
+    mo.size = in.readDouble();
+    mo.i3sMatchValue = in.readDouble();
+    mo.numTriangles = in.readInt();
+    mo.logMbreakdown = readDoubles(in);
+
+    int numScores = in.readInt();
+    mo.scores = (numScores < 0) ? null : new ArrayList(numScores);
+    for (int i = 0; i < numScores; i++) {
+      mo.scores.add(new VertexPointMatch(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readInt()));
+    }
+
+    int numPairs = in.readInt();
+    mo.Points = (numPairs < 0) ? null : new Vector(numPairs);
+    for (int i = 0; i < numPairs; i++) {
+      Pair p = new Pair();
+      p.m1 = in.readInt();
+      p.m2 = in.readInt();
+      p.dist = in.readDouble();
+      mo.Points.add(p);
+    }
+    return mo;
+  }
+
+  private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+    out.writeInt(strings.size());
+    for (String s : strings) {
+      out.writeUTF(s);
+    }
+  }
+
+  private static List<String> readStrings(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    List<String> strings = new ArrayList<String>(n);
+    for (int i = 0; i < n; i++) {
+      strings.add(in.readUTF());
+    }
+    return strings;
+  }
+
+  private static void writeNullableString(DataOutputStream out, String s) throws IOException {
+    out.writeBoolean(s != null);
+    if (s != null) out.writeUTF(s);
+  }
+
+  private static String readNullableString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  //arrays are packed through a byte[] rather than a writeDouble() per element
+  private static void writeDoubles(DataOutputStream out, double[] arr) throws IOException {
+    if (arr == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(arr.length);
+    byte[] buf = new byte[arr.length * 8];
+    int b = 0;
+    for (double d : arr) {
+      long v = Double.doubleToRawLongBits(d);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buf[b++] = (byte) (v >>> shift);
+      }
+    }
+    out.write(buf);
+  }
+
+  private static double[] readDoubles(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    if (n < 0) return null;
+    byte[] buf = new byte[n * 8];
+    in.readFully(buf);
+    double[] arr = new double[n];
+    int b = 0;
+    for (int i = 0; i < n; i++) {
+      long v = 0;
+      for (int j = 0; j < 8; j++) {
+        v = (v << 8) | (buf[b++] & 0xff);
+      }
+      arr[i] = Double.longBitsToDouble(v);
+    }
+    return arr;
+  }
+}
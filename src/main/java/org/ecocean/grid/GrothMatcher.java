@@ -0,0 +1,681 @@
+package org.ecocean.grid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ * Primitive-array implementation of the Modified Groth matcher in EncounterLite.getPointsForBestMatch().
+ * <p>
+ * Spots are kept as flat x/y arrays and triangles as parallel primitive arrays (see Triangles) instead of
+ * SuperSpot/Spot/SpotTriangle objects, and the first-pass triangle set of an EncounterLite is built once and
+ * cached on it (see EncounterLite.getGrothTriangles()), since a catalog encounter is compared again and again
+ * with the same parameters.  For triangle pairing the other set is indexed by R (sorted, in groups of similar
+ * R tolerance), so each triangle is only tested against the ones whose R could pass the match test rather than
+ * all of them, and the rotation of each triangle is computed once rather than once per pairing.
+ * <p>
+ * Every step mirrors getPointsForBestMatch()/secondGrothPass() (same arithmetic, same iteration order and
+ * tie-breaking), so the resulting MatchObject is identical.  GrothMatcherTest checks that.
+ */
+public class GrothMatcher {
+
+  /**
+   * The triangles of one spot pattern that passed the R, C (and optionally Sizelim) filters, sorted by R,
+   * as in SpotTriangle.  Immutable once built.
+   */
+  static final class Triangles {
+    //the pattern these were built from (before normalizing) and the parameters, to tell if a cached set is still good
+    final double[] srcX, srcY;
+    final double epsilon, maxR, maxC, sizelim;
+
+    //normalized spots
+    final double[] x, y;
+    final double normFactor;
+
+    final int size;
+    final double[] r, c, tR2, tC2, rot, logPerimeter;
+    final boolean[] clockwise;
+    //spot indexes of vertices 1, 2 and 3
+    final int[] v1, v2, v3;
+    //triangle indexes grouped by the binary exponent of tR2, each group in R order, so a pairing
+    //window can be sized by its group's largest tR2 rather than the largest overall
+    final int[][] groups;
+    final double[][] groupR;
+    final double[] groupMaxTR2;
+    //index of the first spot with the same coordinates, or -1 if the coordinates are NaN
+    final int[] canonical;
+
+    Triangles(double[] srcX, double[] srcY, double[] x, double[] y, double normFactor, double epsilon, double maxR, double maxC, double sizelim, boolean applySizelim) {
+      this.srcX = srcX;
+      this.srcY = srcY;
+      this.x = x;
+      this.y = y;
+      this.normFactor = normFactor;
+      this.epsilon = epsilon;
+      this.maxR = maxR;
+      this.maxC = maxC;
+      this.sizelim = sizelim;
+
+      int n = x.length;
+      canonical = new int[n];
+      for (int i = 0; i < n; i++) {
+        canonical[i] = ((x[i] == x[i]) && (y[i] == y[i])) ? i : -1;
+        for (int j = 0; (j < i) && (canonical[i] == i); j++) {
+          if ((x[j] == x[i]) && (y[j] == y[i])) canonical[i] = j;
+        }
+      }
+
+      int total = (n < 3) ? 0 : n * (n - 1) * (n - 2) / 6;
+      double[] tr = new double[total], tc = new double[total], ttR2 = new double[total], ttC2 = new double[total];
+      double[] td13 = new double[total], tlogP = new double[total];
+      boolean[] tcw = new boolean[total];
+      int[] tv1 = new int[total], tv2 = new int[total], tv3 = new int[total];
+      double[] tri = new double[TRI_FIELDS];
+      int[] verts = new int[3];
+
+      double span = -1;
+      double closePairDist = 9999;
+      int kept = 0;
+      for (int i = 0; i < n - 2; i++) {
+        for (int j = i + 1; j < n - 1; j++) {
+          for (int k = j + 1; k < n; k++) {
+            triangle(x, y, i, j, k, epsilon, tri, verts);
+            if (tri[D13] > span) span = tri[D13];
+            if (tri[D12] < closePairDist) closePairDist = tri[D12];
+            if ((tri[R] <= maxR) && (tri[C] <= maxC)) {
+              tr[kept] = tri[R];
+              tc[kept] = tri[C];
+              ttR2[kept] = tri[TR2];
+              ttC2[kept] = tri[TC2];
+              td13[kept] = tri[D13];
+              tlogP[kept] = tri[LOGP];
+              tcw[kept] = !(tri[CROSS] <= 0.0);
+              tv1[kept] = verts[0];
+              tv2[kept] = verts[1];
+              tv3[kept] = verts[2];
+              kept++;
+            }
+          }
+        }
+      }
+      if (closePairDist < (3 * epsilon)) {
+        System.out.println("WARNING!!!! Spots in a pattern are too close together to support this high of an epsilon value!!!");
+      }
+
+      int[] order = new int[kept];
+      int m = 0;
+      for (int t = 0; t < kept; t++) {
+        if (!applySizelim || !(td13[t] / span >= sizelim)) order[m++] = t;
+      }
+      order = Arrays.copyOf(order, m);
+      sortByKey(order, tr, false);
+
+      size = m;
+      r = new double[m];
+      c = new double[m];
+      tR2 = new double[m];
+      tC2 = new double[m];
+      rot = new double[m];
+      logPerimeter = new double[m];
+      clockwise = new boolean[m];
+      v1 = new int[m];
+      v2 = new int[m];
+      v3 = new int[m];
+      for (int s = 0; s < m; s++) {
+        int t = order[s];
+        r[s] = tr[t];
+        c[s] = tc[t];
+        tR2[s] = ttR2[t];
+        tC2[s] = ttC2[t];
+        logPerimeter[s] = tlogP[t];
+        clockwise[s] = tcw[t];
+        v1[s] = tv1[t];
+        v2[s] = tv2[t];
+        v3[s] = tv3[t];
+        rot[s] = rotation(x[tv1[t]], y[tv1[t]], x[tv2[t]], y[tv2[t]], x[tv3[t]], y[tv3[t]]);
+      }
+
+      java.util.TreeMap<Integer, Integer> groupSizes = new java.util.TreeMap<Integer, Integer>();
+      for (int s = 0; s < m; s++) {
+        Integer e = Math.getExponent(tR2[s]);
+        Integer had = groupSizes.get(e);
+        groupSizes.put(e, (had == null) ? 1 : had + 1);
+      }
+      java.util.HashMap<Integer, Integer> groupNum = new java.util.HashMap<Integer, Integer>();
+      groups = new int[groupSizes.size()][];
+      groupR = new double[groups.length][];
+      groupMaxTR2 = new double[groups.length];
+      for (Integer e : groupSizes.keySet()) {
+        int g = groupNum.size();
+        groupNum.put(e, g);
+        groups[g] = new int[groupSizes.get(e)];
+        groupR[g] = new double[groups[g].length];
+      }
+      int[] filled = new int[groups.length];
+      for (int s = 0; s < m; s++) {
+        int g = groupNum.get(Math.getExponent(tR2[s]));
+        groups[g][filled[g]] = s;
+        groupR[g][filled[g]] = r[s];
+        filled[g]++;
+        if (tR2[s] > groupMaxTR2[g]) groupMaxTR2[g] = tR2[s];
+      }
+    }
+
+    boolean isFor(double[] px, double[] py, double epsilon, double maxR, double maxC, double sizelim) {
+      return (this.epsilon == epsilon) && (this.maxR == maxR) && (this.maxC == maxC) && (this.sizelim == sizelim)
+        && Arrays.equals(srcX, px) && Arrays.equals(srcY, py);
+    }
+  }
+
+
+  //the first-pass triangles of a pattern: normalized by its largest coordinate, Sizelim applied
+  static Triangles firstPassTriangles(double[] px, double[] py, double epsilon, double maxR, double maxC, double sizelim) {
+    double xMax = 0;
+    double yMax = 0;
+    for (int i = 0; i < px.length; i++) {
+      if (px[i] > xMax) xMax = px[i];
+    }
+    for (int i = 0; i < py.length; i++) {
+      if (py[i] > yMax) yMax = py[i];
+    }
+    double normFactor = (xMax > yMax) ? xMax : yMax;
+    double[] x = new double[px.length];
+    double[] y = new double[px.length];
+    for (int i = 0; i < px.length; i++) {
+      x[i] = px[i] / normFactor;
+      y[i] = py[i] / normFactor;
+    }
+    return new Triangles(px.clone(), py.clone(), x, y, normFactor, epsilon, maxR, maxC, sizelim, true);
+  }
+
+
+  /**
+   * Same as catalogEnc.getPointsForBestMatch(newEnc's spots, ...).
+   */
+  public static MatchObject match(EncounterLite catalogEnc, EncounterLite newEnc, double epsilon, double R, double Sizelim, double maxTriangleRotation, double C, boolean rightScan) {
+    String individual = catalogEnc.getBelongsToMarkedIndividual();
+    String encounterNumber = catalogEnc.getEncounterNumber();
+    System.out.println("\nNow comparing against encounter " + encounterNumber + " of " + individual + "...");
+    try {
+      Triangles newTriangles = newEnc.getGrothTriangles(rightScan, epsilon, R, C, Sizelim);
+      Triangles baseTriangles = catalogEnc.getGrothTriangles(rightScan, epsilon, R, C, Sizelim);
+      if ((newTriangles == null) || (baseTriangles == null)) {
+        System.out.println("0 points awarded because a pattern has no spots.");
+        return (new MatchObject(individual, 0, 0, encounterNumber));
+      }
+      double allowedRotationDiff = Math.toRadians(maxTriangleRotation);
+
+      //make A the smaller set
+      boolean swappedSpots = (newTriangles.size > baseTriangles.size);
+      Triangles a = swappedSpots ? baseTriangles : newTriangles;
+      Triangles b = swappedSpots ? newTriangles : baseTriangles;
+
+      Pass first = new Pass(a, b, allowedRotationDiff);
+      if ((first.numMatches == 0) || (first.points[0] == 1)) {
+        if (first.numMatches > 0) System.out.println("Exiting because I could not match a single triangle point more than once.");
+        return (new MatchObject(individual, 0, 0, encounterNumber));
+      }
+
+      //distinct spots of the scored pairs, for the second pass
+      double[][] second = first.scoredSpots();
+      if ((second[0].length <= 3) || (second[2].length <= 3)) {
+        return (new MatchObject(individual, 0, 0, encounterNumber));
+      }
+      Triangles a2 = new Triangles(second[0], second[1], second[0], second[1], 1, epsilon, R, C, Sizelim, true);
+      Triangles b2 = new Triangles(second[2], second[3], second[2], second[3], 1, epsilon, R, C, Sizelim, false);
+      Pass secondPass = new Pass(a2, b2, allowedRotationDiff);
+      VertexPointMatch[] secondPassSpots = secondPass.scoredMatches();
+      if (secondPassSpots.length < 3) {
+        return (new MatchObject(individual, 0, 0, encounterNumber));
+      }
+
+      double bestScore = 0;
+      StringBuffer pointBreakdown = new StringBuffer();
+      for (int i = 0; i < secondPassSpots.length; i++) {
+        bestScore += secondPassSpots[i].points;
+        pointBreakdown.append(secondPassSpots[i].points).append(" + ");
+      }
+      double adjustedScore = bestScore / (a.size * 3);
+
+      double newFactor = swappedSpots ? baseTriangles.normFactor : newTriangles.normFactor;
+      double oldFactor = swappedSpots ? newTriangles.normFactor : baseTriangles.normFactor;
+      ArrayList secondPassSpotsAL = new ArrayList(secondPassSpots.length);
+      for (int i = 0; i < secondPassSpots.length; i++) {
+        VertexPointMatch vpm = secondPassSpots[i];
+        vpm.newX = vpm.newX * newFactor;
+        vpm.newY = vpm.newY * newFactor;
+        vpm.oldX = vpm.oldX * oldFactor;
+        vpm.oldY = vpm.oldY * oldFactor;
+        if (swappedSpots) vpm = new VertexPointMatch(vpm.oldX, vpm.oldY, vpm.newX, vpm.newY, vpm.points);
+        secondPassSpotsAL.add(vpm);
+      }
+
+      return (new MatchObject(individual, bestScore, adjustedScore, first.numMatches, secondPassSpotsAL, encounterNumber, pointBreakdown.toString(), Arrays.copyOf(first.logM, first.numMatches), catalogEnc.getSex(), catalogEnc.getDate(), catalogEnc.getSize()));
+
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.out.println("0 points awarded due to exception.");
+      return (new MatchObject(individual, 0, 0, encounterNumber));
+    }
+  }
+
+
+  /**
+   * One Groth pass of triangle set A against B: pairing, the logM filter, and vertex pair scoring.
+   */
+  private static final class Pass {
+    final Triangles a, b;
+    //surviving matched triangle pairs, in A order
+    int numMatches;
+    int[] matchA, matchB;
+    double[] logM;
+    //matched vertex pairs (spot indexes into a and b), sorted by points, highest first
+    int numPairs;
+    int[] pairA, pairB, points;
+    //how many of the top pairs count towards the score
+    int numScored;
+
+    Pass(Triangles a, Triangles b, double allowedRotationDiff) {
+      this.a = a;
+      this.b = b;
+      pairTriangles(allowedRotationDiff);
+      filterLogM();
+      if (numMatches > 0) {
+        scorePairs();
+        countScored();
+      }
+    }
+
+    private void pairTriangles(double allowedRotationDiff) {
+      matchA = new int[a.size];
+      matchB = new int[a.size];
+      logM = new double[a.size];
+      int n = 0;
+      for (int iter1 = 0; iter1 < a.size; iter1++) {
+        double RA = a.r[iter1];
+        double tRA2 = a.tR2[iter1];
+        double CA = a.c[iter1];
+        double tCA2 = a.tC2[iter1];
+        double RotA = a.rot[iter1];
+        boolean matched = false;
+        double bestsum = 99999;
+        int bestiter2 = 0;
+        for (int g = 0; g < b.groups.length; g++) {
+          //no B outside RA +- sqrt(tRA2 + the group's max tRB2) can pass the R test below
+          double window = Math.sqrt(tRA2 + b.groupMaxTR2[g]);
+          int[] group = b.groups[g];
+          double[] groupR = b.groupR[g];
+          double upper = RA + window;
+          for (int p = firstAbove(groupR, RA - window); (p < group.length) && (groupR[p] < upper); p++) {
+            int iter2 = group[p];
+            //the same tests as the original, cheapest first (all of them have to pass)
+            double CB = b.c[iter2];
+            double Cdiff2 = (CA - CB) * (CA - CB) / (tCA2 + b.tC2[iter2]);
+            if (!(Cdiff2 < 1.0)) continue;
+            double rotdiff = Math.abs(RotA - b.rot[iter2]) / allowedRotationDiff;
+            if (!(rotdiff < 1.0)) continue;
+            double RB = groupR[p];
+            double tRB2 = b.tR2[iter2];
+            double sqrttR2sum = Math.sqrt(tRA2 + tRB2);
+            if ((RB > (RA - sqrttR2sum)) && (RB < (RA + sqrttR2sum))) {
+              double Rdiff2 = (RA - RB) * (RA - RB) / (tRA2 + tRB2);
+              if (Rdiff2 < 1.0) {
+                double sumdiffs = Rdiff2 + Cdiff2 + (rotdiff * rotdiff);
+                //the original scans all of B in R order keeping the first best, so on a tie the lower index wins
+                if ((sumdiffs < bestsum) || (matched && (sumdiffs == bestsum) && (iter2 < bestiter2))) {
+                  matched = true;
+                  bestiter2 = iter2;
+                  bestsum = sumdiffs;
+                }
+              }
+            }
+          }
+        }
+        if (matched) {
+          matchA[n] = iter1;
+          matchB[n] = bestiter2;
+          logM[n] = a.logPerimeter[iter1] - b.logPerimeter[bestiter2];
+          n++;
+        }
+      }
+      numMatches = n;
+    }
+
+    private boolean sameSense(int m) {
+      return (a.clockwise[matchA[m]] == b.clockwise[matchB[m]]);
+    }
+
+    //keeps the matches for which keep[m] is true, in order
+    private void compact(boolean[] keep) {
+      int n = 0;
+      for (int m = 0; m < numMatches; m++) {
+        if (keep[m]) {
+          matchA[n] = matchA[m];
+          matchB[n] = matchB[m];
+          logM[n] = logM[m];
+          n++;
+        }
+      }
+      numMatches = n;
+    }
+
+    private void filterLogM() {
+      int nPLUS = 0;
+      int nMINUS = 0;
+      for (int m = 0; m < numMatches; m++) {
+        if (sameSense(m)) {
+          nPLUS++;
+        } else {
+          nMINUS++;
+        }
+      }
+      int mT = Math.abs(nPLUS - nMINUS);
+      int mF = nPLUS + nMINUS - mT;
+      boolean[] keep = new boolean[numMatches];
+      boolean stillIterate = true;
+      int numIterations = 0;
+      while (stillIterate && (numIterations < 20) && (numMatches > 0)) {
+        numIterations++;
+
+        double meanLogM = 0;
+        double stdDeviationLogM = 0;
+        for (int m = 0; m < numMatches; m++) {
+          if (sameSense(m)) meanLogM += logM[m];
+        }
+        meanLogM = meanLogM / nPLUS;
+        for (int m = 0; m < numMatches; m++) {
+          if (sameSense(m)) stdDeviationLogM += Math.pow((logM[m] - meanLogM), 2);
+        }
+        if (nPLUS > 1) {
+          stdDeviationLogM = Math.pow((stdDeviationLogM / (nPLUS - 1)), 0.5);
+        } else {
+          stdDeviationLogM = 0.0;
+        }
+
+        double multiple;
+        if (nMINUS > nPLUS) {
+          multiple = 1;
+        } else if ((0.5 * mT) > mF) {
+          multiple = 3;
+        } else {
+          multiple = 2;
+        }
+
+        boolean haveMadeChange = false;
+        for (int m = 0; m < numMatches; m++) {
+          keep[m] = !(Math.abs(logM[m] - meanLogM) > (multiple * stdDeviationLogM));
+          if (!keep[m]) haveMadeChange = true;
+        }
+        if (haveMadeChange) compact(keep);
+        else stillIterate = false;
+
+        nPLUS = 0;
+        nMINUS = 0;
+        for (int m = 0; m < numMatches; m++) {
+          if (sameSense(m)) {
+            nPLUS++;
+          } else {
+            nMINUS++;
+          }
+        }
+        mT = Math.abs(nPLUS - nMINUS);
+        mF = nPLUS + nMINUS - mT;
+      }
+
+      for (int m = 0; m < numMatches; m++) {
+        keep[m] = sameSense(m);
+      }
+      compact(keep);
+    }
+
+    //MatchedPoints: count how often each (A spot, B spot) pair turns up as corresponding vertices
+    private void scorePairs() {
+      int nb = b.x.length;
+      //(canonical A spot * nb + canonical B spot) -> pair index + 1
+      int[] pairIndex = new int[a.x.length * nb];
+      int max = numMatches * 3;
+      pairA = new int[max];
+      pairB = new int[max];
+      points = new int[max];
+      int n = 0;
+      for (int m = 0; m < numMatches; m++) {
+        int ta = matchA[m];
+        int tb = matchB[m];
+        for (int v = 0; v < 3; v++) {
+          int sa = (v == 0) ? a.v1[ta] : ((v == 1) ? a.v2[ta] : a.v3[ta]);
+          int sb = (v == 0) ? b.v1[tb] : ((v == 1) ? b.v2[tb] : b.v3[tb]);
+          int ca = a.canonical[sa];
+          int cb = b.canonical[sb];
+          //NaN coordinates never compare equal, so those pairs are never merged
+          int key = ((ca < 0) || (cb < 0)) ? -1 : (ca * nb + cb);
+          if ((key >= 0) && (pairIndex[key] > 0)) {
+            points[pairIndex[key] - 1]++;
+          } else {
+            pairA[n] = sa;
+            pairB[n] = sb;
+            points[n] = 1;
+            n++;
+            if (key >= 0) pairIndex[key] = n;
+          }
+        }
+      }
+      numPairs = n;
+
+      int[] order = new int[n];
+      double[] key = new double[n];
+      for (int p = 0; p < n; p++) {
+        order[p] = p;
+        key[p] = points[p];
+      }
+      sortByKey(order, key, true);
+      int[] sortedA = new int[n], sortedB = new int[n], sortedPoints = new int[n];
+      for (int p = 0; p < n; p++) {
+        sortedA[p] = pairA[order[p]];
+        sortedB[p] = pairB[order[p]];
+        sortedPoints[p] = points[order[p]];
+      }
+      pairA = sortedA;
+      pairB = sortedB;
+      points = sortedPoints;
+    }
+
+    //"Zaven's correction": take top pairs while the points hold up and no spot repeats
+    private void countScored() {
+      numScored = 1;
+      int iter20 = 1;
+      boolean keepOnCounting = true;
+      boolean hasNotBeenSeenYet = true;
+      while (keepOnCounting && (iter20 < numPairs)) {
+        double newX = a.x[pairA[iter20]], newY = a.y[pairA[iter20]];
+        double oldX = b.x[pairB[iter20]], oldY = b.y[pairB[iter20]];
+        for (int p = 0; p < numScored; p++) {
+          if ((newX == a.x[pairA[p]]) && (newY == a.y[pairA[p]])) hasNotBeenSeenYet = false;
+          if ((oldX == b.x[pairB[p]]) && (oldY == b.y[pairB[p]])) hasNotBeenSeenYet = false;
+        }
+        if ((points[iter20] > (points[iter20 - 1] / 2)) && (points[iter20] > 1) && hasNotBeenSeenYet) {
+          numScored++;
+        } else {
+          keepOnCounting = false;
+        }
+        iter20++;
+      }
+    }
+
+    VertexPointMatch[] scoredMatches() {
+      if (numMatches == 0) return new VertexPointMatch[0];
+      VertexPointMatch[] scored = new VertexPointMatch[numScored];
+      for (int p = 0; p < numScored; p++) {
+        scored[p] = new VertexPointMatch(a.x[pairA[p]], a.y[pairA[p]], b.x[pairB[p]], b.y[pairB[p]], points[p]);
+      }
+      return scored;
+    }
+
+    //distinct A spots and B spots of the scored pairs: {ax, ay, bx, by}
+    double[][] scoredSpots() {
+      double[] ax = new double[numScored], ay = new double[numScored], bx = new double[numScored], by = new double[numScored];
+      int na = 0, nb = 0;
+      for (int p = 0; p < numScored; p++) {
+        na = addDistinct(ax, ay, na, a.x[pairA[p]], a.y[pairA[p]]);
+        nb = addDistinct(bx, by, nb, b.x[pairB[p]], b.y[pairB[p]]);
+      }
+      return new double[][]{Arrays.copyOf(ax, na), Arrays.copyOf(ay, na), Arrays.copyOf(bx, nb), Arrays.copyOf(by, nb)};
+    }
+
+    private static int addDistinct(double[] xs, double[] ys, int n, double x, double y) {
+      for (int i = 0; i < n; i++) {
+        if ((xs[i] == x) && (ys[i] == y)) return n;
+      }
+      xs[n] = x;
+      ys[n] = y;
+      return n + 1;
+    }
+  }
+
+
+  //indexes into the per-triangle scratch array filled by triangle()
+  private static final int D12 = 0, D13 = 1, R = 2, C = 3, TR2 = 4, TC2 = 5, LOGP = 6, CROSS = 7, TRI_FIELDS = 8;
+
+  //the SpotTriangle constructor, on spots i, j, k; vertex 1, 2, 3 spot indexes go in verts
+  private static void triangle(double[] x, double[] y, int i, int j, int k, double epsilon, double[] out, int[] verts) {
+    double ix = x[i], iy = y[i], jx = x[j], jy = y[j], kx = x[k], ky = y[k];
+    double Dij = distance(ix, iy, jx, jy);
+    double Dik = distance(ix, iy, kx, ky);
+    double Djk = distance(jx, jy, kx, ky);
+    double Dxl, Dyl, Dxs, Dys, D12, D13, D23;
+    if ((Dik >= Djk) && (Dik >= Dij)) {
+      verts[1] = j;
+      D13 = Dik;
+      if (Djk >= Dij) {
+        Dxl = ix - kx;
+        Dyl = iy - ky;
+        Dxs = jx - ix;
+        Dys = jy - iy;
+        D12 = Dij;
+        D23 = Djk;
+        verts[0] = i;
+        verts[2] = k;
+      } else {
+        Dxl = -ix + kx;
+        Dyl = -iy + ky;
+        Dxs = -kx + jx;
+        Dys = -ky + jy;
+        D12 = Djk;
+        D23 = Dij;
+        verts[0] = k;
+        verts[2] = i;
+      }
+    } else if ((Djk > Dik) && (Djk >= Dij)) {
+      verts[1] = i;
+      D13 = Djk;
+      if (Dik >= Dij) {
+        Dxl = -kx + jx;
+        Dyl = -ky + jy;
+        Dxs = -jx + ix;
+        Dys = -jy + iy;
+        D12 = Dij;
+        D23 = Dik;
+        verts[0] = j;
+        verts[2] = k;
+      } else {
+        Dxl = kx - jx;
+        Dyl = ky - jy;
+        Dxs = ix - kx;
+        Dys = iy - ky;
+        D12 = Dik;
+        D23 = Dij;
+        verts[0] = k;
+        verts[2] = j;
+      }
+    } else {
+      verts[1] = k;
+      D13 = Dij;
+      if (Dik >= Djk) {
+        Dxl = jx - ix;
+        Dyl = jy - iy;
+        Dxs = kx - jx;
+        Dys = ky - jy;
+        D12 = Djk;
+        D23 = Dik;
+        verts[0] = j;
+        verts[2] = i;
+      } else {
+        Dxl = -jx + ix;
+        Dyl = -jy + iy;
+        Dxs = -ix + kx;
+        Dys = -iy + ky;
+        D12 = Dik;
+        D23 = Djk;
+        verts[0] = i;
+        verts[2] = j;
+      }
+    }
+    double r3 = D13;
+    double r2 = D12;
+    double R = r3 / r2;
+    double C = -(Dxl * Dxs + Dyl * Dys) / (r2 * r3);
+    double S2 = 1.0 - (C * C);
+    double VarFact = 1.0 / (r3 * r3) - C / (r3 * r2) + 1.0 / (r2 * r2);
+    out[GrothMatcher.D12] = D12;
+    out[GrothMatcher.D13] = D13;
+    out[GrothMatcher.R] = R;
+    out[GrothMatcher.C] = C;
+    out[TR2] = R * R * epsilon * epsilon * 2 * VarFact;
+    out[TC2] = 2 * S2 * epsilon * epsilon * VarFact + 3 * C * C * Math.pow(epsilon, 4) * VarFact * VarFact;
+    out[LOGP] = Math.log(D12 + D13 + D23);
+    out[CROSS] = Dxs * Dyl - Dxl * Dys;
+  }
+
+  //java.awt.geom.Point2D.distance()
+  private static double distance(double x1, double y1, double x2, double y2) {
+    x1 -= x2;
+    y1 -= y2;
+    return Math.sqrt(x1 * x1 + y1 * y1);
+  }
+
+  //SpotTriangle.getMyVertexOneRotationInRadians()
+  private static double rotation(double x1, double y1, double x2, double y2, double x3, double y3) {
+    double centroidX = (x1 + x2 + x3) / 3;
+    double centroidY = (y1 + y2 + y3) / 3;
+    return Math.atan2(y1 - centroidY, x1 - centroidX);
+  }
+
+  //index of the first value > v in ascending sorted values
+  private static int firstAbove(double[] sorted, double v) {
+    int lo = 0, hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] > v) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    return lo;
+  }
+
+  //stable merge sort of idx by key[idx] (like Arrays.sort with RComparator/ScoreComparator)
+  private static void sortByKey(int[] idx, double[] key, boolean descending) {
+    int n = idx.length;
+    int[] src = idx;
+    int[] dst = new int[n];
+    for (int width = 1; width < n; width *= 2) {
+      for (int lo = 0; lo < n; lo += 2 * width) {
+        int mid = Math.min(lo + width, n);
+        int hi = Math.min(lo + 2 * width, n);
+        int i = lo, j = mid, d = lo;
+        while ((i < mid) && (j < hi)) {
+          double ki = key[src[i]], kj = key[src[j]];
+          //take from the right only if strictly before the left
+          boolean right = descending ? (kj > ki) : (kj < ki);
+          dst[d++] = right ? src[j++] : src[i++];
+        }
+        while (i < mid) dst[d++] = src[i++];
+        while (j < hi) dst[d++] = src[j++];
+      }
+      int[] t = src;
+      src = dst;
+      dst = t;
+    }
+    if (src != idx) System.arraycopy(src, 0, idx, 0, n);
+  }
+}
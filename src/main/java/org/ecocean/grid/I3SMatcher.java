@@ -0,0 +1,377 @@
+package org.ecocean.grid;
+
+import com.reijns.I3S.Affine;
+import com.reijns.I3S.Pair;
+import com.reijns.I3S.Point2D;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TreeMap;
+
+
+/**
+ * Primitive-array implementation of the I3S comparison in EncounterLite.i3sScan() (com.reijns.I3S.Compare with
+ * exhaustive search).
+ * <p>
+ * A pattern is normalized to its fiducial points once and kept as flat x/y arrays (see Print, cached on the
+ * EncounterLite like the Groth triangles), and the new encounter's points are also kept sorted by x so each
+ * nearest neighbour lookup only walks the points in an x window around the query instead of every point.  The
+ * exhaustive search over triples of pairs reuses the same scratch arrays for every triple rather than copying a
+ * FingerPrint and filling a new TreeMap each time, solves both rows of the affine transform in one elimination,
+ * and stops as soon as the best score is 0, which no triple can beat.
+ * <p>
+ * The arithmetic, iteration order and tie-breaking are the same as FingerPrint.distance()/Compare.exhaustiveSearch()
+ * (including the quirks: the "second nearest" of the ratio test is the running minimum before the nearest, and a
+ * degenerate triple scores 0), so scores come out the same.  I3SMatcherBenchmark checks that against the old code.
+ */
+public class I3SMatcher {
+
+  //FingerPrint.distance() only takes neighbours closer than this (squared)
+  private static final double FAR = 1000000000;
+  private static final double NO_SCORE = 1000000.0;
+
+  /**
+   * One side's spots mapped onto the fiducial frame that i3sScan uses, plus an x-sorted copy of them for
+   * neighbour lookups.  Immutable once built.
+   */
+  static final class Print {
+    //what it was built from, to tell if a cached one is still good
+    final double[] srcX, srcY, refX, refY;
+
+    final int n;
+    final double[] x, y;
+
+    //the finite points sorted by x (index order among equal x), with their x and y alongside
+    final int[] byX;
+    final double[] sortedX, sortedY;
+
+    Print(double[] srcX, double[] srcY, double[] refX, double[] refY, Point2D[] control) {
+      this.srcX = srcX;
+      this.srcY = srcY;
+      this.refX = refX;
+      this.refY = refY;
+      n = (srcX == null) ? 0 : srcX.length;
+      x = new double[n];
+      y = new double[n];
+      if (n > 0) {
+        //as EncounterLite.doAffine()
+        double[] matrix = new double[6];
+        Affine.calcAffine(control[0].getX(), control[0].getY(), control[1].getX(), control[1].getY(), control[2].getX(), control[2].getY(), 100, 100, 900, 100, 500, 700, matrix);
+        for (int i = 0; i < n; i++) {
+          x[i] = matrix[0] * srcX[i] + matrix[1] * srcY[i] + matrix[2];
+          y[i] = matrix[3] * srcX[i] + matrix[4] * srcY[i] + matrix[5];
+        }
+      }
+
+      //non-finite points can never be anyone's neighbour (every comparison with NaN/infinity fails), so leave them out
+      Integer[] order = new Integer[n];
+      int finite = 0;
+      for (int i = 0; i < n; i++) {
+        if (isFinite(x[i]) && isFinite(y[i])) order[finite++] = i;
+      }
+      final double[] xs = x;
+      Arrays.sort(order, 0, finite, new Comparator<Integer>() {
+        public int compare(Integer a, Integer b) {
+          int c = Double.compare(xs[a], xs[b]);
+          return (c != 0) ? c : a.compareTo(b);
+        }
+      });
+      byX = new int[finite];
+      sortedX = new double[finite];
+      sortedY = new double[finite];
+      for (int k = 0; k < finite; k++) {
+        byX[k] = order[k];
+        sortedX[k] = x[order[k]];
+        sortedY[k] = y[order[k]];
+      }
+    }
+
+    boolean isFor(double[] px, double[] py, double[] rx, double[] ry) {
+      return Arrays.equals(srcX, px) && Arrays.equals(srcY, py) && Arrays.equals(refX, rx) && Arrays.equals(refY, ry);
+    }
+
+    /**
+     * The point FingerPrint.distance() would pair (px, py) with: the nearest one (lowest index on a tie) if it is
+     * closer than FAR and passes the ratio test against the points before it, else -1.  found[0] gets the
+     * squared distance.  Walks out both ways from px in x order, stopping each way once the x gap alone is
+     * too far.
+     */
+    int pairFor(double px, double py, double[] found) {
+      int m = byX.length;
+      if (!isFinite(px) || !isFinite(py) || (m == 0)) return -1;
+      int start = lowerBound(px);
+
+      double mindist = FAR;
+      int minj = -1;
+      for (int k = start; k < m; k++) {
+        double dx = px - sortedX[k];
+        if (dx * dx > mindist) break;
+        double dy = py - sortedY[k];
+        double dist = (dx * dx) + (dy * dy);
+        int j = byX[k];
+        if ((dist < mindist) || ((dist == mindist) && (minj >= 0) && (j < minj))) {
+          mindist = dist;
+          minj = j;
+        }
+      }
+      for (int k = start - 1; k >= 0; k--) {
+        double dx = px - sortedX[k];
+        if (dx * dx > mindist) break;
+        double dy = py - sortedY[k];
+        double dist = (dx * dx) + (dy * dy);
+        int j = byX[k];
+        if ((dist < mindist) || ((dist == mindist) && (minj >= 0) && (j < minj))) {
+          mindist = dist;
+          minj = j;
+        }
+      }
+      if (minj < 0) return -1;
+
+      //the ratio test's "second" is the smallest distance among the points before minj (or FAR)
+      double limit = mindist * 4;
+      if (!(limit <= FAR)) return -1;
+      if (minj > 0) {
+        for (int k = start; k < m; k++) {
+          double dx = px - sortedX[k];
+          if (dx * dx >= limit) break;
+          double dy = py - sortedY[k];
+          if ((byX[k] < minj) && (((dx * dx) + (dy * dy)) < limit)) return -1;
+        }
+        for (int k = start - 1; k >= 0; k--) {
+          double dx = px - sortedX[k];
+          if (dx * dx >= limit) break;
+          double dy = py - sortedY[k];
+          if ((byX[k] < minj) && (((dx * dx) + (dy * dy)) < limit)) return -1;
+        }
+      }
+      found[0] = mindist;
+      return minj;
+    }
+
+    //first position whose x is >= px
+    private int lowerBound(double px) {
+      int lo = 0, hi = sortedX.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (sortedX[mid] < px) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+  }
+
+  //built by EncounterLite.getI3SPrint()
+  static Print print(double[] x, double[] y, double[] refX, double[] refY, Point2D[] control) {
+    return new Print(x, y, refX, refY, control);
+  }
+
+
+  /**
+   * Same result as EncounterLite.i3sScanLegacy(newEnc, scanRight), for existing = the EncounterLite it is called on.
+   */
+  public static I3SMatchObject match(EncounterLite existing, EncounterLite newEnc, boolean scanRight) {
+    Print known = existing.getI3SPrint(scanRight);
+    Print unknown = newEnc.getI3SPrint(scanRight);
+    Scratch s = new Scratch(known.n, unknown.n);
+
+    //the plain comparison, whose pairs go into the match object and seed the search
+    System.arraycopy(known.x, 0, s.bestX, 0, known.n);
+    System.arraycopy(known.y, 0, s.bestY, 0, known.n);
+    double bestScore = distance(s.bestX, s.bestY, known.n, unknown, 0, s);
+    TreeMap<Integer, Pair> pairs = new TreeMap<Integer, Pair>();
+    int paircnt = 0;
+    int[] pm1 = new int[s.pairs];
+    int[] pm2 = new int[s.pairs];
+    for (int j = 0; j < unknown.n; j++) {
+      if (s.stamp[j] != s.generation) continue;
+      Pair p = new Pair();
+      p.m1 = s.keyM1[j];
+      p.m2 = j;
+      p.dist = s.keyDist[j];
+      pairs.put(j, p);
+      pm1[paircnt] = p.m1;
+      pm2[paircnt] = p.m2;
+      paircnt++;
+    }
+
+    //Compare.exhaustiveSearch(): map the known print onto the unknown one by every triple of pairs, and keep the
+    //transform whenever it scores better.  Later triples start from the best transform so far, as there.
+    double[] matrix = s.matrix;
+    search:
+    for (int j = 0; j < paircnt - 2; j++) {
+      for (int k = j + 1; k < paircnt - 1; k++) {
+        for (int l = k + 1; l < paircnt; l++) {
+          if (bestScore <= 0) break search;
+          int a = pm1[j], b = pm1[k], c = pm1[l];
+          calcAffine(s.bestX[a], s.bestY[a], s.bestX[b], s.bestY[b], s.bestX[c], s.bestY[c],
+            unknown.x[pm2[j]], unknown.y[pm2[j]], unknown.x[pm2[k]], unknown.y[pm2[k]], unknown.x[pm2[l]], unknown.y[pm2[l]], s);
+          boolean finite = true;
+          for (int m = 0; m < 6; m++) {
+            if (!isFinite(matrix[m])) finite = false;
+          }
+          if (!finite) {
+            //every point becomes NaN/infinite, so nothing pairs and the score is 0 / (0 - 3)^2
+            bestScore = 0;
+            break search;
+          }
+          for (int i = 0; i < known.n; i++) {
+            double x = s.bestX[i];
+            double y = s.bestY[i];
+            s.testX[i] = matrix[0] * x + matrix[1] * y + matrix[2];
+            s.testY[i] = matrix[3] * x + matrix[4] * y + matrix[5];
+          }
+          double score = distance(s.testX, s.testY, known.n, unknown, -3, s);
+          if (score < bestScore) {
+            bestScore = score;
+            double[] t = s.bestX;
+            s.bestX = s.testX;
+            s.testX = t;
+            t = s.bestY;
+            s.bestY = s.testY;
+            s.testY = t;
+          }
+        }
+      }
+    }
+
+    return new I3SMatchObject(existing.getBelongsToMarkedIndividual(), bestScore, existing.getEncounterNumber(), existing.getSex(), existing.getDate(), existing.getSize(), pairs, 0);
+  }
+
+
+  //buffers for one match(), reused by every triple
+  private static final class Scratch {
+    double[] bestX, bestY, testX, testY;
+    //pairs keyed by unknown point, valid where stamp == generation
+    final double[] keyDist;
+    final int[] keyM1;
+    final int[] stamp;
+    int generation = 0;
+    int pairs;
+    final double[] found = new double[1];
+    final double[] matrix = new double[6];
+    //3x3 system and its two right-hand sides (x and y rows of the transform)
+    final double[] a = new double[9];
+    final double[] b = new double[6];
+    final int[] indxc = new int[3], indxr = new int[3], ipiv = new int[3];
+
+    Scratch(int knownCount, int unknownCount) {
+      bestX = new double[knownCount];
+      bestY = new double[knownCount];
+      testX = new double[knownCount];
+      testY = new double[knownCount];
+      keyDist = new double[unknownCount];
+      keyM1 = new int[unknownCount];
+      stamp = new int[unknownCount];
+    }
+  }
+
+  //FingerPrint.distance(), with the known print's points at px/py; the pairs are left in s
+  private static double distance(double[] px, double[] py, int n, Print unknown, int affineCorr, Scratch s) {
+    s.generation++;
+    s.pairs = 0;
+    double totaldist = 0;
+    for (int i = 0; i < n; i++) {
+      int minj = unknown.pairFor(px[i], py[i], s.found);
+      if (minj < 0) continue;
+      double sqrtDist = Math.sqrt(s.found[0]);
+      if (s.stamp[minj] != s.generation) {
+        s.stamp[minj] = s.generation;
+        s.keyDist[minj] = sqrtDist;
+        s.keyM1[minj] = i;
+        s.pairs++;
+        totaldist += sqrtDist;
+      } else if (s.keyDist[minj] > sqrtDist) {
+        double oldDist = s.keyDist[minj];
+        s.keyDist[minj] = sqrtDist;
+        s.keyM1[minj] = i;
+        totaldist += sqrtDist - oldDist;
+      }
+    }
+    int paircnt = s.pairs + affineCorr;
+    if (paircnt == 0) return NO_SCORE;
+    return totaldist / (paircnt * paircnt);
+  }
+
+  /**
+   * Affine.calcAffine(), solving for both rows at once: the two systems it solves have the same matrix, and
+   * Gauss-Jordan treats each right-hand side column on its own, so the result is the same to the bit.
+   */
+  private static void calcAffine(double from1x, double from1y, double from2x, double from2y, double from3x, double from3y,
+                                 double to1x, double to1y, double to2x, double to2y, double to3x, double to3y, Scratch s) {
+    double[] a = s.a, b = s.b;
+    a[0] = from1x; a[1] = from1y; a[2] = 1;
+    a[3] = from2x; a[4] = from2y; a[5] = 1;
+    a[6] = from3x; a[7] = from3y; a[8] = 1;
+    b[0] = to1x; b[1] = to1y;
+    b[2] = to2x; b[3] = to2y;
+    b[4] = to3x; b[5] = to3y;
+    gaussj(a, b, s);
+    s.matrix[0] = b[0];
+    s.matrix[1] = b[2];
+    s.matrix[2] = b[4];
+    s.matrix[3] = b[1];
+    s.matrix[4] = b[3];
+    s.matrix[5] = b[5];
+  }
+
+  //Affine.gaussj() for n = 3, m = 2 on flat arrays
+  private static void gaussj(double[] a, double[] b, Scratch s) {
+    final int n = 3, m = 2;
+    int[] indxc = s.indxc, indxr = s.indxr, ipiv = s.ipiv;
+    int icol = 0, irow = 0;
+    double big, dum, pivinv, temp;
+    for (int j = 0; j < n; j++) ipiv[j] = 0;
+    for (int i = 0; i < n; i++) {
+      big = 0.0;
+      for (int j = 0; j < n; j++) {
+        if (ipiv[j] != 1) {
+          for (int k = 0; k < n; k++) {
+            if (ipiv[k] == 0) {
+              if (Math.abs(a[j * n + k]) >= big) {
+                big = Math.abs(a[j * n + k]);
+                irow = j;
+                icol = k;
+              }
+            }
+          }
+        }
+      }
+      ++(ipiv[icol]);
+      if (irow != icol) {
+        for (int l = 0; l < n; l++) {
+          temp = a[irow * n + l];
+          a[irow * n + l] = a[icol * n + l];
+          a[icol * n + l] = temp;
+        }
+        for (int l = 0; l < m; l++) {
+          temp = b[irow * m + l];
+          b[irow * m + l] = b[icol * m + l];
+          b[icol * m + l] = temp;
+        }
+      }
+      indxr[i] = irow;
+      indxc[i] = icol;
+      pivinv = 1.0 / a[icol * n + icol];
+      a[icol * n + icol] = 1.0;
+      for (int l = 0; l < n; l++) a[icol * n + l] *= pivinv;
+      for (int l = 0; l < m; l++) b[icol * m + l] *= pivinv;
+      for (int ll = 0; ll < n; ll++) {
+        if (ll != icol) {
+          dum = a[ll * n + icol];
+          a[ll * n + icol] = 0.0;
+          for (int l = 0; l < n; l++) a[ll * n + l] -= a[icol * n + l] * dum;
+          for (int l = 0; l < m; l++) b[ll * m + l] -= b[icol * m + l] * dum;
+        }
+      }
+    }
+    //(unscrambling the columns of the inverse, as gaussj finishes with, doesn't touch the solution)
+  }
+
+  private static boolean isFinite(double d) {
+    return !Double.isNaN(d) && !Double.isInfinite(d);
+  }
+
+}
@@ -0,0 +1,153 @@
+package org.ecocean.grid;
+
+import org.ecocean.CommonConfiguration;
+import org.ecocean.Shepherd;
+import org.ecocean.servlet.WriteOutScanTask;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Runs a scanTask's Groth and I3S comparisons inside this JVM on a ForkJoinPool sized to the host's cores,
+ * instead of queueing its work items for grid nodes to poll for.
+ * <p>
+ * The work items still go into the GridManager (so scanTaskAdmin.jsp, task removal and cleanup see them as
+ * usual) but are never checked out to a node. Each MatchObject is checked in as soon as its comparison is done,
+ * and when the last one is in the results are written through WriteOutScanTask, as for a grid scan.
+ * <p>
+ * Which executor a scan uses is chosen per task: executor=local or executor=grid on the addTask request,
+ * defaulting to the patternMatchingExecutor property in commonConfiguration.properties (grid if unset).
+ */
+public class LocalScanExecutor {
+
+  public static final String PARAMETER = "executor";
+  public static final String LOCAL = "local";
+  public static final String GRID = "grid";
+
+  //comparisons per leaf task; each one is a few ms, so this keeps fork/join overhead out of the picture
+  private static final int BATCH_SIZE = 8;
+
+  private static ForkJoinPool pool;
+
+
+  public synchronized static ForkJoinPool getPool() {
+    if (pool == null) {
+      pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+    return pool;
+  }
+
+  /**
+   * True if the scan asked for in this request should run locally.
+   */
+  public static boolean isRequested(HttpServletRequest request, String context) {
+    String executor = request.getParameter(PARAMETER);
+    if ((executor == null) || executor.trim().equals("")) {
+      executor = CommonConfiguration.getProperty("patternMatchingExecutor", context);
+    }
+    return (executor != null) && executor.trim().equalsIgnoreCase(LOCAL);
+  }
+
+  /**
+   * Starts comparing the given work items, which must already be in the GridManager (see
+   * GridManager.addLocalWorkItem). Returns straight away; the results are written out when the scan is done.
+   */
+  public static void scan(String taskID, List<ScanWorkItem> items, String context) {
+    System.out.println("LocalScanExecutor: starting " + items.size() + " comparisons for " + taskID + " on " + getPool().getParallelism() + " threads");
+    getPool().execute(new Scan(taskID, items, context));
+  }
+
+
+  private static class Scan extends RecursiveAction {
+    private final String taskID;
+    private final List<ScanWorkItem> items;
+    private final String context;
+
+    Scan(String taskID, List<ScanWorkItem> items, String context) {
+      this.taskID = taskID;
+      this.items = items;
+      this.context = context;
+    }
+
+    protected void compute() {
+      long start = System.currentTimeMillis();
+      try {
+        new Batch(items, 0, items.size()).invoke();
+      } catch (Exception e) {
+        System.out.println("LocalScanExecutor: scan " + taskID + " failed.");
+        e.printStackTrace();
+        return;
+      }
+      System.out.println("LocalScanExecutor: finished comparisons for " + taskID + " in " + (System.currentTimeMillis() - start) + "ms");
+      finish(taskID, context);
+    }
+  }
+
+  private static class Batch extends RecursiveAction {
+    private final List<ScanWorkItem> items;
+    private final int from;
+    private final int to;
+
+    Batch(List<ScanWorkItem> items, int from, int to) {
+      this.items = items;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      if ((to - from) > BATCH_SIZE) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new Batch(items, from, mid), new Batch(items, mid, to));
+        return;
+      }
+      GridManager gm = GridManagerFactory.getGridManager();
+      int done = 0;
+      for (int i = from; i < to; i++) {
+        ScanWorkItem swi = items.get(i);
+        //the task may have been removed (or restarted) while we were running
+        if (!gm.toDoContains(swi)) continue;
+        try {
+          //the match graph's EncounterLites are shared between these threads, so don't let execute() rebuild their spots
+          MatchObject mo = swi.execute(false);
+          gm.checkinResult(new ScanWorkItemResult(swi.getTaskIdentifier(), swi.getUniqueNumber(), mo));
+          done++;
+        } catch (Exception e) {
+          //drop it rather than leave the task waiting forever on a comparison that can't be done
+          System.out.println("LocalScanExecutor: comparison " + swi.getUniqueNumber() + " failed.");
+          e.printStackTrace();
+          gm.removeWorkItem(swi.getUniqueNumber());
+        }
+      }
+      if (done > 0) gm.incrementCompletedWorkItems(done);
+    }
+  }
+
+  //same conditions ScanWorkItemResultsHandler checks before asking WriteOutScanTask to finish a grid scan
+  private static void finish(String taskID, String context) {
+    GridManager gm = GridManagerFactory.getGridManager();
+    if ((gm.getNumWorkItemsCompleteForTask(taskID) == 0) || (gm.getNumWorkItemsIncompleteForTask(taskID) > 0)) {
+      return;
+    }
+    Shepherd myShepherd = new Shepherd(context);
+    myShepherd.setAction("LocalScanExecutor.class");
+    myShepherd.beginDBTransaction();
+    boolean writeOut = false;
+    try {
+      if (myShepherd.isScanTask(taskID)) {
+        ScanTask st = myShepherd.getScanTask(taskID);
+        writeOut = !st.hasFinished();
+      }
+    } finally {
+      myShepherd.rollbackDBTransaction();
+      myShepherd.closeDBTransaction();
+    }
+    if (writeOut) {
+      System.out.println("...writing out local scanTask result: " + taskID);
+      new WriteOutScanTask().writeOut(taskID, context);
+    }
+  }
+
+}
@@ -25,7 +25,9 @@ import org.ecocean.Shepherd;
 import org.ecocean.servlet.ServletUtilities;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Vector;
 
 import javax.jdo.Query;
@@ -40,6 +42,8 @@ public class MatchGraphCreationThread implements Runnable, ISharkGridThread {
   String context="context0";
   String jdoql="SELECT FROM org.ecocean.Encounter";
   boolean finished = false;
+  //where the graph is loaded from and saved to, if anywhere
+  MatchGraphStore store;
   /**
    * Constructor to create a new thread object
    */
@@ -58,12 +62,104 @@ public class MatchGraphCreationThread implements Runnable, ISharkGridThread {
 
   }
 
+  public MatchGraphCreationThread(MatchGraphStore store) {
+    this();
+    this.store = store;
+  }
+
 
   /**
    * main method of the shepherd thread
    */
   public void run() {
+    if ((store != null) && loadSnapshot()) {
+      finished = true;
+      return;
+    }
     createThem();
+    if ((store != null) && finished) {
+      GridManager.setMatchGraphStore(store);
+      try {
+        store.writeSnapshot(GridManager.getMatchGraph());
+      } catch (Exception e) {
+        System.out.println("MatchGraphCreationThread could not write the match graph snapshot.");
+        e.printStackTrace();
+      }
+    }
+  }
+
+  //true if the graph came from the snapshot and so doesn't need building from the database
+  private boolean loadSnapshot() {
+    long start = System.currentTimeMillis();
+    try {
+      java.util.HashMap<String, EncounterLite> entries = new java.util.HashMap<String, EncounterLite>();
+      int count = store.load(entries);
+      if (count < 0) return false;
+      int refreshed = refresh(entries);
+      GridManager.loadMatchGraphEntries(entries);
+      GridManager.setMatchGraphStore(store);
+      //fold the replayed journal and any refreshed entries into a fresh snapshot
+      if ((store.getNumJournalRecords() > 0) || (refreshed > 0)) store.writeSnapshot(GridManager.getMatchGraph());
+      System.out.println("MatchGraphCreationThread loaded " + count + " EncounterLites from " + store.getSnapshotFile() + " (" + refreshed + " out of date) in " + (System.currentTimeMillis() - start) + "ms");
+      return true;
+    } catch (Exception e) {
+      System.out.println("MatchGraphCreationThread could not load the match graph snapshot, so rebuilding it.");
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+
+  /*
+   * The journal only hears about spots being added or removed and encounters being deleted, but the individual,
+   * sex and date each entry also holds can be edited anywhere. So they are checked against the database, with one
+   * query for just those fields, and entries that are out of date are remade with the new ones (same spots);
+   * entries whose encounter is gone are dropped.
+   *
+   * @return the number of entries remade or dropped
+   */
+  int refresh(Map<String, EncounterLite> entries) {
+    Shepherd myShepherd = new Shepherd(context);
+    myShepherd.setAction("MatchGraphCreationThread.refresh");
+    myShepherd.beginDBTransaction();
+    Query query = null;
+    int changed = 0;
+    try {
+      query = myShepherd.getPM().newQuery(Encounter.class);
+      query.setResult("catalogNumber, individualID, sex, year, month, day, hour, minutes");
+      Collection c = (Collection) (query.execute());
+      HashSet<String> seen = new HashSet<String>();
+      for (Object o : c) {
+        Object[] row = (Object[]) o;
+        String id = (String) row[0];
+        EncounterLite el = entries.get(id);
+        if (el == null) continue;
+        seen.add(id);
+        //as EncounterLite(Encounter) sets them
+        String indiv = (row[1] == null) ? "" : (String) row[1];
+        String sex = (row[2] == null) ? "Unknown" : (String) row[2];
+        String date = Encounter.formatDate(((Number) row[3]).intValue(), ((Number) row[4]).intValue(), ((Number) row[5]).intValue(), ((Number) row[6]).intValue(), (String) row[7]);
+        if (!same(indiv, el.getBelongsToMarkedIndividual()) || !same(sex, el.getSex()) || !same(date, el.getDate())) {
+          entries.put(id, new EncounterLite(id, indiv, sex, date, el.getSize(), el.getPatternArrays()));
+          changed++;
+        }
+      }
+      for (Iterator<String> it = entries.keySet().iterator(); it.hasNext(); ) {
+        if (!seen.contains(it.next())) {
+          it.remove();
+          changed++;
+        }
+      }
+    } finally {
+      if (query != null) query.closeAll();
+      myShepherd.rollbackDBTransaction();
+      myShepherd.closeDBTransaction();
+    }
+    return changed;
+  }
+
+  private static boolean same(String a, String b) {
+    return (a == null) ? (b == null) : a.equals(b);
   }
 
 
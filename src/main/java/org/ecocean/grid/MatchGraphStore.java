@@ -0,0 +1,329 @@
+package org.ecocean.grid;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+
+/**
+ * Keeps the GridManager's match graph on disk so it doesn't have to be rebuilt from the whole catalog at startup.
+ * <p>
+ * There are two files: a snapshot of every EncounterLite, and a journal that every later add/remove is appended
+ * to. At startup the snapshot is memory-mapped and read, then the journal is replayed over it. Once the journal
+ * gets long it is folded into a fresh snapshot (written to a temp file and renamed over the old one, so a crash
+ * never leaves a half-written snapshot). A torn record at the end of the journal is ignored.
+ * <p>
+ * Folding happens on a background thread. The journal is first set aside as a ".compacting" file and a new one
+ * started, so adds and removes keep being journaled while the snapshot is written. Until the new snapshot is in
+ * place, load() replays the set-aside journal before the current one.
+ * <p>
+ * Only spot changes and deletes are journaled; MatchGraphCreationThread checks each loaded entry's individual, sex
+ * and date against the database.
+ */
+public class MatchGraphStore {
+
+  private static final int MAGIC = 0x57424d47;  //"WBMG"
+  private static final byte VERSION = 1;
+
+  private static final byte OP_PUT = 1;
+  private static final byte OP_REMOVE = 2;
+
+  //journal records before it's folded into a new snapshot
+  private static final int COMPACT_AFTER = 2000;
+
+  private final File snapshotFile;
+  private final File journalFile;
+  private final File compactingFile;
+  private DataOutputStream journal;
+  private int journalRecords = 0;
+  private boolean compacting = false;
+
+  //only one snapshot is written at a time
+  private final Object snapshotLock = new Object();
+
+
+  public MatchGraphStore(File snapshotFile) {
+    this.snapshotFile = snapshotFile;
+    this.journalFile = new File(snapshotFile.getPath() + ".journal");
+    this.compactingFile = new File(snapshotFile.getPath() + ".journal.compacting");
+  }
+
+  public File getSnapshotFile() {
+    return snapshotFile;
+  }
+
+  public synchronized boolean exists() {
+    return snapshotFile.exists();
+  }
+
+  //records appended since the last snapshot
+  public synchronized int getNumJournalRecords() {
+    return journalRecords;
+  }
+
+  /**
+   * Reads the snapshot and replays the journal into graph.
+   *
+   * @return the number of entries loaded, or -1 if there is no usable snapshot
+   */
+  public synchronized int load(Map<String, EncounterLite> graph) throws IOException {
+    if (!snapshotFile.exists()) return -1;
+    ByteBuffer buf = map(snapshotFile);
+    if ((buf.remaining() < 5) || (buf.getInt() != MAGIC) || (buf.get() != VERSION)) {
+      System.out.println("MatchGraphStore: ignoring unreadable snapshot " + snapshotFile);
+      return -1;
+    }
+    int count = buf.getInt();
+    for (int i = 0; i < count; i++) {
+      String id = readString(buf);
+      graph.put(id, readEncounterLite(buf, id));
+    }
+
+    //a journal set aside by a compaction that never finished comes before the current one
+    journalRecords = replay(compactingFile, graph) + replay(journalFile, graph);
+    return graph.size();
+  }
+
+  private static int replay(File file, Map<String, EncounterLite> graph) throws IOException {
+    if (!file.exists() || (file.length() == 0)) return 0;
+    int records = 0;
+    ByteBuffer jbuf = map(file);
+    try {
+      while (jbuf.hasRemaining()) {
+        int start = jbuf.position();
+        byte op = jbuf.get();
+        String id = readString(jbuf);
+        if (op == OP_PUT) {
+          EncounterLite el = readEncounterLite(jbuf, id);
+          graph.put(id, el);
+        } else if (op == OP_REMOVE) {
+          graph.remove(id);
+        } else {
+          System.out.println("MatchGraphStore: bad journal record at " + start + " of " + file + ", ignoring the rest");
+          break;
+        }
+        records++;
+      }
+    } catch (BufferUnderflowException e) {
+      System.out.println("MatchGraphStore: " + file + " ends with a partial record, ignoring it");
+    }
+    return records;
+  }
+
+  public synchronized void put(String id, EncounterLite el, Map<String, EncounterLite> graph) {
+    try {
+      DataOutputStream out = journal();
+      out.writeByte(OP_PUT);
+      writeString(out, id);
+      writeEncounterLite(out, el);
+      out.flush();
+      journalRecords++;
+      if (journalRecords >= COMPACT_AFTER) compact(graph);
+    } catch (IOException e) {
+      System.out.println("MatchGraphStore: could not journal " + id);
+      e.printStackTrace();
+    }
+  }
+
+  public synchronized void remove(String id, Map<String, EncounterLite> graph) {
+    try {
+      DataOutputStream out = journal();
+      out.writeByte(OP_REMOVE);
+      writeString(out, id);
+      out.flush();
+      journalRecords++;
+      if (journalRecords >= COMPACT_AFTER) compact(graph);
+    } catch (IOException e) {
+      System.out.println("MatchGraphStore: could not journal removal of " + id);
+      e.printStackTrace();
+    }
+  }
+
+  //folds the journal into a new snapshot on a background thread, so the add/remove that got it here doesn't wait;
+  //graph is read while it changes, so it has to be a concurrent map (as GridManager's is)
+  private void compact(final Map<String, EncounterLite> graph) {
+    if (compacting) return;
+    compacting = true;
+    Thread t = new Thread(new Runnable() {
+      public void run() {
+        try {
+          writeSnapshot(graph);
+        } catch (Exception e) {
+          System.out.println("MatchGraphStore: could not compact " + snapshotFile);
+          e.printStackTrace();
+        } finally {
+          synchronized (MatchGraphStore.this) {
+            compacting = false;
+            MatchGraphStore.this.notifyAll();
+          }
+        }
+      }
+    }, "MatchGraphStore-compact");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  //waits for a background compaction to finish, if one is running
+  public synchronized void awaitCompaction() throws InterruptedException {
+    while (compacting) {
+      wait();
+    }
+  }
+
+  /**
+   * Writes all of graph to a new snapshot and empties the journal.
+   * Adds made while this runs are journaled after it, so none are lost.
+   */
+  public void writeSnapshot(Map<String, EncounterLite> graph) throws IOException {
+    synchronized (snapshotLock) {
+      setJournalAside();
+      writeSnapshotFile(graph);
+      compactingFile.delete();
+    }
+  }
+
+  //moves the journal to compactingFile (appending to it if an earlier compaction failed) and starts a new one
+  private synchronized void setJournalAside() throws IOException {
+    closeJournal();
+    journalRecords = 0;
+    if (!journalFile.exists()) return;
+    if (!compactingFile.exists()) {
+      Files.move(journalFile.toPath(), compactingFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      return;
+    }
+    FileOutputStream out = new FileOutputStream(compactingFile, true);
+    try {
+      Files.copy(journalFile.toPath(), out);
+    } finally {
+      out.close();
+    }
+    journalFile.delete();
+  }
+
+  private void writeSnapshotFile(Map<String, EncounterLite> graph) throws IOException {
+    File parent = snapshotFile.getAbsoluteFile().getParentFile();
+    if ((parent != null) && !parent.exists()) parent.mkdirs();
+    File tmp = new File(snapshotFile.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+    int count = 0;
+    try {
+      out.writeInt(MAGIC);
+      out.writeByte(VERSION);
+      //count is patched in below; the map can change while we iterate
+      out.writeInt(0);
+      for (Map.Entry<String, EncounterLite> entry : graph.entrySet()) {
+        writeString(out, entry.getKey());
+        writeEncounterLite(out, entry.getValue());
+        count++;
+      }
+    } finally {
+      out.close();
+    }
+    RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+    try {
+      raf.seek(5);
+      raf.writeInt(count);
+    } finally {
+      raf.close();
+    }
+    Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    System.out.println("MatchGraphStore: wrote " + count + " entries to " + snapshotFile);
+  }
+
+  public synchronized void close() {
+    closeJournal();
+  }
+
+
+  private DataOutputStream journal() throws IOException {
+    if (journal == null) {
+      journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+    }
+    return journal;
+  }
+
+  private void closeJournal() {
+    if (journal == null) return;
+    try {
+      journal.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    journal = null;
+  }
+
+  private static ByteBuffer map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      //the mapping stays valid after the channel is closed
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return buf;
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static void writeEncounterLite(DataOutputStream out, EncounterLite el) throws IOException {
+    writeString(out, el.getBelongsToMarkedIndividual());
+    writeString(out, el.getSex());
+    writeString(out, el.getDate());
+    out.writeDouble(el.getSize());
+    for (double[] arr : el.getPatternArrays()) {
+      if (arr == null) {
+        out.writeInt(-1);
+        continue;
+      }
+      out.writeInt(arr.length);
+      for (double d : arr) {
+        out.writeDouble(d);
+      }
+    }
+  }
+
+  private static EncounterLite readEncounterLite(ByteBuffer buf, String id) {
+    String indiv = readString(buf);
+    String sex = readString(buf);
+    String date = readString(buf);
+    double size = buf.getDouble();
+    double[][] arrays = new double[8][];
+    for (int i = 0; i < arrays.length; i++) {
+      int n = buf.getInt();
+      if (n < 0) continue;
+      arrays[i] = new double[n];
+      buf.asDoubleBuffer().get(arrays[i]);
+      buf.position(buf.position() + n * 8);
+    }
+    return new EncounterLite(id, indiv, sex, date, size, arrays);
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buf) {
+    int n = buf.getInt();
+    if (n < 0) return null;
+    byte[] bytes = new byte[n];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+}
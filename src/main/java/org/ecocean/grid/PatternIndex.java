@@ -0,0 +1,231 @@
+package org.ecocean.grid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Inverted index from quantized triangle shape to the match graph patterns that have a triangle of that shape, so
+ * a scan can pick the catalog patterns worth a full Groth/I3S comparison instead of comparing against all of them.
+ * <p>
+ * The shape of a triangle is the one the Groth matcher pairs triangles on: R (longest over shortest side), C (the
+ * cosine at vertex 1) and which way round its vertices go, all unchanged by moving, rotating or rescaling the
+ * pattern. The triangles come from EncounterLite.getGrothTriangles() (so they are shared with the matcher), and
+ * only the MAX_TRIANGLES with the largest perimeter are used, since small triangles are the ones spot jitter
+ * changes most. log R and C are cut into bins; a query looks in the neighbouring bins too, and each of its
+ * triangles gives one vote to every pattern with a triangle nearby. The candidates are the patterns with the most
+ * votes (scaled by the square root of their triangle count, so big patterns don't win just by being big).
+ * <p>
+ * One index covers one side (left or right spots). GridManager keeps them up to date as the match graph changes.
+ */
+public class PatternIndex {
+
+  static final int MAX_TRIANGLES = 400;
+  static final double LOG_R_BIN = 0.1;
+  static final double C_BIN = 0.05;
+
+  private final boolean rightSide;
+  private final double epsilon, maxR, maxC, sizelim;
+
+  //encounter number <-> ordinal; a removed pattern's ordinal is null in ids until the next compaction
+  private final HashMap<String, Integer> ordinals = new HashMap<String, Integer>();
+  private final ArrayList<String> ids = new ArrayList<String>();
+  private final ArrayList<Integer> triangleCounts = new ArrayList<Integer>();
+  private int numRemoved = 0;
+
+  //bin key -> ordinals with a triangle in that bin (an ordinal can appear more than once)
+  private final HashMap<Integer, Postings> postings = new HashMap<Integer, Postings>();
+
+
+  private static final class Postings {
+    int[] ordinals = new int[4];
+    int size = 0;
+
+    void add(int ordinal) {
+      if (size == ordinals.length) ordinals = Arrays.copyOf(ordinals, size * 2);
+      ordinals[size++] = ordinal;
+    }
+  }
+
+
+  public PatternIndex(boolean rightSide, double epsilon, double maxR, double maxC, double sizelim) {
+    this.rightSide = rightSide;
+    this.epsilon = epsilon;
+    this.maxR = maxR;
+    this.maxC = maxC;
+    this.sizelim = sizelim;
+  }
+
+  public boolean isFor(boolean rightSide, double epsilon, double maxR, double maxC, double sizelim) {
+    return (this.rightSide == rightSide) && (this.epsilon == epsilon) && (this.maxR == maxR) && (this.maxC == maxC) && (this.sizelim == sizelim);
+  }
+
+  public synchronized int size() {
+    return ordinals.size();
+  }
+
+  /**
+   * Indexes (or re-indexes) a pattern. Encounters without spots on this side are just left out.
+   */
+  public synchronized void put(String id, EncounterLite el) {
+    remove(id);
+    int[] keys = keys(el);
+    if (keys == null) return;
+    int ordinal = ids.size();
+    ids.add(id);
+    triangleCounts.add(keys.length);
+    ordinals.put(id, ordinal);
+    for (int key : keys) {
+      Postings p = postings.get(key);
+      if (p == null) {
+        p = new Postings();
+        postings.put(key, p);
+      }
+      p.add(ordinal);
+    }
+  }
+
+  public synchronized void remove(String id) {
+    Integer ordinal = ordinals.remove(id);
+    if (ordinal == null) return;
+    ids.set(ordinal, null);
+    numRemoved++;
+    //once most of the postings are dead weight, rebuild them without the removed patterns
+    if ((numRemoved > 1000) && (numRemoved > ordinals.size())) compact();
+  }
+
+  public synchronized void putAll(Map<String, EncounterLite> graph) {
+    for (Map.Entry<String, EncounterLite> entry : graph.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * The ids of (up to) the numCandidates indexed patterns most likely to match el, best first. el itself is
+   * included if it is in the index.
+   */
+  public synchronized List<String> candidates(EncounterLite el, int numCandidates) {
+    List<String> result = new ArrayList<String>();
+    int[] keys = keys(el);
+    if ((keys == null) || (numCandidates <= 0)) return result;
+
+    int n = ids.size();
+    int[] votes = new int[n];
+    int[] lastVoter = new int[n];
+    Arrays.fill(lastVoter, -1);
+    for (int t = 0; t < keys.length; t++) {
+      int cw = keys[t] & 1;
+      int lr = keys[t] >> 9;
+      int cq = (keys[t] >> 1) & 0xff;
+      for (int dr = -1; dr <= 1; dr++) {
+        for (int dc = -1; dc <= 1; dc++) {
+          Postings p = postings.get(key(lr + dr, cq + dc, cw));
+          if (p == null) continue;
+          for (int k = 0; k < p.size; k++) {
+            int o = p.ordinals[k];
+            //one vote per query triangle
+            if (lastVoter[o] == t) continue;
+            lastVoter[o] = t;
+            votes[o]++;
+          }
+        }
+      }
+    }
+
+    //the best numCandidates by score, kept in a small sorted array
+    int m = Math.min(numCandidates, n);
+    int[] best = new int[m];
+    double[] bestScore = new double[m];
+    int found = 0;
+    for (int o = 0; o < n; o++) {
+      if ((votes[o] == 0) || (ids.get(o) == null)) continue;
+      double score = votes[o] / Math.sqrt(triangleCounts.get(o));
+      if ((found == m) && (score <= bestScore[m - 1])) continue;
+      int at = (found < m) ? found++ : m - 1;
+      while ((at > 0) && (bestScore[at - 1] < score)) {
+        best[at] = best[at - 1];
+        bestScore[at] = bestScore[at - 1];
+        at--;
+      }
+      best[at] = o;
+      bestScore[at] = score;
+    }
+    for (int i = 0; i < found; i++) {
+      result.add(ids.get(best[i]));
+    }
+    return result;
+  }
+
+
+  //the bin keys of a pattern's largest triangles, or null if it has none on this side
+  private int[] keys(EncounterLite el) {
+    if (el == null) return null;
+    GrothMatcher.Triangles t = el.getGrothTriangles(rightSide, epsilon, maxR, maxC, sizelim);
+    if ((t == null) || (t.size == 0)) return null;
+    int[] order = largest(t.logPerimeter, t.size, MAX_TRIANGLES);
+    int[] keys = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      int s = order[i];
+      int lr = (int) Math.floor(Math.log(t.r[s]) / LOG_R_BIN);
+      int cq = (int) Math.floor((t.c[s] + 1) / C_BIN);
+      keys[i] = key(lr, cq, t.clockwise[s] ? 1 : 0);
+    }
+    return keys;
+  }
+
+  //log R >= 0 and C in [-1, 1], so both bins fit in a few bits; out of range neighbours just find nothing
+  private static int key(int lr, int cq, int cw) {
+    return (lr << 9) | ((cq & 0xff) << 1) | cw;
+  }
+
+  //indexes of the (up to) k largest values
+  private static int[] largest(double[] values, int size, int k) {
+    if (size <= k) {
+      int[] all = new int[size];
+      for (int i = 0; i < size; i++) all[i] = i;
+      return all;
+    }
+    double[] sorted = Arrays.copyOf(values, size);
+    Arrays.sort(sorted);
+    double cutoff = sorted[size - k];
+    int[] result = new int[k];
+    int found = 0;
+    for (int i = 0; (i < size) && (found < k); i++) {
+      if (values[i] > cutoff) result[found++] = i;
+    }
+    for (int i = 0; (i < size) && (found < k); i++) {
+      if (values[i] == cutoff) result[found++] = i;
+    }
+    return result;
+  }
+
+  private void compact() {
+    HashMap<Integer, Integer> renumber = new HashMap<Integer, Integer>();
+    ArrayList<String> liveIds = new ArrayList<String>();
+    ArrayList<Integer> liveCounts = new ArrayList<Integer>();
+    for (int o = 0; o < ids.size(); o++) {
+      if (ids.get(o) == null) continue;
+      renumber.put(o, liveIds.size());
+      ordinals.put(ids.get(o), liveIds.size());
+      liveIds.add(ids.get(o));
+      liveCounts.add(triangleCounts.get(o));
+    }
+    for (Postings p : postings.values()) {
+      int kept = 0;
+      for (int k = 0; k < p.size; k++) {
+        Integer o = renumber.get(p.ordinals[k]);
+        if (o != null) p.ordinals[kept++] = o;
+      }
+      p.size = kept;
+    }
+    ids.clear();
+    ids.addAll(liveIds);
+    triangleCounts.clear();
+    triangleCounts.addAll(liveCounts);
+    numRemoved = 0;
+  }
+
+}
@@ -0,0 +1,477 @@
+package org.ecocean.grid;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.ecocean.CommonConfiguration;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The saved results of one scan (Groth or I3S, one side of one encounter), in place of the pretty-printed
+ * lastFull*Scan.xml files.
+ * <p>
+ * While a scan runs, GridManager hands each checked-in MatchObject to the task's Collector, which only keeps
+ * the best topK of each kind in a bounded heap. When the scan is done WriteOutScanTask writes those once, best
+ * first: a small header, a fixed-size index (score and file offset of each match), then the match records.
+ * A results page seeks to the index entries and records it shows instead of parsing the whole file, and
+ * toXML() rebuilds the old XML layout for anything that still wants it (ScanResultsExport).
+ */
+public class ScanResultStore implements Closeable {
+
+  public static final int DEFAULT_TOP_K = 500;
+
+  private static final int MAGIC = 0x57425352;
+  private static final int VERSION = 1;
+  //score (double) + offset (long)
+  private static final int INDEX_ENTRY = 16;
+
+
+  /**
+   * The catalog encounter of a match, or the scanned encounter. Any field can be null.
+   */
+  public static class EncounterInfo {
+    public String number, date, sex, individualID, size, location, locationID;
+  }
+
+  public static class Match {
+    //matchValue * adjustedMatchValue for Groth, the I3S value for I3S
+    public double score;
+    public double points = Double.NaN, adjustedPoints = Double.NaN;
+    public String pointBreakdown, logMStdDev, evaluation;
+    public EncounterInfo encounter = new EncounterInfo();
+    //x0, y0, x1, y1... of the matched spots on the catalog encounter and, in the same order, the scanned one
+    public double[] spots = new double[0];
+    public double[] newSpots = new double[0];
+    public String[] keywords = new String[0];
+
+    //the score as the old XML wrote it
+    public String getScoreString() {
+      String s = Double.toString(score);
+      if (s.length() > 7) s = s.substring(0, 6);
+      return s;
+    }
+  }
+
+
+  /**
+   * The best k MatchObjects offered, by the given comparator (best first, as MatchComparator and
+   * NewI3SMatchComparator sort). The heap's head is the worst one kept, so a new result that isn't better
+   * is dropped in O(1).
+   */
+  public static class TopK {
+    private final int k;
+    private final Comparator better;
+    private final PriorityQueue<MatchObject> heap;
+
+    public TopK(int k, Comparator better) {
+      this.k = Math.max(1, k);
+      this.better = better;
+      final Comparator b = better;
+      heap = new PriorityQueue<MatchObject>(Math.min(this.k, 1024) + 1, new Comparator<MatchObject>() {
+        public int compare(MatchObject m1, MatchObject m2) {
+          return b.compare(m2, m1);
+        }
+      });
+    }
+
+    public synchronized void offer(MatchObject mo) {
+      if (heap.size() < k) {
+        heap.add(mo);
+      } else if (better.compare(mo, heap.peek()) < 0) {
+        heap.poll();
+        heap.add(mo);
+      }
+    }
+
+    public synchronized MatchObject[] sorted() {
+      MatchObject[] result = heap.toArray(new MatchObject[heap.size()]);
+      Arrays.sort(result, better);
+      return result;
+    }
+  }
+
+
+  /**
+   * The running results of one scan task: the top Groth and top I3S matches, each kept only if it would have
+   * made it into the old XML.
+   */
+  public static class Collector {
+    private final TopK groth, i3s;
+    private final AtomicInteger numAdded = new AtomicInteger();
+
+    public Collector(int topK) {
+      groth = new TopK(topK, new MatchComparator());
+      i3s = new TopK(topK, new NewI3SMatchComparator());
+    }
+
+    public void add(MatchObject mo) {
+      if (mo == null) return;
+      numAdded.incrementAndGet();
+      if (isGrothMatch(mo)) groth.offer(mo);
+      if (isI3SMatch(mo)) i3s.offer(mo);
+    }
+
+    public int getNumAdded() {
+      return numAdded.get();
+    }
+
+    public MatchObject[] getGrothMatches() {
+      return groth.sorted();
+    }
+
+    public MatchObject[] getI3SMatches() {
+      return i3s.sorted();
+    }
+  }
+
+  //scanResultsTopK in commonConfiguration.properties: how many matches of each kind a scan saves
+  public static int getTopK(String context) {
+    String n = CommonConfiguration.getProperty("scanResultsTopK", context);
+    if (n == null) return DEFAULT_TOP_K;
+    try {
+      return Integer.parseInt(n.trim());
+    } catch (NumberFormatException nfe) {
+      System.out.println("ScanResultStore: ignoring bad scanResultsTopK value " + n);
+      return DEFAULT_TOP_K;
+    }
+  }
+
+  public static boolean isGrothMatch(MatchObject mo) {
+    return (mo.getMatchValue() > 0) && ((mo.getMatchValue() * mo.getAdjustedMatchValue()) > 2);
+  }
+
+  public static boolean isI3SMatch(MatchObject mo) {
+    return (mo.getI3SMatchValue() > 0.001) && (mo.getI3SMatchValue() <= 2.0);
+  }
+
+
+  //file names, next to the old XML ones in the encounter's directory
+
+  public static File getFile(String encounterDir, boolean rightSide, boolean i3s) {
+    return new File(encounterDir, "lastFull" + (rightSide ? "Right" : "") + (i3s ? "I3S" : "") + "Scan.dat");
+  }
+
+  public static File getXMLFile(String encounterDir, boolean rightSide, boolean i3s) {
+    return new File(encounterDir, "lastFull" + (rightSide ? "Right" : "") + (i3s ? "I3S" : "") + "Scan.xml");
+  }
+
+  //true if there are saved results of either kind (a store, or XML from before there were stores)
+  public static boolean exists(String encounterDir, boolean rightSide, boolean i3s) {
+    return getFile(encounterDir, rightSide, i3s).exists() || getXMLFile(encounterDir, rightSide, i3s).exists();
+  }
+
+
+  /**
+   * Writes a store, replacing any old one. matches should already be in order, best first.
+   */
+  public static void write(File file, boolean i3s, boolean rightSide, long scanDate, Map<String, String> parameters, EncounterInfo newEncounter, List<Match> matches) throws IOException {
+    ByteArrayOutputStream headBytes = new ByteArrayOutputStream();
+    DataOutputStream head = new DataOutputStream(headBytes);
+    head.writeBoolean(i3s);
+    head.writeBoolean(rightSide);
+    head.writeLong(scanDate);
+    head.writeInt(parameters.size());
+    for (Map.Entry<String, String> entry : parameters.entrySet()) {
+      writeString(head, entry.getKey());
+      writeString(head, entry.getValue());
+    }
+    writeEncounter(head, newEncounter);
+    head.writeInt(matches.size());
+    head.flush();
+
+    //the records go in a buffer first so their offsets are known when the index is written; there are at most topK
+    ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    DataOutputStream records = new DataOutputStream(recordBytes);
+    int[] offsets = new int[matches.size()];
+    for (int i = 0; i < matches.size(); i++) {
+      offsets[i] = records.size();
+      writeMatch(records, matches.get(i));
+    }
+    records.flush();
+
+    long recordsStart = 12 + headBytes.size() + (long) INDEX_ENTRY * matches.size();
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(headBytes.size());
+      headBytes.writeTo(out);
+      for (int i = 0; i < matches.size(); i++) {
+        out.writeDouble(matches.get(i).score);
+        out.writeLong(recordsStart + offsets[i]);
+      }
+      recordBytes.writeTo(out);
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(file)) {
+      file.delete();
+      if (!tmp.renameTo(file)) throw new IOException("Could not move " + tmp + " to " + file);
+    }
+  }
+
+
+  private final RandomAccessFile raf;
+  private final boolean i3s, rightSide;
+  private final long scanDate;
+  private final LinkedHashMap<String, String> parameters = new LinkedHashMap<String, String>();
+  private final EncounterInfo newEncounter;
+  private final int size;
+  private final long indexStart;
+
+  public static ScanResultStore open(File file) throws IOException {
+    return new ScanResultStore(file);
+  }
+
+  private ScanResultStore(File file) throws IOException {
+    raf = new RandomAccessFile(file, "r");
+    try {
+      if (raf.readInt() != MAGIC) throw new IOException(file + " is not a scan result store");
+      int version = raf.readInt();
+      if (version != VERSION) throw new IOException(file + " has unknown version " + version);
+      byte[] headBytes = new byte[raf.readInt()];
+      raf.readFully(headBytes);
+      DataInputStream head = new DataInputStream(new ByteArrayInputStream(headBytes));
+      i3s = head.readBoolean();
+      rightSide = head.readBoolean();
+      scanDate = head.readLong();
+      int numParameters = head.readInt();
+      for (int i = 0; i < numParameters; i++) {
+        parameters.put(readString(head), readString(head));
+      }
+      newEncounter = readEncounter(head);
+      size = head.readInt();
+      indexStart = raf.getFilePointer();
+    } catch (IOException ioe) {
+      raf.close();
+      throw ioe;
+    }
+  }
+
+  public boolean isI3S() {
+    return i3s;
+  }
+
+  public boolean isRightSide() {
+    return rightSide;
+  }
+
+  public long getScanDate() {
+    return scanDate;
+  }
+
+  public String getParameter(String name) {
+    return parameters.get(name);
+  }
+
+  public EncounterInfo getNewEncounter() {
+    return newEncounter;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public Match get(int i) throws IOException {
+    List<Match> page = getPage(i, 1);
+    if (page.isEmpty()) throw new IndexOutOfBoundsException("match " + i + " of " + size);
+    return page.get(0);
+  }
+
+  /**
+   * Matches from..from+count-1 (fewer at the end), best first. Reads the index entries and then the records,
+   * which are next to each other in the file, in one go each.
+   */
+  public synchronized List<Match> getPage(int from, int count) throws IOException {
+    List<Match> page = new ArrayList<Match>();
+    from = Math.max(0, from);
+    int to = Math.min(size, from + Math.max(0, count));
+    if (from >= to) return page;
+
+    byte[] indexBytes = new byte[(to - from) * INDEX_ENTRY];
+    raf.seek(indexStart + (long) from * INDEX_ENTRY);
+    raf.readFully(indexBytes);
+    DataInputStream index = new DataInputStream(new ByteArrayInputStream(indexBytes));
+    double[] scores = new double[to - from];
+    long first = 0;
+    for (int i = 0; i < scores.length; i++) {
+      scores[i] = index.readDouble();
+      long offset = index.readLong();
+      if (i == 0) first = offset;
+    }
+    long end = raf.length();
+    if (to < size) {
+      raf.seek(indexStart + (long) to * INDEX_ENTRY + 8);
+      end = raf.readLong();
+    }
+
+    byte[] recordBytes = new byte[(int) (end - first)];
+    raf.seek(first);
+    raf.readFully(recordBytes);
+    DataInputStream records = new DataInputStream(new ByteArrayInputStream(recordBytes));
+    for (int i = 0; i < scores.length; i++) {
+      Match m = readMatch(records);
+      m.score = scores[i];
+      page.add(m);
+    }
+    return page;
+  }
+
+  public void close() throws IOException {
+    raf.close();
+  }
+
+
+  /**
+   * The whole store in the layout of the old lastFull*Scan.xml files.
+   */
+  public synchronized Document toXML() throws IOException {
+    Document document = DocumentHelper.createDocument();
+    Element root = document.addElement("matchSet");
+    root.addAttribute("scanDate", (new Date(scanDate)).toString());
+    for (Map.Entry<String, String> entry : parameters.entrySet()) {
+      root.addAttribute(entry.getKey(), entry.getValue());
+    }
+    for (Match m : getPage(0, size)) {
+      Element match = root.addElement("match");
+      if (!i3s) {
+        match.addAttribute("points", Double.toString(m.points));
+        match.addAttribute("adjustedpoints", Double.toString(m.adjustedPoints));
+        match.addAttribute("pointBreakdown", m.pointBreakdown);
+      }
+      match.addAttribute("finalscore", m.getScoreString());
+      if (!i3s) match.addAttribute("logMStdDev", m.logMStdDev);
+      match.addAttribute("evaluation", m.evaluation);
+      addEncounter(match, m.encounter, m.spots);
+      addEncounter(match, newEncounter, m.newSpots);
+      if (m.keywords.length > 0) {
+        Element kws = match.addElement("keywords");
+        for (String keyword : m.keywords) {
+          kws.addElement("keyword").addAttribute("name", keyword);
+        }
+      }
+    }
+    return document;
+  }
+
+  //null attributes are left out, as dom4j does
+  private static void addEncounter(Element match, EncounterInfo info, double[] spots) {
+    Element enc = match.addElement("encounter");
+    enc.addAttribute("number", info.number);
+    enc.addAttribute("date", info.date);
+    enc.addAttribute("sex", info.sex);
+    enc.addAttribute("assignedToShark", info.individualID);
+    enc.addAttribute("size", info.size);
+    enc.addAttribute("location", info.location);
+    enc.addAttribute("locationID", info.locationID);
+    for (int i = 0; i + 1 < spots.length; i += 2) {
+      Element spot = enc.addElement("spot");
+      spot.addAttribute("x", Double.toString(spots[i]));
+      spot.addAttribute("y", Double.toString(spots[i + 1]));
+    }
+  }
+
+
+  private static void writeMatch(DataOutputStream out, Match m) throws IOException {
+    out.writeDouble(m.points);
+    out.writeDouble(m.adjustedPoints);
+    writeString(out, m.pointBreakdown);
+    writeString(out, m.logMStdDev);
+    writeString(out, m.evaluation);
+    writeEncounter(out, m.encounter);
+    writeDoubles(out, m.spots);
+    writeDoubles(out, m.newSpots);
+    out.writeInt(m.keywords.length);
+    for (String keyword : m.keywords) writeString(out, keyword);
+  }
+
+  private static Match readMatch(DataInputStream in) throws IOException {
+    Match m = new Match();
+    m.points = in.readDouble();
+    m.adjustedPoints = in.readDouble();
+    m.pointBreakdown = readString(in);
+    m.logMStdDev = readString(in);
+    m.evaluation = readString(in);
+    m.encounter = readEncounter(in);
+    m.spots = readDoubles(in);
+    m.newSpots = readDoubles(in);
+    m.keywords = new String[in.readInt()];
+    for (int i = 0; i < m.keywords.length; i++) m.keywords[i] = readString(in);
+    return m;
+  }
+
+  private static void writeEncounter(DataOutputStream out, EncounterInfo info) throws IOException {
+    if (info == null) info = new EncounterInfo();
+    writeString(out, info.number);
+    writeString(out, info.date);
+    writeString(out, info.sex);
+    writeString(out, info.individualID);
+    writeString(out, info.size);
+    writeString(out, info.location);
+    writeString(out, info.locationID);
+  }
+
+  private static EncounterInfo readEncounter(DataInputStream in) throws IOException {
+    EncounterInfo info = new EncounterInfo();
+    info.number = readString(in);
+    info.date = readString(in);
+    info.sex = readString(in);
+    info.individualID = readString(in);
+    info.size = readString(in);
+    info.location = readString(in);
+    info.locationID = readString(in);
+    return info;
+  }
+
+  private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+    out.writeInt(values.length);
+    for (double v : values) out.writeDouble(v);
+  }
+
+  private static double[] readDoubles(DataInputStream in) throws IOException {
+    double[] values = new double[in.readInt()];
+    for (int i = 0; i < values.length; i++) values[i] = in.readDouble();
+    return values;
+  }
+
+  //length-prefixed UTF-8 (-1 for null), since writeUTF stops at 64k and pointBreakdown can be long
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) return null;
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+}
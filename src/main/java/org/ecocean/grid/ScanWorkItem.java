@@ -129,6 +129,22 @@ public class ScanWorkItem implements java.io.Serializable {
 
   }
 
+  //used by GridWireFormat when decoding a work batch on a node
+  ScanWorkItem(EncounterLite newEnc, EncounterLite existingEnc, String uniqueNum, String taskID, double epsilon, double R, double Sizelim, double maxTriangleRotation, double C, boolean secondRun, boolean rightScan) {
+    this.newEncounter = newEnc;
+    this.existingEncounter = existingEnc;
+    this.uniqueNum = uniqueNum;
+    this.taskID = taskID;
+    this.epsilon = new Double(epsilon);
+    this.R = new Double(R);
+    this.Sizelim = new Double(Sizelim);
+    this.maxTriangleRotation = new Double(maxTriangleRotation);
+    this.C = new Double(C);
+    this.secondRun = secondRun;
+    this.rightScan = rightScan;
+    createTime = System.currentTimeMillis();
+  }
+
   //public scanWorkItemResult getResult(){
   //return result;
   //}
@@ -168,43 +184,57 @@ public class ScanWorkItem implements java.io.Serializable {
    * Make sure to setDone() when execute has completed successfully.
    */
   public MatchObject execute() {
+    return execute(true);
+  }
 
+  /**
+   * As execute(), but resetSpots=false leaves both encounters' spot arrays alone (no copies made) instead of rebuilding them
+   * after the Groth pass. The rebuild writes back the same values, but the arrays are empty while it runs,
+   * so EncounterLites shared between threads (LocalScanExecutor) must not be reset.
+   */
+  MatchObject execute(boolean resetSpots) {
+
+
+    //copies of the spots to reset the patterns with after Groth processing (not needed, so not made, without the reset)
+    ArrayList<SuperSpot> newGrothSpots = null;
+    ArrayList<SuperSpot> existingGrothSpots = null;
+    if (resetSpots) {
+      //determine which spots to pass in
+      SuperSpot[] newspotsTemp = new SuperSpot[0];
+      SuperSpot[] oldspotsTemp = new SuperSpot[0];
+      if (!rightScan) {
+        newspotsTemp = (SuperSpot[]) newEncounter.getSpots().toArray(newspotsTemp);
+        oldspotsTemp = (SuperSpot[]) existingEncounter.getSpots().toArray(oldspotsTemp);
+      } else {
+        newspotsTemp = (SuperSpot[]) newEncounter.getRightSpots().toArray(newspotsTemp);
+        oldspotsTemp = (SuperSpot[]) existingEncounter.getRightSpots().toArray(oldspotsTemp);
+      }
 
-    //determine which spots to pass in
-    SuperSpot[] newspotsTemp = new SuperSpot[0];
-    SuperSpot[] oldspotsTemp = new SuperSpot[0];
-    if (!rightScan) {
-      newspotsTemp = (SuperSpot[]) newEncounter.getSpots().toArray(newspotsTemp);
-      oldspotsTemp = (SuperSpot[]) existingEncounter.getSpots().toArray(oldspotsTemp);
-    } else {
-      newspotsTemp = (SuperSpot[]) newEncounter.getRightSpots().toArray(newspotsTemp);
-      oldspotsTemp = (SuperSpot[]) existingEncounter.getRightSpots().toArray(oldspotsTemp);
-    }
-
-    //create a re-write of the new spots
-    ArrayList<SuperSpot> newGrothSpots = new ArrayList<SuperSpot>();
-    int spotLength = newspotsTemp.length;
-    for (int t = 0; t < spotLength; t++) {
-      newGrothSpots.add(new SuperSpot(new Spot(0, newspotsTemp[t].getTheSpot().getCentroidX(), newspotsTemp[t].getTheSpot().getCentroidY())));
-    }
+      //create a re-write of the new spots
+      newGrothSpots = new ArrayList<SuperSpot>();
+      int spotLength = newspotsTemp.length;
+      for (int t = 0; t < spotLength; t++) {
+        newGrothSpots.add(new SuperSpot(new Spot(0, newspotsTemp[t].getTheSpot().getCentroidX(), newspotsTemp[t].getTheSpot().getCentroidY())));
+      }
 
-    //create a re-write of the old spots
-    ArrayList<SuperSpot> existingGrothSpots = new ArrayList<SuperSpot>();
-    int spotLength2 = oldspotsTemp.length;
-    for (int t = 0; t < spotLength2; t++) {
-      existingGrothSpots.add(new SuperSpot(new Spot(0, oldspotsTemp[t].getTheSpot().getCentroidX(), oldspotsTemp[t].getTheSpot().getCentroidY())));
+      //create a re-write of the old spots
+      existingGrothSpots = new ArrayList<SuperSpot>();
+      int spotLength2 = oldspotsTemp.length;
+      for (int t = 0; t < spotLength2; t++) {
+        existingGrothSpots.add(new SuperSpot(new Spot(0, oldspotsTemp[t].getTheSpot().getCentroidX(), oldspotsTemp[t].getTheSpot().getCentroidY())));
+      }
     }
 
 
-    MatchObject result = existingEncounter.getPointsForBestMatch(newspotsTemp, epsilon.doubleValue(), R.doubleValue(), Sizelim.doubleValue(), maxTriangleRotation.doubleValue(), C.doubleValue(), secondRun, rightScan);
+    MatchObject result = existingEncounter.getPointsForBestMatch(newEncounter, epsilon.doubleValue(), R.doubleValue(), Sizelim.doubleValue(), maxTriangleRotation.doubleValue(), C.doubleValue(), secondRun, rightScan);
 
     //I3S processing
 
     //reset the spot patterns after Groth processing
-    if (!rightScan) {
+    if (resetSpots && !rightScan) {
       newEncounter.processLeftSpots(newGrothSpots);
       existingEncounter.processLeftSpots(existingGrothSpots);
-    } else {
+    } else if (resetSpots) {
       newEncounter.processRightSpots(newGrothSpots);
       existingEncounter.processRightSpots(existingGrothSpots);
     }
@@ -331,6 +361,10 @@ public class ScanWorkItem implements java.io.Serializable {
     workItemsCompleteInTask = num;
   }
 
+  public boolean isSecondRun() {
+    return secondRun;
+  }
+
   public boolean isRightScan() {
     return rightScan;
   }
@@ -19,12 +19,16 @@
 
 package org.ecocean.grid;
 
+import org.ecocean.CommonConfiguration;
 import org.ecocean.Encounter;
 //import org.ecocean.Occurrence;
 import org.ecocean.Shepherd;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Vector;
 
 import javax.jdo.Query;
@@ -44,11 +48,18 @@ public class ScanWorkItemCreationThread implements Runnable, ISharkGridThread {
   GridManager gm;
   String context="context0";
   String jdoql="SELECT FROM org.ecocean.Encounter";
+  //run the comparisons here with LocalScanExecutor instead of handing them to grid nodes
+  boolean local = false;
 
   /**
    * Constructor to create a new thread object
    */
   public ScanWorkItemCreationThread(String taskID, boolean rightSide, String encounterNum, boolean writeThis, String context, String jdoql) {
+    this(taskID, rightSide, encounterNum, writeThis, context, jdoql, false);
+  }
+
+  public ScanWorkItemCreationThread(String taskID, boolean rightSide, String encounterNum, boolean writeThis, String context, String jdoql, boolean local) {
+    this.local = local;
     this.taskID = taskID;
     this.writeThis = writeThis;
     this.rightSide = rightSide;
@@ -108,10 +119,12 @@ public class ScanWorkItemCreationThread implements Runnable, ISharkGridThread {
     props2.setProperty("C", gm.getGrothC());
     props2.setProperty("secondRun", gm.getGrothSecondRun());
 
+    //start keeping the best results before any work item can come back
+    gm.startScanResults(taskID, ScanResultStore.getTopK(context));
 
     
     Vector<String> newSWIs = new Vector<String>();
-    Vector<ScanWorkItem> addThese = new Vector<ScanWorkItem>();
+    ArrayList<ScanWorkItem> addThese = new ArrayList<ScanWorkItem>();
     //System.out.println("Successfully created the scanTask shell!");
     //myShepherd.beginDBTransaction();
     //EncounterLite baseEnc=new EncounterLite(myShepherd.getEncounter(encounterNumber));
@@ -130,6 +143,17 @@ public class ScanWorkItemCreationThread implements Runnable, ISharkGridThread {
 
       ConcurrentHashMap<String,EncounterLite> chm= gm.getMatchGraph();
       Enumeration<String> keys=chm.keys();
+
+      //optionally only compare against the patterns the PatternIndex thinks are most alike
+      int numCandidates = getNumCandidates();
+      int numPatterns = rightSide ? GridManager.getNumRightPatterns() : GridManager.getNumLeftPatterns();
+      if ((numCandidates > 0) && (baseEnc != null) && (numPatterns > numCandidates + 1)) {
+        long start = System.currentTimeMillis();
+        //+1 since baseEnc usually finds itself
+        List<String> candidates = gm.getPatternIndex(rightSide).candidates(baseEnc, numCandidates + 1);
+        System.out.println("ScanWorkItemCreationThread: " + taskID + " prefiltered to " + candidates.size() + " of " + numPatterns + " patterns in " + (System.currentTimeMillis() - start) + "ms");
+        keys = Collections.enumeration(candidates);
+      }
      
       int count = 0;
 
@@ -137,6 +161,8 @@ public class ScanWorkItemCreationThread implements Runnable, ISharkGridThread {
         //System.out.println("     Iterating encounters to create scanWorkItems...");
         String kv=keys.nextElement();
         EncounterLite el=chm.get(kv);
+        //removed since we started
+        if (el == null) continue;
         //Encounter enc = (Encounter) encounters.next();
         if (!kv.equals(encounterNumber)) {
           String wiIdentifier = taskID + "_" + (new Integer(count)).toString();
@@ -145,7 +171,7 @@ public class ScanWorkItemCreationThread implements Runnable, ISharkGridThread {
             ScanWorkItem swi = new ScanWorkItem(baseEnc, el, wiIdentifier, taskID, props2);
             //String uniqueNum = swi.getUniqueNumber();
 
-            gm.addWorkItem(swi);
+            addWorkItem(gm, swi, addThese);
 
             //System.out.println("Added a new right-side scan task!");
             count++;
@@ -157,7 +183,7 @@ public class ScanWorkItemCreationThread implements Runnable, ISharkGridThread {
             //String uniqueNum = swi.getUniqueNumber();
 
 
-            gm.addWorkItem(swi);
+            addWorkItem(gm, swi, addThese);
             //System.out.println("Added a new left-side scan task: " + count);
             count++;
           }
@@ -166,6 +192,10 @@ public class ScanWorkItemCreationThread implements Runnable, ISharkGridThread {
       }
 
 
+      if (local) {
+        LocalScanExecutor.scan(taskID, addThese, context);
+      }
+
       //System.out.println("Trying to commit the add of the scanWorkItems after leaving loop");
       //myShepherd.rollbackDBTransaction();
       
@@ -184,5 +214,26 @@ public class ScanWorkItemCreationThread implements Runnable, ISharkGridThread {
 
   }
 
+  //patternMatchingCandidates in commonConfiguration.properties; 0 (or unset) compares against everything
+  private int getNumCandidates() {
+    String n = CommonConfiguration.getProperty("patternMatchingCandidates", context);
+    if (n == null) return 0;
+    try {
+      return Integer.parseInt(n.trim());
+    } catch (NumberFormatException nfe) {
+      System.out.println("ScanWorkItemCreationThread: ignoring bad patternMatchingCandidates value " + n);
+      return 0;
+    }
+  }
+
+  private void addWorkItem(GridManager gm, ScanWorkItem swi, ArrayList<ScanWorkItem> addThese) {
+    if (local) {
+      gm.addLocalWorkItem(swi);
+      addThese.add(swi);
+    } else {
+      gm.addWorkItem(swi);
+    }
+  }
+
 
 }
\ No newline at end of file
@@ -29,6 +29,8 @@ import javax.net.ssl.HttpsURLConnection;
 
 import java.util.ArrayList;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Random;
 import java.util.Vector;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -50,6 +52,13 @@ public class WorkAppletHeadlessEpic {
 
   //public static String thisURLRoot = "https://www.whaleshark.org";
   public static ArrayList<String> urlArray = new ArrayList<String>(); 
+
+  //patterns each server has sent us in GridWireFormat, keyed by server url
+  private HashMap<String, GridWireFormat.PatternCache> patternCaches = new HashMap<String, GridWireFormat.PatternCache>();
+  //servers whose patterns we lost track of, so the next request asks for them again
+  private HashSet<String> resetPatternCache = new HashSet<String>();
+  //servers that answered our last work request in GridWireFormat; older servers ignore the parameter and send serialized objects
+  private HashSet<String> binaryServers = new HashSet<String>();
   
   
   
@@ -188,7 +197,7 @@ public class WorkAppletHeadlessEpic {
             ScanWorkItem swi = new ScanWorkItem();
             Vector workItems = new Vector();
             Vector workItemResults = new Vector();
-            ObjectInputStream inputFromServlet=null;
+            InputStream inputFromServlet=null;
             try {
               //let's get some work from the server
               System.out.println("\n\nLooking for some work to do...running time: "+(currentTime-startTime)/60000+" minutes");
@@ -196,8 +205,14 @@ public class WorkAppletHeadlessEpic {
               
               //con = getConnection("getWorkItemGroup", holdEncNumber, groupSize, nodeID, numProcessors);
               String encNumParam = "&newEncounterNumber=" + holdEncNumber;
+              GridWireFormat.PatternCache patternCache = patternCaches.get(urlArray.get(i));
+              if (patternCache == null) {
+                patternCache = new GridWireFormat.PatternCache();
+                patternCaches.put(urlArray.get(i), patternCache);
+              }
+              if (resetPatternCache.remove(urlArray.get(i))) encNumParam += "&resetPatternCache=true";
              
-              java.net.URL u = new java.net.URL(urlArray.get(i) + "/scanAppletSupport?version=" + version + "&nodeIdentifier=" + nodeID + "&action=" + "getWorkItemGroup" + encNumParam + "&groupSize=" + groupSize + "&numProcessors=" + numProcessors);
+              java.net.URL u = new java.net.URL(urlArray.get(i) + "/scanAppletSupport?version=" + version + "&nodeIdentifier=" + nodeID + "&action=" + "getWorkItemGroup" + encNumParam + "&groupSize=" + groupSize + "&numProcessors=" + numProcessors + "&" + GridWireFormat.PARAMETER + "=" + GridWireFormat.PARAMETER_VALUE);
               System.out.println("...Using nodeIdentifier: " + nodeID + "...with URL: "+u.toString());
              
               
@@ -216,8 +231,24 @@ public class WorkAppletHeadlessEpic {
               
               System.out.println("     Opened a URL connection to: "+con.getURL().toString());
               
-              inputFromServlet = new ObjectInputStream(con.getInputStream());
-              workItems = (Vector) inputFromServlet.readObject();
+              inputFromServlet = con.getInputStream();
+              String contentType = con.getContentType();
+              if ((contentType == null) || !contentType.startsWith(GridWireFormat.CONTENT_TYPE)) {
+                //server does not speak GridWireFormat, so fall back to java serialization both ways
+                binaryServers.remove(urlArray.get(i));
+                workItems = (Vector) new ObjectInputStream(inputFromServlet).readObject();
+              }
+              else try {
+                binaryServers.add(urlArray.get(i));
+                workItems = GridWireFormat.readWorkItems(inputFromServlet, patternCache);
+              }
+              catch (GridWireFormat.MissingPatternException mpe) {
+                //start over with this server; the items we were sent time out and go to another node
+                System.out.println("..." + mpe.getMessage() + "; clearing the pattern cache for " + urlArray.get(i));
+                patternCache.clear();
+                resetPatternCache.add(urlArray.get(i));
+                throw mpe;
+              }
               
               if((workItems!=null)&&(workItems.size()>0)){
                 swi = (ScanWorkItem) workItems.get(0);
@@ -356,7 +387,8 @@ public class WorkAppletHeadlessEpic {
                 //if we have results to send, send 'em!
                 if (resultsSize > 0) {
   
-                  URL finishScan = new URL(urlArray.get(i)+"/ScanWorkItemResultsHandler2?" + "group=true&nodeIdentifier=" + nodeID);
+                  boolean binary = binaryServers.contains(urlArray.get(i));
+                  URL finishScan = new URL(urlArray.get(i)+"/ScanWorkItemResultsHandler2?" + "group=true&nodeIdentifier=" + nodeID + (binary ? ("&" + GridWireFormat.PARAMETER + "=" + GridWireFormat.PARAMETER_VALUE) : ""));
                   System.out.println("Trying to send results to: "+finishScan.toString());
                   URLConnection finishConnection = null;
                   
@@ -376,25 +408,29 @@ public class WorkAppletHeadlessEpic {
                   finishConnection.setDefaultUseCaches(false);
   
                   // Specify the content type that we will send binary data
-                  finishConnection.setRequestProperty("Content-Type", "application/octet-stream");
+                  finishConnection.setRequestProperty("Content-Type", binary ? GridWireFormat.CONTENT_TYPE : "application/octet-stream");
   
-                  ObjectOutputStream outputToFinalServlet=null;
+                  OutputStream outputToFinalServlet=null;
                   InputStream inputStreamFromServlet=null;
                   String line="";
                   
                   try{
-                    // send the results Vector to the servlet using serialization
-                    outputToFinalServlet = new ObjectOutputStream(finishConnection.getOutputStream());
+                    // send the results Vector to the servlet as packed score records
+                    outputToFinalServlet = finishConnection.getOutputStream();
   
                     //sendObject(outputToFinalServlet, workItemResults);
                     System.out.println("     : Sending returned results...");
                     //new modification
-                    ObjectOutputStream out=null;
+                    OutputStream out=null;
                     try{
                       //out = con;
-                      outputToFinalServlet.reset();
-                      if (workItemResults != null) {
-                        outputToFinalServlet.writeObject(workItemResults);
+                      if ((workItemResults != null) && binary) {
+                        GridWireFormat.writeResults(outputToFinalServlet, new ArrayList<ScanWorkItemResult>(workItemResults));
+                      }
+                      else if (workItemResults != null) {
+                        ObjectOutputStream oos = new ObjectOutputStream(outputToFinalServlet);
+                        oos.writeObject(workItemResults);
+                        oos.flush();
                       }
                       outputToFinalServlet.close();
                      }
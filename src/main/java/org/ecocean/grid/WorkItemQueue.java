@@ -0,0 +1,289 @@
+package org.ecocean.grid;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Holds the outstanding ScanWorkItems and their ScanWorkItemResults for the GridManager.
+ * <p>
+ * Items are kept in per-task concurrent deques (one of never-handed-out items, one of checked-out items
+ * ordered by checkout time, and a per-task index of all its items) plus hash indexes by work item ID and task ID, so checkout, check-in, lookups
+ * and per-task counts are O(1) (or O(items returned)) instead of scans over every item of every task.
+ * None of the methods take a lock; items that are checked in or removed are dropped from the deques lazily.
+ */
+public class WorkItemQueue {
+
+  private static class TaskQueue {
+    final String taskID;
+    //never checked out (or returned after a timeout)
+    final ConcurrentLinkedDeque<ScanWorkItem> pending = new ConcurrentLinkedDeque<ScanWorkItem>();
+    //checked out, oldest checkout first
+    final ConcurrentLinkedDeque<ScanWorkItem> outstanding = new ConcurrentLinkedDeque<ScanWorkItem>();
+    //work item ID -> item, for this task's items not yet checked in (including ones never offered)
+    final ConcurrentHashMap<String, ScanWorkItem> items = new ConcurrentHashMap<String, ScanWorkItem>();
+    //work item ID -> result
+    final ConcurrentHashMap<String, ScanWorkItemResult> results = new ConcurrentHashMap<String, ScanWorkItemResult>();
+    final AtomicInteger numIncomplete = new AtomicInteger();
+
+    TaskQueue(String taskID) {
+      this.taskID = taskID;
+    }
+  }
+
+  //work item ID -> item, for everything not yet checked in (and not removed)
+  private final ConcurrentHashMap<String, ScanWorkItem> items = new ConcurrentHashMap<String, ScanWorkItem>();
+  private final ConcurrentHashMap<String, TaskQueue> tasks = new ConcurrentHashMap<String, TaskQueue>();
+  //tasks in the order they were first seen, so older scans are served first
+  private final ConcurrentLinkedQueue<TaskQueue> taskOrder = new ConcurrentLinkedQueue<TaskQueue>();
+
+  private final AtomicInteger numResults = new AtomicInteger();
+  private final AtomicInteger numCompleted = new AtomicInteger();
+  private final AtomicInteger numCollisions = new AtomicInteger();
+
+
+  private TaskQueue taskQueue(String taskID) {
+    TaskQueue tq = tasks.get(taskID);
+    if (tq != null) return tq;
+    tq = new TaskQueue(taskID);
+    TaskQueue existing = tasks.putIfAbsent(taskID, tq);
+    if (existing != null) return existing;
+    taskOrder.add(tq);
+    return tq;
+  }
+
+  //true if this entry in a deque still refers to a live item (not checked in, removed or replaced)
+  private boolean isLive(ScanWorkItem swi) {
+    return (items.get(swi.getUniqueNumber()) == swi);
+  }
+
+
+  public void add(ScanWorkItem swi) {
+    add(swi, true);
+  }
+
+  /**
+   * @param offer false to track the item (counts, lookups, check-in) without ever handing it out to grid
+   *              nodes; LocalScanExecutor uses this for the tasks it runs itself
+   */
+  public void add(ScanWorkItem swi, boolean offer) {
+    TaskQueue tq = taskQueue(swi.getTaskIdentifier());
+    ScanWorkItem previous = items.put(swi.getUniqueNumber(), swi);
+    tq.items.put(swi.getUniqueNumber(), swi);
+    if (previous == null) {
+      tq.numIncomplete.incrementAndGet();
+    }
+    if (offer) tq.pending.offer(swi);
+  }
+
+  /**
+   * Checks out up to num items: first ones no node has, then ones whose checkout has timed out.
+   * If nothing at all is available, returns items that are checked out but not yet done (so idle nodes
+   * can race a slow node), as GridManager always has.
+   */
+  public ArrayList<ScanWorkItem> checkout(int num, long checkoutTimeout) {
+    ArrayList<ScanWorkItem> returnItems = new ArrayList<ScanWorkItem>();
+    long now = System.currentTimeMillis();
+    for (TaskQueue tq : taskOrder) {
+      ScanWorkItem swi;
+      while ((returnItems.size() < num) && ((swi = tq.pending.poll()) != null)) {
+        if (!isLive(swi) || swi.isDone()) continue;
+        swi.setStartTime(now);
+        tq.outstanding.offer(swi);
+        returnItems.add(swi);
+      }
+      if (returnItems.size() >= num) return returnItems;
+    }
+
+    //timed-out checkouts sit at the head of each outstanding deque
+    for (TaskQueue tq : taskOrder) {
+      ScanWorkItem swi;
+      while ((returnItems.size() < num) && ((swi = tq.outstanding.poll()) != null)) {
+        if (!isLive(swi) || swi.isDone()) continue;
+        if (swi.isCheckedOut(checkoutTimeout)) {
+          tq.outstanding.offerFirst(swi);
+          break;
+        }
+        swi.setStartTime(now);
+        tq.outstanding.offer(swi);
+        returnItems.add(swi);
+      }
+      if (returnItems.size() >= num) return returnItems;
+    }
+    if (returnItems.size() > 0) return returnItems;
+
+    for (TaskQueue tq : taskOrder) {
+      Iterator<ScanWorkItem> it = tq.outstanding.iterator();
+      while (it.hasNext() && (returnItems.size() < num)) {
+        ScanWorkItem swi = it.next();
+        if (isLive(swi) && !swi.isDone()) returnItems.add(swi);
+      }
+      if (returnItems.size() >= num) break;
+    }
+    return returnItems;
+  }
+
+  /**
+   * Records a result.
+   *
+   * @param removeItem true to drop the work item; false just marks it done (tuning tasks keep their items)
+   * @return false if a result for this work item had already been checked in (a collision)
+   */
+  public boolean checkin(ScanWorkItemResult swir, boolean removeItem) {
+    //not taskQueue(): a late result for a task that has been removed must not bring its queue back
+    TaskQueue tq = tasks.get(swir.getUniqueNumberTask());
+    if (tq == null) {
+      remove(swir.getUniqueNumberWorkItem());
+      return false;
+    }
+    boolean isNew = (tq.results.putIfAbsent(swir.getUniqueNumberWorkItem(), swir) == null);
+    if (isNew) {
+      numResults.incrementAndGet();
+      numCompleted.incrementAndGet();
+    } else {
+      numCollisions.incrementAndGet();
+    }
+    if (removeItem) {
+      remove(swir.getUniqueNumberWorkItem());
+    } else {
+      ScanWorkItem swi = items.get(swir.getUniqueNumberWorkItem());
+      if (swi != null) swi.setDone(true);
+    }
+    return isNew;
+  }
+
+  public ScanWorkItem remove(String workItemID) {
+    ScanWorkItem swi = items.remove(workItemID);
+    if (swi != null) {
+      TaskQueue tq = tasks.get(swi.getTaskIdentifier());
+      if (tq != null) {
+        tq.items.remove(workItemID, swi);
+        tq.numIncomplete.decrementAndGet();
+      }
+    }
+    return swi;
+  }
+
+  public void removeItemsForTask(String taskID) {
+    TaskQueue tq = tasks.get(taskID);
+    if (tq == null) return;
+    for (ScanWorkItem swi : tq.items.values()) {
+      if (items.remove(swi.getUniqueNumber(), swi)) tq.numIncomplete.decrementAndGet();
+    }
+    tq.items.clear();
+    tq.pending.clear();
+    tq.outstanding.clear();
+    dropIfEmpty(tq);
+  }
+
+  public void removeResultsForTask(String taskID) {
+    TaskQueue tq = tasks.get(taskID);
+    if (tq == null) return;
+    int n = tq.results.size();
+    tq.results.clear();
+    numResults.addAndGet(-n);
+    dropIfEmpty(tq);
+  }
+
+  //with no items left, anything still in pending/outstanding is a dead entry, so they are not checked
+  private void dropIfEmpty(TaskQueue tq) {
+    if ((tq.numIncomplete.get() <= 0) && tq.items.isEmpty() && tq.results.isEmpty()) {
+      if (tasks.remove(tq.taskID, tq)) taskOrder.remove(tq);
+    }
+  }
+
+  public void removeAllItems() {
+    for (TaskQueue tq : taskOrder) {
+      tq.items.clear();
+      tq.pending.clear();
+      tq.outstanding.clear();
+      tq.numIncomplete.set(0);
+      dropIfEmpty(tq);
+    }
+    items.clear();
+  }
+
+  public void removeAllResults() {
+    for (TaskQueue tq : taskOrder) {
+      tq.results.clear();
+      dropIfEmpty(tq);
+    }
+    numResults.set(0);
+  }
+
+
+  public ScanWorkItem getItem(String workItemID) {
+    return items.get(workItemID);
+  }
+
+  public boolean containsItem(String workItemID) {
+    return items.containsKey(workItemID);
+  }
+
+  public boolean containsResult(String taskID, String workItemID) {
+    TaskQueue tq = tasks.get(taskID);
+    return (tq != null) && tq.results.containsKey(workItemID);
+  }
+
+  public int getNumIncompleteForTask(String taskID) {
+    TaskQueue tq = tasks.get(taskID);
+    return (tq == null) ? 0 : Math.max(0, tq.numIncomplete.get());
+  }
+
+  public int getNumCompleteForTask(String taskID) {
+    TaskQueue tq = tasks.get(taskID);
+    return (tq == null) ? 0 : tq.results.size();
+  }
+
+  public ArrayList<ScanWorkItem> getItemsForTask(String taskID) {
+    TaskQueue tq = tasks.get(taskID);
+    if (tq == null) return new ArrayList<ScanWorkItem>();
+    return new ArrayList<ScanWorkItem>(tq.items.values());
+  }
+
+  public ArrayList<ScanWorkItemResult> getResultsForTask(String taskID) {
+    TaskQueue tq = tasks.get(taskID);
+    if (tq == null) return new ArrayList<ScanWorkItemResult>();
+    return new ArrayList<ScanWorkItemResult>(tq.results.values());
+  }
+
+  public ArrayList<ScanWorkItem> getAllItems() {
+    return new ArrayList<ScanWorkItem>(items.values());
+  }
+
+  public ArrayList<ScanWorkItemResult> getAllResults() {
+    ArrayList<ScanWorkItemResult> list = new ArrayList<ScanWorkItemResult>();
+    for (TaskQueue tq : taskOrder) {
+      list.addAll(tq.results.values());
+    }
+    return list;
+  }
+
+  public int numItems() {
+    return items.size();
+  }
+
+  public int numResults() {
+    return Math.max(0, numResults.get());
+  }
+
+  public int getNumCompleted() {
+    return numCompleted.get();
+  }
+
+  public void addCompleted(int n) {
+    numCompleted.addAndGet(n);
+  }
+
+  public int getNumCollisions() {
+    return numCollisions.get();
+  }
+
+  public void addCollision() {
+    numCollisions.incrementAndGet();
+  }
+}
@@ -87,6 +87,7 @@ public class IA {
             System.out.println("ERROR: IA.intakeMediaAssets() addToQueue() threw " + iox.toString());
         }
 
+        if (sent) IAJobTracker.track(context, task.getId(), IAJobTracker.INTAKE_FIRST_POLL, IAJobTracker.INTAKE_TIMEOUT);
 System.out.println("INFO: IA.intakeMediaAssets() accepted " + mas.size() + " assets; queued? = " + sent + "; " + task);
         return task;
     }
@@ -116,10 +117,29 @@ System.out.println("INFO: IA.intakeMediaAssets() accepted " + mas.size() + " ass
         } catch (java.io.IOException iox) {
             System.out.println("ERROR: IA.intakeAnnotations() addToQueue() threw " + iox.toString());
         }
+        if (sent) IAJobTracker.track(context, task.getId(), IAJobTracker.INTAKE_FIRST_POLL, IAJobTracker.INTAKE_TIMEOUT);
 System.out.println("INFO: IA.intakeAnnotations() accepted " + anns.size() + " annots; queued? = " + sent + "; " + task);
         return task;
     }
 
+    /*
+        non-blocking way to find out when an intake() task is done: listener.done() is called (on the thread that
+        finished it, or right away if it already is) with the job, whose getResult() has success etc.
+        returns false if the task is not being tracked (not queued, or finished more than IAJobTracker.KEEP_FINISHED ago)
+    */
+    public static boolean whenDone(Task task, IAJobTracker.Listener listener) {
+        IAJobTracker.Job job = getJob(task);
+        if (job == null) return false;
+        job.addListener(listener);
+        return true;
+    }
+
+    //a Future for the task's result (null if not tracked); a finished job is kept for IAJobTracker.KEEP_FINISHED
+    public static IAJobTracker.Job getJob(Task task) {
+        if (task == null) return null;
+        return IAJobTracker.get(task.getId());
+    }
+
 
     public static String getBaseURL(String context) {
         String url = CommonConfiguration.getServerURL(context);
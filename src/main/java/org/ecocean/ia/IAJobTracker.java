@@ -0,0 +1,387 @@
+package org.ecocean.ia;
+
+import org.ecocean.Shepherd;
+import org.ecocean.identity.IBEISIA;
+import org.ecocean.identity.IdentityServiceLog;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+
+/*
+    keeps track of IA tasks (by task ID) until they finish, so callers can be told when that happens rather than
+    sleeping and asking.  a job finishes when:
+    * IBEISIA.processCallback() handles its callback -- the usual way; the result is what processCallback() returned
+    * polling (if asked for) finds its results in the IdentityServiceLog -- for a callback that never reaches us; the
+      result is then what IBEISIA.getTaskResults() gives.  all polling is done by one scheduler thread, backing off
+      from the first delay (doubling, up to MAX_POLL_DELAY) and giving up at the job's deadline
+    * all of its child tasks finish (a task split into one per annotation, see IAGateway._doIdentify())
+    a finished job can still be looked up for KEEP_FINISHED, so a caller can tell "finished" from "never tracked"
+*/
+public class IAJobTracker {
+
+    public static final long MAX_POLL_DELAY = 5 * 60 * 1000;
+    //how long IA.intake() jobs wait for their callback before they are checked on, and before giving up
+    public static final long INTAKE_FIRST_POLL = 60 * 1000;
+    public static final long INTAKE_TIMEOUT = 6 * 60 * 60 * 1000;
+    public static final long KEEP_FINISHED = 60 * 60 * 1000;
+
+    public interface Listener {
+        public void done(Job job);
+    }
+
+    private static final ConcurrentHashMap<String, Job> inFlight = new ConcurrentHashMap<String, Job>();
+    //finished jobs, until KEEP_FINISHED after they finished; the queue is in the order they finished, to expire them
+    private static final ConcurrentHashMap<String, Job> recentlyFinished = new ConcurrentHashMap<String, Job>();
+    private static final ConcurrentLinkedQueue<Job> finishedOrder = new ConcurrentLinkedQueue<Job>();
+    private static ScheduledExecutorService scheduler = null;
+
+    private static final AtomicLong numStarted = new AtomicLong();
+    private static final AtomicLong numCompleted = new AtomicLong();
+    private static final AtomicLong numFailed = new AtomicLong();
+    private static final AtomicLong numTimedOut = new AtomicLong();
+    private static final AtomicLong totalLatency = new AtomicLong();
+    private static final AtomicLong maxLatency = new AtomicLong();
+
+
+    public static class Job implements Future<JSONObject> {
+        private final String taskId;
+        private final String context;
+        private final long created;
+        private long finished = -1;
+        private JSONObject result = null;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final List<Listener> listeners = new ArrayList<Listener>();
+        private volatile Job parent = null;
+        private JSONObject childResults = null;
+        private int childrenPending = 0;
+        //polling
+        private long pollDelay = -1;
+        private long deadline = -1;
+
+        private Job(String taskId, String context) {
+            this.taskId = taskId;
+            this.context = context;
+            this.created = System.currentTimeMillis();
+        }
+
+        public String getTaskId() {
+            return taskId;
+        }
+        public String getContext() {
+            return context;
+        }
+        public long getCreated() {
+            return created;
+        }
+        public synchronized long getFinished() {
+            return finished;
+        }
+        //result so far, or null if not done
+        public synchronized JSONObject getResult() {
+            return result;
+        }
+
+        //called right away (on this thread) if already done, otherwise on whichever thread finishes the job
+        public void addListener(Listener listener) {
+            synchronized (this) {
+                if (finished < 0) {
+                    listeners.add(listener);
+                    return;
+                }
+            }
+            notify(listener);
+        }
+
+        public boolean isDone() {
+            return (done.getCount() == 0);
+        }
+        public boolean isCancelled() {
+            return false;
+        }
+        //jobs run on IA, so there is nothing here to cancel; this only stops tracking it
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            inFlight.remove(taskId, this);
+            return false;
+        }
+        public JSONObject get() throws InterruptedException, ExecutionException {
+            done.await();
+            return getResult();
+        }
+        public JSONObject get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!done.await(timeout, unit)) throw new TimeoutException("IA task " + taskId + " not done");
+            return getResult();
+        }
+
+        private boolean finish(JSONObject res) {
+            List<Listener> toNotify;
+            synchronized (this) {
+                if (finished >= 0) return false;
+                finished = System.currentTimeMillis();
+                result = res;
+                toNotify = new ArrayList<Listener>(listeners);
+                listeners.clear();
+            }
+            done.countDown();
+            for (Listener l : toNotify) {
+                notify(l);
+            }
+            return true;
+        }
+
+        private void notify(Listener l) {
+            try {
+                l.done(this);
+            } catch (Exception ex) {
+                System.out.println("WARNING: IAJobTracker listener on " + taskId + " threw " + ex.toString());
+                ex.printStackTrace();
+            }
+        }
+
+        public String toString() {
+            return "IAJobTracker.Job[" + taskId + ((finished < 0) ? ", in flight " + (System.currentTimeMillis() - created) + "ms" : ", done in " + (finished - created) + "ms") + "]";
+        }
+    }
+
+
+    //starts tracking (if not already) a task whose results will come by callback
+    public static Job track(String context, String taskId) {
+        if (taskId == null) return null;
+        Job job = new Job(taskId, context);
+        Job prev = inFlight.putIfAbsent(taskId, job);
+        if (prev != null) return prev;
+        numStarted.incrementAndGet();
+        return job;
+    }
+
+    //as above, but also polled for (starting after firstDelay ms) in case the callback does not arrive, until timeout ms have passed
+    public static Job track(String context, String taskId, long firstDelay, long timeout) {
+        Job job = track(context, taskId);
+        if (job == null) return null;
+        long delay = Math.max(firstDelay, 100);
+        synchronized (job) {
+            if (job.pollDelay >= 0) return job;  //already polling
+            job.pollDelay = delay;
+            job.deadline = System.currentTimeMillis() + timeout;
+        }
+        schedulePoll(job, delay);
+        return job;
+    }
+
+    //tracked job for this task, if it is still in flight or finished less than KEEP_FINISHED ago
+    public static Job get(String taskId) {
+        if (taskId == null) return null;
+        Job job = inFlight.get(taskId);
+        if (job != null) return job;
+        expireFinished();
+        return recentlyFinished.get(taskId);
+    }
+
+    /*
+        a task that was split into these tasks (e.g. one per annotation) finishes when they all have, with
+        result {"success": (all were), "tasks": {childTaskId: result, ...}}.  the children are tracked the same way
+        as the parent (including polling); nothing happens if the parent is not tracked.
+    */
+    public static void addChildren(String parentTaskId, List<String> childTaskIds) {
+        Job parent = get(parentTaskId);
+        if ((parent == null) || (childTaskIds == null)) return;
+        ArrayList<String> cids = new ArrayList<String>();
+        for (String cid : childTaskIds) {
+            if ((cid != null) && !cid.equals(parentTaskId) && !cids.contains(cid)) cids.add(cid);
+        }
+        if (cids.isEmpty()) return;
+        ArrayList<Job> children = new ArrayList<Job>();
+        long firstDelay, timeout;
+        synchronized (parent) {
+            firstDelay = parent.pollDelay;
+            timeout = parent.deadline - System.currentTimeMillis();
+            parent.pollDelay = -1;  //the children are polled instead
+            parent.childResults = new JSONObject();
+            for (String cid : cids) {
+                Job child = (firstDelay < 0) ? track(parent.context, cid) : track(parent.context, cid, firstDelay, timeout);
+                child.parent = parent;
+                parent.childrenPending++;
+                children.add(child);
+            }
+        }
+        //any that are already done (their callback beat us here)
+        for (Job child : children) {
+            if (child.isDone()) childDone(child);
+        }
+    }
+
+    //called when IA says a task is done
+    public static boolean complete(String taskId, JSONObject result) {
+        Job job = get(taskId);
+        if (job == null) return false;
+        return finish(job, result, false);
+    }
+
+
+    public static JSONObject statusJSON() {
+        JSONObject j = new JSONObject();
+        j.put("inFlight", inFlight.size());
+        expireFinished();
+        j.put("recentlyFinished", recentlyFinished.size());
+        long oldest = -1;
+        for (Job job : inFlight.values()) {
+            if ((oldest < 0) || (job.created < oldest)) oldest = job.created;
+        }
+        j.put("oldestInFlightMillis", (oldest < 0) ? 0 : System.currentTimeMillis() - oldest);
+        j.put("started", numStarted.get());
+        long completed = numCompleted.get();
+        j.put("completed", completed);
+        j.put("failed", numFailed.get());
+        j.put("timedOut", numTimedOut.get());
+        j.put("meanLatencyMillis", (completed < 1) ? 0 : totalLatency.get() / completed);
+        j.put("maxLatencyMillis", maxLatency.get());
+        return j;
+    }
+
+    //for StartupWildbook.contextDestroyed()
+    public static synchronized void cleanup() {
+        if (scheduler != null) scheduler.shutdownNow();
+        scheduler = null;
+        System.out.println("IAJobTracker.cleanup() finished with " + inFlight.size() + " jobs still in flight");
+    }
+
+
+    private static boolean finish(Job job, JSONObject result, boolean timedOut) {
+        if (!job.finish(result)) return false;
+        inFlight.remove(job.taskId, job);
+        recentlyFinished.put(job.taskId, job);
+        finishedOrder.add(job);
+        expireFinished();
+        long latency = job.finished - job.created;
+        numCompleted.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        long max;
+        while (latency > (max = maxLatency.get())) {
+            if (maxLatency.compareAndSet(max, latency)) break;
+        }
+        if (timedOut) numTimedOut.incrementAndGet();
+        if ((result == null) || !result.optBoolean("success", false)) numFailed.incrementAndGet();
+        if (job.parent != null) childDone(job);
+        return true;
+    }
+
+    private static void expireFinished() {
+        long cutoff = System.currentTimeMillis() - KEEP_FINISHED;
+        Job job;
+        while (((job = finishedOrder.peek()) != null) && (job.getFinished() < cutoff)) {
+            if (finishedOrder.remove(job)) recentlyFinished.remove(job.taskId, job);
+        }
+    }
+
+    private static void childDone(Job child) {
+        Job parent = child.parent;
+        JSONObject res = null;
+        synchronized (parent) {
+            if (parent.childResults.has(child.taskId)) return;
+            parent.childResults.put(child.taskId, (child.getResult() == null) ? JSONObject.NULL : child.getResult());
+            parent.childrenPending--;
+            if (parent.childrenPending > 0) return;
+            boolean success = true;
+            for (String cid : JSONObject.getNames(parent.childResults)) {
+                JSONObject cres = parent.childResults.optJSONObject(cid);
+                if ((cres == null) || !cres.optBoolean("success", false)) success = false;
+            }
+            res = new JSONObject();
+            res.put("success", success);
+            res.put("tasks", parent.childResults);
+        }
+        finish(parent, res, false);
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "IAJobTracker");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+    private static void schedulePoll(final Job job, long delay) {
+        try {
+            getScheduler().schedule(new Runnable() {
+                public void run() {
+                    poll(job);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.RejectedExecutionException ex) {
+            System.out.println("WARNING: IAJobTracker could not schedule poll of " + job.taskId + " (shut down?)");
+        }
+    }
+
+    private static void poll(Job job) {
+        long delay;
+        synchronized (job) {
+            if ((job.finished >= 0) || (job.pollDelay < 0)) return;  //done, or handed off to children
+        }
+        JSONObject res = null;
+        try {
+            res = loggedResults(job);
+        } catch (Exception ex) {
+            System.out.println("WARNING: IAJobTracker poll of " + job.taskId + " threw " + ex.toString());
+        }
+        if (res != null) {
+            System.out.println("INFO: IAJobTracker found " + job.taskId + " done by polling");
+            finish(job, res, false);
+            return;
+        }
+        synchronized (job) {
+            if (job.pollDelay < 0) return;
+            if (System.currentTimeMillis() >= job.deadline) {
+                delay = -1;
+            } else {
+                job.pollDelay = Math.min(job.pollDelay * 2, MAX_POLL_DELAY);
+                delay = Math.min(job.pollDelay, Math.max(job.deadline - System.currentTimeMillis(), 0));
+            }
+        }
+        if (delay < 0) {
+            JSONObject tres = new JSONObject();
+            tres.put("success", false);
+            tres.put("error", "timed out waiting for IA task " + job.taskId);
+            System.out.println("WARNING: IAJobTracker gave up on " + job);
+            finish(job, tres, true);
+            return;
+        }
+        schedulePoll(job, delay);
+    }
+
+    //like IBEISIA.getTaskResults() but null (still waiting) until there is any log for the task, as there is none until it has been sent
+    private static JSONObject loggedResults(Job job) {
+        Shepherd myShepherd = new Shepherd(job.context);
+        myShepherd.setAction("IAJobTracker.poll");
+        myShepherd.beginDBTransaction();
+        try {
+            ArrayList<IdentityServiceLog> logs = IdentityServiceLog.loadByTaskID(job.taskId, "IBEISIA", myShepherd);
+            if ((logs == null) || (logs.size() < 1)) return null;
+            JSONObject rtn = IBEISIA.getTaskResultsBasic(job.taskId, logs);
+            if ((rtn != null) && rtn.optBoolean("success", false)) {
+                rtn.put("results", rtn.opt("_json_result"));
+                rtn.remove("_json_result");
+            }
+            return rtn;
+        } finally {
+            myShepherd.rollbackDBTransaction();
+            myShepherd.closeDBTransaction();
+        }
+    }
+
+}
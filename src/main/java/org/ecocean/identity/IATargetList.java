@@ -0,0 +1,237 @@
+package org.ecocean.identity;
+
+import org.ecocean.Annotation;
+import org.ecocean.Encounter;
+import org.ecocean.Shepherd;
+import javax.jdo.Query;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+import org.json.JSONArray;
+
+/**
+ * The annotations (and the names of their individuals) that IBEISIA.sendIdentify matches against when it isn't
+ * handed any: a species' exemplars.  Built with one query for the exemplars and one join query for their
+ * individuals, then kept up to date as encounters are assigned to (or taken off) individuals and individuals
+ * are renamed, instead of being looked up annotation by annotation and cached forever.
+ *
+ * Updates happen when the change is made, not when it is committed, so a rolled-back assignment leaves its
+ * name behind until the list is rebuilt (invalidate()).
+ */
+public class IATargetList {
+
+    //context + species -> list
+    private static final ConcurrentHashMap<String, IATargetList> lists = new ConcurrentHashMap<String, IATargetList>();
+    //bumped on every change; a list built while one happened is used but not kept
+    private static final AtomicLong changes = new AtomicLong();
+
+    private final String context;
+    private final String species;
+    private final long created;
+    private long modified;
+    private final ArrayList<String> annIds;
+    private final ArrayList<String> names;
+    private final HashMap<String, Integer> position = new HashMap<String, Integer>();
+
+    private IATargetList(String context, String species, ArrayList<String> annIds, ArrayList<String> names) {
+        this.context = context;
+        this.species = species;
+        this.annIds = annIds;
+        this.names = names;
+        for (int i = 0 ; i < annIds.size() ; i++) {
+            position.put(annIds.get(i), i);
+        }
+        this.created = System.currentTimeMillis();
+        this.modified = created;
+    }
+
+    //the cached list for this species, built if there isn't one
+    public static IATargetList get(String species, Shepherd myShepherd) {
+        String key = key(myShepherd.getContext(), species);
+        IATargetList list = lists.get(key);
+        if (list != null) return list;
+
+        long stamp = changes.get();
+        long t = System.currentTimeMillis();
+        ArrayList<String> annIds = exemplarIds(species, myShepherd);
+        HashMap<String, String> indivs = findIndividualIds(species, null, myShepherd);
+        ArrayList<String> names = new ArrayList<String>(annIds.size());
+        for (String annId : annIds) {
+            names.add(iaName(indivs.get(annId)));
+        }
+        list = new IATargetList(myShepherd.getContext(), species, annIds, names);
+        System.out.println("IATargetList: built " + list + " in " + (System.currentTimeMillis() - t) + "ms");
+        if (changes.get() != stamp) return list;
+        IATargetList prev = lists.putIfAbsent(key, list);
+        return (prev == null) ? list : prev;
+    }
+
+    /**
+     * IA names for any annotations, in the same order (IBEISIA.IA_UNKNOWN_NAME for those not on an individual),
+     * with one query.
+     */
+    public static ArrayList<String> getNames(List<Annotation> anns, Shepherd myShepherd) {
+        ArrayList<String> ids = new ArrayList<String>();
+        for (Annotation ann : anns) {
+            ids.add(ann.getId());
+        }
+        HashMap<String, String> indivs = (ids.size() < 1) ? new HashMap<String, String>() : findIndividualIds(null, ids, myShepherd);
+        ArrayList<String> names = new ArrayList<String>(ids.size());
+        for (String id : ids) {
+            names.add(iaName(indivs.get(id)));
+        }
+        return names;
+    }
+
+    public ArrayList<JSONObject> getAnnotationUUIDs() {
+        ArrayList<JSONObject> rtn = new ArrayList<JSONObject>(annIds.size());
+        for (String id : annIds) {
+            rtn.add(IBEISIA.toFancyUUID(id));
+        }
+        return rtn;
+    }
+
+    public synchronized ArrayList<String> getNames() {
+        return new ArrayList<String>(names);
+    }
+
+    public int size() {
+        return annIds.size();
+    }
+    public String getSpecies() {
+        return species;
+    }
+    public long getCreated() {
+        return created;
+    }
+    public long getAgeMillis() {
+        return System.currentTimeMillis() - created;
+    }
+    public synchronized long getModified() {
+        return modified;
+    }
+
+    private synchronized void setName(String annId, String name) {
+        Integer i = position.get(annId);
+        if ((i == null) || name.equals(names.get(i))) return;
+        names.set(i, name);
+        modified = System.currentTimeMillis();
+    }
+
+    private synchronized void rename(String oldName, String newName) {
+        for (int i = 0 ; i < names.size() ; i++) {
+            if (oldName.equals(names.get(i))) {
+                names.set(i, newName);
+                modified = System.currentTimeMillis();
+            }
+        }
+    }
+
+
+    //called when an encounter is put on (or taken off) an individual
+    public static void encounterAssigned(Encounter enc) {
+        if (lists.isEmpty() || (enc == null) || (enc.getAnnotations() == null)) return;
+        changes.incrementAndGet();
+        String name = iaName(enc.getIndividualID());
+        for (Annotation ann : enc.getAnnotations()) {
+            for (IATargetList list : lists.values()) {
+                list.setName(ann.getId(), name);
+            }
+        }
+    }
+
+    public static void individualRenamed(String oldName, String newName) {
+        if (lists.isEmpty() || (oldName == null) || oldName.equals(newName)) return;
+        changes.incrementAndGet();
+        for (IATargetList list : lists.values()) {
+            list.rename(iaName(oldName), iaName(newName));
+        }
+    }
+
+    //drops the lists for a species (in every context), e.g. when an annotation stops or starts being an exemplar
+    public static void invalidate(String species) {
+        if (lists.isEmpty()) return;
+        changes.incrementAndGet();
+        for (IATargetList list : lists.values()) {
+            if ((species == null) ? (list.species == null) : species.equals(list.species)) lists.remove(key(list.context, list.species), list);
+        }
+    }
+
+    public static void invalidateAll() {
+        changes.incrementAndGet();
+        lists.clear();
+    }
+
+    public static JSONArray statusJSON(String context) {
+        JSONArray arr = new JSONArray();
+        for (IATargetList list : lists.values()) {
+            if (!list.context.equals(context)) continue;
+            JSONObject j = new JSONObject();
+            j.put("species", list.species);
+            j.put("size", list.size());
+            j.put("created", list.getCreated());
+            j.put("ageMillis", list.getAgeMillis());
+            j.put("modified", list.getModified());
+            arr.put(j);
+        }
+        return arr;
+    }
+
+    public String toString() {
+        return "IATargetList[" + context + ", " + species + ": " + size() + " annotations]";
+    }
+
+
+    private static String key(String context, String species) {
+        return context + ":" + species;
+    }
+
+    //same rule sendIdentify always used
+    private static String iaName(String indivId) {
+        if ((indivId == null) || indivId.toLowerCase().equals("unassigned")) return IBEISIA.IA_UNKNOWN_NAME;
+        return indivId;
+    }
+
+    private static ArrayList<String> exemplarIds(String species, Shepherd myShepherd) {
+        ArrayList<String> ids = new ArrayList<String>();
+        Query query = myShepherd.getPM().newQuery("SELECT id FROM org.ecocean.Annotation WHERE this.isExemplar && this.species == sp PARAMETERS String sp");
+        try {
+            Collection c = (Collection) (query.execute(species));
+            for (Object o : c) {
+                ids.add((String)o);
+            }
+        } finally {
+            query.closeAll();
+        }
+        return ids;
+    }
+
+    //annotation id -> its encounter's individualID, either for a species' exemplars or for the given annotation ids
+    private static HashMap<String, String> findIndividualIds(String species, List<String> annIds, Shepherd myShepherd) {
+        HashMap<String, String> rtn = new HashMap<String, String>();
+        Query query;
+        Collection c;
+        if (annIds == null) {
+            query = myShepherd.getPM().newQuery("SELECT ann.id, this.individualID FROM org.ecocean.Encounter WHERE this.annotations.contains(ann) && ann.isExemplar && ann.species == sp PARAMETERS String sp VARIABLES org.ecocean.Annotation ann");
+        } else {
+            query = myShepherd.getPM().newQuery("SELECT ann.id, this.individualID FROM org.ecocean.Encounter WHERE this.annotations.contains(ann) && ids.contains(ann.id) PARAMETERS java.util.Collection ids VARIABLES org.ecocean.Annotation ann");
+        }
+        try {
+            c = (Collection) (query.execute((annIds == null) ? species : annIds));
+            for (Object o : c) {
+                Object[] row = (Object[])o;
+                String annId = (String)row[0];
+                if (rtn.containsKey(annId)) System.out.println("WARNING: IATargetList found more than one Encounter that contains Annotation " + annId);
+                else rtn.put(annId, (String)row[1]);
+            }
+        } finally {
+            query.closeAll();
+        }
+        return rtn;
+    }
+
+}
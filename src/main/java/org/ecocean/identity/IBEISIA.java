@@ -50,6 +50,7 @@ import org.apache.commons.lang3.StringUtils;
 import javax.servlet.http.HttpServletRequest;
 
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
 
 //date time
 import org.joda.time.LocalDateTime;
@@ -78,8 +79,10 @@ public class IBEISIA {
     public static String STATUS_ERROR = "error";
 
     private static long TIMEOUT_DETECTION = 20 * 60 * 1000;   //in milliseconds
+    private static long TIMEOUT_TRAINING = 5 * 60 * 1000;
+    private static final int IA_LIST_BATCH_SIZE = 100;  //uuids per list request, to keep urls sane
     private static String SERVICE_NAME = "IBEISIA";
-    private static String IA_UNKNOWN_NAME = "____";
+    static final String IA_UNKNOWN_NAME = "____";
 
     private static AtomicBoolean iaPrimed = new AtomicBoolean(false);
     private static HashMap<Integer,Boolean> alreadySentMA = new HashMap<Integer,Boolean>();
@@ -88,11 +91,6 @@ public class IBEISIA {
     //private static HashMap<String,String> identificationMatchingState = new HashMap<String,String>();
     private static HashMap<String,String> identificationUserActiveTaskId = new HashMap<String,String>();
 
-    //cache-like, in order to speed up IA; TODO make this some kind of smarter class
-    private static HashMap<String,String> cacheAnnotIndiv = new HashMap<String,String>();
-    private static HashMap<String,ArrayList<JSONObject>> targetIdsListCache = new HashMap<String,ArrayList<JSONObject>>();
-    private static HashMap<String,ArrayList<String>> targetNameListCache = new HashMap<String,ArrayList<String>>();
-
     private static String iaBaseURL = null;  //gets set the first time it is needed by iaURL()
 
     //public static JSONObject post(URL url, JSONObject data) throws RuntimeException, MalformedURLException, IOException {
@@ -252,45 +250,20 @@ System.out.println("sendAnnotations(): sending " + ct);
             qnlist.add(IA_UNKNOWN_NAME);
         }
 
-        boolean setExemplarCaches = false;
         if (tanns == null) {
-System.out.println("--- exemplar!");
-            if (targetNameListCache.get(species) == null) {
-System.out.println("     gotta compute :(");
-                tanns = Annotation.getExemplars(species, myShepherd);
-                setExemplarCaches = true;
-            } else {
-System.out.println("     free ride :)");
-                tlist = targetIdsListCache.get(species);
-                tnlist = targetNameListCache.get(species);
-            }
-        }
-
-        if (tanns != null) for (Annotation ann : tanns) {
-            tlist.add(toFancyUUID(ann.getUUID()));
-            String indivId = annotGetIndiv(ann, myShepherd);
-/*  see note above about names
-            if (Util.isUUID(indivId)) {
-                tnlist.add(toFancyUUID(indivId));
-            } else if (indivId == null) {
-                tnlist.add(toFancyUUID(Util.generateUUID()));  //we must have one... meh?  TODO fix (and see above)
-            } else {
-                tnlist.add(indivId);
-            }
-*/
-            //argh we need to standardize this and/or have a method. :/
-            if ((indivId == null) || (indivId.toLowerCase().equals("unassigned"))) {
-                tnlist.add(IA_UNKNOWN_NAME);
-            } else {
-                tnlist.add(indivId);
+            //exemplars: cached, and kept current as encounters change individuals (see IATargetList)
+            IATargetList targets = IATargetList.get(species, myShepherd);
+System.out.println("--- exemplar! " + targets + " age=" + targets.getAgeMillis() + "ms");
+            tlist = targets.getAnnotationUUIDs();
+            tnlist = targets.getNames();
+        } else {
+            for (Annotation ann : tanns) {
+                tlist.add(toFancyUUID(ann.getUUID()));
             }
+            tnlist = IATargetList.getNames(tanns, myShepherd);
         }
 //query_config_dict={'pipeline_root' : 'BC_DTW'}
 
-        if (setExemplarCaches) {
-           targetIdsListCache.put(species, tlist);
-           targetNameListCache.put(species, tnlist);
-        }
         map.put("query_annot_uuid_list", qlist);
         map.put("database_annot_uuid_list", tlist);
         map.put("query_annot_name_list", qnlist);
@@ -1075,23 +1048,25 @@ System.out.println(i + ") beginIdentify (taskID=" + taskID + ") ================
         return ids;
     }
 
+    //waits (up to the same ~5 minutes as always) for these to finish; their callbacks finish them, with polling (backing off from 3s) as a fallback.
+    //  as before, a task with no log at all (or with results already) is not waited on
     public static void waitForTrainingJobs(ArrayList<String> taskIds, String context) {
-        boolean stillWaiting = true;
-        int countdown = 100;
-        while (stillWaiting && (countdown > 0)) {
-            countdown--;
-            stillWaiting = false; //optimism; prove us wrong
-            int idLen = taskIds.size();
-            for (int i = 0 ; i < idLen ; i++) {
-                if (waitingOnTask(taskIds.get(i), context)) {
-System.out.println("++++ waitForTrainingJobs() still waiting on " + taskIds.get(i) + " so will sleep a while (countdown=" + countdown + "; passed " + i + " of " + idLen +")");
-                    stillWaiting = true;
-                    break; //this is cause enough to sleep for a bit -- we dont need to check any more!
-                }
-            }
-            if (stillWaiting) {
-                try { Thread.sleep(3000); } catch (java.lang.InterruptedException ex) {}
+        long deadline = System.currentTimeMillis() + TIMEOUT_TRAINING;
+        ArrayList<IAJobTracker.Job> jobs = new ArrayList<IAJobTracker.Job>();
+        for (String taskId : taskIds) {
+            if (!waitingOnTask(taskId, context)) continue;
+            IAJobTracker.Job job = IAJobTracker.track(context, taskId, 3000, TIMEOUT_TRAINING);
+            if (job != null) jobs.add(job);
+        }
+        int i = 0;
+        try {
+            for (i = 0 ; i < jobs.size() ; i++) {
+                jobs.get(i).get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
             }
+        } catch (java.util.concurrent.TimeoutException ex) {
+System.out.println("++++ waitForTrainingJobs() gave up waiting on " + jobs.get(i).getTaskId() + " (passed " + i + " of " + jobs.size() + ")");
+        } catch (Exception ex) {
+System.out.println("++++ waitForTrainingJobs() interrupted: " + ex.toString());
         }
 System.out.println("!!!! waitForTrainingJobs() has finished.");
     }
@@ -1237,6 +1212,7 @@ System.out.println("     ---> " + annIds);
             myShepherd2.closeDBTransaction();
         }
 
+        IAJobTracker.complete(taskID, rtn);
         return rtn;
     }
 
@@ -1620,9 +1596,10 @@ System.out.println("identification most recent action found is " + action);
         }
     }
 
-    ////note: we *could* try to grab these as lists from IA, but that is more complicated so lets iterate for now...
+    //the ones we do not have yet are fetched from IA as lists (see iaAnnotDetails()), not one request per field per annotation
     public static List<Annotation> grabAnnotations(List<String> annIds, Shepherd myShepherd) {
-        List<Annotation> anns = new ArrayList<Annotation>();
+        HashMap<String,Annotation> have = new HashMap<String,Annotation>();
+        List<String> need = new ArrayList<String>();
         for (String annId : annIds) {
             Annotation ann = null;
             try {
@@ -1634,13 +1611,29 @@ System.out.println("identification most recent action found is " + action);
             }
             //TODO do we need to verify MediaAsset has been retreived?  for now, lets assume that happend during creation
             if (ann != null) {
-                anns.add(ann);
-                continue;
+                have.put(annId, ann);
+            } else if (!need.contains(annId)) {
+                need.add(annId);
             }
-System.out.println("need " + annId + " from IA, i guess?");
-            ann = getAnnotationFromIA(annId, myShepherd);
-            if (ann == null) throw new RuntimeException("Could not getAnnotationFromIA(" + annId + ")");
-            anns.add(ann);
+        }
+        if (need.size() > 0) {
+System.out.println("need " + need.size() + " annotations from IA, i guess?");
+            HashMap<String,JSONObject> details = null;
+            try {
+                details = iaAnnotDetails(need, myShepherd.getContext());
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                throw new RuntimeException("grabAnnotations() could not get annotation details from IA: " + ex.toString());
+            }
+            for (String annId : need) {
+                Annotation ann = getAnnotationFromIA(annId, details.get(annId), myShepherd);
+                if (ann == null) throw new RuntimeException("Could not getAnnotationFromIA(" + annId + ")");
+                have.put(annId, ann);
+            }
+        }
+        List<Annotation> anns = new ArrayList<Annotation>();
+        for (String annId : annIds) {
+            anns.add(have.get(annId));
         }
         return anns;
     }
@@ -1670,42 +1663,44 @@ System.out.println("need " + annId + " from IA, i guess?");
 
 
     public static Annotation getAnnotationFromIA(String annId, Shepherd myShepherd) {
-        String context = myShepherd.getContext();
+        JSONObject details = null;
+        try {
+            details = iaAnnotDetails(new ArrayList<String>(Arrays.asList(annId)), myShepherd.getContext()).get(annId);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            throw new RuntimeException("getAnnotationFromIA(" + annId + ") error " + ex.toString());
+        }
+        return getAnnotationFromIA(annId, details, myShepherd);
+    }
 
+    //details as from iaAnnotDetails()
+    public static Annotation getAnnotationFromIA(String annId, JSONObject details, Shepherd myShepherd) {
         try {
-            String idSuffix = "?annot_uuid_list=[" + toFancyUUID(annId) + "]";
-            JSONObject rtn = RestClient.get(iaURL(context, "/api/annot/image/uuid/json/" + idSuffix));
-            if ((rtn == null) || (rtn.optJSONArray("response") == null) || (rtn.getJSONArray("response").optJSONObject(0) == null)) throw new RuntimeException("could not get image uuid");
-            String imageUUID = fromFancyUUID(rtn.getJSONArray("response").getJSONObject(0));
+            if (details == null) throw new RuntimeException("no details from IA");
+            if (details.optJSONObject("imageUUID") == null) throw new RuntimeException("could not get image uuid");
+            String imageUUID = fromFancyUUID(details.getJSONObject("imageUUID"));
             MediaAsset ma = grabMediaAsset(imageUUID, myShepherd);
             if (ma == null) throw new RuntimeException("could not find MediaAsset " + imageUUID);
 
             //now we need the bbox to make the Feature
-            rtn = RestClient.get(iaURL(context, "/api/annot/bbox/json/" + idSuffix));
-            if ((rtn == null) || (rtn.optJSONArray("response") == null) || (rtn.getJSONArray("response").optJSONArray(0) == null)) throw new RuntimeException("could not get annot bbox");
-            JSONArray jbb = rtn.getJSONArray("response").getJSONArray(0);
+            if (details.optJSONArray("bbox") == null) throw new RuntimeException("could not get annot bbox");
+            JSONArray jbb = details.getJSONArray("bbox");
             JSONObject fparams = new JSONObject();
             fparams.put("x", jbb.optInt(0, 0));
             fparams.put("y", jbb.optInt(1, 0));
             fparams.put("width", jbb.optInt(2, -1));
             fparams.put("height", jbb.optInt(3, -1));
-            fparams.put("theta", iaThetaFromAnnotUUID(annId, context));  //now with vitamin THETA!
+            fparams.put("theta", details.optDouble("theta", 0.0));  //now with vitamin THETA!
             Feature ft = new Feature("org.ecocean.boundingBox", fparams);
             ma.addFeature(ft);
 
-            rtn = RestClient.get(iaURL(context, "/api/annot/species/json/" + idSuffix));
-            if ((rtn == null) || (rtn.optJSONArray("response") == null) || (rtn.getJSONArray("response").optString(0, null) == null)) throw new RuntimeException("could not get annot species");
-            String speciesString = rtn.getJSONArray("response").getString(0);
+            if (details.optString("species", null) == null) throw new RuntimeException("could not get annot species");
+            String speciesString = details.getString("species");
 
             Annotation ann = new Annotation(speciesString, ft);
             ann.setId(annId);  //nope we dont want random uuid, silly
-            rtn = RestClient.get(iaURL(context, "/api/annot/exemplar/json/" + idSuffix));
-            if ((rtn != null) && (rtn.optJSONArray("response") != null)) {
-                boolean exemplar = (rtn.getJSONArray("response").optInt(0, 0) == 1);
-                ann.setIsExemplar(exemplar);
-            }
-            Boolean aoi = iaIsOfInterestFromAnnotUUID(annId, context);
-            ann.setIsOfInterest(aoi);
+            if (details.has("exemplar")) ann.setIsExemplar(details.getBoolean("exemplar"));
+            ann.setIsOfInterest(details.has("isOfInterest") ? details.getBoolean("isOfInterest") : null);
             System.out.println("INFO: " + ann + " pulled from IA");
             return ann;
 
@@ -1715,6 +1710,44 @@ System.out.println("need " + annId + " from IA, i guess?");
         }
     }
 
+    /*
+        what getAnnotationFromIA() needs, for many annotations with a few list requests (run at the same time) instead
+        of six requests per annotation: annId -> {imageUUID, bbox, theta, species, exemplar, isOfInterest}, leaving out
+        any value IA did not have
+    */
+    public static HashMap<String,JSONObject> iaAnnotDetails(List<String> annIds, String context) throws RuntimeException, MalformedURLException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        String[] paths = new String[]{ "/api/annot/image/uuid/json/", "/api/annot/bbox/json/", "/api/annot/theta/json/",
+                                       "/api/annot/species/json/", "/api/annot/exemplar/json/", "/api/annot/interest/json/" };
+        HashMap<String,JSONObject> rtn = new HashMap<String,JSONObject>();
+        for (int start = 0 ; start < annIds.size() ; start += IA_LIST_BATCH_SIZE) {
+            List<String> batch = annIds.subList(start, Math.min(start + IA_LIST_BATCH_SIZE, annIds.size()));
+            JSONArray fancy = new JSONArray();
+            for (String annId : batch) {
+                fancy.put(toFancyUUID(annId));
+            }
+            List<URL> urls = new ArrayList<URL>();
+            for (String path : paths) {
+                urls.add(iaURL(context, path + "?annot_uuid_list=" + fancy.toString()));
+            }
+            List<JSONObject> res = RestClient.getAll(urls);
+            JSONArray[] lists = new JSONArray[paths.length];
+            for (int p = 0 ; p < paths.length ; p++) {
+                lists[p] = (res.get(p) == null) ? null : res.get(p).optJSONArray("response");
+            }
+            for (int i = 0 ; i < batch.size() ; i++) {
+                JSONObject d = new JSONObject();
+                if ((lists[0] != null) && (lists[0].optJSONObject(i) != null)) d.put("imageUUID", lists[0].getJSONObject(i));
+                if ((lists[1] != null) && (lists[1].optJSONArray(i) != null)) d.put("bbox", lists[1].getJSONArray(i));
+                if (lists[2] != null) d.put("theta", lists[2].optDouble(i, 0.0));
+                if ((lists[3] != null) && (lists[3].optString(i, null) != null)) d.put("species", lists[3].getString(i));
+                if (lists[4] != null) d.put("exemplar", (lists[4].optInt(i, 0) == 1));
+                if ((lists[5] != null) && !lists[5].isNull(i)) d.put("isOfInterest", lists[5].optBoolean(i));
+                rtn.put(batch.get(i), d);
+            }
+        }
+        return rtn;
+    }
+
     public static Annotation getAnnotationFromIADEBUG(String annId, Shepherd myShepherd, PrintWriter out) {
         String context = myShepherd.getContext();
 
@@ -2459,6 +2492,9 @@ System.out.println(">>>>>>>> age -> " + rtn);
         JSONObject settings = new JSONObject();  //TODO this is just one, as a kind of sanity check/debugging -- sh/could expand to more if needed
         settings.put("IBEISIARestUrlAddAnnotations", CommonConfiguration.getProperty("IBEISIARestUrlAddAnnotations", context));
         rtn.put("settings", settings);
+        rtn.put("targetLists", IATargetList.statusJSON(context));
+        rtn.put("jobs", IAJobTracker.statusJSON());
+        rtn.put("queues", org.ecocean.queue.QueueUtil.statusJSON());
         return rtn;
     }
 
@@ -2627,14 +2663,6 @@ System.out.println("queryConfigDict() got species=" + species + "; and opt = " +
         //return new JSONObject("{\"pipeline_root\": \"BC_DTW\"}");
     }
 
-    private static String annotGetIndiv(Annotation ann, Shepherd myShepherd) {
-        String id = cacheAnnotIndiv.get(ann.getId());
-        if (id != null) return id;
-        id = ann.findIndividualId(myShepherd);
-        cacheAnnotIndiv.put(ann.getId(), id);
-        return id;
-    }
-
     public static void primeIA() {
       primeIA(ContextConfiguration.getDefaultContext());
     }
@@ -3167,6 +3195,14 @@ System.out.println("HEYYYYYYY i am trying to getJobResult(" + jobId + ")");
 
                 JSONObject proc = processCallback(taskId, rlog, context, rootDir);
 System.out.println("processCallback returned --> " + proc);
+            } else if ((statusResponse != null) && (statusResponse.optJSONObject("response") != null) &&
+                       "completed".equals(statusResponse.getJSONObject("response").optString("jobstatus", null))) {
+                //done, but not ok -- there will be no results, so anyone waiting on it can stop
+                JSONObject fail = new JSONObject();
+                fail.put("success", false);
+                fail.put("taskId", taskId);
+                fail.put("error", "job " + jobId + " completed with exec_status " + statusResponse.getJSONObject("response").optString("exec_status", null));
+                IAJobTracker.complete(taskId, fail);
             }
         } catch (Exception ex) {
             System.out.println("whoops got exception: " + ex.toString());
@@ -26,6 +26,11 @@ import java.util.HashMap;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.json.JSONObject;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -41,6 +46,12 @@ public class IdentityServiceLog implements java.io.Serializable {
     private String serviceJobID;
     private String[] objectIDs;
     private String status;
+    //true once this log's objectIDs have IdentityServiceLogObject rows; null for logs from before there were any
+    private Boolean objectIDsIndexed;
+
+    //contexts whose old logs have all been indexed (see startObjectIndexing()); until then lookups by object ID scan
+    private static final ConcurrentHashMap<String, Boolean> objectIndexReady = new ConcurrentHashMap<String, Boolean>();
+    private static final int INDEX_BATCH_SIZE = 500;
 
 
     //probably (?) we will standardize on  "status" actually being a json object, so this will likely be the main constructor
@@ -173,6 +184,231 @@ public class IdentityServiceLog implements java.io.Serializable {
 
 
     public static ArrayList<IdentityServiceLog> loadByObjectID(String serviceName, String objectID, Shepherd myShepherd) {
+        if (!isObjectIndexReady(myShepherd)) return scanByObjectID(serviceName, objectID, myShepherd);
+        ArrayList<String> oids = new ArrayList<String>();
+        oids.add(objectID);
+        ArrayList<IdentityServiceLog> log = new ArrayList<IdentityServiceLog>();
+        for (IdentityServiceLogObject o : loadObjects(serviceName, oids, "timestamp", myShepherd)) {
+            log.add(o.getLog());
+        }
+        return log;
+    }
+
+    //loads only most recent task's worth of log items; note: it is in newest-first order (unlike most log returns)
+    public static ArrayList<IdentityServiceLog> loadMostRecentByObjectID(String serviceName, String objectID, Shepherd myShepherd) {
+        if (!isObjectIndexReady(myShepherd)) return scanMostRecentByObjectID(serviceName, objectID, myShepherd);
+        ArrayList<String> oids = new ArrayList<String>();
+        oids.add(objectID);
+        return loadMostRecentByObjectIDs(serviceName, oids, myShepherd).get(objectID);
+    }
+
+    /**
+     * loadMostRecentByObjectID() for many objects in two queries: objectID -> its most recent task's log items,
+     * newest first. Objects with no log items are left out.
+     */
+    public static Map<String, ArrayList<IdentityServiceLog>> loadMostRecentByObjectIDs(String serviceName, Collection<String> objectIDs, Shepherd myShepherd) {
+        Map<String, ArrayList<IdentityServiceLog>> rtn = new LinkedHashMap<String, ArrayList<IdentityServiceLog>>();
+        if ((objectIDs == null) || objectIDs.isEmpty()) return rtn;
+        if (!isObjectIndexReady(myShepherd)) {
+            for (String oid : objectIDs) {
+                ArrayList<IdentityServiceLog> log = scanMostRecentByObjectID(serviceName, oid, myShepherd);
+                if (log != null) rtn.put(oid, log);
+            }
+            return rtn;
+        }
+        //newest first, so the first row seen for an object is its most recent task
+        HashMap<String, String> recentTaskIds = new HashMap<String, String>();
+        for (IdentityServiceLogObject o : loadObjects(serviceName, objectIDs, "timestamp descending", myShepherd)) {
+            if (!recentTaskIds.containsKey(o.getObjectID())) recentTaskIds.put(o.getObjectID(), o.getTaskID());
+        }
+        HashMap<String, ArrayList<IdentityServiceLog>> byTask = loadByTaskIDs(serviceName, new LinkedHashSet<String>(recentTaskIds.values()), "timestamp descending", myShepherd);
+        for (String oid : objectIDs) {
+            String taskId = recentTaskIds.get(oid);
+            if ((taskId == null) || (byTask.get(taskId) == null)) continue;  //as before, a most recent log without a taskID finds nothing
+            rtn.put(oid, new ArrayList<IdentityServiceLog>(byTask.get(taskId)));
+        }
+        return rtn;
+    }
+
+/*
+ IDENTITYSERVICELOG_ID | SERVICEJOBID | SERVICENAME |       STATUS       |                TASKID                |   TIMESTAMP   |               OBJECTID               
+-----------------------+--------------+-------------+--------------------+--------------------------------------+---------------+--------------------------------------
+                   737 | -1           | IBEISIA     | {"_action":"init"} | 6bc34656-0847-4a80-b093-2a52481d8b22 | 1459307111383 | fd5b557e-337c-4239-9625-dfacc8822550
+                   739 | -1           | IBEISIA     | {"_action":"init"} | 8fce30ef-a8e2-4a4f-8830-5a3273df9baf | 1459307241643 | fd5b557e-337c-4239-9625-dfacc8822550
+                   745 | -1           | IBEISIA     | {"_action":"init"} | 32bb426a-a03d-4386-bbbf-15d6259ef732 | 1459308840326 | fd5b557e-337c-4239-9625-dfacc8822550
+(3 rows)
+
+(END)*/
+
+    public static ArrayList<IdentityServiceLog> summaryForAnnotationId(String annId, Shepherd myShepherd) {
+        if (!isObjectIndexReady(myShepherd)) return scanSummaryForAnnotationId(annId, myShepherd);
+        ArrayList<String> annIds = new ArrayList<String>();
+        annIds.add(annId);
+        ArrayList<IdentityServiceLog> rtn = summaryForAnnotationIds(annIds, myShepherd).get(annId);
+        return (rtn == null) ? new ArrayList<IdentityServiceLog>() : rtn;
+    }
+
+    /**
+     * summaryForAnnotationId() for many annotations in two queries: annId -> for each task that logged it, the
+     * task's latest log item.
+     */
+    public static Map<String, ArrayList<IdentityServiceLog>> summaryForAnnotationIds(Collection<String> annIds, Shepherd myShepherd) {
+        Map<String, ArrayList<IdentityServiceLog>> rtn = new LinkedHashMap<String, ArrayList<IdentityServiceLog>>();
+        if ((annIds == null) || annIds.isEmpty()) return rtn;
+        if (!isObjectIndexReady(myShepherd)) {
+            for (String annId : annIds) {
+                rtn.put(annId, scanSummaryForAnnotationId(annId, myShepherd));
+            }
+            return rtn;
+        }
+        //annId -> taskID -> timestamp the task first logged it
+        HashMap<String, HashMap<String, Long>> firstSeen = new HashMap<String, HashMap<String, Long>>();
+        LinkedHashSet<String> taskIds = new LinkedHashSet<String>();
+        for (IdentityServiceLogObject o : loadObjects("IBEISIA", annIds, "timestamp", myShepherd)) {
+            if (o.getTaskID() == null) continue;
+            HashMap<String, Long> tasks = firstSeen.get(o.getObjectID());
+            if (tasks == null) {
+                tasks = new HashMap<String, Long>();
+                firstSeen.put(o.getObjectID(), tasks);
+            }
+            if (!tasks.containsKey(o.getTaskID())) tasks.put(o.getTaskID(), o.getTimestamp());
+            taskIds.add(o.getTaskID());
+        }
+        HashMap<String, ArrayList<IdentityServiceLog>> byTask = loadByTaskIDs("IBEISIA", taskIds, "timestamp", myShepherd);
+        for (String annId : annIds) {
+            ArrayList<IdentityServiceLog> logs = new ArrayList<IdentityServiceLog>();
+            HashMap<String, Long> tasks = firstSeen.get(annId);
+            if (tasks != null) {
+                for (String taskId : tasks.keySet()) {
+                    ArrayList<IdentityServiceLog> tlogs = byTask.get(taskId);
+                    //the latest item of the task, as long as it isn't from before the task logged this annotation
+                    if ((tlogs == null) || tlogs.isEmpty()) continue;
+                    IdentityServiceLog last = tlogs.get(tlogs.size() - 1);
+                    if (last.getTimestamp() >= tasks.get(taskId)) logs.add(last);
+                }
+            }
+            rtn.put(annId, logs);
+        }
+        return rtn;
+    }
+
+
+    //the index rows for these objects, in the given ordering
+    private static List<IdentityServiceLogObject> loadObjects(String serviceName, Collection<String> objectIDs, String ordering, Shepherd myShepherd) {
+        ArrayList<IdentityServiceLogObject> rtn = new ArrayList<IdentityServiceLogObject>();
+        Query qry = myShepherd.getPM().newQuery(IdentityServiceLogObject.class);
+        qry.setFilter("this.serviceName == sname && oids.contains(this.objectID)");
+        qry.declareParameters("String sname, java.util.Collection oids");
+        qry.setOrdering(ordering);
+        try {
+            Collection coll = (Collection) (qry.execute(serviceName, new ArrayList<String>(objectIDs)));
+            for (Object c : coll) {
+                rtn.add((IdentityServiceLogObject)c);
+            }
+        }
+        catch (Exception ex) {
+          ex.printStackTrace();
+        }
+        qry.closeAll();
+        return rtn;
+    }
+
+    //taskID -> its log items, in the given ordering
+    private static HashMap<String, ArrayList<IdentityServiceLog>> loadByTaskIDs(String serviceName, Collection<String> taskIDs, String ordering, Shepherd myShepherd) {
+        HashMap<String, ArrayList<IdentityServiceLog>> rtn = new HashMap<String, ArrayList<IdentityServiceLog>>();
+        taskIDs.remove(null);
+        if (taskIDs.isEmpty()) return rtn;
+        Query qry = myShepherd.getPM().newQuery(IdentityServiceLog.class);
+        qry.setFilter("this.serviceName == sname && tids.contains(this.taskID)");
+        qry.declareParameters("String sname, java.util.Collection tids");
+        qry.setOrdering(ordering);
+        try {
+            Collection coll = (Collection) (qry.execute(serviceName, new ArrayList<String>(taskIDs)));
+            for (Object c : coll) {
+                IdentityServiceLog l = (IdentityServiceLog)c;
+                ArrayList<IdentityServiceLog> tlogs = rtn.get(l.getTaskID());
+                if (tlogs == null) {
+                    tlogs = new ArrayList<IdentityServiceLog>();
+                    rtn.put(l.getTaskID(), tlogs);
+                }
+                tlogs.add(l);
+            }
+        }
+        catch (Exception ex) {
+          ex.printStackTrace();
+        }
+        qry.closeAll();
+        return rtn;
+    }
+
+    public static boolean isObjectIndexReady(Shepherd myShepherd) {
+        return objectIndexReady.containsKey(myShepherd.getContext());
+    }
+
+    /**
+     * Indexes, in the background, the object IDs of logs saved before there was an index, a batch per
+     * transaction; lookups by object ID switch from scanning every log to the index once it is done.
+     */
+    public static void startObjectIndexing(final String context) {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                int total = 0;
+                try {
+                    int n;
+                    while ((n = indexUnindexed(context, INDEX_BATCH_SIZE)) > 0) {
+                        total += n;
+                    }
+                    objectIndexReady.put(context, true);
+                    System.out.println("IdentityServiceLog: object ID index ready for " + context + " (" + total + " old logs indexed)");
+                } catch (Exception ex) {
+                    System.out.println("IdentityServiceLog: indexing old logs for " + context + " failed after " + total + "; lookups by object ID will keep scanning");
+                    ex.printStackTrace();
+                }
+            }
+        }, "IdentityServiceLogIndexer_" + context);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    //indexes up to max not-yet-indexed logs in one transaction; returns how many it did
+    private static int indexUnindexed(String context, int max) {
+        Shepherd myShepherd = new Shepherd(context);
+        myShepherd.setAction("IdentityServiceLog.indexUnindexed");
+        myShepherd.beginDBTransaction();
+        Query qry = myShepherd.getPM().newQuery(IdentityServiceLog.class, "this.objectIDsIndexed == null");
+        qry.setRange(0, max);
+        int ct = 0;
+        try {
+            Collection coll = (Collection) (qry.execute());
+            for (Object c : new ArrayList<Object>(coll)) {
+                ((IdentityServiceLog)c).indexObjectIDs(myShepherd);
+                ct++;
+            }
+            qry.closeAll();
+            myShepherd.commitDBTransaction();
+        } catch (RuntimeException ex) {
+            qry.closeAll();
+            myShepherd.rollbackDBTransaction();
+            throw ex;
+        } finally {
+            myShepherd.closeDBTransaction();
+        }
+        return ct;
+    }
+
+    private void indexObjectIDs(Shepherd myShepherd) {
+        if (objectIDs != null) {
+            for (String oid : new LinkedHashSet<String>(Arrays.asList(objectIDs))) {
+                if (oid != null) myShepherd.getPM().makePersistent(new IdentityServiceLogObject(this, oid));
+            }
+        }
+        objectIDsIndexed = true;
+    }
+
+
+    //the lookups as they were before the index: every log of the service, checked here
+
+    private static ArrayList<IdentityServiceLog> scanByObjectID(String serviceName, String objectID, Shepherd myShepherd) {
 //System.out.println("serviceName=(" + serviceName + ") serviceJobID=(" + serviceJobID + ")");
         Extent cls = myShepherd.getPM().getExtent(IdentityServiceLog.class, true);
         //Query qry = myShepherd.getPM().newQuery(cls, "this.serviceName == \"" + serviceName + "\" && this.objectIDs.contains(\"" + objectID + "\")");
@@ -196,8 +432,7 @@ public class IdentityServiceLog implements java.io.Serializable {
     }
 
 
-    //loads only most recent task's worth of log items; note: it is in newest-first order (unlike most log returns)
-    public static ArrayList<IdentityServiceLog> loadMostRecentByObjectID(String serviceName, String objectID, Shepherd myShepherd) {
+    private static ArrayList<IdentityServiceLog> scanMostRecentByObjectID(String serviceName, String objectID, Shepherd myShepherd) {
 //System.out.println("serviceName=(" + serviceName + ") serviceJobID=(" + serviceJobID + ")");
         Extent cls = myShepherd.getPM().getExtent(IdentityServiceLog.class, true);
         Query qry = myShepherd.getPM().newQuery(cls, "this.serviceName == \"" + serviceName + "\"");
@@ -227,18 +462,7 @@ public class IdentityServiceLog implements java.io.Serializable {
         return log;
     }
 
-
-/*
- IDENTITYSERVICELOG_ID | SERVICEJOBID | SERVICENAME |       STATUS       |                TASKID                |   TIMESTAMP   |               OBJECTID               
------------------------+--------------+-------------+--------------------+--------------------------------------+---------------+--------------------------------------
-                   737 | -1           | IBEISIA     | {"_action":"init"} | 6bc34656-0847-4a80-b093-2a52481d8b22 | 1459307111383 | fd5b557e-337c-4239-9625-dfacc8822550
-                   739 | -1           | IBEISIA     | {"_action":"init"} | 8fce30ef-a8e2-4a4f-8830-5a3273df9baf | 1459307241643 | fd5b557e-337c-4239-9625-dfacc8822550
-                   745 | -1           | IBEISIA     | {"_action":"init"} | 32bb426a-a03d-4386-bbbf-15d6259ef732 | 1459308840326 | fd5b557e-337c-4239-9625-dfacc8822550
-(3 rows)
-
-(END)*/
-
-    public static ArrayList<IdentityServiceLog> summaryForAnnotationId(String annId, Shepherd myShepherd) {
+    private static ArrayList<IdentityServiceLog> scanSummaryForAnnotationId(String annId, Shepherd myShepherd) {
         Extent cls = myShepherd.getPM().getExtent(IdentityServiceLog.class, true);
         Query qry = myShepherd.getPM().newQuery(cls, "this.serviceName == \"IBEISIA\"");
         qry.setOrdering("timestamp");
@@ -283,6 +507,7 @@ public class IdentityServiceLog implements java.io.Serializable {
 
     public void save(Shepherd myShepherd) {
         myShepherd.getPM().makePersistent(this);
+        if (objectIDsIndexed == null) indexObjectIDs(myShepherd);
     }
 
 /*
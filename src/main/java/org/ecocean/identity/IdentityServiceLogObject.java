@@ -0,0 +1,44 @@
+package org.ecocean.identity;
+
+/**
+ * One row for each object ID of an IdentityServiceLog, so the logs for an annotation or media asset can be
+ * found with an indexed query. (IdentityServiceLog.objectIDs is a serialized array, which the database can't
+ * look inside.) These are only ever made by IdentityServiceLog.save() and the startup backfill.
+ */
+public class IdentityServiceLogObject implements java.io.Serializable {
+    static final long serialVersionUID = 4710365297712388143L;
+
+    private String objectID;
+    private String serviceName;
+    private String taskID;
+    private long timestamp;
+    private IdentityServiceLog log;
+
+    public IdentityServiceLogObject() {
+    }
+
+    public IdentityServiceLogObject(IdentityServiceLog log, String objectID) {
+        this.log = log;
+        this.objectID = objectID;
+        this.serviceName = log.getServiceName();
+        this.taskID = log.getTaskID();
+        this.timestamp = log.getTimestamp();
+    }
+
+    public String getObjectID() {
+        return objectID;
+    }
+    public String getServiceName() {
+        return serviceName;
+    }
+    public String getTaskID() {
+        return taskID;
+    }
+    public long getTimestamp() {
+        return timestamp;
+    }
+    public IdentityServiceLog getLog() {
+        return log;
+    }
+
+}
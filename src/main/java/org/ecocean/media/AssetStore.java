@@ -46,6 +46,7 @@ import org.slf4j.LoggerFactory;
 import java.nio.file.Files;
 import javax.jdo.*;
 
+import org.ecocean.CommonConfiguration;
 import org.ecocean.ImageProcessor;
 import org.ecocean.Util;
 import com.drew.imaging.ImageMetadataReader;
@@ -302,9 +303,59 @@ public abstract class AssetStore implements java.io.Serializable {
             throw new IOException("updateChild() error caching local file: " + ex.toString());
         }
         File sourceFile = parent.localPath().toFile();
-        File targetFile = new File(sourceFile.getParent().toString() + File.separator + Util.generateUUID() + "-" + type + ".jpg");
+        File targetFile = childTargetFile(sourceFile, type);
         boolean allowed = _updateChildLocalWork(parent, type, opts, sourceFile, targetFile);  //does the heavy lifting
         if (!allowed) return null;  //usually means read-only (big trouble throws exception, including targetFile not existing)
+        return childFromFile(parent, type, opts, targetFile);
+    }
+
+    /*
+        as updateChild() for several types at once (no opts, so not "feature"), decoding the parent just once for
+        all of them (see ImageDerivatives).  a type which fails is logged and left out of what is returned.
+    */
+    public ArrayList<MediaAsset> updateChildren(MediaAsset parent, List<String> types) throws IOException {
+        ArrayList<MediaAsset> made = new ArrayList<MediaAsset>();
+        if ((parent == null) || (types == null) || (types.size() < 1)) return made;
+        if (!parent.isMimeTypeMajor("image")) {
+            System.out.println("NOTICE: updateChildren(" + parent + ") aborted due to non-image; major mime type = " + parent.getMimeTypeMajor());
+            return made;
+        }
+        try {
+            parent.cacheLocal();
+        } catch (Exception ex) {
+            throw new IOException("updateChildren() error caching local file: " + ex.toString());
+        }
+        File sourceFile = parent.localPath().toFile();
+        List<ImageDerivatives.Spec> specs = new ArrayList<ImageDerivatives.Spec>();
+        for (String type : types) {
+            if (!isValidChildType(type)) {
+                System.out.println("NOTICE: updateChildren(" + parent + ") skipping invalid child type = " + type);
+                continue;
+            }
+            try {
+                specs.add(childSpec(parent, type, null, sourceFile, childTargetFile(sourceFile, type)));
+            } catch (IOException ex) {
+                System.out.println("updateChildren() failed on type=" + type + ", ma=" + parent + " with " + ex.toString());
+            }
+        }
+        if (!_updateChildrenLocalWork(parent, specs, sourceFile)) return made;
+        for (ImageDerivatives.Spec spec : specs) {
+            if (!spec.target.exists()) {
+                System.out.println("updateChildren() failed to create " + spec.target + " (type=" + spec.type + ") for " + parent);
+                continue;
+            }
+            MediaAsset ma = childFromFile(parent, spec.type, null, spec.target);
+            if (ma != null) made.add(ma);
+        }
+        return made;
+    }
+
+    protected File childTargetFile(File sourceFile, String type) {
+        return new File(sourceFile.getParent().toString() + File.separator + Util.generateUUID() + "-" + type + ".jpg");
+    }
+
+    //copies a derived file in as a child of parent
+    protected MediaAsset childFromFile(MediaAsset parent, String type, HashMap<String,Object> opts, File targetFile) throws IOException {
         JSONObject sp = this.createParameters(targetFile);
         MediaAsset ma = this.copyIn(targetFile, sp);
         if (ma == null) return null; //not sure how this would happen *without* an exception, but meh.
@@ -324,7 +375,31 @@ public abstract class AssetStore implements java.io.Serializable {
     protected boolean _updateChildLocalWork(MediaAsset parentMA, String type, HashMap<String,Object> opts, File sourceFile, File targetFile) throws IOException {
         if (!this.writable) return false; //should we silently fail or throw exception??
         if (!sourceFile.exists()) throw new IOException("updateChild() " + sourceFile.toString() + " does not exist");
+        ImageDerivatives.Spec spec = childSpec(parentMA, type, opts, sourceFile, targetFile);
+System.out.println("AssetStore.updateChild(): " + sourceFile + " --> " + targetFile);
+
+/* a quandry - i *think* "we all" (?) have generally agreed that a *new* MediaAsset should be created for each change in the contents of the source file.
+   as such, finding an existing child MediaAsset of the type desired probably means it should either be deleted or orphaned ... or maybe simply marked older?
+   in short: "revisioning".  further, if the *parent has changed* should it also then not be a NEW MediaAsset itself anyway!? as such, we "should never" be
+   altering an existing child type on an existing parent.  i think.  ???  sigh.... not sure what TODO  -jon */
+
+        ImageDerivatives.derive(sourceFile, Collections.singletonList(spec), derivativesInJVM());
+        if (!targetFile.exists()) throw new IOException("updateChild() failed to create " + targetFile.toString());
+        return true;
+    }
+
+    //as above, all from one decode of sourceFile; caller checks which targets got made
+    protected boolean _updateChildrenLocalWork(MediaAsset parentMA, List<ImageDerivatives.Spec> specs, File sourceFile) throws IOException {
+        if (!this.writable) return false;
+        if (!sourceFile.exists()) throw new IOException("updateChildren() " + sourceFile.toString() + " does not exist");
+        if (specs.size() < 1) return true;
+System.out.println("AssetStore.updateChildren(): " + sourceFile + " --> " + specs);
+        ImageDerivatives.derive(sourceFile, specs, derivativesInJVM());
+        return true;
+    }
 
+    //what to make for a child type; the ImageMagick commands (via ImageProcessor) are the fallback
+    protected ImageDerivatives.Spec childSpec(MediaAsset parentMA, String type, HashMap<String,Object> opts, File sourceFile, File targetFile) throws IOException {
         String action = "resize";
         int width = 0;
         int height = 0;
@@ -391,30 +466,41 @@ System.out.println("got transformArray -> " + transformArray);
             default:
                 throw new IOException("updateChild() type " + type + " unknown");
         }
-System.out.println("AssetStore.updateChild(): " + sourceFile + " --> " + targetFile);
-
-/* a quandry - i *think* "we all" (?) have generally agreed that a *new* MediaAsset should be created for each change in the contents of the source file.
-   as such, finding an existing child MediaAsset of the type desired probably means it should either be deleted or orphaned ... or maybe simply marked older?
-   in short: "revisioning".  further, if the *parent has changed* should it also then not be a NEW MediaAsset itself anyway!? as such, we "should never" be
-   altering an existing child type on an existing parent.  i think.  ???  sigh.... not sure what TODO  -jon */
 
-        ImageProcessor iproc = null;
+        ImageDerivatives.Spec spec;
         if (needsTransform) {
-            iproc = new ImageProcessor("context0", sourceFile.toString(), targetFile.toString(), width, height, transformArray, parentMA);
+            spec = new ImageDerivatives.Spec(type, "transform", width, height, targetFile);
+            spec.transform = transformArray;
+            spec.quality = 90;
+            spec.fallback = new ImageProcessor("context0", sourceFile.toString(), targetFile.toString(), width, height, transformArray, parentMA);
         } else {
-            iproc = new ImageProcessor("context0", action, width, height, sourceFile.toString(), targetFile.toString(), args, parentMA);
+            spec = new ImageDerivatives.Spec(type, action, width, height, targetFile);
+            spec.fallback = new ImageProcessor("context0", action, width, height, sourceFile.toString(), targetFile.toString(), args, parentMA);
         }
-
-        Thread t = new Thread(iproc);
-        t.start();
-        try {
-            t.join();  //we have to wait for it to finish, so we can do the copyIn() below
-        } catch (InterruptedException ex) {
-            throw new IOException("updateChild() ImageProcessor failed due to interruption: " + ex.toString());
+        //qualities as in the default ImageMagick commands
+        if (action.equals("watermark")) {
+            spec.quality = 70;
+            String wm = CommonConfiguration.getProperty("imageWatermarkImage", "context0");
+            if (wm != null) spec.watermarkImage = new File(wm);
+            spec.comment = ImageProcessor.imageComment("context0", parentMA);
+        } else if (action.equals("maintainAspectRatio")) {
+            spec.quality = 90;
+        }
+        if (parentMA != null) {
+            if (parentMA.hasLabel("rotate90")) {
+                spec.quarterTurns = 1;
+            } else if (parentMA.hasLabel("rotate180")) {
+                spec.quarterTurns = 2;
+            } else if (parentMA.hasLabel("rotate270")) {
+                spec.quarterTurns = 3;
+            }
         }
+        return spec;
+    }
 
-        if (!targetFile.exists()) throw new IOException("updateChild() failed to create " + targetFile.toString());
-        return true;
+    //imageDerivativesInJVM = false to always use the ImageMagick commands (e.g. if they have been customized)
+    private static boolean derivativesInJVM() {
+        return !"false".equals(CommonConfiguration.getProperty("imageDerivativesInJVM", "context0"));
     }
 
 
@@ -645,15 +731,19 @@ if ((ann != null) && !ann.isTrivial()) return "<!-- skipping non-trivial annotat
         File file = ma.localPath().toFile();
         if (!file.exists()) throw new IOException(file + " does not exist");
         JSONObject data = new JSONObject();
-        JSONObject attr = extractMetadataAttributes(file);
-        if (attr != null) data.put("attributes", attr);
+        ImageProbe.Result probe = null;
+        try {
+            probe = ImageProbe.probe(file);  //headers only, and cached; one read for attributes and exif both
+        } catch (IOException ioe) {
+            System.out.println("WARNING: ImageProbe.probe() threw " + ioe.toString() + " on " + ma + "; ignoring");
+        }
+        data.put("attributes", metadataAttributes(file, probe));
         if (!minimal) {
-            //we swallow the exif IOException, since it can flake (non-jpegs etc) and we "dont care" -- we would rather just have MetadataAttributes than nothing
-            try {
-                JSONObject exif = extractMetadataExif(file);
-                if (exif != null) data.put("exif", exif);
-            } catch (IOException ioe) {
-                System.out.println("WARNING: extractMetadataExif threw " + ioe.toString() + " on " + ma + "; ignoring");
+            //we swallow the exif failure, since it can flake (non-jpegs etc) and we "dont care" -- we would rather just have MetadataAttributes than nothing
+            if ((probe != null) && (probe.getExif() != null)) {
+                data.put("exif", probe.getExif());
+            } else if (probe != null) {
+                System.out.println("WARNING: no exif (" + probe.getExifError() + ") on " + ma + "; ignoring");
             }
         }
 
@@ -664,40 +754,26 @@ if ((ann != null) && !ann.isTrivial()) return "<!-- skipping non-trivial annotat
     //these can be used by subclasses who can access files, for within .extractMetadata()
 
     public static JSONObject extractMetadataAttributes(File file) throws IOException {  //some "generic attributes" (i.e. not from specific sources like exif)
+        ImageProbe.Result probe = null;
+        try {
+            probe = ImageProbe.probe(file);
+        } catch (IOException ex) { }  //we only kinda care about probe failure -- see: non-images
+        return metadataAttributes(file, probe);
+    }
+
+    private static JSONObject metadataAttributes(File file, ImageProbe.Result probe) throws IOException {
         JSONObject j = new JSONObject();
         j.put("contentType", Files.probeContentType(file.toPath()));  //hopefully we can always/atleast get this
-
-        //we only kinda care about bimg failure -- see: non-images
-        BufferedImage bimg = null;
-        try {
-            bimg = ImageIO.read(file);
-        } catch (javax.imageio.IIOException ex) { }
-        if (bimg != null) {
-            j.put("width", (double)bimg.getWidth());
-            j.put("height", (double)bimg.getHeight());
-        }
+        if (probe != null) probe.addAttributes(j);  //width/height from the header, no decoding
         return j;
     }
 
 
     /////////////// regarding pulling "useful" Metadata, see: https://github.com/drewnoakes/metadata-extractor/issues/10
     public static JSONObject extractMetadataExif(File file) throws IOException {
-        Metadata md = null;
-        try {
-            md = ImageMetadataReader.readMetadata(file);
-        } catch (Exception ex) {
-            throw new IOException("MediaAsset.getImageMetadata() threw exception " + ex.toString());
-        }
-
-        JSONObject j = new JSONObject();
-        for (Directory directory : md.getDirectories()) {
-            JSONObject d = new JSONObject();
-            for (Tag tag : directory.getTags()) {
-                d.put(tag.getTagName(), tag.getDescription());
-            }
-            j.put(directory.getName(), d);
-        }
-        return j;
+        ImageProbe.Result probe = ImageProbe.probe(file);
+        if (probe.getExif() == null) throw new IOException("MediaAsset.getImageMetadata() threw exception " + probe.getExifError());
+        return probe.getExif();
     }
 
 }
@@ -0,0 +1,380 @@
+package org.ecocean.media;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/*
+    makes derived images (children: master, mid, thumb, watermark, feature crops) in the jvm rather than with one
+    ImageMagick process per child.  the source is decoded once for all the children asked for together (see
+    AssetStore.updateChildren()), and the work runs on a small fixed pool so a burst of uploads cannot decode
+    dozens of full-size rasters at once.  anything we cannot do here (a format ImageIO cannot read, a
+    non-trivial transform matrix, no watermark image) runs the Spec's fallback, i.e. the ImageMagick command.
+
+    output is upright: EXIF orientation and any rotate90/180/270 label are applied to the pixels (the jpegs we
+    write carry no EXIF).  feature crops are in the original (un-rotated) pixel coordinates, then rotated.
+*/
+public class ImageDerivatives {
+    public static final int MAX_THREADS = 4;  //each holds a full decoded source, so this bounds heap too
+    private static final String JPEG_METADATA = "javax_imageio_jpeg_image_1.0";
+
+    private static ThreadPoolExecutor pool = null;
+    private static final ConcurrentHashMap<String, BufferedImage> overlays = new ConcurrentHashMap<String, BufferedImage>();
+
+    //one derived image to make
+    public static class Spec {
+        final String type;
+        final File target;
+        String action = "resize";  //resize (fill then center crop), maintainAspectRatio (fit within), watermark (resize + overlay), transform (crop)
+        int width;
+        int height;
+        float[] transform;  //as for imageTransformCommand
+        int quality = 80;
+        File watermarkImage;
+        String comment;
+        int quarterTurns = 0;  //extra clockwise rotation, from rotate* labels
+        Runnable fallback;
+
+        public Spec(String type, String action, int width, int height, File target) {
+            this.type = type;
+            this.action = action;
+            this.width = width;
+            this.height = height;
+            this.target = target;
+        }
+
+        public String toString() {
+            return type + "[" + action + " " + width + "x" + height + " -> " + target + "]";
+        }
+    }
+
+    //blocks until every spec has been tried (here or via its fallback); check the target files for what got made
+    public static void derive(final File source, final List<Spec> specs, final boolean inJVM) throws IOException {
+        Future<?> f = getPool().submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                deriveNow(source, specs, inJVM);
+                return null;
+            }
+        });
+        try {
+            f.get();
+        } catch (InterruptedException ex) {
+            f.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("derive() interrupted on " + source);
+        } catch (ExecutionException ex) {
+            throw new IOException("derive() failed on " + source + ": " + ex.getCause());
+        }
+    }
+
+    static void deriveNow(File source, List<Spec> specs, boolean inJVM) {
+        List<Spec> fallback = new ArrayList<Spec>();
+        BufferedImage img = null;
+        int subsample = 1;
+        int orientation = 1;
+        if (inJVM) {
+            try {
+                subsample = subsampling(source, specs);
+                img = decode(source, subsample);
+                if (img == null) System.out.println("ImageDerivatives: no ImageIO reader for " + source + "; using fallback");
+                orientation = exifOrientation(source);
+            } catch (Exception ex) {
+                System.out.println("ImageDerivatives: could not decode " + source + " (" + ex.toString() + "); using fallback");
+                img = null;
+            }
+        }
+        for (Spec spec : specs) {
+            boolean done = false;
+            if (img != null) {
+                try {
+                    done = render(img, subsample, orientation, spec);
+                } catch (Exception ex) {
+                    System.out.println("ImageDerivatives: " + spec + " failed (" + ex.toString() + "); using fallback");
+                    spec.target.delete();
+                }
+            }
+            if (!done) fallback.add(spec);
+        }
+        img = null;
+        for (Spec spec : fallback) {
+            if (spec.fallback != null) spec.fallback.run();
+        }
+    }
+
+    //false if this spec needs the fallback
+    static boolean render(BufferedImage src, int subsample, int orientation, Spec spec) throws IOException {
+        int turns = spec.quarterTurns;
+        BufferedImage out;
+        if ("transform".equals(spec.action)) {
+            float[] t = spec.transform;
+            if ((t == null) || (t.length < 6) || (t[0] != 1) || (t[1] != 0) || (t[2] != 0) || (t[3] != 1)) return false;  //only plain crops here
+            if (subsample != 1) return false;
+            int x = Math.max(0, Math.round(t[4]));
+            int y = Math.max(0, Math.round(t[5]));
+            int w = Math.min(spec.width, src.getWidth() - x);
+            int h = Math.min(spec.height, src.getHeight() - y);
+            if ((w < 1) || (h < 1)) return false;
+            out = copy(src.getSubimage(x, y, w, h), w, h);
+            out = orient(out, orientation);
+            turns = 0;  //annotations are not rotated by labels
+        } else {
+            //do the scaling on the un-rotated pixels (target sides swapped if it will be turned), then rotate the small result
+            boolean swap = (turnsOf(orientation) + turns) % 2 == 1;
+            int tw = swap ? spec.height : spec.width;
+            int th = swap ? spec.width : spec.height;
+            int sw = src.getWidth();
+            int sh = src.getHeight();
+            if ("maintainAspectRatio".equals(spec.action)) {
+                //relative to the real (not subsampled) source; never enlarged
+                double f = Math.min(1.0, Math.min((double)tw / (sw * subsample), (double)th / (sh * subsample)));
+                int ow = Math.max(1, (int)Math.round(sw * subsample * f));
+                int oh = Math.max(1, (int)Math.round(sh * subsample * f));
+                out = scale(src, 0, 0, sw, sh, ow, oh);
+            } else {
+                //like -resize WxH^ -gravity center -crop WxH+0+0: biggest centered region with the target's aspect
+                double f = Math.max((double)tw / sw, (double)th / sh);
+                int cw = Math.min(sw, (int)Math.round(tw / f));
+                int ch = Math.min(sh, (int)Math.round(th / f));
+                out = scale(src, (sw - cw) / 2, (sh - ch) / 2, cw, ch, tw, th);
+            }
+            out = orient(out, orientation);
+            out = turn(out, turns);
+            if ("watermark".equals(spec.action)) {
+                BufferedImage mark = overlay(spec.watermarkImage);
+                if (mark == null) return false;
+                Graphics2D g = out.createGraphics();
+                g.setComposite(AlphaComposite.SrcOver);
+                g.drawImage(mark, (out.getWidth() - mark.getWidth()) / 2, (out.getHeight() - mark.getHeight()) / 2, null);
+                g.dispose();
+            }
+        }
+        writeJpeg(out, spec.target, spec.quality, spec.comment);
+        return true;
+    }
+
+
+    //subsampled decoding, when every child is much smaller than the source (never for crops)
+    static int subsampling(File source, List<Spec> specs) throws IOException {
+        int[] dim = dimensions(source);
+        if (dim == null) return 1;
+        double need = 0;  //largest fraction of the source any child needs
+        for (Spec spec : specs) {
+            if (!"resize".equals(spec.action) && !"watermark".equals(spec.action) && !"maintainAspectRatio".equals(spec.action)) return 1;
+            //either way round, as it may get rotated
+            need = Math.max(need, fraction(spec, dim[0], dim[1]));
+            need = Math.max(need, fraction(spec, dim[1], dim[0]));
+        }
+        if (need <= 0) return 1;
+        //keep at least twice the pixels needed, so the final scaling still has something to average
+        return Math.max(1, (int)Math.floor(1.0 / (need * 2)));
+    }
+
+    private static double fraction(Spec spec, int sw, int sh) {
+        double fw = (double)spec.width / sw;
+        double fh = (double)spec.height / sh;
+        return "maintainAspectRatio".equals(spec.action) ? Math.min(fw, fh) : Math.max(fw, fh);
+    }
+
+    static int[] dimensions(File source) throws IOException {
+        ImageProbe.Result probe = ImageProbe.probe(source);  //header only (and usually cached from extractMetadata)
+        if (probe.getWidth() < 1) return null;
+        return new int[]{probe.getWidth(), probe.getHeight()};
+    }
+
+    //null if no reader for it
+    static BufferedImage decode(File source, int subsample) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(source);
+        if (iis == null) return null;
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (subsample > 1) param.setSourceSubsampling(subsample, subsample, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            iis.close();
+        }
+    }
+
+    //1 (as is) unless its exif says otherwise
+    static int exifOrientation(File source) {
+        try {
+            return ImageProbe.probe(source).getOrientation();
+        } catch (IOException ex) {
+            return 1;
+        }
+    }
+
+    private static int turnsOf(int orientation) {
+        return (orientation >= 5) ? 1 : 0;
+    }
+
+
+    //region (x,y,w,h) of src scaled to ow x oh.  halves in steps first when shrinking a lot, which keeps the
+    //averaging of bilinear from dropping detail (and is faster than one big bicubic)
+    static BufferedImage scale(BufferedImage src, int x, int y, int w, int h, int ow, int oh) {
+        BufferedImage cur = src.getSubimage(x, y, w, h);
+        int cw = w;
+        int ch = h;
+        boolean copied = false;  //never hand back (a view of) src itself, it is shared by the other specs
+        while ((cw / 2 >= ow) && (ch / 2 >= oh)) {
+            cw = cw / 2;
+            ch = ch / 2;
+            cur = draw(cur, cw, ch, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            copied = true;
+        }
+        if ((cw == ow) && (ch == oh)) return copied ? cur : copy(cur, cw, ch);  //e.g. master of a smaller source
+        return draw(cur, ow, oh, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+    }
+
+    private static BufferedImage draw(BufferedImage src, int w, int h, Object interpolation) {
+        BufferedImage dst = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = dst.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.setColor(Color.WHITE);  //under any transparency, as jpeg has none
+        g.fillRect(0, 0, w, h);
+        g.drawImage(src, 0, 0, w, h, null);
+        g.dispose();
+        return dst;
+    }
+
+    private static BufferedImage copy(BufferedImage src, int w, int h) {
+        return draw(src, w, h, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+    }
+
+    //EXIF orientation values 1-8
+    static BufferedImage orient(BufferedImage img, int orientation) {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        AffineTransform t;
+        switch (orientation) {
+            case 2: t = new AffineTransform(-1, 0, 0, 1, w, 0); break;
+            case 3: t = new AffineTransform(-1, 0, 0, -1, w, h); break;
+            case 4: t = new AffineTransform(1, 0, 0, -1, 0, h); break;
+            case 5: t = new AffineTransform(0, 1, 1, 0, 0, 0); break;
+            case 6: t = new AffineTransform(0, 1, -1, 0, h, 0); break;
+            case 7: t = new AffineTransform(0, -1, -1, 0, h, w); break;
+            case 8: t = new AffineTransform(0, -1, 1, 0, 0, w); break;
+            default: return img;
+        }
+        boolean swap = orientation >= 5;
+        BufferedImage dst = new BufferedImage(swap ? h : w, swap ? w : h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = dst.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g.drawImage(img, t, null);
+        g.dispose();
+        return dst;
+    }
+
+    //clockwise quarter turns
+    static BufferedImage turn(BufferedImage img, int turns) {
+        switch (((turns % 4) + 4) % 4) {
+            case 1: return orient(img, 6);
+            case 2: return orient(img, 3);
+            case 3: return orient(img, 8);
+            default: return img;
+        }
+    }
+
+    private static BufferedImage overlay(File file) {
+        if ((file == null) || !file.isFile()) return null;
+        String key = file.getAbsolutePath() + ":" + file.lastModified();
+        BufferedImage mark = overlays.get(key);
+        if (mark != null) return mark;
+        try {
+            mark = ImageIO.read(file);
+        } catch (IOException ex) {
+            System.out.println("ImageDerivatives: could not read watermark " + file + ": " + ex.toString());
+            return null;
+        }
+        if (mark != null) overlays.put(key, mark);
+        return mark;
+    }
+
+    static void writeJpeg(BufferedImage img, File target, int quality, String comment) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality / 100f);
+        IIOMetadata meta = null;
+        if (comment != null) {
+            meta = writer.getDefaultImageMetadata(new ImageTypeSpecifier(img), param);
+            IIOMetadataNode root = (IIOMetadataNode)meta.getAsTree(JPEG_METADATA);
+            IIOMetadataNode com = new IIOMetadataNode("com");
+            com.setAttribute("comment", comment);
+            ((IIOMetadataNode)root.getElementsByTagName("markerSequence").item(0)).appendChild(com);
+            meta.setFromTree(JPEG_METADATA, root);
+        }
+        target.delete();
+        ImageOutputStream ios = ImageIO.createImageOutputStream(target);
+        try {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(img, null, meta), param);
+        } finally {
+            ios.close();
+            writer.dispose();
+        }
+    }
+
+
+    private static synchronized ThreadPoolExecutor getPool() {
+        if (pool == null) {
+            int n = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+            final AtomicInteger count = new AtomicInteger();
+            pool = new ThreadPoolExecutor(n, n, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ImageDerivatives-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+        }
+        return pool;
+    }
+
+    //for StartupWildbook.contextDestroyed()
+    public static synchronized void cleanup() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+        overlays.clear();
+        System.out.println("ImageDerivatives.cleanup() finished.");
+    }
+}
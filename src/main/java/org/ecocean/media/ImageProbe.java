@@ -0,0 +1,264 @@
+package org.ecocean.media;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.lang.GeoLocation;
+import com.drew.metadata.Directory;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.Tag;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.drew.metadata.exif.GpsDirectory;
+import org.joda.time.DateTime;
+import org.json.JSONObject;
+
+/*
+    reads what we want to know about an image file -- dimensions, exif orientation, capture time, gps, and the
+    exif tags themselves -- from its headers only: ImageReader.getWidth()/getHeight() stop at the jpeg SOF / png
+    IHDR / tiff IFD, and metadata-extractor stops at the jpeg SOS, so no pixels are decoded (ImageIO.read() on a
+    40MP original allocates a ~160MB raster just to learn its size).
+
+    results are cached by content (see contentKey()), so the same photo probed as an upload, again on import,
+    again for its children and again for Cluster time/place costs one read of its headers.
+*/
+public class ImageProbe {
+    public static final int CACHE_SIZE = 5000;
+    static final int KEY_HEAD_BYTES = 64 * 1024;
+    static final int KEY_TAIL_BYTES = 16 * 1024;
+
+    private static final Map<String, Result> cache = new LinkedHashMap<String, Result>(256, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    //path:length:mtime -> contentKey, so probing the same file again does not even re-hash it
+    private static final Map<String, String> keys = new LinkedHashMap<String, String>(256, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    public static class Result {
+        int width = -1;  //-1 when ImageIO has no reader for it
+        int height = -1;
+        String format;
+        int orientation = 1;
+        DateTime dateTime;
+        Double latitude;
+        Double longitude;
+        private String exif;  //as extractMetadataExif() has always made it; a string so callers cannot change the cached copy
+        String exifError;
+
+        public int getWidth() {
+            return width;
+        }
+        public int getHeight() {
+            return height;
+        }
+        public String getFormat() {
+            return format;
+        }
+        //EXIF values 1-8 (1 is as stored)
+        public int getOrientation() {
+            return orientation;
+        }
+        public DateTime getDateTime() {
+            return dateTime;
+        }
+        public Double getLatitude() {
+            return latitude;
+        }
+        public Double getLongitude() {
+            return longitude;
+        }
+        //null if there was none we could read (see getExifError())
+        public JSONObject getExif() {
+            return (exif == null) ? null : new JSONObject(exif);
+        }
+        public String getExifError() {
+            return exifError;
+        }
+
+        //the same values for metadata "attributes"
+        public void addAttributes(JSONObject j) {
+            if (width > 0) {
+                j.put("width", (double)width);
+                j.put("height", (double)height);
+            }
+            if (orientation != 1) j.put("orientation", orientation);
+            if (dateTime != null) j.put("dateTime", dateTime.toString());  //what MediaAsset.getDateTime() looks for first
+            //not gps: attributes go out with MediaAsset json, and exif still has it for getLatitude() etc
+        }
+
+        public String toString() {
+            return width + "x" + height + " " + format + " o=" + orientation + " " + dateTime + " (" + latitude + "," + longitude + ")";
+        }
+    }
+
+
+    public static Result probe(File file) throws IOException {
+        if ((file == null) || !file.isFile()) throw new IOException("probe() " + file + " is not a file");
+        String fileKey = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        String key;
+        synchronized (cache) {
+            key = keys.get(fileKey);
+        }
+        if (key == null) {
+            key = contentKey(file);
+            synchronized (cache) {
+                keys.put(fileKey, key);
+            }
+        }
+        Result r;
+        synchronized (cache) {
+            r = cache.get(key);
+        }
+        if (r != null) {
+            hits.incrementAndGet();
+            return r;
+        }
+        misses.incrementAndGet();
+        r = read(file);
+        synchronized (cache) {
+            cache.put(key, r);
+        }
+        return r;
+    }
+
+    static Result read(File file) throws IOException {
+        Result r = new Result();
+        ImageInputStream iis = ImageIO.createImageInputStream(file);
+        if (iis != null) {
+            try {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+                if (readers.hasNext()) {
+                    ImageReader reader = readers.next();
+                    try {
+                        reader.setInput(iis, true, true);
+                        r.format = reader.getFormatName();
+                        r.width = reader.getWidth(0);
+                        r.height = reader.getHeight(0);
+                    } catch (IOException ex) {  //corrupt, or not really what its magic number says
+                        r.width = -1;
+                        r.height = -1;
+                    } finally {
+                        reader.dispose();
+                    }
+                }
+            } finally {
+                iis.close();
+            }
+        }
+
+        Metadata md;
+        try {
+            md = ImageMetadataReader.readMetadata(file);
+        } catch (Exception ex) {  //non-jpeg/tiff etc; we "dont care" much, see AssetStore.extractMetadata()
+            r.exifError = ex.toString();
+            return r;
+        }
+        JSONObject j = new JSONObject();
+        for (Directory directory : md.getDirectories()) {
+            JSONObject d = new JSONObject();
+            for (Tag tag : directory.getTags()) {
+                d.put(tag.getTagName(), tag.getDescription());
+            }
+            j.put(directory.getName(), d);
+        }
+        r.exif = j.toString();
+
+        ExifIFD0Directory ifd0 = md.getDirectory(ExifIFD0Directory.class);
+        if (ifd0 != null) {
+            Integer o = ifd0.getInteger(ExifIFD0Directory.TAG_ORIENTATION);
+            if ((o != null) && (o >= 1) && (o <= 8)) r.orientation = o;
+        }
+        //original is best, digitized is kinda good, ifd0 (often when it was last edited) is a last resort
+        Date d = null;
+        ExifSubIFDDirectory sub = md.getDirectory(ExifSubIFDDirectory.class);
+        if (sub != null) d = sub.getDate(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL);
+        if ((d == null) && (sub != null)) d = sub.getDate(ExifSubIFDDirectory.TAG_DATETIME_DIGITIZED);
+        if ((d == null) && (ifd0 != null)) d = ifd0.getDate(ExifIFD0Directory.TAG_DATETIME);
+        if (d != null) r.dateTime = new DateTime(d);
+        GpsDirectory gps = md.getDirectory(GpsDirectory.class);
+        if (gps != null) {
+            try {
+                GeoLocation loc = gps.getGeoLocation();
+                if ((loc != null) && !((loc.getLatitude() == 0) && (loc.getLongitude() == 0))) {
+                    r.latitude = loc.getLatitude();
+                    r.longitude = loc.getLongitude();
+                }
+            } catch (Exception ex) {}  //malformed gps block
+        }
+        return r;
+    }
+
+    /*
+        a hash of the file's length, first KEY_HEAD_BYTES and last KEY_TAIL_BYTES: the head holds the
+        dimensions and (nearly always) the exif, and the length/tail catch re-saves.  hashing all of a 40MB
+        original would cost far more than the probe itself.
+    */
+    static String contentKey(File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex.toString());
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long len = raf.length();
+            md.update(Long.toString(len).getBytes("UTF-8"));
+            byte[] buf = new byte[(int)Math.min(len, KEY_HEAD_BYTES)];
+            raf.readFully(buf);
+            md.update(buf);
+            if (len > KEY_HEAD_BYTES) {
+                int n = (int)Math.min(len - KEY_HEAD_BYTES, KEY_TAIL_BYTES);
+                buf = new byte[n];
+                raf.seek(len - n);
+                raf.readFully(buf);
+                md.update(buf);
+            }
+        } finally {
+            raf.close();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    public static JSONObject statusJSON() {
+        JSONObject j = new JSONObject();
+        synchronized (cache) {
+            j.put("size", cache.size());
+            j.put("files", keys.size());
+        }
+        j.put("capacity", CACHE_SIZE);
+        j.put("hits", hits.get());
+        j.put("misses", misses.get());
+        return j;
+    }
+
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+            keys.clear();
+        }
+    }
+}
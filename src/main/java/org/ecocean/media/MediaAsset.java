@@ -1059,18 +1059,13 @@ public class MediaAsset implements java.io.Serializable {
         if (store == null) return null;
         List<String> types = store.standardChildTypes();
         if ((types == null) || (types.size() < 1)) return null;
-        ArrayList<MediaAsset> mas = new ArrayList<MediaAsset>();
-        for (String type : types) {
-System.out.println(">> updateStandardChildren(): type = " + type);
-            MediaAsset c = null;
-            try {
-                c = this.updateChild(type);
-            } catch (IOException ex) {
-                System.out.println("updateStandardChildren() failed on type=" + type + ", ma=" + this + " with " + ex.toString());
-            }
-            if (c != null) mas.add(c);
+System.out.println(">> updateStandardChildren(): types = " + types);
+        try {
+            return store.updateChildren(this, types);  //one decode for all of them
+        } catch (IOException ex) {
+            System.out.println("updateStandardChildren() failed on ma=" + this + " with " + ex.toString());
         }
-        return mas;
+        return new ArrayList<MediaAsset>();
     }
     //as above, but saves them too
     public ArrayList<MediaAsset> updateStandardChildren(Shepherd myShepherd) {
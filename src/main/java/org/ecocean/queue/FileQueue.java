@@ -10,8 +10,17 @@ import java.io.PrintWriter;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.nio.file.Files;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.StringUtils;
-import java.io.PrintWriter;
 
 /*
 
@@ -23,6 +32,9 @@ public class FileQueue extends Queue {
     private static String TYPE_NAME = "File";
     private static File queueBaseDir = null;
     private File queueDir = null;
+    private volatile boolean shutdownReceived = false;
+    //queue dir (absolute path) -> its pending files
+    private static final ConcurrentHashMap<String, PendingIndex> indexes = new ConcurrentHashMap<String, PendingIndex>();
 
     public static boolean isAvailable(String context) {
         return true;  //TODO until we come up with a scenario where it wont work?
@@ -66,99 +78,130 @@ public class FileQueue extends Queue {
         PrintWriter qout = new PrintWriter(tmpFile);
         qout.print(msg);
         qout.close();
-        tmpFile.renameTo(new File(queueDir, qid));
+        File qfile = new File(queueDir, qid);
+        if (!tmpFile.renameTo(qfile)) throw new IOException("FileQueue.publish() failed to rename " + tmpFile + " to " + qfile);
+        //a consumer in this jvm gets it right away; otherwise its watcher will see it
+        PendingIndex index = indexes.get(queueDir.getAbsolutePath());
+        if (index != null) index.add(qfile);
 System.out.println("INFO: FileQueue.publish() added " + queueDir + " -> " + qid);
     }
 
     public void consume(final QueueMessageHandler msgHandler) throws IOException {
         this.messageHandler = msgHandler;
+        getIndex();  //so it is watching before the consumer starts
         QueueUtil.background(this);
     }
 
+    //kept for callers that handle messages themselves; the file is marked .complete before it is returned
     public String getNext() throws IOException {
-        if (queueDir == null) throw new IOException(this.toString() + " FileQueue.getNext() queueDir is null");
-        File nextFile = getNextFile();
-        if (nextFile == null) return null;  //wait and try again...
+        List<Message> batch = claimBatch(1);
+        if (batch.isEmpty()) return null;
+        complete(batch.get(0));
+        return batch.get(0).body;
+    }
 
-        File activeFile = new File(nextFile.toString() + ".active");
-        if (activeFile.exists()) {
-            System.out.println("WARNING: " + this.toString() + " wanted to create " + activeFile.toString() + " but it exists; skipping");
-            //TODO keep a count maybe then skip over for real after N tries?  something like that....
-            return null;
-        }
-        if (!nextFile.renameTo(activeFile)) {
-            System.out.println("WARNING: " + this.toString() + " wanted to create " + activeFile.toString() + " but rename failed; skipping");
-            //TODO ditto above comment
-            return null;
+    /*
+        takes up to max of the oldest pending files off the index and renames them .active (so no other consumer,
+        here or in another jvm, gets them).  the file contents are the message body; id is the file name.
+    */
+    @Override
+    public List<Message> claimBatch(int max) throws IOException {
+        if (queueDir == null) throw new IOException(this.toString() + " FileQueue.claimBatch() queueDir is null");
+        PendingIndex index = getIndex();
+        //this always wins... so we can just grind everything to a halt
+        if (index.stopSeen) throw new IOException(this.toString() + " FileQueue STOP FILE found");
+        if (shutdownReceived) throw new IOException("SHUTDOWN message received");
+        List<Message> batch = new ArrayList<Message>();
+        while (batch.size() < max) {
+            File nextFile = index.poll();
+            if (nextFile == null) break;
+            File activeFile = new File(nextFile.toString() + ".active");
+            if (activeFile.exists()) {
+                System.out.println("WARNING: " + this.toString() + " wanted to create " + activeFile.toString() + " but it exists; skipping");
+                continue;
+            }
+            if (!nextFile.renameTo(activeFile)) {
+                //gone means someone else claimed it first, which is fine
+                if (nextFile.exists()) System.out.println("WARNING: " + this.toString() + " wanted to create " + activeFile.toString() + " but rename failed; skipping");
+                continue;
+            }
+
+            // for now we assume we *only* support json content... fix if you need to, future
+            String fcontents = null;
+            try {
+                fcontents = StringUtils.join(Files.readAllLines(activeFile.toPath(), java.nio.charset.Charset.defaultCharset()), "");
+            } catch (Exception ex) {
+                System.out.println("ERROR: " + this.toString() + " could not read " + nextFile + ": " + ex.toString());
+                renameActive(nextFile.getName(), ".failed");
+                continue;
+            }
+            Message msg = new Message(nextFile.getName(), fcontents);
+            if (this.isConsumerShutdownMessage(fcontents)) {
+                complete(msg);
+                shutdownReceived = true;
+                if (batch.isEmpty()) throw new IOException("SHUTDOWN message received");
+                break;
+            }
+            batch.add(msg);
         }
+        return batch;
+    }
 
-        System.out.println("INFO: " + this.toString() + " successfully engaged file " + nextFile.toString() + "; made .active");
+    @Override
+    public void complete(Message msg) throws IOException {
+        renameActive(msg.id, ".complete");
+    }
 
-        // for now we assume we *only* support json content... fix if you need to, future
-        String fcontents = null;
-        try {
-            fcontents = StringUtils.join(Files.readAllLines(activeFile.toPath(), java.nio.charset.Charset.defaultCharset()), "");
-        } catch (Exception ex) {
-            throw new IOException("ERROR: " + this.toString() + " could not read " + nextFile + ": " + ex.toString());
-        }
+    //left in the queue dir as .failed so it can be looked at (or renamed back to be retried)
+    @Override
+    public void deadLetter(Message msg) throws IOException {
+        System.out.println("WARNING: " + this.toString() + " could not handle " + msg.id + "; made .failed");
+        renameActive(msg.id, ".failed");
+    }
 
-        File completedFile = new File(nextFile.toString() + ".complete");
-        if (completedFile.exists()) {
-            System.out.println("WARNING: " + this.toString() + " wanted to create " + completedFile.toString() + " but it exists; skipping");
-            //TODO ditto
-            return null;
-        }
-        if (!activeFile.renameTo(completedFile)) {
-            System.out.println("WARNING: " + this.toString() + " wanted to create " + completedFile.toString() + " but rename failed; skipping");
-            //TODO ditto
-            return null;
-        }
+    private void renameActive(String id, String ext) throws IOException {
+        File activeFile = new File(queueDir, id + ".active");
+        File doneFile = new File(queueDir, id + ext);
+        if (doneFile.exists()) throw new IOException(this.toString() + " wanted to create " + doneFile.toString() + " but it exists");
+        if (!activeFile.renameTo(doneFile)) throw new IOException(this.toString() + " wanted to create " + doneFile.toString() + " but rename failed");
+    }
 
-        if (this.isConsumerShutdownMessage(fcontents)) throw new IOException("SHUTDOWN message received");
-        return fcontents;
+    @Override
+    public void awaitMessages(long millis) throws InterruptedException {
+        try {
+            getIndex().await(millis);
+        } catch (IOException ex) {
+            Thread.sleep(millis);
+        }
     }
 
+    @Override
+    public long getDepth() {
+        PendingIndex index = indexes.get(queueDir.getAbsolutePath());
+        return (index == null) ? -1 : index.size();
+    }
 
     //current algorithm is "oldest" (FIFO); filename simply must be a valid uuid (with no extension)
     public File getNextFile() throws IOException {
         if (queueDir == null) return null;
-        if (!queueDir.exists() || !queueDir.isDirectory()) {
-            System.out.println("WARNING: " + queueDir + " does not exist or is not a directory; skipping");
-            return null;
-        }
-        FileTime oldestTime = null;
-        File oldestFile = null;
-        File[] dfiles = null;
-        try {
-            dfiles = queueDir.listFiles();
-        } catch (Exception ex) {
-            System.out.println("WARNING: could not read directory " + queueDir + ": " + ex.toString());
-            return null;
-        }
-        if (dfiles == null) {
-            System.out.println("WARNING: " + queueDir + " had trouble reading directory contents; skipping");
-            return null;
-        }
+        PendingIndex index = getIndex();
+        if (index.stopSeen) throw new IOException(this.toString() + " FileQueue STOP FILE found");
+        return index.peek();
+    }
 
-        for (File f : dfiles) {
-//System.out.println("queueDir file=" + f);
-            //this always wins... so we can just grind everything to a halt
-            if (isStopFile(f)) throw new IOException(this.toString() + " FileQueue STOP FILE found");
-            if (f.isDirectory() || !Util.isUUID(f.getName())) continue;  //ignore!
-            BasicFileAttributes attr = null;
-            try {
-                attr = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
-            } catch (java.io.IOException ioe) {
-                System.out.println("WARNING: could not read file attributes for " + f + ": " + ioe.toString());
-            }
-            if (attr == null) continue;
-//System.out.println(f.toString() + " time = " + attr.creationTime());
-            if ((oldestTime == null) || (oldestTime.compareTo(attr.creationTime()) > 0)) {
-                oldestTime = attr.creationTime();
-                oldestFile = f;
-            }
+    private PendingIndex getIndex() throws IOException {
+        String key = queueDir.getAbsolutePath();
+        PendingIndex index = indexes.get(key);
+        if (index != null) return index;
+        synchronized (indexes) {
+            index = indexes.get(key);
+            if (index != null) return index;
+            if (!queueDir.exists() || !queueDir.isDirectory()) throw new IOException(queueDir + " does not exist or is not a directory");
+            index = new PendingIndex(queueDir);
+            index.start();
+            indexes.put(key, index);
         }
-        return oldestFile;
+        return index;
     }
 
     private static boolean isStopFile(File file) {
@@ -167,6 +210,8 @@ System.out.println("INFO: FileQueue.publish() added " + queueDir + " -> " + qid)
     }
 
     public void shutdown() {
+        PendingIndex index = indexes.remove(queueDir.getAbsolutePath());
+        if (index != null) index.close();
     }
 
     @Override
@@ -174,4 +219,192 @@ System.out.println("INFO: FileQueue.publish() added " + queueDir + " -> " + qid)
         return super.toString() + " -> " + queueDir;
     }
 
+
+    /*
+        the pending (uuid-named) files of one queue dir, oldest first.  filled by one scan of the dir, then kept
+        current by a WatchService (plus publish() in this jvm), with a full rescan every RESCAN_SECONDS in case
+        something was missed (overflow, or a filesystem like NFS that does not report changes).  shared by every
+        FileQueue on the same dir.
+    */
+    private static class PendingIndex {
+        private static final long RESCAN_SECONDS = 60;
+        private static final long NO_WATCH_RESCAN_SECONDS = 10;
+
+        private final File dir;
+        private final TreeSet<Pending> pending = new TreeSet<Pending>();
+        private final HashSet<String> names = new HashSet<String>();
+        private volatile boolean stopSeen = false;
+        private volatile boolean closed = false;
+        private WatchService watcher = null;
+        private Thread thread = null;
+
+        PendingIndex(File dir) {
+            this.dir = dir;
+        }
+
+        void start() {
+            try {
+                watcher = dir.toPath().getFileSystem().newWatchService();
+                dir.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+            } catch (Exception ex) {
+                System.out.println("WARNING: FileQueue could not watch " + dir + " (" + ex.toString() + "); rescanning every " + NO_WATCH_RESCAN_SECONDS + "s instead");
+                watcher = null;
+            }
+            scan();  //after registering, so nothing lands in between unseen
+            thread = new Thread(new Runnable() {
+                public void run() {
+                    watch();
+                }
+            }, "FileQueue-watch-" + dir.getName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void watch() {
+            long lastScan = System.currentTimeMillis();
+            long rescan = ((watcher == null) ? NO_WATCH_RESCAN_SECONDS : RESCAN_SECONDS) * 1000;
+            while (!closed) {
+                try {
+                    WatchKey key = null;
+                    if (watcher == null) {
+                        Thread.sleep(rescan);
+                    } else {
+                        key = watcher.poll(rescan, TimeUnit.MILLISECONDS);
+                    }
+                    if (key != null) {
+                        boolean overflow = false;
+                        for (WatchEvent<?> ev : key.pollEvents()) {
+                            if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+                                overflow = true;
+                                continue;
+                            }
+                            File f = new File(dir, ev.context().toString());
+                            if (isStopFile(f)) {
+                                stopSeen = true;
+                                signal();
+                            } else if (Util.isUUID(f.getName())) {
+                                add(f);
+                            }
+                        }
+                        if (!key.reset()) {
+                            System.out.println("WARNING: FileQueue watch on " + dir + " is no longer valid; rescanning every " + NO_WATCH_RESCAN_SECONDS + "s");
+                            watcher = null;
+                            rescan = NO_WATCH_RESCAN_SECONDS * 1000;
+                        }
+                        if (!overflow && (System.currentTimeMillis() - lastScan < rescan)) continue;
+                    }
+                    scan();
+                    lastScan = System.currentTimeMillis();
+                } catch (InterruptedException ie) {
+                    break;
+                } catch (java.nio.file.ClosedWatchServiceException cwse) {
+                    break;
+                } catch (Exception ex) {
+                    System.out.println("WARNING: FileQueue watcher on " + dir + " got " + ex.toString());
+                }
+            }
+        }
+
+        //rebuilds from a directory listing
+        void scan() {
+            File[] dfiles = null;
+            try {
+                dfiles = dir.listFiles();
+            } catch (Exception ex) {
+                System.out.println("WARNING: could not read directory " + dir + ": " + ex.toString());
+            }
+            if (dfiles == null) {
+                System.out.println("WARNING: " + dir + " had trouble reading directory contents; skipping");
+                return;
+            }
+            boolean stop = false;
+            List<Pending> found = new ArrayList<Pending>();
+            for (File f : dfiles) {
+                if (isStopFile(f)) stop = true;
+                if (!Util.isUUID(f.getName()) || f.isDirectory()) continue;  //ignore!
+                Pending p = Pending.of(f);
+                if (p != null) found.add(p);
+            }
+            synchronized (this) {
+                pending.clear();
+                names.clear();
+                for (Pending p : found) {
+                    pending.add(p);
+                    names.add(p.file.getName());
+                }
+                stopSeen = stop;
+                this.notifyAll();
+            }
+        }
+
+        void add(File f) {
+            Pending p = Pending.of(f);
+            if (p == null) return;  //already claimed (or gone)
+            synchronized (this) {
+                if (!names.add(f.getName())) return;
+                pending.add(p);
+                this.notify();
+            }
+        }
+
+        synchronized File poll() {
+            Pending p = pending.pollFirst();
+            if (p == null) return null;
+            names.remove(p.file.getName());
+            return p.file;
+        }
+
+        synchronized File peek() {
+            return pending.isEmpty() ? null : pending.first().file;
+        }
+
+        synchronized int size() {
+            return pending.size();
+        }
+
+        synchronized void await(long millis) throws InterruptedException {
+            if (pending.isEmpty() && !stopSeen && !closed) this.wait(millis);
+        }
+
+        private synchronized void signal() {
+            this.notifyAll();
+        }
+
+        void close() {
+            closed = true;
+            signal();
+            if (watcher != null) {
+                try {
+                    watcher.close();
+                } catch (IOException ex) {}
+            }
+            if (thread != null) thread.interrupt();
+        }
+    }
+
+    private static class Pending implements Comparable<Pending> {
+        final File file;
+        final long time;
+
+        Pending(File file, long time) {
+            this.file = file;
+            this.time = time;
+        }
+
+        static Pending of(File f) {
+            BasicFileAttributes attr = null;
+            try {
+                attr = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+            } catch (java.io.IOException ioe) {
+                return null;
+            }
+            return new Pending(f, attr.creationTime().toMillis());
+        }
+
+        public int compareTo(Pending other) {
+            if (time != other.time) return (time < other.time) ? -1 : 1;
+            return file.getName().compareTo(other.file.getName());
+        }
+    }
+
 }
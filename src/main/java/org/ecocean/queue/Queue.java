@@ -1,4 +1,6 @@
 package org.ecocean.queue;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import org.ecocean.ShepherdProperties;
 
@@ -7,6 +9,18 @@ public abstract class Queue {
     protected String type = null;
     protected String queueName = null;
     protected QueueMessageHandler messageHandler = null;
+    protected String context = null;  //set by QueueUtil.getBest(); used for consumer_* settings in queue.properties
+    protected QueueStats stats = null;
+
+    //a message taken off the queue by claimBatch(), to be handed to complete() or deadLetter() once handled
+    public static class Message {
+        public final String id;
+        public final String body;
+        public Message(String id, String body) {
+            this.id = id;
+            this.body = body;
+        }
+    }
 
     protected Queue(final String name) {
         queueName = name;
@@ -28,6 +42,60 @@ public abstract class Queue {
 
     public abstract void shutdown();
 
+    /*
+        the following are for QueueConsumer (workers pulling messages, like FileQueue does).  defaults here just
+        wrap getNext(); override for something better.
+    */
+
+    //up to max messages, claimed so that no other consumer will get them; empty when there are none (yet)
+    public List<Message> claimBatch(int max) throws java.io.IOException {
+        List<Message> batch = new ArrayList<Message>();
+        String msg = getNext();
+        if (msg != null) batch.add(new Message(null, msg));
+        return batch;
+    }
+    //handled ok
+    public void complete(Message msg) throws java.io.IOException {}
+    //handling failed (after retries)
+    public void deadLetter(Message msg) throws java.io.IOException {
+        System.out.println("WARNING: " + this.toString() + " dropping message that could not be handled: " + msg.body);
+    }
+    //waits (up to millis) for there to possibly be something to claim
+    public void awaitMessages(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+    //messages waiting, or -1 if unknown
+    public long getDepth() {
+        return -1;
+    }
+
+    public QueueStats getStats() {
+        return stats;
+    }
+    public String getName() {
+        return queueName;
+    }
+    public String getContext() {
+        return context;
+    }
+    public void setContext(String context) {
+        this.context = context;
+    }
+
+    //consumer_<label>_<queue name> wins over consumer_<label>
+    public int getConsumerSetting(String label, int def) {
+        if (context == null) return def;
+        String val = getProperty(context, "consumer_" + label + "_" + queueName);
+        if (val == null) val = getProperty(context, "consumer_" + label);
+        if (val == null) return def;
+        try {
+            return Integer.parseInt(val.trim());
+        } catch (NumberFormatException ex) {
+            System.out.println("WARNING: " + this.toString() + " bad consumer_" + label + " value " + val);
+            return def;
+        }
+    }
+
     public boolean isConsumerShutdownMessage(String msg) {
         return "SHUTDOWN".equals(msg);
     }
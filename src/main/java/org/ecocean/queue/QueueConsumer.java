@@ -0,0 +1,152 @@
+package org.ecocean.queue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    worker threads pulling batches off a Queue (one that doesnt background itself, i.e. FileQueue) and handing
+    each message to the queue's messageHandler.  a handler returning false (or throwing) gets retried with
+    backoff, then the message is dead-lettered.  workers wait in queue.awaitMessages() when there is nothing
+    to do, so the queue can wake them (FileQueue watches its directory) rather than polling on a fixed delay.
+
+    settings (queue.properties; see Queue.getConsumerSetting()):  consumer_threads, consumer_batch_size,
+    consumer_max_retries, consumer_idle_wait (millis)
+*/
+public class QueueConsumer {
+    public static final int DEFAULT_THREADS = 1;  //IA handlers are not (all) safe to run side-by-side; opt in to more
+    public static final int DEFAULT_BATCH_SIZE = 10;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final int DEFAULT_IDLE_WAIT = 30000;
+    private static final long RETRY_DELAY = 1000;
+    private static final long MAX_RETRY_DELAY = 30000;
+
+    private final Queue queue;
+    private final int numThreads;
+    private final int batchSize;
+    private final int maxRetries;
+    private final long idleWait;
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private volatile boolean running = false;
+
+    public QueueConsumer(Queue queue) {
+        this.queue = queue;
+        this.numThreads = Math.max(1, queue.getConsumerSetting("threads", DEFAULT_THREADS));
+        this.batchSize = Math.max(1, queue.getConsumerSetting("batch_size", DEFAULT_BATCH_SIZE));
+        this.maxRetries = Math.max(0, queue.getConsumerSetting("max_retries", DEFAULT_MAX_RETRIES));
+        this.idleWait = Math.max(100, queue.getConsumerSetting("idle_wait", DEFAULT_IDLE_WAIT));
+        if (queue.stats == null) queue.stats = new QueueStats();
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        for (int i = 0 ; i < numThreads ; i++) {
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            }, "QueueConsumer-" + queue.getName() + "-" + i);
+            t.setDaemon(true);
+            t.start();
+            workers.add(t);
+        }
+        System.out.println("[INFO] " + this.toString() + " started");
+    }
+
+    private void work() {
+        long loops = 0;
+        while (running) {
+            List<Queue.Message> batch = null;
+            try {
+                batch = queue.claimBatch(batchSize);
+            } catch (IOException ex) {  //STOP file, SHUTDOWN message, or the queue is unusable
+                System.out.println(":::: " + queue.toString() + " claimBatch() halting consumer: " + ex.toString() + " ::::");
+                running = false;
+                break;
+            }
+            if (loops++ % 1000 == 0) System.out.println("==== " + this.toString() + " [" + Thread.currentThread().getName() + " loop " + loops + "] depth=" + queue.getDepth() + " ====");
+            if (batch.isEmpty()) {
+                try {
+                    queue.awaitMessages(idleWait);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                continue;
+            }
+            for (Queue.Message msg : batch) {
+                if (!handle(msg)) break;
+            }
+        }
+    }
+
+    //returns false only if interrupted (i.e. stopping)
+    boolean handle(Queue.Message msg) {
+        long delay = RETRY_DELAY;
+        for (int attempt = 0 ; attempt <= maxRetries ; attempt++) {
+            if (attempt > 0) {
+                queue.stats.retried();
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    System.out.println("WARNING: " + queue.toString() + " interrupted retrying message " + msg.id + "; leaving it claimed");
+                    return false;
+                }
+                delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+            }
+            boolean ok = false;
+            long t = System.currentTimeMillis();
+            try {
+                ok = queue.messageHandler.handler(msg.body);
+            } catch (Exception ex) {
+                System.out.println("WARNING: " + queue.toString() + " handler threw on message " + msg.id + " (attempt " + (attempt + 1) + "): " + ex.toString());
+            }
+            queue.stats.attempt(System.currentTimeMillis() - t, ok);
+            if (ok) {
+                queue.stats.handled();
+                try {
+                    queue.complete(msg);
+                } catch (IOException ex) {
+                    System.out.println("WARNING: " + queue.toString() + " complete() failed on " + msg.id + ": " + ex.toString());
+                }
+                return true;
+            }
+        }
+        queue.stats.deadLettered();
+        try {
+            queue.deadLetter(msg);
+        } catch (IOException ex) {
+            System.out.println("WARNING: " + queue.toString() + " deadLetter() failed on " + msg.id + ": " + ex.toString());
+        }
+        return true;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public Queue getQueue() {
+        return queue;
+    }
+
+    public synchronized void stop(long waitMillis) {
+        running = false;
+        for (Thread t : workers) {
+            t.interrupt();
+        }
+        for (Thread t : workers) {
+            try {
+                t.join(waitMillis);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (t.isAlive()) System.out.println("!!! " + this.toString() + " worker " + t.getName() + " did not stop");
+        }
+        workers.clear();
+    }
+
+    public String toString() {
+        return "QueueConsumer[" + queue.toString() + ": " + numThreads + " threads, batch " + batchSize + ", retries " + maxRetries + "]";
+    }
+}
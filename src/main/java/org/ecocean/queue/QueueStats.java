@@ -0,0 +1,81 @@
+package org.ecocean.queue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+
+/*
+    counts for one queue's consumer: messages handled, retries, dead-lettered, handler latency, and throughput
+    (overall, and over the last full minute)
+*/
+public class QueueStats {
+    private static final long WINDOW = 60 * 1000;
+
+    private final long started = System.currentTimeMillis();
+    private final AtomicLong handled = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();  //handler attempts that returned false or threw
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();  //millis, over every handler attempt
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    private long windowStart = started;
+    private long windowCount = 0;
+    private double lastWindowRate = 0;
+
+    public void attempt(long millis, boolean ok) {
+        attempts.incrementAndGet();
+        totalLatency.addAndGet(millis);
+        long max;
+        while (millis > (max = maxLatency.get())) {
+            if (maxLatency.compareAndSet(max, millis)) break;
+        }
+        if (!ok) failures.incrementAndGet();
+    }
+
+    public void handled() {
+        handled.incrementAndGet();
+        synchronized (this) {
+            roll(System.currentTimeMillis());
+            windowCount++;
+        }
+    }
+    public void retried() {
+        retries.incrementAndGet();
+    }
+    public void deadLettered() {
+        deadLettered.incrementAndGet();
+    }
+
+    public long getHandled() {
+        return handled.get();
+    }
+
+    private void roll(long now) {
+        if (now - windowStart < WINDOW) return;
+        //a gap of more than one window means the last full one was empty
+        lastWindowRate = (now - windowStart < 2 * WINDOW) ? windowCount * 1000.0 / (now - windowStart) : 0;
+        windowStart = now;
+        windowCount = 0;
+    }
+
+    public JSONObject toJSONObject() {
+        long now = System.currentTimeMillis();
+        JSONObject j = new JSONObject();
+        j.put("handled", handled.get());
+        j.put("failedAttempts", failures.get());
+        j.put("retries", retries.get());
+        j.put("deadLettered", deadLettered.get());
+        long n = attempts.get();
+        j.put("meanHandlerMillis", (n < 1) ? 0 : totalLatency.get() / n);
+        j.put("maxHandlerMillis", maxLatency.get());
+        j.put("perSecond", handled.get() * 1000.0 / Math.max(now - started, 1));
+        synchronized (this) {
+            roll(now);
+            j.put("perSecondLastMinute", lastWindowRate);
+        }
+        j.put("since", started);
+        return j;
+    }
+
+}
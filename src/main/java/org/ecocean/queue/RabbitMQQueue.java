@@ -9,6 +9,8 @@ import com.rabbitmq.client.Consumer;
 import com.rabbitmq.client.DefaultConsumer;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Envelope;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 public class RabbitMQQueue extends Queue {
@@ -18,7 +20,8 @@ public class RabbitMQQueue extends Queue {
     private static String EXCHANGE_NAME = "";  //default... i think this is kosher?
     private String consumerTag = null;
     private Channel channel = null;
-    private boolean wantsShutdown = false;
+    private volatile boolean wantsShutdown = false;
+    private ExecutorService workers = null;
 
     public static boolean isAvailable(String context) {
         /*
@@ -80,39 +83,88 @@ public class RabbitMQQueue extends Queue {
     public void publish(String msg) throws java.io.IOException {
 //TODO check connection *and* channel??
         //channel.basicPublish(EXCHANGE_NAME, ROUTING_KEY, null, msg.getBytes());
-        channel.basicPublish(EXCHANGE_NAME, this.queueName, null, msg.getBytes());
+        synchronized (channel) {
+            channel.basicPublish(EXCHANGE_NAME, this.queueName, null, msg.getBytes());
+        }
 System.out.println("[INFO] " + this.toString() + " published to {" + this.queueName + "}: " + msg);
     }
 
-    //i think this never returns?
+    /*
+        returns right away; deliveries are handled on a pool of consumer_threads workers (see QueueConsumer for the
+        settings), with up to that many unacked messages prefetched.  a handler returning false is retried with
+        backoff, then the message is published to <queueName>_dead and acked.
+    */
     public void consume(final QueueMessageHandler msgHandler) throws java.io.IOException {
 System.out.println("RabbitMQQueue.consume() started with consumerTag=" + consumerTag);
-        //boolean is auto-ack.  false means we manually ack
         messageHandler = msgHandler;
-        channel.basicConsume(this.queueName, false, consumerTag,
-            new DefaultConsumer(channel) {
-                @Override
-                public void handleDelivery(String conTag, Envelope envelope, AMQP.BasicProperties properties, byte[] bodyB) throws java.io.IOException {
-                    String body = new String(bodyB);
-                    String routingKey = envelope.getRoutingKey();
-                    String contentType = properties.getContentType();
-                    long deliveryTag = envelope.getDeliveryTag();
-                    // (process the message components here ...)
-                    boolean success = msgHandler.handler(body);
-System.out.println("RabbitMQQueue.consume(): " + deliveryTag + "; " + contentType + "; " + routingKey + " = {" + body + "} => " + success);
-                    if (success) channel.basicAck(deliveryTag, false);
-                    if (wantsShutdown || isConsumerShutdownMessage(body)) {
-                        System.out.println(">>> RabbitMQQueue shutdown message received on " + conTag);
-                        channel.basicCancel(conTag);
+        QueueUtil.register(this);
+        final QueueConsumer retrier = new QueueConsumer(this);
+        int threads = Math.max(1, getConsumerSetting("threads", QueueConsumer.DEFAULT_THREADS));
+        workers = Executors.newFixedThreadPool(threads);
+        synchronized (channel) {
+            channel.queueDeclare(deadLetterName(), true, false, false, null);
+            channel.basicQos(threads);
+            //boolean is auto-ack.  false means we manually ack
+            channel.basicConsume(this.queueName, false, consumerTag,
+                new DefaultConsumer(channel) {
+                    @Override
+                    public void handleDelivery(final String conTag, Envelope envelope, AMQP.BasicProperties properties, byte[] bodyB) throws java.io.IOException {
+                        final String body = new String(bodyB);
+                        final long deliveryTag = envelope.getDeliveryTag();
+                        if (wantsShutdown || isConsumerShutdownMessage(body)) {
+                            System.out.println(">>> RabbitMQQueue shutdown message received on " + conTag);
+                            synchronized (channel) {
+                                channel.basicAck(deliveryTag, false);
+                                channel.basicCancel(conTag);
+                            }
+                            return;
+                        }
+                        workers.execute(new Runnable() {
+                            public void run() {
+                                retrier.handle(new Message(Long.toString(deliveryTag), body));
+                            }
+                        });
                     }
                 }
+            );
+        }
+    }
+
+    @Override
+    public void complete(Message msg) throws java.io.IOException {
+        synchronized (channel) {
+            channel.basicAck(Long.parseLong(msg.id), false);
+        }
+    }
+
+    @Override
+    public void deadLetter(Message msg) throws java.io.IOException {
+        System.out.println("WARNING: " + this.toString() + " could not handle message " + msg.id + "; moving to " + deadLetterName());
+        synchronized (channel) {
+            channel.basicPublish(EXCHANGE_NAME, deadLetterName(), null, msg.body.getBytes());
+            channel.basicAck(Long.parseLong(msg.id), false);
+        }
+    }
+
+    @Override
+    public long getDepth() {
+        try {
+            synchronized (channel) {
+                return channel.messageCount(this.queueName);
             }
-        );
+        } catch (Exception ex) {
+            return -1;
+        }
+    }
+
+    private String deadLetterName() {
+        return this.queueName + "_dead";
     }
 
 
     public void shutdown() {
         wantsShutdown = true;
+        if (workers != null) workers.shutdown();
     }
 
     @Override
@@ -121,35 +121,25 @@ public class Collaboration implements java.io.Serializable {
 		return collaborationsForUser(context, username, null);
 	}
 
-  @SuppressWarnings("unchecked")
+	//served from CollaborationCache; note these are non-persistent copies
 	public static List<Collaboration> collaborationsForUser(String context, String username, String state) {
-//TODO cache!!!  (may be hit a lot)
-		String queryString = "SELECT FROM org.ecocean.security.Collaboration WHERE ((username1 == '" + username + "') || (username2 == '" + username + "'))";
-		if (state != null) {
-			queryString += " && state == '" + state + "'";
-		}
-//System.out.println("qry -> " + queryString);
-		Shepherd myShepherd = new Shepherd(context);
-		myShepherd.setAction("Collaboration.class1");
-		myShepherd.beginDBTransaction();
-		Query query = myShepherd.getPM().newQuery(queryString);
-    //ArrayList got = myShepherd.getAllOccurrences(query);
-		List returnMe=myShepherd.getAllOccurrences(query);
-		query.closeAll();
-		myShepherd.rollbackDBTransaction();
-		myShepherd.closeDBTransaction();
-    return returnMe;
+		return CollaborationCache.collaborationsForUser(context, username, state);
 	}
 
 	public static Collaboration collaborationBetweenUsers(String context, String u1, String u2) {
-		return findCollaborationWithUser(u2, collaborationsForUser(context, u1));
-/*
-		List<Collaboration> all = collaborationsForUser(context, u1);
-		for (Collaboration c : all) {
-			if (c.username1.equals(u2) || c.username2.equals(u2)) return c;
-		}
-		return null;
-*/
+		return CollaborationCache.collaborationBetweenUsers(context, u1, u2);
+	}
+
+	//this one goes to the db and returns the persistent object (for modifying), attached to myShepherd
+  @SuppressWarnings("unchecked")
+	public static Collaboration collaborationBetweenUsers(Shepherd myShepherd, String u1, String u2) {
+		Query query = myShepherd.getPM().newQuery(Collaboration.class);
+		query.setFilter("(username1 == u1 && username2 == u2) || (username1 == u2 && username2 == u1)");
+		query.declareParameters("String u1, String u2");
+		List<Collaboration> found = new ArrayList<Collaboration>((Collection<Collaboration>)query.execute(u1, u2));
+		query.closeAll();
+		if (found.size() < 1) return null;
+		return found.get(0);
 	}
 
 	public static boolean canCollaborate(String context, String u1, String u2) {
@@ -218,6 +208,45 @@ public class Collaboration implements java.io.Serializable {
 	}
 
 
+	/**
+	 * bulk version of canUserAccessEncounter(): answers for a whole result set using the in-memory
+	 * collaboration graph, so there is no per-encounter db work.
+	 *
+	 * @return map of catalog number to whether the current user may see that encounter
+	 */
+	public static Map<String,Boolean> canUserAccess(Collection<Encounter> encs, HttpServletRequest request) {
+		String context = ServletUtilities.getContext(request);
+		boolean all = !securityEnabled(context) || request.isUserInRole("admin");
+		String username = (request.getUserPrincipal() == null) ? null : request.getUserPrincipal().getName();
+		return canUserAccess(encs, context, username, all);
+	}
+
+	public static Map<String,Boolean> canUserAccess(Collection<Encounter> encs, String context, String username, boolean allAccess) {
+		Map<String,Boolean> rtn = new HashMap<String,Boolean>();
+		if (encs == null) return rtn;
+		//owner -> answer, since result sets are usually dominated by a handful of owners
+		Map<String,Boolean> byOwner = new HashMap<String,Boolean>();
+		for (Encounter enc : encs) {
+			String owner = enc.getAssignedUsername();
+			boolean ok;
+			if (allAccess || User.isUsernameAnonymous(owner)) {
+				ok = true;
+			} else if (username == null) {
+				ok = false;
+			} else {
+				Boolean known = byOwner.get(owner);
+				if (known == null) {
+					known = canCollaborate(context, owner, username);
+					byOwner.put(owner, known);
+				}
+				ok = known;
+			}
+			rtn.put(enc.getCatalogNumber(), ok);
+		}
+		return rtn;
+	}
+
+
 	public static boolean canUserAccessOccurrence(Occurrence occ, HttpServletRequest request) {
   	ArrayList<Encounter> all = occ.getEncounters();
 		if ((all == null) || (all.size() < 1)) return true;
@@ -0,0 +1,259 @@
+package org.ecocean.security;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * background writer for the users/<owner>/collaboration.log files (what a collaborator's queries showed them of
+ * the owner's data).  searches just queue their lines with append(), which doesn't touch the disk; one thread
+ * drains the queue in batches, writes each owner's lines through a writer it keeps open, and flushes each
+ * file once per batch.  a log that gets past MAX_BYTES is rotated to collaboration.log.1 (.2 ... up to
+ * KEEP_ROTATED, oldest dropped).
+ *
+ * the queue is bounded: if the writer ever falls that far behind, append() waits for room rather than drop
+ * audit lines.  cleanup() (at webapp shutdown) writes out whatever is still queued and closes the files.
+ */
+public class CollaborationAuditLog {
+
+	public static final String LOG_NAME = "collaboration.log";
+
+	private static final int QUEUE_SIZE = 50000;
+	private static final int BATCH_SIZE = 2000;
+	private static final long MAX_BYTES = 10L * 1024 * 1024;
+	private static final int KEEP_ROTATED = 5;
+	private static final int MAX_OPEN_FILES = 64;
+
+	private static final ArrayBlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(QUEUE_SIZE);
+	private static final AtomicLong queued = new AtomicLong();
+	private static final AtomicLong written = new AtomicLong();
+	private static volatile Thread writerThread = null;
+	private static volatile boolean stopping = false;
+
+	//only touched by the writer thread (and by cleanup() once that has stopped); least recently used first
+	private static final LinkedHashMap<File,LogFile> open = new LinkedHashMap<File,LogFile>(16, 0.75f, true);
+
+
+	private static class Entry {
+		final File userDir;
+		final String line;
+
+		Entry(File userDir, String line) {
+			this.userDir = userDir;
+			this.line = line;
+		}
+	}
+
+	private static class LogFile {
+		final File file;
+		Writer writer;
+		long size;
+
+		LogFile(File file) throws IOException {
+			this.file = file;
+			open();
+		}
+
+		void open() throws IOException {
+			File dir = file.getParentFile();
+			if (!dir.exists()) dir.mkdirs();
+			size = file.length();
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+		}
+
+		void write(String line) throws IOException {
+			writer.write(line);
+			size += utf8Length(line);
+			if (size >= MAX_BYTES) rotate();
+		}
+
+		//collaboration.log -> .1 -> .2 ... and start a new one
+		void rotate() throws IOException {
+			writer.close();
+			new File(file.getPath() + "." + KEEP_ROTATED).delete();
+			for (int i = KEEP_ROTATED - 1; i >= 1; i--) {
+				File f = new File(file.getPath() + "." + i);
+				if (f.exists()) f.renameTo(new File(file.getPath() + "." + (i + 1)));
+			}
+			file.renameTo(new File(file.getPath() + ".1"));
+			open();
+		}
+
+		void close() {
+			try {
+				writer.close();
+			} catch (IOException ex) {
+				System.out.println("CollaborationAuditLog: could not close " + file + ": " + ex);
+			}
+		}
+	}
+
+
+	/**
+	 * queues one line (should end with \n) for userDir/collaboration.log
+	 */
+	public static void append(File userDir, String line) {
+		if (stopping) {
+			System.out.println("CollaborationAuditLog: shutting down, dropped " + line);
+			return;
+		}
+		ensureWriter();
+		try {
+			queue.put(new Entry(userDir, line));
+			queued.incrementAndGet();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	//collaboration.log plus its rotated files, oldest first
+	public static List<File> logFiles(File userDir) {
+		List<File> files = new ArrayList<File>();
+		for (int i = KEEP_ROTATED; i >= 1; i--) {
+			File f = new File(userDir, LOG_NAME + "." + i);
+			if (f.exists()) files.add(f);
+		}
+		File current = new File(userDir, LOG_NAME);
+		if (current.exists()) files.add(current);
+		return files;
+	}
+
+	public static long getNumQueued() {
+		return queued.get();
+	}
+
+	public static long getNumWritten() {
+		return written.get();
+	}
+
+	public static int getBacklog() {
+		return queue.size();
+	}
+
+	/**
+	 * writes out anything still queued and closes the files.  called from StartupWildbook.contextDestroyed()
+	 */
+	public static void cleanup() {
+		stopping = true;
+		Thread t = writerThread;
+		if (t != null) {
+			t.interrupt();
+			try {
+				t.join(10000);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (open) {
+			//in case the writer didn't get to it
+			List<Entry> rest = new ArrayList<Entry>();
+			queue.drainTo(rest);
+			writeBatch(rest);
+			closeAll();
+		}
+		System.out.println("CollaborationAuditLog.cleanup(): " + written.get() + " of " + queued.get() + " lines written");
+		writerThread = null;
+		stopping = false;
+	}
+
+
+	private static synchronized void ensureWriter() {
+		if (writerThread != null) return;
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				List<Entry> batch = new ArrayList<Entry>(BATCH_SIZE);
+				while (!stopping) {
+					try {
+						Entry first = queue.poll(5, TimeUnit.SECONDS);
+						if (first == null) continue;
+						batch.add(first);
+						queue.drainTo(batch, BATCH_SIZE - 1);
+					} catch (InterruptedException ex) {
+						if (stopping) break;
+					}
+					synchronized (open) {
+						writeBatch(batch);
+					}
+					batch.clear();
+				}
+				synchronized (open) {
+					queue.drainTo(batch);
+					writeBatch(batch);
+					closeAll();
+				}
+			}
+		}, "CollaborationAuditLog");
+		t.setDaemon(true);
+		t.start();
+		writerThread = t;
+	}
+
+	//group commit: every line goes to its owner's writer, then each file touched is flushed once
+	private static void writeBatch(List<Entry> batch) {
+		if (batch.isEmpty()) return;
+		Set<LogFile> touched = new HashSet<LogFile>();
+		for (Entry e : batch) {
+			File f = new File(e.userDir, LOG_NAME);
+			try {
+				LogFile lf = open.get(f);
+				if (lf == null) {
+					lf = new LogFile(f);
+					open.put(f, lf);
+					//close() flushes, so an evicted file needs no flush below
+					Iterator<Map.Entry<File,LogFile>> it = open.entrySet().iterator();
+					while (open.size() > MAX_OPEN_FILES) {
+						LogFile eldest = it.next().getValue();
+						eldest.close();
+						touched.remove(eldest);
+						it.remove();
+					}
+				}
+				lf.write(e.line);
+				touched.add(lf);
+				written.incrementAndGet();
+			} catch (IOException ex) {
+				System.out.println("CollaborationAuditLog: could not write to " + f + ": " + ex);
+			}
+		}
+		for (LogFile lf : touched) {
+			try {
+				lf.writer.flush();
+			} catch (IOException ex) {
+				System.out.println("CollaborationAuditLog: could not flush " + lf.file + ": " + ex);
+			}
+		}
+	}
+
+	//bytes line takes as UTF-8, without encoding it
+	static long utf8Length(String line) {
+		long n = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c < 0x80) {
+				n++;
+			} else if (c < 0x800) {
+				n += 2;
+			} else if (Character.isHighSurrogate(c) && (i + 1 < line.length()) && Character.isLowSurrogate(line.charAt(i + 1))) {
+				n += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				//unpaired, written as '?'
+				n++;
+			} else {
+				n += 3;
+			}
+		}
+		return n;
+	}
+
+	private static void closeAll() {
+		for (LogFile lf : open.values()) {
+			lf.close();
+		}
+		open.clear();
+	}
+
+}
@@ -0,0 +1,157 @@
+package org.ecocean.security;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.ecocean.*;
+
+import javax.jdo.Query;
+
+
+/**
+ * in-memory collaboration graph, one per context.  the whole Collaboration table is read with a single query
+ * the first time it is needed, and after that every permission check is a pair of map lookups.
+ * it is kept current by update() (called when the Collaborate servlet creates, approves or rejects a collaboration)
+ * and can be dropped with invalidate() if the table is changed some other way.
+ *
+ * the Collaboration objects handed out are plain (non-persistent) copies, so changing them does nothing to the db.
+ */
+public class CollaborationCache {
+
+	//just in case the db gets changed behind our backs (another webapp, sql console, etc)
+	private static final long MAX_AGE_MILLIS = 10 * 60 * 1000;
+
+	private static final ConcurrentHashMap<String,Graph> graphs = new ConcurrentHashMap<String,Graph>();
+	//bumped by every update/invalidate, so a graph loaded across one of those is not kept around
+	private static final ConcurrentHashMap<String,AtomicLong> versions = new ConcurrentHashMap<String,AtomicLong>();
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong loads = new AtomicLong();
+
+
+	private static class Graph {
+		final long created = System.currentTimeMillis();
+		//username -> (other username -> collaboration)
+		final ConcurrentHashMap<String,ConcurrentHashMap<String,Collaboration>> byUser = new ConcurrentHashMap<String,ConcurrentHashMap<String,Collaboration>>();
+
+		void add(Collaboration c) {
+			if ((c.getUsername1() == null) || (c.getUsername2() == null)) return;
+			edges(c.getUsername1()).put(c.getUsername2(), c);
+			edges(c.getUsername2()).put(c.getUsername1(), c);
+		}
+
+		ConcurrentHashMap<String,Collaboration> edges(String username) {
+			ConcurrentHashMap<String,Collaboration> e = byUser.get(username);
+			if (e != null) return e;
+			e = new ConcurrentHashMap<String,Collaboration>();
+			ConcurrentHashMap<String,Collaboration> had = byUser.putIfAbsent(username, e);
+			return (had == null) ? e : had;
+		}
+
+		Collaboration between(String u1, String u2) {
+			ConcurrentHashMap<String,Collaboration> e = byUser.get(u1);
+			if (e == null) return null;
+			return e.get(u2);
+		}
+	}
+
+
+	public static List<Collaboration> collaborationsForUser(String context, String username, String state) {
+		List<Collaboration> rtn = new ArrayList<Collaboration>();
+		if (username == null) return rtn;
+		ConcurrentHashMap<String,Collaboration> e = getGraph(context).byUser.get(username);
+		if (e == null) return rtn;
+		for (Collaboration c : e.values()) {
+			if ((state == null) || state.equals(c.getState())) rtn.add(c);
+		}
+		return rtn;
+	}
+
+	public static Collaboration collaborationBetweenUsers(String context, String u1, String u2) {
+		if ((u1 == null) || (u2 == null)) return null;
+		return getGraph(context).between(u1, u2);
+	}
+
+
+	//call this after a Collaboration has been created or had its state changed (and committed)
+	public static void update(String context, Collaboration collab) {
+		if (collab == null) return;
+		version(context).incrementAndGet();
+		Graph g = graphs.get(context);
+		if (g == null) return;  //nothing loaded yet; the next load will see it
+		g.add(copyOf(collab));
+	}
+
+	public static void invalidate(String context) {
+		version(context).incrementAndGet();
+		graphs.remove(context);
+	}
+
+	public static void invalidateAll() {
+		for (String context : versions.keySet()) {
+			invalidate(context);
+		}
+		graphs.clear();
+	}
+
+
+	private static Graph getGraph(String context) {
+		Graph g = graphs.get(context);
+		if ((g != null) && (System.currentTimeMillis() - g.created < MAX_AGE_MILLIS)) {
+			hits.incrementAndGet();
+			return g;
+		}
+		long ver = version(context).get();
+		g = load(context);
+		if (version(context).get() == ver) graphs.put(context, g);  //otherwise an update happened while we were loading; use it just this once
+		return g;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Graph load(String context) {
+		loads.incrementAndGet();
+		Graph g = new Graph();
+		Shepherd myShepherd = new Shepherd(context);
+		myShepherd.setAction("CollaborationCache.load");
+		myShepherd.beginDBTransaction();
+		try {
+			Query query = myShepherd.getPM().newQuery(Collaboration.class);
+			Collection<Collaboration> all = (Collection<Collaboration>)query.execute();
+			for (Collaboration c : all) {
+				g.add(copyOf(c));
+			}
+			query.closeAll();
+		} catch (Exception ex) {
+			System.out.println("CollaborationCache.load(" + context + ") failed: " + ex.toString());
+			ex.printStackTrace();
+		} finally {
+			myShepherd.rollbackDBTransaction();
+			myShepherd.closeDBTransaction();
+		}
+		return g;
+	}
+
+	private static AtomicLong version(String context) {
+		AtomicLong v = versions.get(context);
+		if (v != null) return v;
+		v = new AtomicLong();
+		AtomicLong had = versions.putIfAbsent(context, v);
+		return (had == null) ? v : had;
+	}
+
+	private static Collaboration copyOf(Collaboration c) {
+		Collaboration copy = new Collaboration(c.getUsername1(), c.getUsername2());
+		copy.setState(c.getState());
+		copy.setDateTimeCreated(c.getDateTimeCreated());
+		return copy;
+	}
+
+
+	public static long getHits() {
+		return hits.get();
+	}
+
+	public static long getLoads() {
+		return loads.get();
+	}
+}
@@ -26,7 +26,7 @@ import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.ecocean.Adoption;
 import org.ecocean.MarkedIndividual;
 import org.ecocean.NotificationMailer;
-import org.ecocean.MailThreadExecutorService;
+import org.ecocean.MailDispatcher;
 
 import org.ecocean.CommonConfiguration;
 import org.ecocean.Shepherd;
@@ -49,7 +49,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
 import java.util.Map;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.HashMap;
 
 
@@ -466,13 +465,11 @@ public void doPost(HttpServletRequest request, HttpServletResponse response) thr
                   String to = ad.getAdopterEmail();
                   String type = "adoptionConfirmation";
                   System.out.println("About to email new adopter.");
-                  // Retrieve background service for processing emails
-                  ThreadPoolExecutor es = MailThreadExecutorService.getExecutorService();
                   Map<String, String> tagMap = NotificationMailer.createBasicTagMap(request, mi, ad);
                   NotificationMailer mailer = new NotificationMailer(emailContext, langCode, to, type, tagMap);
                   NotificationMailer adminMailer = new NotificationMailer(emailContext, langCode, CommonConfiguration.getNewSubmissionEmail(emailContext), type, tagMap);
-                  es.execute(mailer);
-                  es.execute(adminMailer);
+                  MailDispatcher.submit(emailContext, mailer);
+                  MailDispatcher.submit(emailContext, adminMailer);
                 }
                 catch (Exception e) {
                   System.out.println("Error in sending email confirmation of adoption.");
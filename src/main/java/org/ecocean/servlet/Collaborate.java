@@ -21,6 +21,7 @@ package org.ecocean.servlet;
 
 import org.ecocean.*;
 import org.ecocean.security.Collaboration;
+import org.ecocean.security.CollaborationCache;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -31,7 +32,6 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.util.*;
 
-import java.util.concurrent.ThreadPoolExecutor;
 
 import com.google.gson.Gson;
 
@@ -97,16 +97,20 @@ System.out.println(collabs);
 			Collaboration collab = Collaboration.collaborationBetweenUsers(context, currentUsername, username);
 			if ((collab == null) || !collab.getState().equals(Collaboration.STATE_INITIALIZED)) {
 				rtn.put("message", props.getProperty("approvalResponseMessageBad"));
-			} else if (approve.equals("yes")) {
-				myShepherd.beginDBTransaction();
-				collab.setState(Collaboration.STATE_APPROVED);
-				myShepherd.commitDBTransaction();
-				rtn.put("success", true);
 			} else {
+				//the cached one is only a copy, so get the real one to change
 				myShepherd.beginDBTransaction();
-				collab.setState(Collaboration.STATE_REJECTED);
-				myShepherd.commitDBTransaction();
-				rtn.put("success", true);
+				collab = Collaboration.collaborationBetweenUsers(myShepherd, currentUsername, username);
+				if (collab == null) {
+					myShepherd.rollbackDBTransaction();
+					CollaborationCache.invalidate(context);
+					rtn.put("message", props.getProperty("approvalResponseMessageBad"));
+				} else {
+					collab.setState(approve.equals("yes") ? Collaboration.STATE_APPROVED : Collaboration.STATE_REJECTED);
+					myShepherd.commitDBTransaction();
+					CollaborationCache.update(context, collab);
+					rtn.put("success", true);
+				}
 			}
 
 		//plain old invite!
@@ -117,7 +121,7 @@ System.out.println(collabs);
 				System.out.println("collab already exists, state=" + collab.getState());
 			} else {
 				collab = Collaboration.create(currentUsername, username);
-  			myShepherd.storeNewCollaboration(collab);
+  			if (myShepherd.storeNewCollaboration(collab)) CollaborationCache.update(context, collab);
 
 				//TODO move emailing to .create()  ??
 				User recip = myShepherd.getUser(username);
@@ -130,9 +134,7 @@ System.out.println(collabs);
           tagMap.put("@LINK@", String.format(request.getScheme()+"://%s/myAccount.jsp", CommonConfiguration.getURLLocation(request)));
           tagMap.put("@TEXT_CONTENT@", optionalMessage == null ? "" : optionalMessage);
 					System.out.println("/Collaborate: attempting email to (" + username + ") " + mailTo);
-					ThreadPoolExecutor es = MailThreadExecutorService.getExecutorService();
-					es.execute(new NotificationMailer(context, null, mailTo, "collaborationInvite", tagMap));
-          es.shutdown();
+					MailDispatcher.submit(context, new NotificationMailer(context, null, mailTo, "collaborationInvite", tagMap));
 				} else {
 					System.out.println("/Collaborate: skipping email to uid=" + username);
 				}
@@ -101,9 +101,7 @@ public class DontTrack extends HttpServlet {
         // Send email
         Map<String, String> tagMap = NotificationMailer.createBasicTagMap(request, enc);
         NotificationMailer mailer = new NotificationMailer(context, null, email, "encounterTrackingStopped", tagMap);
-//        ThreadPoolExecutor es = MailThreadExecutorService.getExecutorService();
-//        es.execute(mailer);
-//        es.shutdown();
+//        MailDispatcher.submit(context, mailer);
       } else {
 
         out.println(ServletUtilities.getHeader(request));
@@ -156,9 +154,7 @@ public class DontTrack extends HttpServlet {
         String message = "This is a confirmation that e-mail tracking of data changes to " + shark + " has now been stopped.";
         Map<String, String> tagMap = NotificationMailer.createBasicTagMap(request, enc);
         NotificationMailer mailer = new NotificationMailer(context, null, email, "encounterTrackingStopped", tagMap);
-//        ThreadPoolExecutor es = MailThreadExecutorService.getExecutorService();
-//        es.execute(mailer);
-//        es.shutdown();
+//        MailDispatcher.submit(context, mailer);
       } else {
 
         out.println(ServletUtilities.getHeader(request));
@@ -34,7 +34,6 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.Iterator;
-import java.util.concurrent.ThreadPoolExecutor;
 //import java.util.HashMap;
 
 import java.io.*;
@@ -389,9 +388,7 @@ NOTE: right now this is not very general-purpose; only really used for match.jsp
         tagMap.put("@ENCLINKSHTML@", encLinksHtml);
         tagMap.put("@TASKLINKSHTML@", taskLinksHtml);
         NotificationMailer mailer = new NotificationMailer(context, null, userEmail, "encountersCreated", tagMap);
-        ThreadPoolExecutor es = MailThreadExecutorService.getExecutorService();
-        es.execute(mailer);
-        es.shutdown();
+        MailDispatcher.submit(context, mailer);
         //myShepherd.rollbackDBTransaction();
         rtn.put("success", true);
         rtn.put("message", "email sent successfully");
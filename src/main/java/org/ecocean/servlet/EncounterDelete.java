@@ -32,7 +32,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
-import java.util.concurrent.ThreadPoolExecutor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -145,6 +144,9 @@ public class EncounterDelete extends HttpServlet {
         if (!locked) {
           myShepherd.commitDBTransaction();
 
+          //a deleted encounter can't be matched against any more
+          org.ecocean.grid.GridManager.removeMatchGraphEntry(request.getParameter("number"));
+
           //log it
           Logger log = LoggerFactory.getLogger(EncounterDelete.class);
 		  log.info("Click to restore deleted encounter: <a href=\""+request.getScheme()+"://" + CommonConfiguration.getURLLocation(request) + "/ResurrectDeletedEncounter?number=" + request.getParameter("number")+"\">"+request.getParameter("number")+"</a>");
@@ -169,9 +171,7 @@ public class EncounterDelete extends HttpServlet {
           tagMap.put("@ENCOUNTER_ID@", request.getParameter("number"));
           String mailTo = CommonConfiguration.getNewSubmissionEmail(context);
           NotificationMailer mailer = new NotificationMailer(context, null, mailTo, "encounterDelete", tagMap);
-          ThreadPoolExecutor es = MailThreadExecutorService.getExecutorService();
-          es.execute(mailer);
-          es.shutdown();
+          MailDispatcher.submit(context, mailer);
         } 
         else {
           out.println(ServletUtilities.getHeader(request));
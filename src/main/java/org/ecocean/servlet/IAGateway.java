@@ -32,6 +32,7 @@ import org.ecocean.Resolver;
 import org.ecocean.media.*;
 import org.ecocean.identity.*;
 import org.ecocean.queue.*;
+import org.ecocean.ia.IAJobTracker;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -54,6 +55,7 @@ import java.util.List;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.Map;
 
 import javax.jdo.Query;
 import java.io.InputStream;
@@ -707,6 +709,13 @@ System.out.println("     >>> " + ft + " >> " + ft.getParameters());
                                                          ((anns.size() == 1) ? taskId : null));  //we use passed taskId if only 1 ann but generate otherwise
             taskList.put(taskRes);
         }
+        if (anns.size() > 1) {  //the task (if tracked) is done when these all are
+            List<String> childIds = new ArrayList<String>();
+            for (int i = 0 ; i < taskList.length() ; i++) {
+                childIds.add(taskList.getJSONObject(i).optString("taskId", null));
+            }
+            IAJobTracker.addChildren(taskId, childIds);
+        }
         if (limitTargetSize > -1) res.put("_limitTargetSize", limitTargetSize);
         res.put("tasks", taskList);
         res.put("success", true);
@@ -1064,10 +1073,15 @@ System.out.println(" _sendIdentificationTask ----> " + rtn);
     public static JSONObject taskSummary(JSONArray taskIds, Shepherd myShepherd) {
         JSONObject rtn = new JSONObject();
         if ((taskIds == null) || (taskIds.length() < 1)) return rtn;
+        List<String> annIds = new ArrayList<String>();
         for (int i = 0 ; i < taskIds.length() ; i++) {
             String annId = taskIds.optString(i);
-            if (annId == null) continue;
-            ArrayList<IdentityServiceLog> logs = IdentityServiceLog.summaryForAnnotationId(annId, myShepherd);
+            if (annId != null) annIds.add(annId);
+        }
+        //one lookup for all of them, rather than one per annotation
+        Map<String, ArrayList<IdentityServiceLog>> summaries = IdentityServiceLog.summaryForAnnotationIds(annIds, myShepherd);
+        for (String annId : annIds) {
+            ArrayList<IdentityServiceLog> logs = summaries.get(annId);
             if ((logs != null) && (logs.size() > 0)) {
                 JSONObject tasks = new JSONObject();
                 for (IdentityServiceLog l : logs) {
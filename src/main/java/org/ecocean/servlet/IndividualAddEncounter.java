@@ -37,7 +37,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ThreadPoolExecutor;
 
 import java.util.Properties;
 
@@ -189,8 +188,6 @@ public class IndividualAddEncounter extends HttpServlet {
 
             myShepherd.commitDBTransaction();
 
-            // Retrieve background service for processing emails
-            ThreadPoolExecutor es = MailThreadExecutorService.getExecutorService();
 
             myShepherd.beginDBTransaction();
 
@@ -210,7 +207,7 @@ public class IndividualAddEncounter extends HttpServlet {
               String mailTo = CommonConfiguration.getAutoEmailAddress(context);
               NotificationMailer mailer = new NotificationMailer(context, langCode, mailTo, emailTemplate, tagMap);
               mailer.appendToSubject(" (sent to submitters)");
-      			  es.execute(mailer);
+      			  MailDispatcher.submit(context, mailer);
 
       			  // Notify submitters, photographers, and informOthers values
               Set<String> cSubmitters = new HashSet<>();
@@ -224,7 +221,7 @@ public class IndividualAddEncounter extends HttpServlet {
                 if (!"".equals(emailTo)) {
                   tagMap.put(NotificationMailer.EMAIL_NOTRACK, "number=" + enc2add.getCatalogNumber());
                   tagMap.put(NotificationMailer.EMAIL_HASH_TAG, Encounter.getHashOfEmailString(emailTo));
-                  es.execute(new NotificationMailer(context, langCode, emailTo, emailTemplate, tagMap));
+                  MailDispatcher.submit(context, new NotificationMailer(context, langCode, emailTo, emailTemplate, tagMap));
                 }
               }
 
@@ -236,7 +233,7 @@ public class IndividualAddEncounter extends HttpServlet {
                 tagMap.put(NotificationMailer.EMAIL_NOTRACK, "number=" + enc2add.getCatalogNumber());
                 tagMap.put(NotificationMailer.EMAIL_HASH_TAG, Encounter.getHashOfEmailString(emailTo));
                 //System.out.println("Emailing cOthers member:" +emailTo);
-                es.execute(new NotificationMailer(context, langCode, emailTo, emailTemplate2, tagMap));
+                MailDispatcher.submit(context, new NotificationMailer(context, langCode, emailTo, emailTemplate2, tagMap));
               }
 
               // Notify adopters
@@ -249,7 +246,7 @@ public class IndividualAddEncounter extends HttpServlet {
                 tagMap.put(NotificationMailer.EMAIL_NOTRACK, "number=" + enc2add.getCatalogNumber());
                 tagMap.put(NotificationMailer.EMAIL_HASH_TAG, Encounter.getHashOfEmailString(emailTo));
                 tagMap.put(NotificationMailer.STANDARD_CONTENT_TAG, tagMap.get("@ENCOUNTER_LINK@"));
-                es.execute(new NotificationMailer(context, langCode, emailTo, emailTemplate + "-adopter", tagMap));
+                MailDispatcher.submit(context, new NotificationMailer(context, langCode, emailTo, emailTemplate + "-adopter", tagMap));
               }
 
               String rssTitle = request.getParameter("individual") + " Resight";
@@ -291,7 +288,6 @@ public class IndividualAddEncounter extends HttpServlet {
               ServletUtilities.informInterestedParties(request, request.getParameter("number"), message,context);
               ServletUtilities.informInterestedIndividualParties(request, request.getParameter("individual"), message,context);
             }
-            es.shutdown();
           }
 
           //if lock exception thrown
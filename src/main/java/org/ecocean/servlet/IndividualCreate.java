@@ -37,7 +37,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.ThreadPoolExecutor;
 
 
 public class IndividualCreate extends HttpServlet {
@@ -177,14 +176,13 @@ public class IndividualCreate extends HttpServlet {
             myShepherd.closeDBTransaction();
             if (request.getParameter("noemail") == null) {
 
-              ThreadPoolExecutor es = MailThreadExecutorService.getExecutorService();
 
               // Notify new-submissions address (try "newsub" template, or fallback to standard)
               Map<String, String> tagMap = NotificationMailer.createBasicTagMap(request, newShark, enc2make);
               String mailTo = CommonConfiguration.getNewSubmissionEmail(context);
               NotificationMailer mailer = new NotificationMailer(context, langCode, mailTo, "individualCreate", tagMap);
               mailer.appendToSubject(" (sent to submitters)");
-      			  es.execute(mailer);
+      			  MailDispatcher.submit(context, mailer);
 
       			  // Notify submitters, photographers, and informOthers values
               Set<String> cSubmitters = new HashSet<>();
@@ -198,9 +196,8 @@ public class IndividualCreate extends HttpServlet {
                 tagMap.put(NotificationMailer.EMAIL_NOTRACK, "individual=" + newShark.getIndividualID());
               for (String emailTo : cSubmitters) {
                 tagMap.put(NotificationMailer.EMAIL_HASH_TAG, Encounter.getHashOfEmailString(emailTo));
-                es.execute(new NotificationMailer(context, langCode, emailTo, "individualCreate", tagMap));
+                MailDispatcher.submit(context, new NotificationMailer(context, langCode, emailTo, "individualCreate", tagMap));
               }
-              es.shutdown();
 
               String rssTitle = "New marked individual: " + newIndividualID;
               String rssLink = request.getScheme()+"://" + CommonConfiguration.getURLLocation(request) + "/individuals.jsp?number=" + newIndividualID;
@@ -55,6 +55,14 @@ public class InterconnectSubmitSpots extends HttpServlet {
       if (file.exists()) {
         file.delete();
       }
+      file = new File(getServletContext().getRealPath(("/encounters/" + num + "/lastFull" + side + "Scan.dat")));
+      if (file.exists()) {
+        file.delete();
+      }
+      file = new File(getServletContext().getRealPath(("/encounters/" + num + "/lastFull" + side + "I3SScan.dat")));
+      if (file.exists()) {
+        file.delete();
+      }
       file = new File(getServletContext().getRealPath(("/encounters/" + num + "/lastBoost" + side + "Scan.xml")));
       if (file.exists()) {
         file.delete();
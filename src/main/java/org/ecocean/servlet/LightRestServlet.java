@@ -22,17 +22,21 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.Collection;
-import java.util.List;
+import java.util.Iterator;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ecocean.ShepherdPMF;
+import org.ecocean.ShepherdLifecycle;
 import org.ecocean.Util;
 // import each class we have capability for
 import org.ecocean.Encounter;
 import org.ecocean.MarkedIndividual;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.lang.reflect.InvocationTargetException;
 
 
 import javax.jdo.JDOHelper;
@@ -64,7 +68,10 @@ import org.datanucleus.util.NucleusLogger;
 import org.datanucleus.api.rest.RESTUtils;
 
 import java.util.zip.*;
+import java.io.BufferedWriter;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
 /**
  * This servlet replaces the REST servlet in a non-recursive way, useful for large
@@ -83,6 +90,7 @@ public class LightRestServlet extends HttpServlet
 
     private static final String[] Encounter_Light_Str_Fields = {"catalogNumber","individualID","sex", "guid", "otherCatalogNumbers","verbatimLocality","locationID","submitterProject","genus","specificEpithet", "dwcDateAdded","modified"};
     private static final String[] Encounter_Light_Int_Fields = {"year","month","day"};
+    private static final int STREAM_FETCH_SIZE = 500;  //rows the jdbc driver brings back at a time while we stream
 
     public static final NucleusLogger LOGGER_REST = NucleusLogger.getLoggerInstance("DataNucleus.REST");
 
@@ -215,7 +223,6 @@ public class LightRestServlet extends HttpServlet
     throws ServletException, IOException
     {
 
-        System.out.println("        LIGHTREST: doGet called");
       resp.setHeader("Access-Control-Allow-Origin", "*");
       getPMF(req);
         // Retrieve any fetch group that needs applying to the fetch
@@ -230,16 +237,18 @@ public class LightRestServlet extends HttpServlet
             if (token.equalsIgnoreCase("query") || token.equalsIgnoreCase("jdoql"))
             {
                 // GET "/query?the_query_details" or GET "/jdoql?the_query_details" where "the_query_details" is "SELECT FROM ... WHERE ... ORDER BY ..."
-                String queryString = URLDecoder.decode(req.getQueryString(), "UTF-8");
+                String queryString = URLDecoder.decode(stripQueryParameters(req.getQueryString()), "UTF-8");
                 PersistenceManager pm = pmf.getPersistenceManager();
-                String servletID=Util.generateUUID();
-                ShepherdPMF.setShepherdState("RestServlet.class"+"_"+servletID, "new");
+                long openedAt=System.currentTimeMillis();
+                long beganAt=0;
+                ShepherdLifecycle.opened("LightRestServlet.class");
                 
                 
                 try
                 {
                     pm.currentTransaction().begin();
-                    ShepherdPMF.setShepherdState("RestServlet.class"+"_"+servletID, "begin");
+                    beganAt=System.currentTimeMillis();
+                    ShepherdLifecycle.began("LightRestServlet.class");
                     
 
                     Query query = pm.newQuery("JDOQL", queryString);
@@ -247,17 +256,15 @@ public class LightRestServlet extends HttpServlet
                     {
                         query.getFetchPlan().addGroup(fetchParam);
                     }
-                    Object result = filterResult(query.execute());
+                    prepareQuery(req, query);
+                    Object result = query.execute();
                     if (result instanceof Collection)
                     {
-                        JSONArray jsonobj = convertToJson(req, (Collection)result, ((JDOPersistenceManager)pm).getExecutionContext());
-                        //JSONArray jsonobj = RESTUtils.getJSONArrayFromCollection((Collection)result,
-                            //((JDOPersistenceManager)pm).getExecutionContext());
-                        tryCompress(req, resp, jsonobj, useCompression);
+                        streamJson(req, resp, (Collection)result, pm, useCompression);
                     }
                     else
                     {
-                        JSONObject jsonobj = convertToJson(req, result, ((JDOPersistenceManager)pm).getExecutionContext());
+                        JSONObject jsonobj = convertToJson(req, filterResult(result), ((JDOPersistenceManager)pm).getExecutionContext());
                         //JSONObject jsonobj = RESTUtils.getJSONObjectFromPOJO(result,
                             //((JDOPersistenceManager)pm).getExecutionContext());
                         tryCompress(req, resp, jsonobj, useCompression);
@@ -266,7 +273,8 @@ public class LightRestServlet extends HttpServlet
                     resp.setHeader("Content-Type", "application/json");
                     resp.setStatus(200);
                     pm.currentTransaction().commit();
-                    ShepherdPMF.setShepherdState("RestServlet.class"+"_"+servletID, "commit");
+                    ShepherdLifecycle.committed("LightRestServlet.class", beganAt);
+                    beganAt=0;
                     
                 }
                 finally
@@ -274,12 +282,12 @@ public class LightRestServlet extends HttpServlet
                     if (pm.currentTransaction().isActive())
                     {
                         pm.currentTransaction().rollback();
-                        ShepherdPMF.setShepherdState("RestServlet.class"+"_"+servletID, "rollback");
+                        if (beganAt>0) ShepherdLifecycle.rolledBack("LightRestServlet.class", beganAt);
+                        beganAt=0;
                         
                     }
                     pm.close();
-                    //ShepherdPMF.setShepherdState("RestServlet.class"+"_"+servletID, "close");
-                    ShepherdPMF.removeShepherdState("RestServlet.class"+"_"+servletID);
+                    ShepherdLifecycle.closed("LightRestServlet.class", openedAt, beganAt);
                     
                     
                 }
@@ -288,7 +296,7 @@ public class LightRestServlet extends HttpServlet
             else if (token.equalsIgnoreCase("jpql"))
             {
                 // GET "/jpql?the_query_details" where "the_query_details" is "SELECT ... FROM ... WHERE ... ORDER BY ..."
-                String queryString = URLDecoder.decode(req.getQueryString(), "UTF-8");
+                String queryString = URLDecoder.decode(stripQueryParameters(req.getQueryString()), "UTF-8");
                 PersistenceManager pm = pmf.getPersistenceManager();
                 try
                 {
@@ -298,17 +306,15 @@ public class LightRestServlet extends HttpServlet
                     {
                         query.getFetchPlan().addGroup(fetchParam);
                     }
-                    Object result = filterResult(query.execute());
+                    prepareQuery(req, query);
+                    Object result = query.execute();
                     if (result instanceof Collection)
                     {
-                        JSONArray jsonobj = convertToJson(req, (Collection)result, ((JDOPersistenceManager)pm).getExecutionContext());
-                        //JSONArray jsonobj = RESTUtils.getJSONArrayFromCollection((Collection)result,
-                            //((JDOPersistenceManager)pm).getExecutionContext());
-                        tryCompress(req, resp, jsonobj, useCompression);
+                        streamJson(req, resp, (Collection)result, pm, useCompression);
                     }
                     else
                     {
-                        JSONObject jsonobj = convertToJson(req, result, ((JDOPersistenceManager)pm).getExecutionContext());
+                        JSONObject jsonobj = convertToJson(req, filterResult(result), ((JDOPersistenceManager)pm).getExecutionContext());
                         //JSONObject jsonobj = RESTUtils.getJSONObjectFromPOJO(result,
                             //((JDOPersistenceManager)pm).getExecutionContext());
                         tryCompress(req, resp, jsonobj, useCompression);
@@ -359,10 +365,11 @@ public class LightRestServlet extends HttpServlet
                     {
                         // get the whole extent for this candidate
                         String queryString = "SELECT FROM " + cmd.getFullClassName();
-                        if (req.getQueryString() != null)
+                        String filter = stripQueryParameters(req.getQueryString());
+                        if ((filter != null) && !filter.equals(""))
                         {
                             // query by filter for this candidate
-                            queryString += " WHERE " + URLDecoder.decode(req.getQueryString(), "UTF-8");
+                            queryString += " WHERE " + URLDecoder.decode(filter, "UTF-8");
                         }
                         PersistenceManager pm = pmf.getPersistenceManager();
                         if (fetchParam != null)
@@ -373,11 +380,8 @@ public class LightRestServlet extends HttpServlet
                         {
                             pm.currentTransaction().begin();
                             Query query = pm.newQuery("JDOQL", queryString);
-                            List result = (List)filterResult(query.execute());
-                            JSONArray jsonobj = convertToJson(req, result, ((JDOPersistenceManager)pm).getExecutionContext());
-                            //JSONArray jsonobj = RESTUtils.getJSONArrayFromCollection(result,
-                                //((JDOPersistenceManager)pm).getExecutionContext());
-                            tryCompress(req, resp, jsonobj, useCompression);
+                            prepareQuery(req, query);
+                            streamJson(req, resp, (Collection)query.execute(), pm, useCompression);
                             query.closeAll();
                             resp.setHeader("Content-Type", "application/json");
                             resp.setStatus(200);
@@ -868,35 +872,22 @@ System.out.println("got Exception trying to invoke restAccess: " + ex.toString()
     }
 
         boolean restAccessCheck(Object obj, HttpServletRequest req, JSONObject jsonobj) {
-          System.out.println(jsonobj.toString());
-          System.out.println(obj);
-          System.out.println(obj.getClass());
-                      boolean ok = true;
-                      Method restAccess = null;
-                      try {
-                          restAccess = obj.getClass().getMethod("restAccess", new Class[] { HttpServletRequest.class, JSONObject.class });
-                      } catch (NoSuchMethodException nsm) {
-          System.out.println("no such method??????????");
-                          //nothing to do
-                      }
+                      MethodHandle restAccess = ClassSerializer.forClass(obj.getClass()).restAccess;
                       if (restAccess == null) return true;  //if method doesnt exist, counts as good
 
-          System.out.println("<<<<<<<<<< we have restAccess() on our object.... invoking!\n");
                       //when .restAccess() is called, it should throw an exception to signal not allowed
                       try {
-                          restAccess.invoke(obj, req, jsonobj);
-                      } catch (Exception ex) {
-                          ok = false;
+                          restAccess.invokeExact(obj, req, jsonobj);
+                      } catch (Throwable ex) {
                           ex.printStackTrace();
                           System.out.println("got Exception trying to invoke restAccess: " + ex.toString());
+                          return false;
                       }
-                      return ok;
+                      return true;
         }
 
 
         Object filterResult(Object result) throws NucleusUserException {
-System.out.println("filterResult! thisRequest");
-System.out.println(thisRequest);
             Class cls = null;
             Object out = result;
             if (result instanceof Collection) {
@@ -913,30 +904,14 @@ System.out.println(thisRequest);
 
 
         JSONObject convertToJson(HttpServletRequest req, Object obj, ExecutionContext ec) {
-//System.out.println("convertToJson(non-Collection) trying class=" + obj.getClass());
-            //System.out.println("        LightRest: convertToJson(obj) has been called!");
-            boolean isEnc = (obj.getClass()==Encounter.class);
-            //System.out.println("        LightRest: isEnc = "+isEnc);
-
-            if (isEnc) {
-
-                JSONObject jobj = getEncLightJson((Encounter) obj);
-                return jobj;
-
-            }
+            ClassSerializer ser = ClassSerializer.forClass(obj.getClass());
+            if (ser.lightGetters != null) return ser.lightJson(obj);
 
             JSONObject jobj = RESTUtils.getJSONObjectFromPOJO(obj, ec);
-            Method sj = null;
-            try {
-                sj = obj.getClass().getMethod("sanitizeJson", new Class[] { HttpServletRequest.class, JSONObject.class });
-            } catch (NoSuchMethodException nsm) { //do nothing
-//System.out.println("i guess " + obj.getClass() + " does not have sanitizeJson() method");
-            }
-            if (sj != null) {
-//System.out.println("trying sanitizeJson!");
+            if (ser.sanitizeJson != null) {
                 try {
-                    jobj = (JSONObject)sj.invoke(obj, req, jobj);
-                } catch (Exception ex) {
+                    jobj = (JSONObject)ser.sanitizeJson.invokeExact(obj, req, jobj);
+                } catch (Throwable ex) {
                   //ex.printStackTrace();
                   //System.out.println("got Exception trying to invoke sanitizeJson: " + ex.toString());
                 }
@@ -956,6 +931,99 @@ System.out.println(thisRequest);
             return jarr;
         }
 
+        /*
+            writes a query's results out as a JSON array while its iterator advances, rather than building the whole
+            JSONArray (and then its String) first.  with the query's result cache off (see prepareQuery) and each object
+            evicted once written, a 50k encounter listing never has to be in memory all at once.
+
+            the first object still decides whether we answer at all (filterResult() throws before anything is written);
+            any later ones that may not be shown are left out.
+        */
+        void streamJson(HttpServletRequest req, HttpServletResponse resp, Collection coll, PersistenceManager pm, boolean useComp) throws IOException, JSONException {
+            ExecutionContext ec = ((JDOPersistenceManager)pm).getExecutionContext();
+            Iterator it = coll.iterator();
+            boolean more = it.hasNext();
+            Object obj = more ? it.next() : null;
+            if (obj != null) filterResult(obj);
+
+            resp.setStatus(200);
+            resp.setHeader("Content-Type", "application/json");
+            resp.setCharacterEncoding("UTF-8");
+            Writer w;
+            if (useComp) {
+                resp.setHeader("Content-Encoding", "gzip");
+                w = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(resp.getOutputStream(), 8192), "UTF-8"), 8192);
+            } else {
+                w = resp.getWriter();
+            }
+            w.write('[');
+            int written = 0;
+            int left = 0;
+            while (more) {
+                String json = elementJson(req, obj, ec);
+                if (json == null) {
+                    left++;
+                } else {
+                    if (written > 0) w.write(',');
+                    w.write(json);
+                    written++;
+                }
+                if ((obj != null) && JDOHelper.isPersistent(obj)) pm.evict(obj);
+                more = it.hasNext();
+                if (more) obj = it.next();
+            }
+            w.write(']');
+            if (useComp) {
+                w.close();  //finishes the gzip stream
+            } else {
+                w.flush();
+            }
+            if (left > 0) System.out.println("LightRestServlet: left " + left + " restricted object(s) out of " + req.getRequestURI());
+        }
+
+        private String elementJson(HttpServletRequest req, Object obj, ExecutionContext ec) throws JSONException {
+            if (obj == null) return "null";
+            if (obj instanceof Collection) return convertToJson(req, (Collection)obj, ec).toString();
+            try {
+                filterResult(obj);
+            } catch (NucleusUserException ex) {
+                return null;
+            }
+            return convertToJson(req, obj, ec).toString();
+        }
+
+        /*
+            range=from,to (as JDOQL RANGE: from inclusive, to exclusive; to may be left off) and ordering=<JDOQL ordering,
+            e.g. "dwcDateAdded descending"> are handed to the query, so the database sorts and pages rather than the
+            browser.  also turns the result cache off, as streamJson() only goes through the results once.
+        */
+        void prepareQuery(HttpServletRequest req, Query query) throws NucleusUserException {
+            String ordering = req.getParameter("ordering");
+            if ((ordering != null) && !ordering.trim().equals("")) query.setOrdering(ordering);
+            String range = req.getParameter("range");
+            if ((range != null) && !range.trim().equals("")) {
+                String[] parts = range.split(",", -1);
+                try {
+                    long from = Long.parseLong(parts[0].trim());
+                    long to = ((parts.length < 2) || parts[1].trim().equals("")) ? Long.MAX_VALUE : Long.parseLong(parts[1].trim());
+                    if ((from < 0) || (to < from)) throw new NumberFormatException();
+                    query.setRange(from, to);
+                } catch (NumberFormatException ex) {
+                    throw new NucleusUserException("invalid range=" + range + "; expected from,to");
+                }
+            }
+            query.addExtension("datanucleus.query.resultCacheType", "none");
+            query.getFetchPlan().setFetchSize(STREAM_FETCH_SIZE);
+        }
+
+        //the query string (minus range= and ordering=, see prepareQuery()) is the query or filter itself
+        static String stripQueryParameters(String queryString) {
+            if (queryString == null) return null;
+            String stripped = queryString.replaceAll("(?<![^&])(range|ordering)=(?!=)[^&]*", "");
+            if (stripped.equals(queryString)) return queryString;
+            return stripped.replaceAll("&&&+", "&&").replaceAll("^&+|&+$", "");
+        }
+
 /*
         //jo can be either JSONObject or JSONArray
         Object scrubJson(HttpServletRequest req, Object jo) throws JSONException {
@@ -979,7 +1047,6 @@ System.out.println("- scrubJson reporting class=" + jobj.get("class").toString()
 */
 
         void tryCompress(HttpServletRequest req, HttpServletResponse resp, Object jo, boolean useComp) throws IOException, JSONException {
-System.out.println("??? TRY COMPRESS ??");
             //String s = scrubJson(req, jo).toString();
             String s = jo.toString();
             if (!useComp || (s.length() < 3000)) {  //kinda guessing on size here, probably doesnt matter
@@ -1003,34 +1070,91 @@ System.out.println("??? TRY COMPRESS ??");
             thisRequest = req;
         }
 
-        private JSONObject getEncLightJson(Encounter enc) {
-            JSONObject jobj = new JSONObject();
-            for (String fieldName: Encounter_Light_Str_Fields) {
-                try {
-                    Method getter = Encounter.class.getMethod(getterName(fieldName));
-                    String val = (String) getter.invoke(enc);
-                    if (val==null) continue;
-                    jobj.put(fieldName, val);
-                } catch (Exception e) {
-                    System.out.println("Exception on LightRestServlet.getEncLightJson for fieldName "+fieldName);
-                    e.printStackTrace();
+        private static String getterName(String fieldName) {
+            return ("get"+fieldName.substring(0,1).toUpperCase()+fieldName.substring(1));
+        }
+
+        /*
+            what we need to turn objects of one class into json, looked up once per class instead of per object with
+            getClass().getMethod(): its sanitizeJson() and restAccess() (if any), and for Encounter the getters of the
+            "light" fields.  all as MethodHandles adapted to (Object, ...) so they can be invokeExact()ed.
+        */
+        static class ClassSerializer {
+            private static final ConcurrentHashMap<Class, ClassSerializer> cache = new ConcurrentHashMap<Class, ClassSerializer>();
+
+            final MethodHandle sanitizeJson;  //(Object, HttpServletRequest, JSONObject)JSONObject
+            final MethodHandle restAccess;  //(Object, HttpServletRequest, JSONObject)void
+            final String[] lightFields;  //Encounter only
+            final MethodHandle[] lightGetters;  //(Object)Object, matching lightFields
+            final int numLightStr;  //lightFields[0..numLightStr) are Strings, the rest ints
+
+            static ClassSerializer forClass(Class cls) {
+                ClassSerializer ser = cache.get(cls);
+                if (ser != null) return ser;
+                ser = new ClassSerializer(cls);
+                ClassSerializer had = cache.putIfAbsent(cls, ser);
+                return (had == null) ? ser : had;
+            }
+
+            private ClassSerializer(Class cls) {
+                sanitizeJson = handle(cls, "sanitizeJson", MethodType.methodType(JSONObject.class, Object.class, HttpServletRequest.class, JSONObject.class));
+                restAccess = handle(cls, "restAccess", MethodType.methodType(void.class, Object.class, HttpServletRequest.class, JSONObject.class));
+                if (cls != Encounter.class) {
+                    lightFields = null;
+                    lightGetters = null;
+                    numLightStr = 0;
+                    return;
+                }
+                numLightStr = Encounter_Light_Str_Fields.length;
+                lightFields = new String[numLightStr + Encounter_Light_Int_Fields.length];
+                lightGetters = new MethodHandle[lightFields.length];
+                for (int i = 0 ; i < lightFields.length ; i++) {
+                    lightFields[i] = (i < numLightStr) ? Encounter_Light_Str_Fields[i] : Encounter_Light_Int_Fields[i - numLightStr];
+                    lightGetters[i] = handle(cls, getterName(lightFields[i]), MethodType.methodType(Object.class, Object.class));
+                    if (lightGetters[i] == null) System.out.println("LightRestServlet: no Encounter." + getterName(lightFields[i]) + "() for " + lightFields[i]);
                 }
             }
-            for (String fieldName: Encounter_Light_Int_Fields) {
+
+            //the public method name(HttpServletRequest, JSONObject) (or name() if type takes just the object), or null if cls has none
+            private static MethodHandle handle(Class cls, String name, MethodType type) {
+                Class[] params = new Class[type.parameterCount() - 1];
+                for (int i = 0 ; i < params.length ; i++) {
+                    params[i] = type.parameterType(i + 1);
+                }
+                Method m;
                 try {
-                    Method getter = Encounter.class.getMethod(getterName(fieldName));
-                    int val = ((Integer) getter.invoke(enc)).intValue();
-                    jobj.put(fieldName, val);
-                } catch (Exception e) {
-                    System.out.println("Exception on LightRestServlet.getEncLightJson for fieldName "+fieldName);
-                    e.printStackTrace();
+                    m = cls.getMethod(name, params);
+                } catch (NoSuchMethodException nsm) {
+                    return null;
+                }
+                try {
+                    m.setAccessible(true);  //public, but maybe on a non-public class
+                    return MethodHandles.lookup().unreflect(m).asType(type);
+                } catch (IllegalAccessException ex) {
+                    //not safe to carry on without it (sanitizeJson especially)
+                    throw new RuntimeException("cannot use " + cls.getName() + "." + name + "(): " + ex.toString());
                 }
             }
-            return jobj;
-        }
 
-        private String getterName(String fieldName) {
-            return ("get"+fieldName.substring(0,1).toUpperCase()+fieldName.substring(1));
+            JSONObject lightJson(Object enc) {
+                JSONObject jobj = new JSONObject();
+                for (int i = 0 ; i < lightFields.length ; i++) {
+                    if (lightGetters[i] == null) continue;
+                    try {
+                        Object val = lightGetters[i].invokeExact(enc);
+                        if (val == null) continue;
+                        if (i < numLightStr) {
+                            jobj.put(lightFields[i], (String)val);
+                        } else {
+                            jobj.put(lightFields[i], ((Integer)val).intValue());
+                        }
+                    } catch (Throwable e) {
+                        System.out.println("Exception on LightRestServlet.getEncLightJson for fieldName "+lightFields[i]);
+                        e.printStackTrace();
+                    }
+                }
+                return jobj;
+            }
         }
 
 
@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.StringTokenizer;
 
 import org.ecocean.ShepherdPMF;
+import org.ecocean.ShepherdLifecycle;
 import org.ecocean.Util;
 
 import java.lang.reflect.Method;
@@ -222,14 +223,16 @@ public class RestServlet extends HttpServlet
                 // GET "/query?the_query_details" or GET "/jdoql?the_query_details" where "the_query_details" is "SELECT FROM ... WHERE ... ORDER BY ..."
                 String queryString = URLDecoder.decode(req.getQueryString(), "UTF-8");
                 PersistenceManager pm = pmf.getPersistenceManager();
-                String servletID=Util.generateUUID();
-                ShepherdPMF.setShepherdState("RestServlet.class"+"_"+servletID, "new");
+                long openedAt=System.currentTimeMillis();
+                long beganAt=0;
+                ShepherdLifecycle.opened("RestServlet.class");
                 
                 
                 try
                 {
                     pm.currentTransaction().begin();
-                    ShepherdPMF.setShepherdState("RestServlet.class"+"_"+servletID, "begin");
+                    beganAt=System.currentTimeMillis();
+                    ShepherdLifecycle.began("RestServlet.class");
                     
 
                     Query query = pm.newQuery("JDOQL", queryString);
@@ -256,7 +259,8 @@ public class RestServlet extends HttpServlet
                     resp.setHeader("Content-Type", "application/json");
                     resp.setStatus(200);
                     pm.currentTransaction().commit();
-                    ShepherdPMF.setShepherdState("RestServlet.class"+"_"+servletID, "commit");
+                    ShepherdLifecycle.committed("RestServlet.class", beganAt);
+                    beganAt=0;
                     
                 }
                 finally
@@ -264,12 +268,12 @@ public class RestServlet extends HttpServlet
                     if (pm.currentTransaction().isActive())
                     {
                         pm.currentTransaction().rollback();
-                        ShepherdPMF.setShepherdState("RestServlet.class"+"_"+servletID, "rollback");
+                        if (beganAt>0) ShepherdLifecycle.rolledBack("RestServlet.class", beganAt);
+                        beganAt=0;
                         
                     }
                     pm.close();
-                    //ShepherdPMF.setShepherdState("RestServlet.class"+"_"+servletID, "close");
-                    ShepherdPMF.removeShepherdState("RestServlet.class"+"_"+servletID);
+                    ShepherdLifecycle.closed("RestServlet.class", openedAt, beganAt);
                     
                     
                 }
@@ -24,6 +24,7 @@ package org.ecocean.servlet;
 import org.ecocean.grid.GridManager;
 import org.ecocean.grid.GridManagerFactory;
 import org.ecocean.grid.GridNode;
+import org.ecocean.grid.GridWireFormat;
 import org.ecocean.grid.ScanWorkItem;
 
 
@@ -35,6 +36,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 
 import java.util.Vector;
@@ -165,6 +167,9 @@ public class ScanAppletSupport extends HttpServlet {
     GridNode nd = gm.getGridNode(nodeIdentifier);
     int groupSize = gm.getNextGroupSize(nd);
 
+    //the node lost (or never had) the patterns we think we sent it
+    if ((nd != null) && ("true".equals(request.getParameter("resetPatternCache")))) nd.clearSentPatterns();
+
     if ((request.getParameter("newEncounterNumber") != null) && (!request.getParameter("newEncounterNumber").equals(""))) {
 
       //System.out.println("newEncounterNumber has been specified");
@@ -196,7 +201,7 @@ public class ScanAppletSupport extends HttpServlet {
 
         //transmit result and clean up
         //myShepherd.closeDBTransaction();
-        boolean transmitSuccess = sendObject(response, holdSWIs);
+        boolean transmitSuccess = sendWorkItems(request, response, nd, holdSWIs);
         if (transmitSuccess) {
           nd.setLastCheckout(System.currentTimeMillis());
         }
@@ -231,7 +236,7 @@ public class ScanAppletSupport extends HttpServlet {
 
 
         //myShepherd.closeDBTransaction();
-        boolean transmitSuccess = sendObject(response, holdResults);
+        boolean transmitSuccess = sendWorkItems(request, response, nd, holdResults);
         if (transmitSuccess) nd.setLastCheckout(System.currentTimeMillis());
 
       } //end try
@@ -249,6 +254,25 @@ public class ScanAppletSupport extends HttpServlet {
   }
 
 
+  //transmits a group of ScanWorkItems, in GridWireFormat if the node asked for it, otherwise serialized
+  public boolean sendWorkItems(HttpServletRequest request, HttpServletResponse response, GridNode nd, Vector swis) {
+    if (!GridWireFormat.isRequested(request)) return sendObject(response, swis);
+    try {
+      response.setContentType(GridWireFormat.CONTENT_TYPE);
+      OutputStream out = response.getOutputStream();
+      GridWireFormat.writeWorkItems(out, new ArrayList<ScanWorkItem>(swis), (nd == null) ? null : nd.getSentPatterns());
+      out.close();
+      return true;
+    }
+    catch (Exception e) {
+      System.out.println("Caught an error when attempting to return work items via the sendWorkItems method of scanAppletSupport servlet");
+      e.printStackTrace();
+      //we can't tell which patterns made it, so start over with this node
+      if (nd != null) nd.clearSentPatterns();
+      return false;
+    }
+  }
+
   //transmits requested objects to the applet
   public boolean sendObject(HttpServletResponse response, Object encounterVector) {
     ObjectOutputStream outputToApplet=null;
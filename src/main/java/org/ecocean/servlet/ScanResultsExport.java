@@ -0,0 +1,94 @@
+package org.ecocean.servlet;
+
+import org.ecocean.CommonConfiguration;
+import org.ecocean.Encounter;
+import org.ecocean.Shepherd;
+import org.ecocean.grid.ScanResultStore;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * The saved results of an encounter's last scan as the old lastFull*Scan.xml, built from its ScanResultStore
+ * only when asked for (the results pages' tracker feed, or a download).
+ * Parameters: number, rightSide=true for the right side, I3S=true for the I3S results.
+ */
+public class ScanResultsExport extends HttpServlet {
+
+  public void init(ServletConfig config) throws ServletException {
+    super.init(config);
+  }
+
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+    doGet(request, response);
+  }
+
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+    String context="context0";
+    context=ServletUtilities.getContext(request);
+
+    String num = request.getParameter("number");
+    Shepherd myShepherd = new Shepherd(context);
+    myShepherd.setAction("ScanResultsExport.class");
+    myShepherd.beginDBTransaction();
+    boolean isEncounter = false;
+    try {
+      isEncounter = (num != null) && myShepherd.isEncounter(num);
+    } finally {
+      myShepherd.rollbackDBTransaction();
+      myShepherd.closeDBTransaction();
+    }
+    if (!isEncounter) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    boolean rightSide = "true".equals(request.getParameter("rightSide"));
+    boolean i3s = "true".equals(request.getParameter("I3S"));
+    String rootWebappPath = getServletContext().getRealPath("/");
+    File webappsDir = new File(rootWebappPath).getParentFile();
+    File shepherdDataDir = new File(webappsDir, CommonConfiguration.getDataDirectoryName(context));
+    String encDir = Encounter.dir(shepherdDataDir, num);
+
+    File storeFile = ScanResultStore.getFile(encDir, rightSide, i3s);
+    File xmlFile = ScanResultStore.getXMLFile(encDir, rightSide, i3s);
+    response.setContentType("text/xml");
+    response.setCharacterEncoding("UTF-8");
+    if (storeFile.exists()) {
+      ScanResultStore store = ScanResultStore.open(storeFile);
+      try {
+        org.dom4j.io.XMLWriter writer = new org.dom4j.io.XMLWriter(response.getOutputStream(), org.dom4j.io.OutputFormat.createCompactFormat());
+        writer.write(store.toXML());
+        writer.flush();
+      } finally {
+        store.close();
+      }
+    } else if (xmlFile.exists()) {
+      //written before there were stores
+      InputStream in = new FileInputStream(xmlFile);
+      try {
+        OutputStream out = response.getOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+          out.write(buffer, 0, n);
+        }
+      } finally {
+        in.close();
+      }
+    } else {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+    }
+  }
+
+}
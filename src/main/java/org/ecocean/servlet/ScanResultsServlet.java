@@ -19,14 +19,12 @@
 
 package org.ecocean.servlet;
 
-import org.dom4j.Document;
-import org.dom4j.DocumentHelper;
-import org.dom4j.Element;
 import org.ecocean.Encounter;
 import org.ecocean.Shepherd;
 import org.ecocean.CommonConfiguration;
 import org.ecocean.grid.MatchComparator;
 import org.ecocean.grid.MatchObject;
+import org.ecocean.grid.ScanResultStore;
 import org.ecocean.grid.VertexPointMatch;
 
 import javax.servlet.ServletConfig;
@@ -37,7 +35,8 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import java.io.*;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.Vector;
 
 
@@ -68,105 +67,82 @@ public class ScanResultsServlet extends HttpServlet {
     doPost(request, response);
   }
 
-  public boolean writeXML(HttpServletRequest request, Vector results, String num, String newEncDate, String newEncShark, String newEncSize) {
+  /**
+   * Saves an applet scan's results to the encounter's ScanResultStore, keeping the best scanResultsTopK.
+   */
+  public boolean writeResults(HttpServletRequest request, Vector results, String num, String newEncDate, String newEncShark, String newEncSize) {
     String context="context0";
     context=ServletUtilities.getContext(request);
     try {
-      System.out.println("Prepping to write XML file for encounter " + num);
+      System.out.println("Prepping to write scan results for encounter " + num);
 
-      //now setup the XML write for the encounter
-      int resultsSize = results.size();
-      MatchObject[] matches = new MatchObject[resultsSize];
-      for (int a = 0; a < resultsSize; a++) {
-        matches[a] = (MatchObject) results.get(a);
+      ScanResultStore.TopK best = new ScanResultStore.TopK(ScanResultStore.getTopK(context), new MatchComparator());
+      for (int a = 0; a < results.size(); a++) {
+        best.offer((MatchObject) results.get(a));
       }
-      Arrays.sort(matches, new MatchComparator());
-      StringBuffer resultsXML = new StringBuffer();
-      Document document = DocumentHelper.createDocument();
-      Element root = document.addElement("matchSet");
-      root.addAttribute("scanDate", (new java.util.Date()).toString());
-      root.addAttribute("R", request.getParameter("R"));
-      root.addAttribute("epsilon", request.getParameter("epsilon"));
-      root.addAttribute("Sizelim", request.getParameter("Sizelim"));
-      root.addAttribute("maxTriangleRotation", request.getParameter("maxTriangleRotation"));
-      root.addAttribute("C", request.getParameter("C"));
+      MatchObject[] matches = best.sorted();
+      LinkedHashMap<String, String> parameters = new LinkedHashMap<String, String>();
+      parameters.put("R", request.getParameter("R"));
+      parameters.put("epsilon", request.getParameter("epsilon"));
+      parameters.put("Sizelim", request.getParameter("Sizelim"));
+      parameters.put("maxTriangleRotation", request.getParameter("maxTriangleRotation"));
+      parameters.put("C", request.getParameter("C"));
+
+      ScanResultStore.EncounterInfo newEncounter = new ScanResultStore.EncounterInfo();
+      newEncounter.number = num;
+      newEncounter.date = newEncDate;
+      newEncounter.individualID = newEncShark;
+      newEncounter.size = newEncSize + " meters";
+
+      ArrayList<ScanResultStore.Match> saved = new ArrayList<ScanResultStore.Match>();
       for (int i = 0; i < matches.length; i++) {
         MatchObject mo = matches[i];
-        Element match = root.addElement("match");
-        match.addAttribute("points", (new Double(mo.matchValue)).toString());
-        match.addAttribute("adjustedpoints", (new Double(mo.adjustedMatchValue)).toString());
-        match.addAttribute("pointBreakdown", mo.pointBreakdown);
-        String finalscore = (new Double(mo.matchValue * mo.adjustedMatchValue)).toString();
-        if (finalscore.length() > 7) {
-          finalscore = finalscore.substring(0, 6);
-        }
-        match.addAttribute("finalscore", finalscore);
+        ScanResultStore.Match match = new ScanResultStore.Match();
+        match.score = mo.matchValue * mo.adjustedMatchValue;
+        match.points = mo.matchValue;
+        match.adjustedPoints = mo.adjustedMatchValue;
+        match.pointBreakdown = mo.pointBreakdown;
 
         //check if logM is very small...
         try {
-          match.addAttribute("logMStdDev", (new Double(mo.getLogMStdDev())).toString());
+          match.logMStdDev = (new Double(mo.getLogMStdDev())).toString();
         } catch (java.lang.NumberFormatException nfe) {
-          match.addAttribute("logMStdDev", "<0.01");
+          match.logMStdDev = "<0.01";
         }
 
-        match.addAttribute("evaluation", mo.getEvaluation());
+        match.evaluation = mo.getEvaluation();
+        newEncounter.sex = mo.newSex;
 
-        Element enc = match.addElement("encounter");
-        enc.addAttribute("number", mo.encounterNumber);
-        enc.addAttribute("date", mo.date);
-        enc.addAttribute("sex", mo.catalogSex);
-        enc.addAttribute("assignedToShark", mo.getIndividualName());
-        enc.addAttribute("size", ((new Double(mo.size)).toString() + " meters"));
+        match.encounter.number = mo.encounterNumber;
+        match.encounter.date = mo.date;
+        match.encounter.sex = mo.catalogSex;
+        match.encounter.individualID = mo.getIndividualName();
+        match.encounter.size = (new Double(mo.size)).toString() + " meters";
+        match.spots = new double[mo.scores.size() * 2];
+        match.newSpots = new double[mo.scores.size() * 2];
         for (int k = 0; k < mo.scores.size(); k++) {
-          Element spot = enc.addElement("spot");
-          spot.addAttribute("x", (new Double(((VertexPointMatch) mo.scores.get(k)).oldX)).toString());
-          spot.addAttribute("y", (new Double(((VertexPointMatch) mo.scores.get(k)).oldY)).toString());
-        }
-        Element enc2 = match.addElement("encounter");
-        enc2.addAttribute("number", num);
-        enc2.addAttribute("date", newEncDate);
-        enc2.addAttribute("sex", mo.newSex);
-        enc2.addAttribute("assignedToShark", newEncShark);
-        enc2.addAttribute("size", (newEncSize + " meters"));
-        for (int j = 0; j < mo.scores.size(); j++) {
-          Element spot = enc2.addElement("spot");
-          spot.addAttribute("x", (new Double(((VertexPointMatch) mo.scores.get(j)).newX)).toString());
-          spot.addAttribute("y", (new Double(((VertexPointMatch) mo.scores.get(j)).newY)).toString());
+          VertexPointMatch vpm = (VertexPointMatch) mo.scores.get(k);
+          match.spots[2 * k] = vpm.oldX;
+          match.spots[2 * k + 1] = vpm.oldY;
+          match.newSpots[2 * k] = vpm.newX;
+          match.newSpots[2 * k + 1] = vpm.newY;
         }
-
-
+        saved.add(match);
       }
 
-      //prep for writing out the XML
-      
       //setup data dir
       String rootWebappPath = getServletContext().getRealPath("/");
       File webappsDir = new File(rootWebappPath).getParentFile();
       File shepherdDataDir = new File(webappsDir, CommonConfiguration.getDataDirectoryName(context));
-      //if(!shepherdDataDir.exists()){shepherdDataDir.mkdirs();}
-      //File encountersDir=new File(shepherdDataDir.getAbsolutePath()+"/encounters");
-      //if(!encountersDir.exists()){encountersDir.mkdirs();}
-
-      //in case this is a right-side scan, change file name to save to
-      String fileAddition = "";
-      if ((request.getParameter("rightSide") != null) && (request.getParameter("rightSide").equals("true"))) {
-        fileAddition = "Right";
-      }
-      //File file=new File((new File(".")).getCanonicalPath()+File.separator+"webapps"+File.separator+"ROOT"+File.separator+"encounters"+File.separator+num+File.separator+"lastFull"+fileAddition+"Scan.xml");
-      //File file = new File(encountersDir.getAbsoluteFile()+"/"+ num + "/lastFull" + fileAddition + "Scan.xml");
-      File file = new File(Encounter.dir(shepherdDataDir, num) + "/lastFull" + fileAddition + "Scan.xml");
-
 
-      FileWriter mywriter = new FileWriter(file);
-      org.dom4j.io.OutputFormat format = org.dom4j.io.OutputFormat.createPrettyPrint();
-      format.setLineSeparator(System.getProperty("line.separator"));
-      org.dom4j.io.XMLWriter writer = new org.dom4j.io.XMLWriter(mywriter, format);
-      writer.write(document);
-      writer.close();
+      boolean rightSide = ((request.getParameter("rightSide") != null) && (request.getParameter("rightSide").equals("true")));
+      String encDir = Encounter.dir(shepherdDataDir, num);
+      ScanResultStore.write(ScanResultStore.getFile(encDir, rightSide, false), false, rightSide, System.currentTimeMillis(), parameters, newEncounter, saved);
+      ScanResultStore.getXMLFile(encDir, rightSide, false).delete();
       System.out.println("Successful write.");
       return true;
     } catch (Exception e) {
-      System.out.println("Encountered an error trying to write back XML results!");
+      System.out.println("Encountered an error trying to write back scan results!");
       e.printStackTrace();
       return false;
     }
@@ -233,7 +209,7 @@ public class ScanResultsServlet extends HttpServlet {
       System.out.println("scanResultsServlet: Successfully received data and set cookie.");
 
       if ((request.getParameter("writeThis") != null) && (request.getParameter("writeThis").equals("true"))) {
-        writeXML(request, results, num, newEncDate, newEncShark, newEncSize);
+        writeResults(request, results, num, newEncDate, newEncShark, newEncSize);
       }
 
       //send response to applet
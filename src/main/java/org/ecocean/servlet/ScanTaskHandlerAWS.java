@@ -306,14 +306,18 @@ public class ScanTaskHandlerAWS extends HttpServlet {
 					  
 					  System.out.println("jdoql is: "+jdoql);
 
+						//run the comparisons in this JVM or hand them out to grid nodes
+						boolean local=LocalScanExecutor.isRequested(request, context);
+						System.out.println("executor is: "+(local ? LocalScanExecutor.LOCAL : LocalScanExecutor.GRID));
+
 						//kick off the building thread
 						ThreadPoolExecutor es=SharkGridThreadExecutorService.getExecutorService();
 						
 						//launch EC2 instances
-            es.execute(new EC2RequestThread());
+            if(!local){es.execute(new EC2RequestThread());}
 						
             //now build our jobs for the task
-						es.execute(new ScanWorkItemCreationThread(taskIdentifier, isRightScan, request.getParameter("encounterNumber"), writeThis,context, jdoql));
+						es.execute(new ScanWorkItemCreationThread(taskIdentifier, isRightScan, request.getParameter("encounterNumber"), writeThis,context, jdoql, local));
 
 						
 
@@ -24,6 +24,7 @@ import org.ecocean.Shepherd;
 import org.ecocean.grid.GridManager;
 import org.ecocean.grid.GridManagerFactory;
 import org.ecocean.grid.GridNode;
+import org.ecocean.grid.GridWireFormat;
 import org.ecocean.grid.ScanWorkItemResult;
 import org.ecocean.grid.ScanTask;
 
@@ -103,10 +104,17 @@ public class ScanWorkItemResultsHandler extends HttpServlet {
     try {
 
       // get an input stream and Vector of results from the applet
-      inputFromApplet = new ObjectInputStream(request.getInputStream());
       Vector returnedResults = new Vector();
-      returnedResults = (Vector) receiveObject(inputFromApplet);
-      inputFromApplet.close();
+      if (GridWireFormat.isRequested(request)) {
+        InputStream in = request.getInputStream();
+        returnedResults = GridWireFormat.readResults(in);
+        in.close();
+      }
+      else {
+        inputFromApplet = new ObjectInputStream(request.getInputStream());
+        returnedResults = (Vector) receiveObject(inputFromApplet);
+        inputFromApplet.close();
+      }
 
 
       //send response to applet
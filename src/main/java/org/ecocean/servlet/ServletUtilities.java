@@ -51,7 +51,6 @@ import java.text.StringCharacterIterator;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.sql.*;
 import java.util.Collection;
 import java.util.Map;
@@ -149,7 +148,6 @@ public class ServletUtilities {
       if(enc.getInterestedResearchers() != null){
         Collection<String> notifyMe = enc.getInterestedResearchers();
         if (!notifyMe.isEmpty()) {
-          ThreadPoolExecutor es = MailThreadExecutorService.getExecutorService();
           for (String mailTo : notifyMe) {
             Map<String, String> tagMap = NotificationMailer.createBasicTagMap(request, enc);
             tagMap.put(NotificationMailer.EMAIL_NOTRACK, "number=" + encounterNumber);
@@ -157,9 +155,8 @@ public class ServletUtilities {
             tagMap.put(NotificationMailer.STANDARD_CONTENT_TAG, message == null ? "" : message);
             //            String langCode = ServletUtilities.getLanguageCode(request);
             NotificationMailer mailer = new NotificationMailer(context, null, mailTo, "encounterDataUpdate", tagMap);
-            es.execute(mailer);
+            MailDispatcher.submit(context, mailer);
           }
-          es.shutdown();
         }
       }
     }
@@ -183,7 +180,6 @@ public class ServletUtilities {
       if (ind.getInterestedResearchers() != null) {
         Collection<String> notifyMe = ind.getInterestedResearchers();
         if (!notifyMe.isEmpty()) {
-          ThreadPoolExecutor es = MailThreadExecutorService.getExecutorService();
           for (String mailTo : notifyMe) {
             Map<String, String> tagMap = NotificationMailer.createBasicTagMap(request, ind);
             tagMap.put(NotificationMailer.EMAIL_NOTRACK, "individual=" + individualID);
@@ -191,9 +187,8 @@ public class ServletUtilities {
             tagMap.put(NotificationMailer.STANDARD_CONTENT_TAG, message == null ? "" : message);
             //            String langCode = ServletUtilities.getLanguageCode(request);
             NotificationMailer mailer = new NotificationMailer(context, null, mailTo, "individualDataUpdate", tagMap);
-            es.execute(mailer);
+            MailDispatcher.submit(context, mailer);
           }
-          es.shutdown();
         }
       }
     }
@@ -22,8 +22,11 @@ package org.ecocean.servlet;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.jdo.Query;
 import javax.servlet.ServletConfig;
@@ -35,6 +38,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.lang3.StringUtils;
 import org.ecocean.MarkedIndividual;
 import org.ecocean.Shepherd;
+import org.ecocean.SiteSearchIndex;
 import org.ecocean.User;
 import org.ecocean.CommonConfiguration;
 import org.slf4j.Logger;
@@ -47,6 +51,9 @@ import com.google.gson.Gson;
 public class SiteSearch extends HttpServlet {
     private static final long serialVersionUID = 1L;
     private final Logger logger = LoggerFactory.getLogger(SiteSearch.class);
+    private static final int DEFAULT_LIMIT = 30;
+    private static final int MAX_LIMIT = 200;
+    private static final Set<String> PUBLIC_TYPES = new HashSet<String>(Arrays.asList(SiteSearchIndex.TYPE_INDIVIDUAL, SiteSearchIndex.TYPE_ENCOUNTER));
 
     @Override
     public void init(final ServletConfig config) throws ServletException {
@@ -74,9 +81,68 @@ public class SiteSearch extends HttpServlet {
             return;
         }
 
+        ArrayList<HashMap<String, String>> list = new ArrayList<HashMap<String, String>>();
+
+        SiteSearchIndex index = SiteSearchIndex.get(context);
+        if (index.isReady()) {
+            //usernames only for admins
+            Set<String> types = request.isUserInRole("admin") ? null : PUBLIC_TYPES;
+            for (SiteSearchIndex.Entry e : index.search(term, getLimit(request), types)) {
+                HashMap<String, String> hm = new HashMap<String, String>();
+                hm.put("label", e.label);
+                hm.put("value", e.id);
+                hm.put("type", e.type);
+                if (e.species != null) hm.put("species", e.species);
+                list.add(hm);
+            }
+        } else {
+            //index still building (or failed), so the old way
+            queryIndividuals(context, term, list);
+        }
+
+        //query locationIDs
+        boolean moreLocationIDs=true;
+        int siteNum=0;
+        while(moreLocationIDs) {
+          String currentLocationID = "locationID"+siteNum;
+          
+          if (CommonConfiguration.getProperty(currentLocationID,context)!=null) {
+            HashMap<String, String> hm = new HashMap<String, String>();
+            String locID=CommonConfiguration.getProperty(currentLocationID,context);
+            if(locID.toLowerCase().indexOf(term.toLowerCase())!=-1){
+              hm.put("label", locID);            
+              hm.put("value", locID);
+              hm.put("type", "locationID");
+              list.add(hm);
+            }
+            siteNum++;
+          }
+          else{
+            moreLocationIDs=false;
+          }
+          
+        }
+        //end query locationIDs
+
+        //
+        // return our results
+        //
+        out.println(new Gson().toJson(list));
+    }
+
+
+    private static int getLimit(final HttpServletRequest request) {
+        try {
+            return Math.min(MAX_LIMIT, Math.max(1, Integer.parseInt(request.getParameter("limit"))));
+        } catch (Exception ex) {
+            return DEFAULT_LIMIT;
+        }
+    }
+
+    //matches anywhere in individual IDs, nicknames and alternate IDs; a full scan of MarkedIndividual per keystroke
+    private void queryIndividuals(final String context, final String term, final List<HashMap<String, String>> list) {
         String regex = ".*" + term.toLowerCase() + ".*";
 
-        ArrayList<HashMap<String, String>> list = new ArrayList<HashMap<String, String>>();
         String filter;
         
 
@@ -143,65 +209,5 @@ public class SiteSearch extends HttpServlet {
           myShepherd.rollbackDBTransaction();
           myShepherd.closeDBTransaction();
         }
-         
-
-        /*
-        //
-        // Query on Users
-        //
-        filter = "this.fullName.toLowerCase().matches('"
-                + regex
-                + "') || this.username.toLowerCase().matches('"
-                + regex + "')";
-
-        query = myShepherd.getPM().newQuery(User.class);
-        query.setFilter(filter);
-
-        @SuppressWarnings("unchecked")
-        List<User> users = (List<User>) query.execute();
-
-        for (User user : users) {
-            HashMap<String, String> hm = new HashMap<String, String>();
-            if (StringUtils.isBlank(user.getFullName())) {
-                hm.put("label", user.getUsername());
-            } else {
-                hm.put("label", user.getFullName() + " (" + user.getUsername() + ")");
-            }
-            hm.put("value", user.getUsername());
-            hm.put("type", "user");
-            list.add(hm);
-        }
-        
-        query.closeAll();
-        */
-        
-        //query locationIDs
-        boolean moreLocationIDs=true;
-        int siteNum=0;
-        while(moreLocationIDs) {
-          String currentLocationID = "locationID"+siteNum;
-          
-          if (CommonConfiguration.getProperty(currentLocationID,context)!=null) {
-            HashMap<String, String> hm = new HashMap<String, String>();
-            String locID=CommonConfiguration.getProperty(currentLocationID,context);
-            if(locID.toLowerCase().indexOf(term.toLowerCase())!=-1){
-              hm.put("label", locID);            
-              hm.put("value", locID);
-              hm.put("type", "locationID");
-              list.add(hm);
-            }
-            siteNum++;
-          }
-          else{
-            moreLocationIDs=false;
-          }
-          
-        }
-        //end query locationIDs
-
-        //
-        // return our results
-        //
-        out.println(new Gson().toJson(list));
     }
 }
\ No newline at end of file
@@ -15,7 +15,6 @@ import com.stripe.Stripe;
 import com.stripe.exception.StripeException;
 import com.stripe.model.Charge;
 import com.stripe.model.Customer;
-import java.util.concurrent.ThreadPoolExecutor;
 
 public class StripePayment extends HttpServlet {
 
@@ -134,10 +133,8 @@ public class StripePayment extends HttpServlet {
         String type = "oneTimeDonation";
         String message = "Thank you for you donation to Wild Me of $" + amount + " dollars. Wild Me is a 5013c nonprifit , and donations are tax deductable in the United States.";
         System.out.println("About to email one time donor...");
-        // Retrieve background service for processing emails
-        ThreadPoolExecutor es = MailThreadExecutorService.getExecutorService();
         NotificationMailer mailer = new NotificationMailer(emailContext, langCode, to, type, message);
-        es.execute(mailer);
+        MailDispatcher.submit(emailContext, mailer);
       }
       catch (Exception e) {
         System.out.println("Error in sending email confirmation of adoption.");
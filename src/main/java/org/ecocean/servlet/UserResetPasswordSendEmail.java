@@ -32,7 +32,6 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.Vector;
 
 import org.joda.time.LocalDateTime;
@@ -124,14 +123,12 @@ public class UserResetPasswordSendEmail extends HttpServlet {
           
           // Build the link and send email.
           final String npLink = String.format(request.getScheme()+"://%s/setNewPassword.jsp?username=%s&time=%s&OTP=%s", CommonConfiguration.getURLLocation(request), myUser.getUsername(), time, otpString);
-          ThreadPoolExecutor es = MailThreadExecutorService.getExecutorService();
           Map<String, String> tagMap = new HashMap<String, String>(){{
             put("@RESET_LINK@", npLink);
           }};
           String mailTo = myUser.getEmailAddress();
           NotificationMailer mailer = new NotificationMailer(context, null, mailTo, "passwordReset", tagMap);
-          es.execute(mailer);
-          es.shutdown();
+          MailDispatcher.submit(context, mailer);
           
           out.println("If a user with that username or email address was found, we just sent them an email. Please check your Inbox and follow the link in the email to reset your password. If you don't see an email, don't forget to check your spam folder. Thank you!");
           
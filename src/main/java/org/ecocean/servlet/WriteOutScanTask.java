@@ -39,6 +39,7 @@ import java.io.*;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Properties;
 import java.util.Vector;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -57,27 +58,41 @@ public class WriteOutScanTask extends HttpServlet {
 
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 
-    //set up a shepherd for DB transactions
-    
     String context="context0";
     context=ServletUtilities.getContext(request);
-    
+
+    String statusText = "failure";
+    if (writeOut(request.getParameter("number"), context)) {
+      statusText = "success";
+    }
+    response.setContentType("text/plain");
+    PrintWriter out = response.getWriter();
+    out.println(statusText);
+    out.close();
+  }
+
+  /**
+   * Marks a scanTask finished and writes out its results from the GridManager.
+   * doPost calls this for grid scans; LocalScanExecutor calls it directly when a local scan is done.
+   */
+  public boolean writeOut(String number, String context) {
+
+    //set up a shepherd for DB transactions
     Shepherd myShepherd = new Shepherd(context);
     myShepherd.setAction("WriteOutScanTask.class");
-    PrintWriter out = null;
     GridManager gm = GridManagerFactory.getGridManager();
 
     //if ((!request.getParameter("number").equals("TuningTask")) && (!request.getParameter("number").equals("FalseMatchTask"))) {
 
       double cutoff = 2;
-      String statusText = "success";
+      boolean success = false;
       System.out.println("writeOutScanTask: I am starting up.");
 
 
       myShepherd.beginDBTransaction();
       try {
 
-        ScanTask st2 = myShepherd.getScanTask(request.getParameter("number"));
+        ScanTask st2 = myShepherd.getScanTask(number);
         st2.setFinished(true);
         long time = System.currentTimeMillis();
         st2.setEndTime(time);
@@ -90,7 +105,7 @@ public class WriteOutScanTask extends HttpServlet {
         String taskID = st2.getUniqueNumber();
 
         //change
-        String encNumber = request.getParameter("number").substring(5);
+        String encNumber = number.substring(5);
 
         String newEncDate = "";
         String newEncShark = "";
@@ -103,9 +118,16 @@ public class WriteOutScanTask extends HttpServlet {
         }
         if(newEnc.getSizeAsDouble()!=null){newEncSize = newEnc.getSize() + " meters";}
 
-        MatchObject[] res = new MatchObject[0];
-
-        res = gm.getMatchObjectsForTask(taskID).toArray(res);
+        //the best matches were kept as the results came in; a task started without that (or from before a
+        //restart) has them picked out of all its results here
+        ScanResultStore.Collector collector = gm.getScanResults(taskID);
+        if (collector == null) {
+          collector = new ScanResultStore.Collector(ScanResultStore.getTopK(context));
+          for (MatchObject mo : gm.getMatchObjectsForTask(taskID)) {
+            collector.add(mo);
+          }
+        }
+        System.out.println("writeOutScanTask: saving the best of " + collector.getNumAdded() + " results for " + taskID);
 
 
         boolean righty = false;
@@ -114,9 +136,9 @@ public class WriteOutScanTask extends HttpServlet {
         }
         
 
-        boolean successfulWrite = writeResult(res, encNumber, CommonConfiguration.getR(context), CommonConfiguration.getEpsilon(context), CommonConfiguration.getSizelim(context), CommonConfiguration.getMaxTriangleRotation(context), CommonConfiguration.getC(context), newEncDate, newEncShark, newEncSize, righty, cutoff, myShepherd,context);
+        boolean successfulWrite = writeResult(collector.getGrothMatches(), encNumber, CommonConfiguration.getR(context), CommonConfiguration.getEpsilon(context), CommonConfiguration.getSizelim(context), CommonConfiguration.getMaxTriangleRotation(context), CommonConfiguration.getC(context), newEncDate, newEncShark, newEncSize, righty, cutoff, myShepherd,context);
 
-        boolean successfulI3SWrite = i3sWriteThis(myShepherd, res, encNumber, newEncDate, newEncShark, newEncSize, righty, 2.5,context);
+        boolean successfulI3SWrite = i3sWriteThis(myShepherd, collector.getI3SMatches(), encNumber, newEncDate, newEncShark, newEncSize, righty, 2.5,context);
 
         //write out the boosted results
         //if(request.getParameter("boost")!=null){
@@ -131,7 +153,7 @@ public class WriteOutScanTask extends HttpServlet {
 
         //let's cleanup after a successful commit
         ThreadPoolExecutor es = SharkGridThreadExecutorService.getExecutorService();
-        es.execute(new ScanTaskCleanupThread(request.getParameter("number")));
+        es.execute(new ScanTaskCleanupThread(number));
 
         //let's go see the written results
         //String sideAddition = "";
@@ -142,7 +164,7 @@ public class WriteOutScanTask extends HttpServlet {
         //response.sendRedirect(resultsURL);
         
        
-        statusText = "success";
+        success = true;
         
 
 
@@ -151,159 +173,90 @@ public class WriteOutScanTask extends HttpServlet {
         myShepherd.rollbackDBTransaction();
         System.out.println("scanResultsServlet registered the following error...");
         e.printStackTrace();
-        statusText = "failure";
       }
       finally{
         myShepherd.closeDBTransaction();
-        response.setContentType("text/plain");
-        out = response.getWriter();
-        out.println(statusText);
-        out.close();
       }
+      return success;
 
   }
 
+  /**
+   * Saves the Groth matches of a scan to its ScanResultStore (lastFull[Right]Scan.dat). swirs should be the best
+   * ones only; see ScanResultStore.Collector.
+   */
   public boolean writeResult(MatchObject[] swirs, String num, String R, String epsilon, String Sizelim, String maxTriangleRotation, String C, String newEncDate, String newEncShark, String newEncSize, boolean rightSide, double cutoff, Shepherd myShepherd, String context) {
 
 
     try {
-      //System.out.println("Prepping to write XML file for encounter "+num);
+      //System.out.println("Prepping to write scan results for encounter "+num);
 
-      //now setup the XML write for the encounter
-      int resultsSize = swirs.length;
       MatchObject[] matches = swirs;
-
       Arrays.sort(matches, new MatchComparator());
-      StringBuffer resultsXML = new StringBuffer();
-      Document document = DocumentHelper.createDocument();
-      Element root = document.addElement("matchSet");
-      root.addAttribute("scanDate", (new java.util.Date()).toString());
-      root.addAttribute("R", R);
-      root.addAttribute("epsilon", epsilon);
-      root.addAttribute("Sizelim", Sizelim);
-      root.addAttribute("maxTriangleRotation", maxTriangleRotation);
-      root.addAttribute("C", C);
+      LinkedHashMap<String, String> parameters = new LinkedHashMap<String, String>();
+      parameters.put("R", R);
+      parameters.put("epsilon", epsilon);
+      parameters.put("Sizelim", Sizelim);
+      parameters.put("maxTriangleRotation", maxTriangleRotation);
+      parameters.put("C", C);
+
+      Encounter secondEnc = myShepherd.getEncounter(num);
+      ScanResultStore.EncounterInfo newEncounter = encounterInfo(secondEnc);
+      if (newEncounter.size == null) {
+        newEncounter.size = "unknown";
+      }
+
+      ArrayList<ScanResultStore.Match> saved = new ArrayList<ScanResultStore.Match>();
       int numMatches=matches.length;
       for (int i = 0; i < numMatches; i++) {
         try{
           MatchObject mo = matches[i];
-          if ((mo.getMatchValue() > 0) && ((mo.getMatchValue() * mo.getAdjustedMatchValue()) > 2)) {
+          if (ScanResultStore.isGrothMatch(mo)) {
   
-            Element match = root.addElement("match");
-            match.addAttribute("points", (new Double(mo.getMatchValue())).toString());
-            match.addAttribute("adjustedpoints", (new Double(mo.getAdjustedMatchValue())).toString());
-            match.addAttribute("pointBreakdown", mo.getPointBreakdown());
-            String finalscore = (new Double(mo.getMatchValue() * mo.getAdjustedMatchValue())).toString();
-            if (finalscore.length() > 7) {
-              finalscore = finalscore.substring(0, 6);
-            }
-            match.addAttribute("finalscore", finalscore);
+            ScanResultStore.Match match = new ScanResultStore.Match();
+            match.score = mo.getMatchValue() * mo.getAdjustedMatchValue();
+            match.points = mo.getMatchValue();
+            match.adjustedPoints = mo.getAdjustedMatchValue();
+            match.pointBreakdown = mo.getPointBreakdown();
   
             //check if logM is very small...
             try {
-              match.addAttribute("logMStdDev", (new Double(mo.getLogMStdDev())).toString());
+              match.logMStdDev = (new Double(mo.getLogMStdDev())).toString();
             } catch (java.lang.NumberFormatException nfe) {
-              match.addAttribute("logMStdDev", "<0.01");
+              match.logMStdDev = "<0.01";
             }
-            match.addAttribute("evaluation", mo.getEvaluation());
+            match.evaluation = mo.getEvaluation();
   
-            Encounter firstEnc = myShepherd.getEncounter(mo.getEncounterNumber());
-            Element enc = match.addElement("encounter");
-            enc.addAttribute("number", firstEnc.getEncounterNumber());
-            enc.addAttribute("date", firstEnc.getDate());
-            
-            if(firstEnc.getSex()!=null){ enc.addAttribute("sex", firstEnc.getSex());}
-            else{ enc.addAttribute("sex", "unknown");}
-           
-            
-            enc.addAttribute("assignedToShark", ServletUtilities.handleNullString(firstEnc.getIndividualID()));
-            if(firstEnc.getSizeAsDouble()!=null){enc.addAttribute("size", (firstEnc.getSize() + " meters"));}
-            enc.addAttribute("location", firstEnc.getLocation());
-            enc.addAttribute("locationID", firstEnc.getLocationID());
-            VertexPointMatch[] firstScores = mo.getScores();
+            match.encounter = encounterInfo(myShepherd.getEncounter(mo.getEncounterNumber()));
             try {
+              VertexPointMatch[] firstScores = mo.getScores();
+              match.spots = new double[firstScores.length * 2];
+              match.newSpots = new double[firstScores.length * 2];
               for (int k = 0; k < firstScores.length; k++) {
-                Element spot = enc.addElement("spot");
-                spot.addAttribute("x", (new Double(firstScores[k].getOldX())).toString());
-                spot.addAttribute("y", (new Double(firstScores[k].getOldY())).toString());
-              }
-            } catch (NullPointerException npe) {
-            }
-            Element enc2 = match.addElement("encounter");
-            Encounter secondEnc = myShepherd.getEncounter(num);
-            enc2.addAttribute("number", num);
-            enc2.addAttribute("date", secondEnc.getDate());
-            
-            
-            //enc2.addAttribute("sex", secondEnc.getSex());
-            if(secondEnc.getSex()!=null){ enc2.addAttribute("sex", secondEnc.getSex());}
-            else{ enc2.addAttribute("sex", "unknown");}
-           
-            
-            enc2.addAttribute("assignedToShark", ServletUtilities.handleNullString(secondEnc.getIndividualID()));
-            if(secondEnc.getSizeAsDouble()!=null){enc2.addAttribute("size", (secondEnc.getSize() + " meters"));}
-            else{enc2.addAttribute("size", "unknown");}
-            enc2.addAttribute("location", secondEnc.getLocation());
-            enc2.addAttribute("locationID", secondEnc.getLocationID());
-            try {
-              for (int j = 0; j < firstScores.length; j++) {
-                Element spot = enc2.addElement("spot");
-                spot.addAttribute("x", (new Double(firstScores[j].getNewX())).toString());
-                spot.addAttribute("y", (new Double(firstScores[j].getNewY())).toString());
+                match.spots[2 * k] = firstScores[k].getOldX();
+                match.spots[2 * k + 1] = firstScores[k].getOldY();
+                match.newSpots[2 * k] = firstScores[k].getNewX();
+                match.newSpots[2 * k + 1] = firstScores[k].getNewY();
               }
             } catch (NullPointerException npe) {
             }
   
             //let's find the keywords in common
             List<String> keywords = myShepherd.getKeywordsInCommon(mo.getEncounterNumber(), num);
-            int keywordsSize = keywords.size();
-            if (keywordsSize > 0) {
-              Element kws = match.addElement("keywords");
-              for (int y = 0; y < keywordsSize; y++) {
-                Element keyword = kws.addElement("keyword");
-                keyword.addAttribute("name", ((String) keywords.get(y)));
-              }
-            }
-  
+            match.keywords = keywords.toArray(new String[keywords.size()]);
+            saved.add(match);
   
           } //end if
         }
         catch(Exception finale){finale.printStackTrace();}
       } //end for
 
-      //prep for writing out the XML
+      File file = ScanResultStore.getFile(getEncounterDir(num, context), rightSide, false);
+      System.out.println("Writing scan results to: "+file.getAbsolutePath());
+      ScanResultStore.write(file, false, rightSide, System.currentTimeMillis(), parameters, newEncounter, saved);
 
-      //in case this is a right-side scan, change file name to save to
-      String fileAddition = "";
-      if (rightSide) {
-        fileAddition = "Right";
-      }
-      
-      //setup data dir
-      String rootWebappPath = getServletContext().getRealPath("/");
-      File webappsDir = new File(rootWebappPath).getParentFile();
-      File shepherdDataDir = new File(webappsDir, CommonConfiguration.getDataDirectoryName(context));
-      //if(!shepherdDataDir.exists()){shepherdDataDir.mkdirs();}
-      File encountersDir=new File(shepherdDataDir.getAbsolutePath()+"/encounters");
-      //if(!encountersDir.exists()){encountersDir.mkdirs();}
-      String thisEncDirString=Encounter.dir(shepherdDataDir,num);
-      File thisEncounterDir=new File(thisEncDirString);
-      if(!thisEncounterDir.exists()){thisEncounterDir.mkdirs();System.out.println("I am making the encDir: "+thisEncDirString);}
-      
-      
-      //File file=new File((new File(".")).getCanonicalPath()+File.separator+"webapps"+File.separator+"ROOT"+File.separator+"encounters"+File.separator+num+File.separator+"lastFull"+fileAddition+"Scan.xml");
-      File file = new File(Encounter.dir(shepherdDataDir, num) + "/lastFull" + fileAddition + "Scan.xml");
-      
-      
-      System.out.println("Writing scanTask XML file to: "+file.getAbsolutePath());
-      
-      
-      FileWriter mywriter = new FileWriter(file);
-      org.dom4j.io.OutputFormat format = org.dom4j.io.OutputFormat.createPrettyPrint();
-      format.setLineSeparator(System.getProperty("line.separator"));
-      org.dom4j.io.XMLWriter writer = new org.dom4j.io.XMLWriter(mywriter, format);
-      writer.write(document);
-      writer.close();
+      //XML from an older scan would only be out of date now
+      ScanResultStore.getXMLFile(getEncounterDir(num, context), rightSide, false).delete();
       System.out.println("Successful write.");
       return true;
     } catch (Exception e) {
@@ -312,88 +265,54 @@ public class WriteOutScanTask extends HttpServlet {
     }
   } //end writeResult method
 
+  /**
+   * Saves the I3S matches of a scan to its ScanResultStore (lastFull[Right]I3SScan.dat).
+   */
   public boolean i3sWriteThis(Shepherd myShepherd, MatchObject[] matches, String num, String newEncDate, String newEncShark, String newEncSize, boolean rightSide, double cutoff, String context) {
     try {
 
-      System.out.println("scanWorkItemResultsHandler: Prepping to write I3S XML file for encounter " + num);
-
-      //now setup the XML write for the encounter
-      //int resultsSize=results.size();
+      System.out.println("scanWorkItemResultsHandler: Prepping to write I3S results for encounter " + num);
 
       Arrays.sort(matches, new NewI3SMatchComparator());
-      StringBuffer resultsXML = new StringBuffer();
-      Document document = DocumentHelper.createDocument();
-      Element root = document.addElement("matchSet");
-      root.addAttribute("scanDate", (new java.util.Date()).toString());
-      //System.out.println("Total num matches for I3S printing: "+matches.length);
+      Encounter e2 = myShepherd.getEncounter(num);
+      ArrayList<SuperSpot> newSpts = rightSide ? e2.getRightSpots() : e2.getSpots();
+      ScanResultStore.EncounterInfo newEncounter = new ScanResultStore.EncounterInfo();
+      newEncounter.number = num;
+      newEncounter.date = newEncDate;
+      newEncounter.individualID = newEncShark;
+      newEncounter.size = newEncSize;
+
+      ArrayList<ScanResultStore.Match> saved = new ArrayList<ScanResultStore.Match>();
       for (int i = 0; i < matches.length; i++) {
         try {
-          //System.out.println();
           MatchObject mo = matches[i];
-          //System.out.println("I3S match value: "+mo.getI3SMatchValue());
-          if ((mo.getI3SMatchValue() > 0.001) && (mo.getI3SMatchValue() <= 2.0)) {
-            Element match = root.addElement("match");
-            String finalscore = (new Double(mo.getI3SMatchValue())).toString();
-            if (finalscore.length() > 7) {
-              finalscore = finalscore.substring(0, 6);
-            }
-            match.addAttribute("finalscore", finalscore);
-            match.addAttribute("evaluation", mo.getEvaluation());
-
-            Element enc = match.addElement("encounter");
-            enc.addAttribute("number", mo.getEncounterNumber());
-            enc.addAttribute("date", mo.getDate());
-            
-            if(mo.getSex()!=null){enc.addAttribute("sex", mo.getSex());}
-            else{enc.addAttribute("sex", "unknown");}
-            
-            
-            
-            enc.addAttribute("assignedToShark", mo.getIndividualName());
-            enc.addAttribute("size", (new Double(mo.getSize())).toString());
-
-            //get the Map
+          if (ScanResultStore.isI3SMatch(mo)) {
+            ScanResultStore.Match match = new ScanResultStore.Match();
+            match.score = mo.getI3SMatchValue();
+            match.evaluation = mo.getEvaluation();
+            newEncounter.sex = mo.getNewSex();
+
+            match.encounter.number = mo.getEncounterNumber();
+            match.encounter.date = mo.getDate();
+            match.encounter.sex = (mo.getSex() != null) ? mo.getSex() : "unknown";
+            match.encounter.individualID = mo.getIndividualName();
+            match.encounter.size = (new Double(mo.getSize())).toString();
+
+            //the spots of the pairs in the Map, on each encounter
             Vector map = mo.getMap2();
             int mapSize = map.size();
             Encounter e1 = myShepherd.getEncounter(mo.getEncounterNumber());
+            ArrayList<SuperSpot> spts = rightSide ? e1.getRightSpots() : e1.getSpots();
+            match.spots = new double[mapSize * 2];
+            match.newSpots = new double[mapSize * 2];
             for (int f = 0; f < mapSize; f++) {
               Pair tempPair = (com.reijns.I3S.Pair) map.get(f);
-              int M1 = tempPair.getM1();
-              ArrayList<SuperSpot> spts = new ArrayList<SuperSpot>();
-              if (rightSide) {
-                spts = e1.getRightSpots();
-              } else {
-                spts = e1.getSpots();
-              }
-              //System.out.println("scanWorkItemResultsHandler: I3S spots: "+spts.size()+" vs mapSize: "+mapSize);
-              Element spot = enc.addElement("spot");
-              spot.addAttribute("x", (new Double(spts.get(M1).getTheSpot().getCentroidX())).toString());
-              spot.addAttribute("y", (new Double(spts.get(M1).getTheSpot().getCentroidY())).toString());
-            }
-
-            Element enc2 = match.addElement("encounter");
-            enc2.addAttribute("number", num);
-            enc2.addAttribute("date", newEncDate);
-            enc2.addAttribute("sex", mo.getNewSex());
-            enc2.addAttribute("assignedToShark", newEncShark);
-            enc2.addAttribute("size", newEncSize);
-
-            //reset the Iterator
-            Encounter e2 = myShepherd.getEncounter(num);
-            for (int g = 0; g < mapSize; g++) {
-              Pair tempPair = (com.reijns.I3S.Pair) map.get(g);
-              int M2 = tempPair.getM2();
-              ArrayList<SuperSpot> spts = new ArrayList<SuperSpot>();
-              if (rightSide) {
-                spts = e2.getRightSpots();
-              } else {
-                spts = e2.getSpots();
-              }
-              Element spot = enc2.addElement("spot");
-              //System.out.println("scanWorkItemResultsHandler: I3S next spots: "+spts.size()+" vs mapSize: "+mapSize);
-              spot.addAttribute("x", (new Double(spts.get(M2).getTheSpot().getCentroidX())).toString());
-              spot.addAttribute("y", (new Double(spts.get(M2).getTheSpot().getCentroidY())).toString());
+              match.spots[2 * f] = spts.get(tempPair.getM1()).getTheSpot().getCentroidX();
+              match.spots[2 * f + 1] = spts.get(tempPair.getM1()).getTheSpot().getCentroidY();
+              match.newSpots[2 * f] = newSpts.get(tempPair.getM2()).getTheSpot().getCentroidX();
+              match.newSpots[2 * f + 1] = newSpts.get(tempPair.getM2()).getTheSpot().getCentroidY();
             }
+            saved.add(match);
 
           }
         } catch (NullPointerException npe) {
@@ -401,33 +320,9 @@ public class WriteOutScanTask extends HttpServlet {
         }
       }
 
-
-      //prep for writing out the XML
-
-      //in case this is a right-side scan, change file name to save to
-      String fileAddition = "";
-      if (rightSide) {
-        fileAddition = "Right";
-      }
-      
-      //setup data dir
-      String rootWebappPath = getServletContext().getRealPath("/");
-      File webappsDir = new File(rootWebappPath).getParentFile();
-      File shepherdDataDir = new File(webappsDir, CommonConfiguration.getDataDirectoryName(context));
-      //if(!shepherdDataDir.exists()){shepherdDataDir.mkdirs();}
-      File encountersDir=new File(shepherdDataDir.getAbsolutePath()+"/encounters");
-      //if(!encountersDir.exists()){encountersDir.mkdirs();}
-      
-      //File file=new File((new File(".")).getCanonicalPath()+File.separator+"webapps"+File.separator+"ROOT"+File.separator+"encounters"+File.separator+num+File.separator+"lastFull"+fileAddition+"I3SScan.xml");
-      File file = new File(Encounter.dir(shepherdDataDir, num) + "/lastFull" + fileAddition + "I3SScan.xml");
-
-
-      FileWriter mywriter = new FileWriter(file);
-      org.dom4j.io.OutputFormat format = org.dom4j.io.OutputFormat.createPrettyPrint();
-      format.setLineSeparator(System.getProperty("line.separator"));
-      org.dom4j.io.XMLWriter writer = new org.dom4j.io.XMLWriter(mywriter, format);
-      writer.write(document);
-      writer.close();
+      File file = ScanResultStore.getFile(getEncounterDir(num, context), rightSide, true);
+      ScanResultStore.write(file, true, rightSide, System.currentTimeMillis(), new LinkedHashMap<String, String>(), newEncounter, saved);
+      ScanResultStore.getXMLFile(getEncounterDir(num, context), rightSide, true).delete();
       System.out.println("writeOutScanTask: Successful I3S write.");
       return true;
     } catch (Exception e) {
@@ -438,6 +333,32 @@ public class WriteOutScanTask extends HttpServlet {
 
   }
 
+  private String getEncounterDir(String num, String context) {
+    //setup data dir
+    String rootWebappPath = getServletContext().getRealPath("/");
+    File webappsDir = new File(rootWebappPath).getParentFile();
+    File shepherdDataDir = new File(webappsDir, CommonConfiguration.getDataDirectoryName(context));
+    String thisEncDirString=Encounter.dir(shepherdDataDir,num);
+    File thisEncounterDir=new File(thisEncDirString);
+    if(!thisEncounterDir.exists()){thisEncounterDir.mkdirs();System.out.println("I am making the encDir: "+thisEncDirString);}
+    return thisEncDirString;
+  }
+
+  //what the results pages show about an encounter
+  static ScanResultStore.EncounterInfo encounterInfo(Encounter enc) {
+    ScanResultStore.EncounterInfo info = new ScanResultStore.EncounterInfo();
+    info.number = enc.getEncounterNumber();
+    info.date = enc.getDate();
+    info.sex = (enc.getSex() != null) ? enc.getSex() : "unknown";
+    info.individualID = ServletUtilities.handleNullString(enc.getIndividualID());
+    if (enc.getSizeAsDouble() != null) {
+      info.size = enc.getSize() + " meters";
+    }
+    info.location = enc.getLocation();
+    info.locationID = enc.getLocationID();
+    return info;
+  }
+
   public void finalize(WritableWorkbook workbook) {
     try {
       workbook.write();
@@ -7,6 +7,7 @@ import java.util.*;
 
 import org.ecocean.*;
 import org.ecocean.genetics.*;
+import org.ecocean.security.Collaboration;
 import org.ecocean.servlet.ServletUtilities;
 
 import javax.jdo.*;
@@ -44,7 +45,6 @@ public class EncounterSearchExportExcelFile extends HttpServlet{
     
 
     
-    Vector rEncounters = new Vector();
     int numResults = 0;
  
     
@@ -74,21 +74,8 @@ public class EncounterSearchExportExcelFile extends HttpServlet{
       try{
       
       
-        EncounterQueryResult queryResult = EncounterQueryProcessor.processQuery(myShepherd, request, "year descending, month descending, day descending");
-        rEncounters = queryResult.getResult();
-
-				Vector blocked = Encounter.blocked(rEncounters, request);
-				if (blocked.size() > 0) {
-					response.setContentType("text/html");
-					PrintWriter out = response.getWriter();
-					out.println(ServletUtilities.getHeader(request));  
-					out.println("<html><body><p><strong>Access denied.</strong></p>");
-					out.println(ServletUtilities.getFooter(context));
-					out.close();
-					return;
-				}
-      
-        int numMatchingEncounters=rEncounters.size();
+        //read a page of encounters at a time rather than the whole result
+        EncounterQueryStream queryResult = EncounterQueryProcessor.processQueryStreaming(myShepherd, request, "year descending, month descending, day descending", EncounterQueryStream.DEFAULT_PAGE_SIZE);
       
        //business logic start here
         
@@ -175,8 +162,23 @@ public class EncounterSearchExportExcelFile extends HttpServlet{
         // Excel export =========================================================
         int count = 0;
 
-         for(int i=0;i<numMatchingEncounters;i++){
-            Encounter enc=(Encounter)rEncounters.get(i);
+         for(Encounter enc : queryResult){
+            //the whole export is refused if any of it is blocked
+            if (!Collaboration.canUserAccessEncounter(enc, request)) {
+              queryResult.close();
+              workbookOBIS.close();
+              outp.close();
+              excelFile.delete();
+              myShepherd.rollbackDBTransaction();
+              myShepherd.closeDBTransaction();
+              response.setContentType("text/html");
+              PrintWriter out = response.getWriter();
+              out.println(ServletUtilities.getHeader(request));  
+              out.println("<html><body><p><strong>Access denied.</strong></p>");
+              out.println(ServletUtilities.getFooter(context));
+              out.close();
+              return;
+            }
             count++;
             numResults++;
             
@@ -312,6 +314,7 @@ public class EncounterSearchExportExcelFile extends HttpServlet{
             }
 
          } //end for loop iterating encounters   
+         queryResult.close();
          
          workbookOBIS.write();
          workbookOBIS.close();
@@ -0,0 +1,183 @@
+package org.ecocean.servlet.importer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/*
+  progress and per-row problems of one StandardImport run, saved next to the spreadsheet (foo.xlsx.progress.json,
+  or in java.io.tmpdir if that dir is not writable) after every committed batch.  resuming skips every row up to
+  lastCommittedRow except those in failedRows (rows that did not parse, and batches that did not commit), which are
+  run again; it refuses if the spreadsheet has changed since, as the row numbers would no longer mean the same rows.
+*/
+public class ImportProgress {
+  public static final int MAX_ISSUES = 2000;  // kept for the report; all are counted
+
+  private final File file;
+  private final File source;
+  private int lastCommittedRow = 0;  // sheet row (0 is the header)
+  private int resumedAfter = 0;
+  private int rowsParsed = 0;
+  private int rowsImported = 0;
+  private int rowsFailed = 0;
+  private int batches = 0;
+  private int batchesFailed = 0;
+  private int assets = 0;
+  private int children = 0;
+  private long issueCount = 0;
+  private final List<JSONObject> issues = new ArrayList<JSONObject>();
+  private final List<int[]> failedRows = new ArrayList<int[]>();  // {first, last} sheet rows, failed in this run
+  private final List<int[]> retry = new ArrayList<int[]>();  // failed in an earlier run, to be run again
+  private final List<int[]> retryPending = new ArrayList<int[]>();  // ... and not yet committed this time
+  private final long startedAt = System.currentTimeMillis();
+  private boolean dryRun;
+
+  private ImportProgress(File source, File file, boolean dryRun) {
+    this.source = source;
+    this.file = file;
+    this.dryRun = dryRun;
+  }
+
+  public static ImportProgress start(File source, boolean dryRun, boolean resume) throws IOException {
+    File file = new File(source.getPath() + ".progress.json");
+    File dir = source.getAbsoluteFile().getParentFile();
+    if ((dir == null) || !dir.canWrite()) file = new File(System.getProperty("java.io.tmpdir"), source.getName() + ".progress.json");
+    ImportProgress p = new ImportProgress(source, file, dryRun);
+    if (!resume || !file.exists() || dryRun) return p;
+
+    JSONObject saved = new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    if ((saved.optLong("sourceLength", -1) != source.length()) || (saved.optLong("sourceModified", -1) != source.lastModified())) {
+      throw new IOException("cannot resume: " + source + " has changed since " + file + " was saved");
+    }
+    p.lastCommittedRow = saved.optInt("lastCommittedRow", 0);
+    p.resumedAfter = p.lastCommittedRow;
+    JSONArray failed = saved.optJSONArray("failedRows");
+    if (failed!=null) for (int i = 0; i < failed.length(); i++) {
+      JSONArray r = failed.getJSONArray(i);
+      p.retry.add(new int[]{r.getInt(0), r.getInt(1)});
+    }
+    p.retryPending.addAll(p.retry);
+    return p;
+  }
+
+  // rows up to here were committed by an earlier run, except the isRetry() ones
+  public int getResumeAfter() {
+    return resumedAfter;
+  }
+  public boolean isRetry(int row) {
+    for (int[] r: retry) {
+      if ((row>=r[0]) && (row<=r[1])) return true;
+    }
+    return false;
+  }
+
+  public void issue(int row, String stage, String level, String message) {
+    issueCount++;
+    if (issues.size() >= MAX_ISSUES) return;
+    JSONObject j = new JSONObject();
+    j.put("row", row + 1);  // as excel numbers them
+    j.put("stage", stage);
+    j.put("level", level);
+    j.put("message", message);
+    issues.add(j);
+  }
+
+  public void parsed() {
+    rowsParsed++;
+  }
+  public void failed(int row, String stage, Exception ex) {
+    rowsFailed++;
+    failedRows.add(new int[]{row, row});
+    issue(row, stage, "error", ex.toString());
+  }
+  public void assets(int n) {
+    assets += n;
+  }
+  public void children(int n) {
+    children += n;
+  }
+
+  public void committed(int lastRow, int rows) throws IOException {
+    batches++;
+    rowsImported += rows;
+    lastCommittedRow = Math.max(lastCommittedRow, lastRow);  // retried rows come before it
+    donePending(lastRow);
+    save();
+  }
+
+  public void batchFailed(int firstRow, int lastRow, int rows) throws IOException {
+    batchesFailed++;
+    rowsFailed += rows;
+    failedRows.add(new int[]{firstRow, lastRow});
+    donePending(lastRow);  // failed again, so now in failedRows
+    issue(firstRow, "persist", "error", "commit failed for rows " + (firstRow + 1) + "-" + (lastRow + 1) + "; rolled back (resume to retry; batchSize=1 finds the bad row)");
+    save();
+  }
+
+  // rows come in order, so earlier runs' failures up to lastRow have now been run again
+  private void donePending(int lastRow) {
+    for (Iterator<int[]> it = retryPending.iterator(); it.hasNext(); ) {
+      if (it.next()[1]<=lastRow) it.remove();
+    }
+  }
+
+  public List<JSONObject> getIssues() {
+    return issues;
+  }
+  public long getIssueCount() {
+    return issueCount;
+  }
+  public File getFile() {
+    return file;
+  }
+
+  public JSONObject toJSONObject() {
+    JSONObject j = new JSONObject();
+    j.put("source", source.getAbsolutePath());
+    j.put("sourceLength", source.length());
+    j.put("sourceModified", source.lastModified());
+    j.put("dryRun", dryRun);
+    j.put("lastCommittedRow", lastCommittedRow);
+    j.put("resumedAfter", resumedAfter);
+    JSONArray failed = new JSONArray();
+    for (int[] r: retryPending) failed.put(new JSONArray().put(r[0]).put(r[1]));
+    for (int[] r: failedRows) failed.put(new JSONArray().put(r[0]).put(r[1]));
+    j.put("failedRows", failed);
+    j.put("rowsParsed", rowsParsed);
+    j.put("rowsImported", rowsImported);
+    j.put("rowsFailed", rowsFailed);
+    j.put("batches", batches);
+    j.put("batchesFailed", batchesFailed);
+    j.put("assets", assets);
+    j.put("children", children);
+    j.put("issueCount", issueCount);
+    j.put("issues", new JSONArray(issues));
+    j.put("startedAt", startedAt);
+    j.put("updatedAt", System.currentTimeMillis());
+    return j;
+  }
+
+  // written aside then moved, so a crash mid-write cannot lose the last good checkpoint
+  public void save() throws IOException {
+    if (dryRun) return;
+    File tmp = new File(file.getPath() + ".tmp");
+    Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
+    try {
+      w.write(toJSONObject().toString(1));
+    } finally {
+      w.close();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+}
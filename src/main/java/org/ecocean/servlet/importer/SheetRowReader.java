@@ -0,0 +1,219 @@
+package org.ecocean.servlet.importer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/*
+  reads the rows of the first sheet of a spreadsheet one at a time.  .xlsx is streamed with SAX straight out of
+  the zip (only the shared strings table is held), rather than building the whole workbook with WorkbookFactory;
+  .xls has no practical streaming reader so it still loads the workbook (it tops out at 65536 rows anyway).
+
+  each row comes out as a SheetRow: plain values by column (Double for numbers and dates, String, Boolean, or
+  null), so it can be handed between threads; see SheetRow.fill() for turning it back into a poi Row.
+*/
+public class SheetRowReader {
+
+  public interface RowHandler {
+    // throw SheetRowReader.Stop to end early
+    public void row(SheetRow row) throws Exception;
+  }
+
+  public static class Stop extends RuntimeException {
+    public Stop() {
+      super("stopped");
+    }
+  }
+
+  public static class SheetRow {
+    public final int rowNum;  // 0-based, as poi
+    public final Object[] cells;
+
+    public SheetRow(int rowNum, Object[] cells) {
+      this.rowNum = rowNum;
+      this.cells = cells;
+    }
+
+    public Object get(int i) {
+      return ((i < 0) || (i >= cells.length)) ? null : cells[i];
+    }
+
+    public String getString(int i) {
+      Object val = get(i);
+      if (!(val instanceof String) || ((String)val).equals("")) return null;
+      return (String)val;
+    }
+
+    // replaces the contents of (scratch) row with this row's values, with the same cell types the workbook had
+    public Row fill(Row row) {
+      for (int c = row.getLastCellNum() - 1; c >= 0; c--) {
+        Cell cell = row.getCell(c);
+        if (cell != null) row.removeCell(cell);
+      }
+      for (int c = 0; c < cells.length; c++) {
+        Object val = cells[c];
+        if (val == null) continue;
+        Cell cell = row.createCell(c);
+        if (val instanceof Double) cell.setCellValue((Double)val);
+        else if (val instanceof Boolean) cell.setCellValue((Boolean)val);
+        else cell.setCellValue(val.toString());
+      }
+      return row;
+    }
+  }
+
+
+  public static void read(File file, RowHandler handler) throws Exception {
+    try {
+      if (file.getName().toLowerCase().endsWith(".xls")) {
+        readWorkbook(file, handler);
+      } else {
+        readXlsx(file, handler);
+      }
+    } catch (Stop stop) {}
+  }
+
+  private static void readXlsx(File file, final RowHandler handler) throws Exception {
+    OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ);
+    try {
+      final ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+      XSSFReader xreader = new XSSFReader(pkg);
+      InputStream sheet = xreader.getSheetsData().next();  // first sheet
+      try {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(false);
+        XMLReader parser = factory.newSAXParser().getXMLReader();
+        parser.setContentHandler(new SheetHandler(strings, handler));
+        parser.parse(new InputSource(sheet));
+      } finally {
+        sheet.close();
+      }
+    } finally {
+      pkg.revert();  // read-only: close without saving
+    }
+  }
+
+  private static void readWorkbook(File file, RowHandler handler) throws Exception {
+    Workbook wb = WorkbookFactory.create(file);
+    Sheet sheet = wb.getSheetAt(0);
+    for (Row row : sheet) {
+      Object[] cells = new Object[Math.max(0, row.getLastCellNum())];
+      for (Cell cell : row) {
+        int type = cell.getCellType();
+        if (type == Cell.CELL_TYPE_FORMULA) type = cell.getCachedFormulaResultType();
+        switch (type) {
+          case Cell.CELL_TYPE_NUMERIC: cells[cell.getColumnIndex()] = cell.getNumericCellValue(); break;
+          case Cell.CELL_TYPE_STRING: cells[cell.getColumnIndex()] = cell.getStringCellValue(); break;
+          case Cell.CELL_TYPE_BOOLEAN: cells[cell.getColumnIndex()] = cell.getBooleanCellValue(); break;
+          default: break;
+        }
+      }
+      handler.row(new SheetRow(row.getRowNum(), cells));
+    }
+  }
+
+
+  // sheet xml: <row r="2"><c r="B2" t="s"><v>3</v></c>...; t is s(hared string), inlineStr, str (formula), b, e, or absent (number)
+  private static class SheetHandler extends DefaultHandler {
+    private final ReadOnlySharedStringsTable strings;
+    private final RowHandler handler;
+    private final StringBuilder text = new StringBuilder();
+    private List<Object> cells;
+    private int rowNum = -1;
+    private int col;
+    private String type;
+    private boolean inValue;
+
+    SheetHandler(ReadOnlySharedStringsTable strings, RowHandler handler) {
+      this.strings = strings;
+      this.handler = handler;
+    }
+
+    public void startElement(String uri, String localName, String name, Attributes attr) {
+      if (name.equals("row")) {
+        String r = attr.getValue("r");
+        rowNum = (r == null) ? rowNum + 1 : Integer.parseInt(r) - 1;
+        cells = new ArrayList<Object>();
+        col = -1;
+      } else if (name.equals("c")) {
+        String r = attr.getValue("r");
+        col = (r == null) ? col + 1 : columnIndex(r);
+        type = attr.getValue("t");
+        text.setLength(0);
+      } else if (name.equals("v") || (name.equals("t") && "inlineStr".equals(type))) {
+        inValue = true;
+      }
+    }
+
+    public void characters(char[] ch, int start, int length) {
+      if (inValue) text.append(ch, start, length);
+    }
+
+    public void endElement(String uri, String localName, String name) {
+      if (name.equals("v") || name.equals("t")) {
+        inValue = false;
+      } else if (name.equals("c")) {
+        Object val = value();
+        if (val != null) {
+          while (cells.size() <= col) cells.add(null);
+          cells.set(col, val);
+        }
+      } else if (name.equals("row")) {
+        try {
+          handler.row(new SheetRow(rowNum, cells.toArray()));
+        } catch (RuntimeException ex) {
+          throw ex;
+        } catch (Exception ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+    }
+
+    private Object value() {
+      String s = text.toString();
+      if ("s".equals(type)) {
+        try {
+          return strings.getEntryAt(Integer.parseInt(s.trim()));
+        } catch (NumberFormatException ex) {
+          return null;
+        }
+      }
+      if ("inlineStr".equals(type) || "str".equals(type)) return s;
+      if ("b".equals(type)) return Boolean.valueOf("1".equals(s.trim()));
+      if ("e".equals(type) || s.trim().equals("")) return null;
+      try {
+        return Double.valueOf(s.trim());
+      } catch (NumberFormatException ex) {
+        return s;
+      }
+    }
+  }
+
+  // "AB12" -> 27
+  static int columnIndex(String ref) {
+    int col = 0;
+    for (int i = 0; i < ref.length(); i++) {
+      char c = ref.charAt(i);
+      if ((c < 'A') || (c > 'Z')) break;
+      col = col * 26 + (c - 'A' + 1);
+    }
+    return col - 1;
+  }
+}
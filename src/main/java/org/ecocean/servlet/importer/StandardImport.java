@@ -15,6 +15,15 @@ import java.lang.StringBuffer;
 import java.util.Vector;
 import java.util.Iterator;
 import java.lang.NumberFormatException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.ecocean.*;
 import org.ecocean.servlet.*;
@@ -63,6 +72,18 @@ public class StandardImport extends HttpServlet {
 	// just for lazy loading a var used on each row
 	Integer numMediaAssets;
 
+	// the bulk pipeline (see doPost)
+	static final int DEFAULT_BATCH_SIZE = 100;
+	static final int LOOKAHEAD_ROWS = 64;  // rows whose photos may be copied in ahead of the row being parsed
+	static final int MAX_MEDIA_THREADS = 4;
+	int batchSize = DEFAULT_BATCH_SIZE;
+	ImportProgress progress;
+	PreparedRow prepared;  // the row being parsed, with its photos already found/copied in
+	Map<String,Keyword> keywords = new HashMap<String,Keyword>();  // by name, for the whole import (see getOrCreateKeyword)
+	Map<String,Taxonomy> taxonomies = new HashMap<String,Taxonomy>();
+	List<Object> rowCreated = new ArrayList<Object>();  // keywords/taxonomies first made for the row being parsed
+	Occurrence rowOcc;  // the occurrence the row being parsed went into (see undoRow)
+
   public void init(ServletConfig config) throws ServletException {
     super.init(config);
   }
@@ -91,110 +112,236 @@ public class StandardImport extends HttpServlet {
     missingPhotos = new ArrayList<String>();
 		foundPhotos = new ArrayList<String>();
 		numFolderRows = 0;
+    keywords = new HashMap<String,Keyword>();
+    taxonomies = new HashMap<String,Taxonomy>();
 
     committing =  (request.getParameter("commit")!=null && !request.getParameter("commit").toLowerCase().equals("false")); //false by default
+    // not committing is a dry run: every row is read, parsed and checked (photos found and readable etc) but no
+    // photos are copied and nothing is stored
+    boolean resume = (request.getParameter("resume")!=null && !request.getParameter("resume").toLowerCase().equals("false"));
+    batchSize = DEFAULT_BATCH_SIZE;
+    try {
+      if (request.getParameter("batchSize")!=null) batchSize = Math.max(1, Integer.parseInt(request.getParameter("batchSize")));
+    } catch (NumberFormatException nfe) {}
 
     out.println("<h2>File Overview: </h2>");
     out.println("<ul>");
     out.println("<li>Filename: "+filename+"</li>");
     out.println("<li>File found = "+dataFound+"</li>");
+    out.println("<li><em>committing = "+committing+"</em> (batches of "+batchSize+")</li>");
 
-    Workbook wb = null;
     try {
-      wb = WorkbookFactory.create(dataFile);
-    } catch (org.apache.poi.openxml4j.exceptions.InvalidFormatException invalidFormat) {
-      out.println("<err>InvalidFormatException on input file "+filename+". Only excel files supported.</err>");
+      progress = ImportProgress.start(dataFile, !committing, resume);
+    } catch (Exception ex) {
+      out.println("<err>"+ex.getMessage()+"</err>");
       return;
     }
-    Sheet sheet = wb.getSheetAt(0);
-
-    int numSheets = wb.getNumberOfSheets();
-    out.println("<li>Num Sheets = "+numSheets+"</li>");
-    int physicalNumberOfRows = sheet.getPhysicalNumberOfRows();
-    out.println("<li>Num Rows = "+physicalNumberOfRows+"</li>");
-    int rows = sheet.getPhysicalNumberOfRows();; // No of rows
-    Row firstRow = sheet.getRow(0);
-    // below line is important for on-screen logging
-    initColIndexVariables(firstRow);
-    int cols = firstRow.getPhysicalNumberOfCells(); // No of columns
-    int lastColNum = firstRow.getLastCellNum();
-		
-		out.println("<li>Num Cols = "+cols+"</li>");
-    out.println("<li>Last col num = "+lastColNum+"</li>");
-    out.println("<li><em>committing = "+committing+"</em></li>");
-    out.println("</ul>");
-    out.println("<h2>Column headings:</h2><ul>");
-    out.println("<li>number columns = "+colIndexMap.size()+"</li>");
-    for (String heading: colIndexMap.keySet()) out.println("<li>"+colIndexMap.get(heading)+": "+heading+"</li>");
+    if (progress.getResumeAfter()>0) out.println("<li>Resuming after row "+(progress.getResumeAfter()+1)+" (from "+progress.getFile()+")</li>");
     out.println("</ul>");
 
     int printPeriod = 100;
-    if (committing) myShepherd.beginDBTransaction();
-    out.println("<h2>Beginning row loop:</h2>"); 
-    out.println("<ul>");
     // one encounter per-row. We keep these running.
     Occurrence occ = null;
     int maxRows = 50000;
     int offset = 0;
-    for (int i=1+offset; i<rows&&i<(maxRows+offset); i++) {
-
-    	MarkedIndividual mark = null;
-    	verbose = ((i%printPeriod)==0);
-      try {
 
-        if (committing) myShepherd.beginDBTransaction();
-        Row row = sheet.getRow(i);
+    /*
+      the rows go through stages:
+        read: a thread streams rows out of the spreadsheet (SheetRowReader) and hands each to ...
+        media: ... a small pool which finds the row's photos, copies them in and reads their metadata, up to
+               LOOKAHEAD_ROWS rows ahead of ...
+        parse: ... this thread, which builds the Encounter etc from the row (as it always has, with the photos
+               already there) and checks it, then
+        persist: stores it, committing every batchSize rows.  after each commit the batch's children (thumb,
+               mid etc) are made on the pool while the next batch is parsed, and saved after the next commit.
+      problems are recorded per row in the ImportProgress, which is also what makes the import resumable.
+    */
+    final int lastRow = maxRows + offset - 1;
+    final int resumeAfter = Math.max(offset, progress.getResumeAfter());
+    final ExecutorService mediaPool = newMediaPool();
+    final ArrayBlockingQueue<Future<PreparedRow>> ahead = new ArrayBlockingQueue<Future<PreparedRow>>(LOOKAHEAD_ROWS);
+    final Exception[] readError = new Exception[1];
+    final int[] skipped = new int[1];
+    final File sheetFile = dataFile;
+    Thread reader = new Thread(new Runnable() {
+      public void run() {
+        try {
+          SheetRowReader.read(sheetFile, new SheetRowReader.RowHandler() {
+            Map<String,Integer> cols = null;
+            public void row(final SheetRowReader.SheetRow sr) throws Exception {
+              if (cols == null) {  // header
+                cols = new HashMap<String,Integer>();
+                for (int c = 0; c < sr.cells.length; c++) cols.put(sr.getString(c), c);
+                ahead.put(done(new PreparedRow(sr, true)));
+                return;
+              }
+              if (sr.rowNum > lastRow) throw new SheetRowReader.Stop();
+              if ((sr.rowNum <= resumeAfter) && !progress.isRetry(sr.rowNum)) {
+                skipped[0]++;
+                return;
+              }
+              final Map<String,Integer> mediaCols = cols;
+              RowTask task = new RowTask(sr.rowNum, new Callable<PreparedRow>() {
+                public PreparedRow call() {
+                  return prepareRow(sr, mediaCols);
+                }
+              });
+              mediaPool.execute(task);
+              ahead.put(task);
+            }
+          });
+        } catch (InterruptedException ie) {
+          return;  // parse stage gave up
+        } catch (Exception ex) {
+          readError[0] = ex;
+        }
+        try {
+          ahead.put(done(new PreparedRow(null, false)));  // end
+        } catch (InterruptedException ie) {}
+      }
+    }, "StandardImport-reader");
+    reader.setDaemon(true);
+    reader.start();
+
+    HSSFSheet scratch = new HSSFWorkbook().createSheet();  // rows are rebuilt here so the load* methods get a poi Row as ever
+    Row row = scratch.createRow(0);
+    List<Future<List<MediaAsset>>> childJobs = new ArrayList<Future<List<MediaAsset>>>();
+    List<MediaAsset> batchAssets = new ArrayList<MediaAsset>();
+    Encounter batchLastEnc = null;
+    int batchRows = 0;
+    int batchFirstRow = -1;
+    int i = -1;
+    try {
+      while (true) {
+        PreparedRow p;
+        Future<PreparedRow> task = ahead.take();
+        try {
+          p = task.get();
+        } catch (ExecutionException ee) {
+          System.out.println("StandardImport: media stage failed unexpectedly: "+ee.getCause());
+          if (task instanceof RowTask) {
+            i = ((RowTask)task).rowNum;
+            out.println("<li>Encountered an error while importing row "+(i+1)+": "+ee.getCause()+"</li>");
+            progress.failed(i, "media", ee);
+          }
+          continue;
+        }
+        if (p.row==null) break;
+        p.row.fill(row);
+        if (p.header) {
+          // below line is important for on-screen logging
+          initColIndexVariables(row);
+          out.println("<h2>Column headings:</h2><ul>");
+          out.println("<li>number columns = "+colIndexMap.size()+"</li>");
+          for (String heading: colIndexMap.keySet()) out.println("<li>"+colIndexMap.get(heading)+": "+heading+"</li>");
+          out.println("</ul>");
+          out.println("<h2>Beginning row loop:</h2>");
+          out.println("<ul>");
+          continue;
+        }
+        i = p.row.rowNum;
         if (isRowEmpty(row)) continue;
 
-        // here's the central logic
-        ArrayList<Annotation> annotations = loadAnnotations(row);
-        Encounter enc = loadEncounter(row, annotations);
-        occ = loadOccurrence(row, occ, enc);
-        mark = loadIndividual(row, enc);
-
-        if (committing) {
-
-          for (Annotation ann: annotations) {
-            try {
-              MediaAsset ma = ann.getMediaAsset();
-              if (ma!=null) {
-                myShepherd.storeNewAnnotation(ann);
-                ma.setMetadata();
-                ma.updateStandardChildren(myShepherd);
+        MarkedIndividual mark = null;
+        Encounter enc = null;
+        ArrayList<Annotation> annotations = null;
+        verbose = ((i%printPeriod)==0);
+        prepared = p;
+        rowOcc = null;
+        rowCreated.clear();
+        try {
+          if (committing && !myShepherd.getPM().currentTransaction().isActive()) {
+            myShepherd.beginDBTransaction();
+            batchFirstRow = i;
+          }
+
+          // here's the central logic
+          annotations = loadAnnotations(row);
+          enc = loadEncounter(row, annotations);
+          occ = loadOccurrence(row, occ, enc);
+          mark = loadIndividual(row, enc);
+          for (String problem: p.problems) progress.issue(i, "media", "warning", problem);
+          validateRow(i, enc, p, annotations);
+          progress.parsed();
+
+          if (committing) {
+
+            // not myShepherd.storeNew*(), which each commit on their own: the whole batch goes in one transaction
+            PersistenceManager pm = myShepherd.getPM();
+            for (Object created: rowCreated) pm.makePersistent(created);  // keywords/taxonomies new to this import
+            for (Annotation ann: annotations) {
+              try {
+                MediaAsset ma = ann.getMediaAsset();
+                if (ma!=null) {
+                  pm.makePersistent(ann);
+                  batchAssets.add(ma);  // metadata was read in the media stage; children after the commit
+                }
+              }
+              catch (Exception e) {
+                System.out.println("EXCEPTION on annot/ma persisting!");
+                e.printStackTrace();
+                progress.issue(i, "persist", "error", "annotation/asset: "+e.toString());
               }
             }
-            catch (Exception e) {
-              System.out.println("EXCEPTION on annot/ma persisting!");
-              e.printStackTrace();
-            }
+
+            pm.makePersistent(enc);
+            pm.makePersistent(occ);  // no-op when it is already stored
+            if (mark!=null) pm.makePersistent(mark);
+            batchLastEnc = enc;
+            batchRows++;
           }
 
-          myShepherd.storeNewEncounter(enc, enc.getCatalogNumber());
-        	if (!myShepherd.isOccurrence(occ))        myShepherd.storeNewOccurrence(occ);
-        	if (!myShepherd.isMarkedIndividual(mark)) myShepherd.storeNewMarkedIndividual(mark);
-        	myShepherd.commitDBTransaction();
-        }
+          if (verbose) {
+            out.println("<li>Parsed row ("+i+")<ul>"
+            +"<li> Enc "+getEncounterDisplayString(enc)+"</li>"
+            +"<li> individual "+mark+"</li>"
+            +"<li> occurrence "+occ+"</li>"
+            +"<li> dateInMillis "+enc.getDateInMilliseconds()+"</li>"
+            +"<li> sex "+enc.getSex()+"</li>"
+            +"<li> lifeStage "+enc.getLifeStage()+"</li>"
+            +"</ul></li>");
+            out.flush();
+          }
 
-        if (verbose) {
-          out.println("<li>Parsed row ("+i+")<ul>"
-          +"<li> Enc "+getEncounterDisplayString(enc)+"</li>"
-          +"<li> individual "+mark+"</li>"
-          +"<li> occurrence "+occ+"</li>"
-          +"<li> dateInMillis "+enc.getDateInMilliseconds()+"</li>"
-          +"<li> sex "+enc.getSex()+"</li>"
-          +"<li> lifeStage "+enc.getLifeStage()+"</li>"
-          +"</ul></li>");
+        }
+        catch (Exception e) {
+          // the row is left out; the rest of its batch carries on
+          out.println("<li>Encountered an error while importing row "+(i+1)+": "+e.toString()+"</li>");
+          e.printStackTrace();
+          progress.failed(i, "parse", e);
+          undoRow(enc, mark, annotations);
+          if ((occ!=null) && JDOHelper.isDeleted(occ)) occ = null;
+        }
+        finally {
+          prepared = null;
+        }
 
+        if (committing && (batchRows>=batchSize)) {
+          childJobs = commitBatch(batchFirstRow, i, batchRows, batchLastEnc, batchAssets, childJobs, mediaPool);
+          batchAssets = new ArrayList<MediaAsset>();
+          batchLastEnc = null;
+          batchRows = 0;
         }
-        
-      }
-      catch (Exception e) {
-        out.println("Encountered an error while importing the file.");
-        e.printStackTrace(out);
-        myShepherd.rollbackDBTransaction();
       }
+      if (committing && myShepherd.getPM().currentTransaction().isActive()) childJobs = commitBatch(batchFirstRow, i, batchRows, batchLastEnc, batchAssets, childJobs, mediaPool);
+      if (committing) saveChildren(childJobs);
+    }
+    catch (InterruptedException ie) {
+      out.println("<err>Import interrupted after row "+(i+1)+"</err>");
+      myShepherd.rollbackDBTransaction();
+    }
+    finally {
+      reader.interrupt();
+      mediaPool.shutdownNow();
+      progress.save();
     }
     out.println("</ul>");
+    if (readError[0]!=null) {
+      out.println("<err>Error reading "+filename+" after row "+(i+1)+": "+readError[0].toString()+"</err>");
+      progress.issue(i, "read", "error", readError[0].toString());
+      progress.save();
+    }
+    if (skipped[0]>0) out.println("<p>Skipped "+skipped[0]+" rows committed by an earlier run.</p>");
 
 
     out.println("<h2><em>UNUSED</em> Column headings ("+unusedColumns.size()+"):</h2><ul>");
@@ -228,14 +375,176 @@ public class StandardImport extends HttpServlet {
 
     out.println("<h2><strong> "+numFolderRows+" </strong> Folder Rows</h2>");    
 
+    List<JSONObject> issues = progress.getIssues();
+    out.println("<h2><em>Issues</em> ("+progress.getIssueCount()+"):</h2>");
+    if (issues.size()>0) {
+      out.println("<table><tr><th>row</th><th>stage</th><th>level</th><th>message</th></tr>");
+      for (JSONObject issue: issues) {
+        out.println("<tr><td>"+issue.optInt("row")+"</td><td>"+issue.optString("stage")+"</td><td>"+issue.optString("level")+"</td><td>"+issue.optString("message")+"</td></tr>");
+      }
+      out.println("</table>");
+      if (issues.size()<progress.getIssueCount()) out.println("<p>(only the first "+issues.size()+" are listed)</p>");
+    }
+    if (committing) out.println("<p>Progress saved in "+progress.getFile()+"; to pick up after the last committed row (and run the failed rows again), run again with resume=true</p>");
+
     out.println("<h2>Import completed successfully</h2>");    
     //fs.close();
   }
 
+  // one sheet row on its way through the pipeline, with whatever its photos turned into
+  static class PreparedRow {
+    final SheetRowReader.SheetRow row;  // null marks the end of the sheet
+    final boolean header;
+    Map<Integer,PreparedMedia> media = new HashMap<Integer,PreparedMedia>();  // by n of Encounter.mediaAsset<n>
+    List<PreparedMedia> folder = new ArrayList<PreparedMedia>();  // folder rows (mediaAsset0 ending in *)
+    String folderPath;
+    String folderMissing;
+    List<String> problems = new ArrayList<String>();
+
+    PreparedRow(SheetRowReader.SheetRow row, boolean header) {
+      this.row = row;
+      this.header = header;
+    }
+  }
+
+  // a row's media stage, which still knows its row if it fails
+  static class RowTask extends FutureTask<PreparedRow> {
+    final int rowNum;
+
+    RowTask(int rowNum, Callable<PreparedRow> prepare) {
+      super(prepare);
+      this.rowNum = rowNum;
+    }
+  }
+
+  static class PreparedMedia {
+    MediaAsset ma;
+    String missing;  // for the missing photos list
+  }
+
+  // finds and copies in all the photos on a row.  runs on the media pool, so must not use myShepherd or out
+  PreparedRow prepareRow(SheetRowReader.SheetRow sr, Map<String,Integer> cols) {
+    PreparedRow p = new PreparedRow(sr, false);
+    try {
+      Integer first = cols.get("Encounter.mediaAsset0");
+      String firstPath = (first==null) ? null : sr.getString(first);
+      if ((firstPath!=null) && firstPath.endsWith("*")) {
+        prepareFolder(p, firstPath);
+        return p;
+      }
+      for (Map.Entry<String,Integer> col: cols.entrySet()) {
+        if ((col.getKey()==null) || !col.getKey().startsWith("Encounter.mediaAsset")) continue;
+        String localPath = sr.getString(col.getValue());
+        if (localPath==null) continue;
+        try {
+          int n = Integer.parseInt(col.getKey().substring("Encounter.mediaAsset".length()));
+          p.media.put(n, prepareMediaAsset(p, localPath));
+        } catch (NumberFormatException nfe) {}
+      }
+    } catch (RuntimeException ex) {
+      ex.printStackTrace();
+      p.problems.add("media: "+ex.toString());
+    }
+    return p;
+  }
+
+  // for the loaders being used outside of doPost(), with no pipeline ahead of them
+  private PreparedRow prepareMediaOnly(String localPath, int i) {
+    PreparedRow p = new PreparedRow(null, false);
+    if (localPath.endsWith("*")) prepareFolder(p, localPath);
+    else p.media.put(i, prepareMediaAsset(p, localPath));
+    return p;
+  }
+
+  private static Future<PreparedRow> done(PreparedRow p) {
+    FutureTask<PreparedRow> f = new FutureTask<PreparedRow>(new Runnable() {
+      public void run() {}
+    }, p);
+    f.run();
+    return f;
+  }
+
+  private static ExecutorService newMediaPool() {
+    int n = Math.max(1, Math.min(MAX_MEDIA_THREADS, Runtime.getRuntime().availableProcessors()));
+    final AtomicInteger count = new AtomicInteger();
+    return Executors.newFixedThreadPool(n, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "StandardImport-media-"+count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  // things that parse fine but are probably typos; reported, not fatal
+  private void validateRow(int i, Encounter enc, PreparedRow p, List<Annotation> annotations) {
+    Double lat = enc.getDecimalLatitudeAsDouble();
+    Double lon = enc.getDecimalLongitudeAsDouble();
+    if ((lat!=null) && ((lat<-90.0) || (lat>90.0))) progress.issue(i, "validate", "warning", "latitude out of range: "+lat);
+    if ((lon!=null) && ((lon<-180.0) || (lon>180.0))) progress.issue(i, "validate", "warning", "longitude out of range: "+lon);
+    boolean hasPhotos = (p.media.size()>0) || (p.folderPath!=null);
+    if (hasPhotos && annotations.isEmpty()) progress.issue(i, "validate", "warning", "none of the row's photos could be used");
+  }
+
+  /*
+    commits the open batch.  commitDBTransaction() only logs a failure, so we check that the batch's last encounter
+    actually made it; if not the batch is gone (rolled back) and recorded as failed, and resuming will retry it.
+    on success the batch's children are started on the pool, and the previous batch's (made meanwhile) saved.
+  */
+  private List<Future<List<MediaAsset>>> commitBatch(int firstRow, int lastRow, int rows, Encounter lastEnc, List<MediaAsset> assets,
+                                                     List<Future<List<MediaAsset>>> previousChildren, ExecutorService pool) throws IOException, InterruptedException {
+    myShepherd.commitDBTransaction();
+    if ((lastEnc!=null) && !JDOHelper.isPersistent(lastEnc)) {
+      if (myShepherd.getPM().currentTransaction().isActive()) myShepherd.rollbackDBTransaction();
+      out.println("<li><err>Could not store rows "+(firstRow+1)+" - "+(lastRow+1)+"; none of them were imported</err></li>");
+      progress.batchFailed(firstRow, lastRow, rows);
+      // any keyword/taxonomy first made in this batch went with it
+      keywords.clear();
+      taxonomies.clear();
+      return previousChildren;
+    }
+    progress.assets(assets.size());
+    progress.committed(lastRow, rows);
+
+    saveChildren(previousChildren);
+    List<Future<List<MediaAsset>>> children = new ArrayList<Future<List<MediaAsset>>>();
+    for (final MediaAsset ma: assets) {
+      children.add(pool.submit(new Callable<List<MediaAsset>>() {
+        public List<MediaAsset> call() {
+          return ma.updateStandardChildren();
+        }
+      }));
+    }
+    return children;
+  }
+
+  // children go in their own small transaction, so one bad one does not cost a batch of rows
+  private void saveChildren(List<Future<List<MediaAsset>>> jobs) throws InterruptedException {
+    if (jobs.size()<1) return;
+    int saved = 0;
+    myShepherd.beginDBTransaction();
+    for (Future<List<MediaAsset>> job: jobs) {
+      try {
+        List<MediaAsset> kids = job.get();
+        if (kids==null) continue;
+        for (MediaAsset kid: kids) {
+          MediaAssetFactory.save(kid, myShepherd);
+          saved++;
+        }
+      } catch (ExecutionException ee) {
+        System.out.println("StandardImport: making children failed: "+ee.getCause());
+      } catch (RuntimeException ex) {
+        System.out.println("StandardImport: saving children failed: "+ex.toString());
+      }
+    }
+    myShepherd.commitDBTransaction();
+    progress.children(saved);
+  }
+
   public Taxonomy loadTaxonomy0(Row row) {
     String sciName = getString(row, "Taxonomy.scientificName");
     if (sciName==null) return null;
-    Taxonomy taxy = myShepherd.getOrCreateTaxonomy(sciName);
+    Taxonomy taxy = getOrCreateTaxonomy(sciName);
     String commonName = getString(row, "Taxonomy.commonName");
     if (commonName!=null) taxy.addCommonName(commonName);
     return taxy;
@@ -244,7 +553,72 @@ public class StandardImport extends HttpServlet {
   public Taxonomy loadTaxonomy1(Row row) {
     String sciName = getString(row, "Occurrence.taxonomy1");
     if (sciName==null) return null;
-    return myShepherd.getOrCreateTaxonomy(sciName);
+    return getOrCreateTaxonomy(sciName);
+  }
+
+  /*
+    not myShepherd.getOrCreateKeyword()/getOrCreateTaxonomy(name), which store new ones in a transaction of their
+    own, committing the open batch part way through.  new ones are stored with the rest of their row, in the batch's
+    transaction, and are kept for the rest of the import, as the lookups would not see them until the batch is
+    committed anyway.
+  */
+  private Keyword getOrCreateKeyword(String name) {
+    Keyword kw = keywords.get(name);
+    if (kw!=null) return kw;
+    kw = myShepherd.getKeyword(name);
+    if (kw==null) {
+      kw = new Keyword(name);
+      rowCreated.add(kw);
+    }
+    keywords.put(name, kw);
+    return kw;
+  }
+
+  private Taxonomy getOrCreateTaxonomy(String sciName) {
+    Taxonomy taxy = taxonomies.get(sciName);
+    if (taxy!=null) return taxy;
+    taxy = myShepherd.getOrCreateTaxonomy(sciName, false);
+    if (!JDOHelper.isPersistent(taxy)) rowCreated.add(taxy);
+    taxonomies.put(sciName, taxy);
+    return taxy;
+  }
+
+  /*
+    a row that fails part way is run again on resume, so it must leave nothing behind in the batch: its encounter
+    comes off the occurrence and individual it was added to, keywords/taxonomies first made for it are forgotten,
+    and whatever of it was already made persistent is deleted again.
+  */
+  private void undoRow(Encounter enc, MarkedIndividual mark, List<Annotation> annotations) {
+    if (enc!=null) {
+      if (rowOcc!=null) rowOcc.removeEncounter(enc);
+      if ((mark!=null) && mark.getEncounters().contains(enc)) mark.removeEncounter(enc, myShepherd.getContext());
+    }
+    for (Object created: rowCreated) {
+      keywords.values().remove(created);
+      taxonomies.values().remove(created);
+      if ((rowOcc!=null) && (rowOcc.getTaxonomies()!=null)) rowOcc.getTaxonomies().remove(created);
+    }
+    if (committing) {
+      if (annotations!=null) for (Annotation ann: annotations) {
+        deleteIfNew(ann);
+        deleteIfNew(ann.getMediaAsset());
+      }
+      deleteIfNew(enc);
+      if ((mark!=null) && (mark.getEncounters().size()==0)) deleteIfNew(mark);
+      if ((rowOcc!=null) && (rowOcc.getNumberEncounters()==0)) deleteIfNew(rowOcc);
+      for (Object created: rowCreated) deleteIfNew(created);
+    }
+    rowCreated.clear();
+  }
+
+  // only what this batch made persistent; anything already stored is left alone
+  private void deleteIfNew(Object obj) {
+    if ((obj==null) || !JDOHelper.isPersistent(obj) || !JDOHelper.isNew(obj) || JDOHelper.isDeleted(obj)) return;
+    try {
+      myShepherd.getPM().deletePersistent(obj);
+    } catch (RuntimeException ex) {
+      System.out.println("StandardImport: could not undo "+obj+": "+ex.toString());
+    }
   }
 
   public static boolean validLatLon(Double lat, Double lon) {
@@ -254,6 +628,7 @@ public class StandardImport extends HttpServlet {
   public Occurrence loadOccurrence(Row row, Occurrence oldOcc, Encounter enc) {
   	
   	Occurrence occ = getCurrentOccurrence(oldOcc, row);
+  	rowOcc = occ;
   	// would love to have a more concise way to write following couplets, c'est la vie
 
   	Integer individualCount = getInteger(row, "Occurrence.individualCount");
@@ -529,46 +904,22 @@ public class StandardImport extends HttpServlet {
   	ArrayList<Annotation> annots = new ArrayList<Annotation>();
   	String localPath = getString(row, "Encounter.mediaAsset0");
   	if (localPath==null) return annots;
-  	localPath = localPath.substring(0,localPath.length()-1); // removes trailing asterisk
-  	localPath = fixGlobiceFullPath(localPath)+"/";
-//  	localPath = localPath.replace(" ","\\ ");
-  	String fullPath = photoDirectory+localPath;
-  	// Globice fix!
-  	// now fix spaces
-  	File photoDir = new File(fullPath);
-    if (!photoDir.exists()||!photoDir.isDirectory()||photoDir.listFiles()==null) {
-    	boolean itExists = photoDir.exists();
-    	boolean isDirectory = (itExists) && photoDir.isDirectory();
-    	boolean hasFiles = isDirectory && photoDir.listFiles()!=null;
-    	System.out.println("StandardImport ERROR: loadAnnotationsFolderRow called on non-directory (or empty?) path "+fullPath);
-    	System.out.println("		itExists: "+itExists);
-    	System.out.println("		isDirectory: "+isDirectory);
-    	System.out.println("		hasFiles: "+hasFiles);
-      missingPhotos.add(localPath);
+  	PreparedRow p = (prepared!=null) ? prepared : prepareMediaOnly(localPath, 0);
+  	if (p.folderMissing!=null) {
+      missingPhotos.add(p.folderMissing);
       return annots;
     }
 
-
 	  // if there are keywords we apply to all photos in encounter
 	  String keyword0 = getString(row, "Encounter.keyword00");
-	  Keyword key0 = (keyword0==null) ? null : myShepherd.getOrCreateKeyword(keyword0);
+	  Keyword key0 = (keyword0==null) ? null : getOrCreateKeyword(keyword0);
 	  String keyword1 = getString(row, "Encounter.keyword01");
-	  Keyword key1 = (keyword1==null) ? null : myShepherd.getOrCreateKeyword(keyword1);
+	  Keyword key1 = (keyword1==null) ? null : getOrCreateKeyword(keyword1);
 
 	  String species = getSpeciesString(row);
-	  for (File f: photoDir.listFiles()) {
-	  	MediaAsset ma = null;
-	  	try {
-	  		JSONObject assetParams = astore.createParameters(f);
-	  		System.out.println("		have assetParams");
-	  		assetParams.put("_localDirect", f.toString());
-	  		System.out.println("		about to create mediaAsset");
-			  ma = astore.copyIn(f, assetParams);
-	  	} catch (Exception e) {
-	  		System.out.println("IOException creating MediaAsset for file "+f.getPath());
-	  		missingPhotos.add(f.getPath());
-	  		continue; // skips the rest of loop for this file
-	  	}
+	  for (PreparedMedia pm: p.folder) {
+	  	if (pm.missing!=null) missingPhotos.add(pm.missing);
+	  	MediaAsset ma = pm.ma;
 	  	if (ma==null) continue;
 	  	if (key0!=null) ma.addKeyword(key0);
 	  	if (key1!=null) ma.addKeyword(key1);
@@ -576,10 +927,37 @@ public class StandardImport extends HttpServlet {
   		ann.setIsExemplar(true);
   		annots.add(ann);
 	  }
-	  if (annots.size()>0) foundPhotos.add(fullPath);
+	  if (annots.size()>0) foundPhotos.add(p.folderPath);
 	  return annots;
   }
 
+  // the media half of loadAnnotationsFolderRow(), run ahead on the media pool: no Shepherd, no out
+  private void prepareFolder(PreparedRow p, String localPath) {
+  	localPath = localPath.substring(0,localPath.length()-1); // removes trailing asterisk
+  	localPath = fixGlobiceFullPath(localPath)+"/";
+//  	localPath = localPath.replace(" ","\\ ");
+  	String fullPath = photoDirectory+localPath;
+  	p.folderPath = fullPath;
+  	// Globice fix!
+  	// now fix spaces
+  	File photoDir = new File(fullPath);
+  	File[] files = photoDir.isDirectory() ? photoDir.listFiles() : null;
+    if (files==null) {
+    	boolean itExists = photoDir.exists();
+    	boolean isDirectory = (itExists) && photoDir.isDirectory();
+    	System.out.println("StandardImport ERROR: loadAnnotationsFolderRow called on non-directory (or empty?) path "+fullPath);
+    	System.out.println("		itExists: "+itExists);
+    	System.out.println("		isDirectory: "+isDirectory);
+    	System.out.println("		hasFiles: false");
+      p.folderMissing = localPath;
+      p.problems.add("photo folder not found: "+fullPath);
+      return;
+    }
+	  for (File f: files) {
+	  	p.folder.add(prepareMedia(p, f, f.getPath()));
+	  }
+  }
+
   // capitolizes the final directory in path
   private String fixGlobiceFullPath(String path) {
   	String fixed = capitolizeLastFilepart(path);
@@ -628,25 +1006,12 @@ public class StandardImport extends HttpServlet {
   public MediaAsset getMediaAsset(Row row, int i) {
   	String localPath = getString(row, "Encounter.mediaAsset"+i);
   	if (localPath==null) return null;
-  	localPath = Util.windowsFileStringToLinux(localPath);
-  	String fullPath = photoDirectory+localPath;
-    String resolvedPath = resolveHumanEnteredFilename(fullPath);
-    if (resolvedPath==null) {
-      missingPhotos.add(fullPath);
-      return null;
-    }
-	  File f = new File(resolvedPath);
-
-	  // create MediaAsset and return it
-	  JSONObject assetParams = astore.createParameters(f);
-	  assetParams.put("_localDirect", f.toString());
-	  MediaAsset ma = null;
-	  try {
-	  	ma = astore.copyIn(f, assetParams);
-	  } catch (java.io.IOException ioEx) {
-	  	System.out.println("IOException creating MediaAsset for file "+fullPath);
-	  	missingPhotos.add(fullPath);
-	  }
+  	PreparedRow p = (prepared!=null) ? prepared : prepareMediaOnly(localPath, i);
+  	PreparedMedia pm = p.media.get(i);
+  	if (pm==null) return null;
+  	if (pm.missing!=null) missingPhotos.add(pm.missing);
+  	MediaAsset ma = pm.ma;
+  	if (ma==null) return null;
 
 	  // keywording
 
@@ -664,6 +1029,46 @@ public class StandardImport extends HttpServlet {
 	  return ma;
   }
 
+  // the media half of getMediaAsset(), run ahead on the media pool: no Shepherd, no out
+  private PreparedMedia prepareMediaAsset(PreparedRow p, String localPath) {
+  	localPath = Util.windowsFileStringToLinux(localPath);
+  	String fullPath = photoDirectory+localPath;
+    String resolvedPath = resolveHumanEnteredFilename(fullPath);
+    if (resolvedPath==null) {
+      PreparedMedia pm = new PreparedMedia();
+      pm.missing = fullPath;
+      p.problems.add("photo not found: "+fullPath);
+      return pm;
+    }
+	  return prepareMedia(p, new File(resolvedPath), fullPath);
+  }
+
+  // checks the file is an image we can read, then copies it in (or, on a dry run, only makes the MediaAsset)
+  private PreparedMedia prepareMedia(PreparedRow p, File f, String reportAs) {
+    PreparedMedia pm = new PreparedMedia();
+    try {
+      ImageProbe.Result probe = ImageProbe.probe(f);
+      if (probe.getWidth()<1) p.problems.add("not a readable image: "+f);
+    } catch (IOException ioEx) {
+      p.problems.add("cannot read "+f+": "+ioEx.getMessage());
+    }
+	  JSONObject assetParams = astore.createParameters(f);
+	  assetParams.put("_localDirect", f.toString());
+	  try {
+	  	if (committing) {
+	  	  pm.ma = astore.copyIn(f, assetParams);
+	  	  if (pm.ma!=null) pm.ma.setMetadata();
+	  	} else {
+	  	  pm.ma = astore.create(assetParams);
+	  	}
+	  } catch (Exception ex) {
+	  	System.out.println("IOException creating MediaAsset for file "+reportAs);
+	  	p.problems.add("could not copy in "+reportAs+": "+ex.toString());
+	  	if (pm.ma==null) pm.missing = reportAs;
+	  }
+	  return pm;
+  }
+
   private ArrayList<Keyword> getKeywordsForAsset(Row row, int n) {
     ArrayList<Keyword> ans = new ArrayList<Keyword>();
     int maxAssets = getNumAssets(row);
@@ -674,7 +1079,7 @@ public class StandardImport extends HttpServlet {
       String kwColName = "Encounter.keyword0"+i;
       String kwName = getString(row, kwColName);
       if (kwName==null) continue;
-      Keyword kw = myShepherd.getOrCreateKeyword(kwName);
+      Keyword kw = getOrCreateKeyword(kwName);
       if (kw!=null) ans.add(kw);
     }
     return ans;
@@ -1,45 +1,65 @@
-<!DOCTYPE html PUBLIC "-//W3C//DTD XHTML 1.0 Transitional//EN"
-        "http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd">
-<%@ page contentType="text/html; charset=utf-8" language="java" import="org.joda.time.LocalDateTime,
-org.joda.time.format.DateTimeFormatter,
-org.joda.time.format.ISODateTimeFormat,java.net.*,
-org.ecocean.grid.*,java.util.concurrent.*,
-java.io.*,java.util.*, java.io.FileInputStream, java.io.File, java.io.FileNotFoundException, org.ecocean.*,org.ecocean.servlet.*,javax.jdo.*, java.lang.StringBuffer, java.util.Vector, java.util.Iterator, java.lang.NumberFormatException"%>
-
-<%
+<%@ page contentType="text/html; charset=utf-8" language="java" import="org.ecocean.*,org.ecocean.servlet.*,java.util.*"%><%
 
 String context="context0";
 context=ServletUtilities.getContext(request);
 
+//?json for the same numbers as json (e.g. for monitoring)
+if (request.getParameter("json") != null) {
+	response.setContentType("application/json");
+	out.println(ShepherdLifecycle.statusJSON().toString());
+	return;
+}
 
+List<ShepherdLifecycle.ActionStats> stats = ShepherdLifecycle.getActionStats();
 
-%>
+%><!DOCTYPE html PUBLIC "-//W3C//DTD XHTML 1.0 Transitional//EN"
+        "http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd">
 
 <html>
 <head>
 <title>Shepherd Persistence Manager States</title>
-
+<style>
+td, th { padding: 2px 8px; text-align: right; }
+td:first-child { text-align: left; }
+.open { font-weight: bold; color: #A00; }
+</style>
 </head>
 
 
 <body>
 
 <h1>Database Connections</h1>
-<ul>
+<p>
+Open persistence managers: <b><%=ShepherdLifecycle.getOpen() %></b>.
+An action whose open count stays up is probably not closing its Shepherd.
+(<a href="dbconnections.jsp?json">json</a>)
+</p>
+
+<table>
+<tr>
+	<th>action</th><th>open</th><th>in transaction</th><th>opened</th><th>closed</th><th>began</th><th>committed</th><th>commit failed</th><th>rolled back</th><th>closed in transaction</th>
+	<th>transaction ms (mean / max)</th><th>open ms (mean / max)</th>
+</tr>
+<%
+for (ShepherdLifecycle.ActionStats s : stats) {
+%>
+<tr>
+	<td><%=s.action %></td>
+	<td<%=(s.getOpen() > 0) ? " class=\"open\"" : "" %>><%=s.getOpen() %></td>
+	<td><%=s.getInTransaction() %></td>
+	<td><%=s.getOpened() %></td>
+	<td><%=s.getClosed() %></td>
+	<td><%=s.getBegan() %></td>
+	<td><%=s.getCommitted() %></td>
+	<td><%=s.getCommitFailed() %></td>
+	<td><%=s.getRolledBack() %></td>
+	<td><%=s.getClosedInTransaction() %></td>
+	<td><%=s.getTransactionMillis().getMean() %> / <%=s.getTransactionMillis().getMax() %></td>
+	<td><%=s.getPmMillis().getMean() %> / <%=s.getPmMillis().getMax() %></td>
+</tr>
 <%
-ConcurrentHashMap<String,String> map=ShepherdPMF.getAllShepherdStates();
-Enumeration<String> keys=map.keys();
-while(keys.hasMoreElements()){
-	String key=keys.nextElement();
-	String status=ShepherdPMF.getShepherdState(key);
-	//display any non-closes
-	//if(status.indexOf("close")==-1){
-	%>
-		<li><%=key %>:<%=status %></li>
-	<%
-	//}
 }
 %>
-</ul>
+</table>
 </body>
 </html>
@@ -0,0 +1,75 @@
+<%@ page contentType="text/html; charset=utf-8" language="java" import="org.ecocean.*,org.ecocean.servlet.*,org.json.*"%><%
+
+String context="context0";
+context=ServletUtilities.getContext(request);
+
+if ("POST".equals(request.getMethod()) && (request.getParameter("clearTemplates") != null)) {
+	NotificationMailer.clearTemplateCache();
+}
+
+JSONObject status = MailDispatcher.statusJSON();
+if (request.getParameter("json") != null) {
+	response.setContentType("application/json");
+	out.println(status.toString());
+	return;
+}
+
+JSONArray dispatchers = status.getJSONArray("dispatchers");
+JSONObject templates = status.getJSONObject("templateCache");
+String[] cols = {"queued", "submitted", "sent", "failed", "skipped", "callerRuns", "connects", "batches", "maxBatch", "meanQueueMillis", "maxQueueMillis", "meanSendMillis", "maxSendMillis"};
+
+%><!DOCTYPE html PUBLIC "-//W3C//DTD XHTML 1.0 Transitional//EN"
+        "http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd">
+
+<html>
+<head>
+<title>Mail Dispatch</title>
+<style>
+td, th { padding: 2px 8px; text-align: right; }
+td:first-child { text-align: left; }
+</style>
+</head>
+
+
+<body>
+
+<h1>Mail Dispatch</h1>
+<p>
+Emails queued to be sent, per context.  <i>callerRuns</i> counts emails sent on the request's own thread because the queue was full.
+(<a href="mailDispatch.jsp?json">json</a>)
+</p>
+
+<table>
+<tr>
+	<th>context</th>
+<% for (String c : cols) { %>
+	<th><%=c %></th>
+<% } %>
+</tr>
+<%
+for (int i = 0 ; i < dispatchers.length() ; i++) {
+	JSONObject d = dispatchers.getJSONObject(i);
+%>
+<tr>
+	<td><%=d.optString("context") %></td>
+<% for (String c : cols) { %>
+	<td><%=d.optLong(c, 0) %></td>
+<% } %>
+</tr>
+<%
+}
+%>
+</table>
+
+<h2>Email Templates</h2>
+<ul>
+	<li>cached templates: <%=templates.optInt("size", 0) %></li>
+	<li>hits: <%=templates.optLong("hits", 0) %></li>
+	<li>misses: <%=templates.optLong("misses", 0) %></li>
+</ul>
+
+<form method="post" action="mailDispatch.jsp">
+	<input type="submit" name="clearTemplates" value="Clear Template Cache" />
+</form>
+</body>
+</html>
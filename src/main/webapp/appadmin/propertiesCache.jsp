@@ -0,0 +1,39 @@
+<!DOCTYPE html PUBLIC "-//W3C//DTD XHTML 1.0 Transitional//EN"
+        "http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd">
+<%@ page contentType="text/html; charset=utf-8" language="java" import="org.ecocean.*,org.ecocean.servlet.*"%>
+
+<%
+
+String context="context0";
+context=ServletUtilities.getContext(request);
+
+if ("POST".equals(request.getMethod()) && (request.getParameter("refresh") != null)) {
+	ShepherdPropertiesCache.refresh();
+	ContextConfiguration.refresh();
+}
+
+%>
+
+<html>
+<head>
+<title>Properties Cache</title>
+
+</head>
+
+
+<body>
+
+<h1>Properties Cache</h1>
+<ul>
+	<li>cached files: <%=ShepherdPropertiesCache.size() %></li>
+	<li>hits: <%=ShepherdPropertiesCache.getHits() %></li>
+	<li>misses: <%=ShepherdPropertiesCache.getMisses() %></li>
+	<li>invalidations: <%=ShepherdPropertiesCache.getInvalidations() %></li>
+	<li>watched override directories: <%=ShepherdPropertiesCache.numWatchedDirectories() %></li>
+</ul>
+
+<form method="post" action="propertiesCache.jsp">
+	<input type="submit" name="refresh" value="Refresh" />
+</form>
+</body>
+</html>
@@ -1,5 +1,5 @@
 <%@ page contentType="text/html; charset=utf-8" language="java"
-         import="org.ecocean.*, org.ecocean.servlet.ServletUtilities, java.awt.Dimension, java.io.File, java.util.*, java.util.concurrent.ThreadPoolExecutor, javax.servlet.http.HttpSession" %>
+         import="org.ecocean.*, org.ecocean.servlet.ServletUtilities, java.awt.Dimension, java.io.File, java.util.*, javax.servlet.http.HttpSession" %>
 <%@ taglib uri="http://www.sunwesttek.com/di" prefix="di" %>
 
 <jsp:include page="header.jsp" flush="true"/>
@@ -214,8 +214,6 @@ new_message.append("<html><body>");
 
 if(CommonConfiguration.sendEmailNotifications(context)){
 
-  // Retrieve background service for processing emails
-  ThreadPoolExecutor es = MailThreadExecutorService.getExecutorService();
 
   // Email new submission address(es) defined in commonConfiguration.properties
   Map<String, String> tagMap = NotificationMailer.createBasicTagMap(request, enc);
@@ -224,7 +222,7 @@ if(CommonConfiguration.sendEmailNotifications(context)){
   for (String emailTo : mailTo) {
     NotificationMailer mailer = new NotificationMailer(context, langCode, emailTo, "newSubmission-summary", tagMap);
     mailer.setUrlScheme(request.getScheme());
-    es.execute(mailer);
+    MailDispatcher.submit(context, mailer);
   }
 
   // Email those assigned this location code
@@ -233,7 +231,7 @@ if(CommonConfiguration.sendEmailNotifications(context)){
     for (String emailTo : cOther) {
     	NotificationMailer mailer = new NotificationMailer(context, null, emailTo, "newSubmission-summary", tagMap);
     	mailer.setUrlScheme(request.getScheme());
-      	es.execute(mailer);
+      	MailDispatcher.submit(context, mailer);
     }
   }
 
@@ -248,7 +246,7 @@ if(CommonConfiguration.sendEmailNotifications(context)){
       tagMap.put(NotificationMailer.EMAIL_HASH_TAG, Encounter.getHashOfEmailString(emailTo));
       NotificationMailer mailer=new NotificationMailer(context, null, emailTo, "newSubmission", tagMap);
       mailer.setUrlScheme(request.getScheme());
-      es.execute(mailer);
+      MailDispatcher.submit(context, mailer);
     }
   }
   if (emailPhoto && photographer != null) {
@@ -258,7 +256,7 @@ if(CommonConfiguration.sendEmailNotifications(context)){
       tagMap.put(NotificationMailer.EMAIL_HASH_TAG, Encounter.getHashOfEmailString(emailTo));
       NotificationMailer mailer=new NotificationMailer(context, null, emailTo, "newSubmission", tagMap);
       mailer.setUrlScheme(request.getScheme());
-      es.execute(mailer);
+      MailDispatcher.submit(context, mailer);
     }
   }
 
@@ -270,10 +268,9 @@ if(CommonConfiguration.sendEmailNotifications(context)){
       tagMap.put(NotificationMailer.EMAIL_HASH_TAG, Encounter.getHashOfEmailString(emailTo));
       NotificationMailer mailer=new NotificationMailer(context, null, emailTo, "newSubmission", tagMap);
       mailer.setUrlScheme(request.getScheme());
-      es.execute(mailer);
+      MailDispatcher.submit(context, mailer);
     }
   }
-  es.shutdown();
 }
 
 myShepherd=null;
@@ -20,7 +20,7 @@
 <!DOCTYPE html PUBLIC "-//W3C//DTD XHTML 1.0 Transitional//EN"
 "http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd">
 <%@ page contentType="text/html; charset=iso-8859-1" language="java"
-         import="org.ecocean.servlet.ServletUtilities,org.dom4j.Document, org.dom4j.Element, org.dom4j.io.SAXReader, org.ecocean.*, org.ecocean.grid.I3SMatchComparator, org.ecocean.grid.I3SMatchObject, java.io.File, java.util.Arrays, java.util.Iterator, java.util.List, java.util.Vector" %>
+         import="org.ecocean.servlet.ServletUtilities,org.dom4j.Document, org.dom4j.Element, org.dom4j.io.SAXReader, org.ecocean.*, org.ecocean.grid.I3SMatchComparator, org.ecocean.grid.I3SMatchObject, org.ecocean.grid.ScanResultStore, java.io.File, java.util.Arrays, java.util.Iterator, java.util.List, java.util.Vector" %>
 
 <%
 
@@ -61,6 +61,19 @@ context=ServletUtilities.getContext(request);
   //if(!encountersDir.exists()){encountersDir.mkdirs();}
 	//String encSubdir = Encounter.subdir(num);
   //File thisEncounterDir = new File(encountersDir, encSubdir);   //never used??
+
+  //saved results are shown a page at a time from the scan's ScanResultStore
+  ScanResultStore store = null;
+  int pageSize = 100;
+  int pageStart = 0;
+  try {
+    if (request.getParameter("start") != null) {
+      pageStart = Math.max(0, Integer.parseInt(request.getParameter("start")));
+    }
+  } catch (NumberFormatException nfe) {
+  }
+  boolean rightSideScan = ((request.getParameter("rightSide") != null) && (request.getParameter("rightSide").equals("true")));
+  String encDir = encountersDir.getAbsolutePath() + "/" + encSubdir;
  
 %>
 
@@ -134,17 +147,11 @@ td, th {
   </a></li>
   <%
     String fileSider = "";
-    File finalXMLFile;
-    if ((request.getParameter("rightSide") != null) && (request.getParameter("rightSide").equals("true"))) {
-      finalXMLFile = new File(encountersDir.getAbsolutePath()+"/" + encSubdir + "/lastFullRightScan.xml");
-
+    if (rightSideScan) {
       side2 = "right";
       fileSider = "&rightSide=true";
-    } else {
-      finalXMLFile = new File(encountersDir.getAbsolutePath()+"/" + encSubdir + "/lastFullScan.xml");
-
     }
-    if (finalXMLFile.exists()) {
+    if (ScanResultStore.exists(encDir, rightSideScan, false)) {
   %>
   <li><a
     href="scanEndApplet.jsp?writeThis=true&number=<%=num%><%=fileSider%>">Modified
@@ -171,26 +178,44 @@ td, th {
     }
   } else {
 
-//read from the written XML here if flagged
-    try {
-      if ((request.getParameter("rightSide") != null) && (request.getParameter("rightSide").equals("true"))) {
-        //file=new File((new File(".")).getCanonicalPath()+File.separator+"webapps"+File.separator+"ROOT"+File.separator+"encounters"+File.separator+num+File.separator+"lastFullRightI3SScan.xml");
-        file = new File(encountersDir.getAbsolutePath()+"/" + encSubdir + "/lastFullRightI3SScan.xml");
-
-        side = "right";
-      } else {
-        //file=new File((new File(".")).getCanonicalPath()+File.separator+"webapps"+File.separator+"ROOT"+File.separator+"encounters"+File.separator+num+File.separator+"lastFullI3SScan.xml");
-        file = new File(encountersDir.getAbsolutePath()+"/" + encSubdir + "/lastFullI3SScan.xml");
+//read from the saved results here if flagged
+    File storeFile = ScanResultStore.getFile(encDir, rightSideScan, true);
+    if (storeFile.exists()) {
+      try {
+        store = ScanResultStore.open(storeFile);
+        scanDate = (new java.util.Date(store.getScanDate())).toString();
+        xmlOK = true;
+        if (rightSideScan) {
+          side = "right";
+        }
+      } catch (Exception ioe) {
+        System.out.println("Error accessing the stored scan results for encounter: " + num);
+        ioe.printStackTrace();
+        store = null;
+      }
+    }
+    //or from XML written before there were stores
+    if (store == null) {
+      try {
+        if ((request.getParameter("rightSide") != null) && (request.getParameter("rightSide").equals("true"))) {
+          //file=new File((new File(".")).getCanonicalPath()+File.separator+"webapps"+File.separator+"ROOT"+File.separator+"encounters"+File.separator+num+File.separator+"lastFullRightI3SScan.xml");
+          file = new File(encountersDir.getAbsolutePath()+"/" + encSubdir + "/lastFullRightI3SScan.xml");
+
+          side = "right";
+        } else {
+          //file=new File((new File(".")).getCanonicalPath()+File.separator+"webapps"+File.separator+"ROOT"+File.separator+"encounters"+File.separator+num+File.separator+"lastFullI3SScan.xml");
+          file = new File(encountersDir.getAbsolutePath()+"/" + encSubdir + "/lastFullI3SScan.xml");
+        }
+        doc = xmlReader.read(file);
+        root = doc.getRootElement();
+        scanDate = root.attributeValue("scanDate");
+        xmlOK = true;
+      } catch (Exception ioe) {
+        System.out.println("Error accessing the stored scan XML data for encounter: " + num);
+        ioe.printStackTrace();
+        //initresults=myShepherd.matches;
+        xmlOK = false;
       }
-      doc = xmlReader.read(file);
-      root = doc.getRootElement();
-      scanDate = root.attributeValue("scanDate");
-      xmlOK = true;
-    } catch (Exception ioe) {
-      System.out.println("Error accessing the stored scan XML data for encounter: " + num);
-      ioe.printStackTrace();
-      //initresults=myShepherd.matches;
-      xmlOK = false;
     }
 
   }
@@ -237,11 +262,8 @@ td, th {
 		    String baseURL = "/"+CommonConfiguration.getDataDirectoryName(context)+"/encounters/";
 		    //System.out.println("Base URL is: " + baseURL);
 		    if (xmlOK) {
-		      if ((request.getParameter("rightSide") != null) && (request.getParameter("rightSide").equals("true"))) {
-		        feedURL = baseURL + encSubdir + "/lastFullRightI3SScan.xml?";
-		      } else {
-		        feedURL = baseURL + encSubdir + "/lastFullI3SScan.xml?";
-		      }
+		      //exported from the store (or the old XML file) on request
+		      feedURL = "//" + CommonConfiguration.getURLLocation(request) + "/ScanResultsExport?number=" + num + "&I3S=true" + (rightSideScan ? "&rightSide=true" : "") + "&";
 		    }
 		    String rightSA = "";
 		    if ((request.getParameter("rightSide") != null) && (request.getParameter("rightSide").equals("true"))) {
@@ -320,6 +342,30 @@ td, th {
             //end for loop
           }
 
+//or one page of the saved results
+        } else if (store != null) {
+          for (ScanResultStore.Match match : store.getPage(pageStart, pageSize)) {
+            ScanResultStore.EncounterInfo enc1 = match.encounter;
+        %>
+        <tr align="left" valign="top">
+          
+                <td width="60" align="left"><a
+                  href="//<%=CommonConfiguration.getURLLocation(request)%>/individuals.jsp?number=<%=enc1.individualID%>"><%=enc1.individualID%>
+                </a>
+          </td>
+          <%if ((enc1.number == null) || enc1.number.equals("N/A")) {%>
+          <td>N/A</td>
+          <%} else {%>
+          <td><a
+            href="//<%=CommonConfiguration.getURLLocation(request)%>/encounters/encounter.jsp?number=<%=enc1.number%>"><%=enc1.number%>
+          </a></td>
+          <%}%>
+          <td><%=match.getScoreString()%>
+          </td>
+        </tr>
+        <%
+          }
+
 //or use XML output here	
         } else {
           doc = xmlReader.read(file);
@@ -389,6 +435,21 @@ td, th {
       
 </tbody>
 </table>
+<%
+  if ((store != null) && (store.size() > pageSize)) {
+    String pageLink = "i3sScanEndApplet.jsp?writeThis=true&I3S=true&number=" + num + (rightSideScan ? "&rightSide=true" : "") + "&start=";
+%>
+<p>Matches <%=Math.min(pageStart + 1, store.size())%> to <%=Math.min(pageStart + pageSize, store.size())%> of <%=store.size()%>
+<%if (pageStart > 0) {%>
+  &nbsp;<a href="<%=pageLink + Math.max(0, pageStart - pageSize)%>#resultstable">Previous</a>
+<%}
+if (pageStart + pageSize < store.size()) {%>
+  &nbsp;<a href="<%=pageLink + (pageStart + pageSize)%>#resultstable">Next</a>
+<%}%>
+</p>
+<%
+  }
+%>
 
 
 <p>
@@ -399,6 +460,10 @@ td, th {
 
 //myShepherd.rollbackDBTransaction();
    //myShepherd = null;
+    if (store != null) {
+      store.close();
+      store = null;
+    }
     doc = null;
     root = null;
     initresults = null;
@@ -20,7 +20,7 @@
 <!DOCTYPE html PUBLIC "-//W3C//DTD XHTML 1.0 Transitional//EN"
 "http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd">
 <%@ page contentType="text/html; charset=iso-8859-1" language="java"
-         import="org.ecocean.servlet.ServletUtilities,org.dom4j.Document, org.dom4j.Element,org.dom4j.io.SAXReader, org.ecocean.*, org.ecocean.grid.MatchComparator, org.ecocean.grid.MatchObject, java.io.File, java.util.Arrays, java.util.Iterator, java.util.List, java.util.Vector" %>
+         import="org.ecocean.servlet.ServletUtilities,org.dom4j.Document, org.dom4j.Element,org.dom4j.io.SAXReader, org.ecocean.*, org.ecocean.grid.MatchComparator, org.ecocean.grid.MatchObject, org.ecocean.grid.ScanResultStore, java.io.File, java.util.Arrays, java.util.Iterator, java.util.List, java.util.Vector" %>
 
 <%
 
@@ -68,6 +68,18 @@ File encountersDir=new File(shepherdDataDir.getAbsolutePath()+"/encounters");
   String Sizelim = "";
   String maxTriangleRotation = "";
   String side2 = "";
+  //saved results are shown a page at a time from the scan's ScanResultStore
+  ScanResultStore store = null;
+  int pageSize = 100;
+  int pageStart = 0;
+  try {
+    if (request.getParameter("start") != null) {
+      pageStart = Math.max(0, Integer.parseInt(request.getParameter("start")));
+    }
+  } catch (NumberFormatException nfe) {
+  }
+  boolean rightSideScan = ((request.getParameter("rightSide") != null) && (request.getParameter("rightSide").equals("true")));
+  String encDir = encountersDir.getAbsolutePath() + "/" + encSubdir;
 %>
 <jsp:include page="../header.jsp" flush="true"/>
 
@@ -138,19 +150,11 @@ File encountersDir=new File(shepherdDataDir.getAbsolutePath()+"/encounters");
 
   <%
     String fileSider = "";
-    File finalXMLFile;
-    if ((request.getParameter("rightSide") != null) && (request.getParameter("rightSide").equals("true"))) {
-      //finalXMLFile=new File((new File(".")).getCanonicalPath()+File.separator+"webapps"+File.separator+"ROOT"+File.separator+"encounters"+File.separator+num+File.separator+"lastFullRightI3SScan.xml");
-      finalXMLFile = new File(encountersDir.getAbsolutePath()+"/"+ encSubdir + "/lastFullRightI3SScan.xml");
-
-
+    if (rightSideScan) {
       side2 = "right";
       fileSider = "&rightSide=true";
-    } else {
-      //finalXMLFile=new File((new File(".")).getCanonicalPath()+File.separator+"webapps"+File.separator+"ROOT"+File.separator+"encounters"+File.separator+num+File.separator+"lastFullI3SScan.xml");
-      finalXMLFile = new File(encountersDir.getAbsolutePath()+"/" + encSubdir + "/lastFullI3SScan.xml");
     }
-    if (finalXMLFile.exists()) {
+    if (ScanResultStore.exists(encDir, rightSideScan, true)) {
   %>
 
   <li><a
@@ -180,33 +184,56 @@ File encountersDir=new File(shepherdDataDir.getAbsolutePath()+"/encounters");
   */
   //else {
 
-//read from the written XML here if flagged
-    try {
-      if ((request.getParameter("rightSide") != null) && (request.getParameter("rightSide").equals("true"))) {
-        //file=new File((new File(".")).getCanonicalPath()+File.separator+"webapps"+File.separator+"ROOT"+File.separator+"encounters"+File.separator+num+File.separator+"lastFullRightScan.xml");
-        file = new File(encountersDir.getAbsolutePath()+"/" + encSubdir + "/lastFullRightScan.xml");
-
+//read from the saved results here if flagged
+    File storeFile = ScanResultStore.getFile(encDir, rightSideScan, false);
+    if (storeFile.exists()) {
+      try {
+        store = ScanResultStore.open(storeFile);
+        scanDate = (new java.util.Date(store.getScanDate())).toString();
+        R = store.getParameter("R");
+        C = store.getParameter("C");
+        maxTriangleRotation = store.getParameter("maxTriangleRotation");
+        Sizelim = store.getParameter("Sizelim");
+        epsilon = store.getParameter("epsilon");
+        xmlOK = true;
+        if (rightSideScan) {
+          side = "right";
+        }
+      } catch (Exception ioe) {
+        System.out.println("Error accessing the stored scan results for encounter: " + num);
+        ioe.printStackTrace();
+        store = null;
+      }
+    }
+    //or from XML written before there were stores
+    if (store == null) {
+      try {
+        if ((request.getParameter("rightSide") != null) && (request.getParameter("rightSide").equals("true"))) {
+          //file=new File((new File(".")).getCanonicalPath()+File.separator+"webapps"+File.separator+"ROOT"+File.separator+"encounters"+File.separator+num+File.separator+"lastFullRightScan.xml");
+          file = new File(encountersDir.getAbsolutePath()+"/" + encSubdir + "/lastFullRightScan.xml");
 
-        side = "right";
-      } else {
-        //file=new File((new File(".")).getCanonicalPath()+File.separator+"webapps"+File.separator+"ROOT"+File.separator+"encounters"+File.separator+num+File.separator+"lastFullScan.xml");
-        file = new File(encountersDir.getAbsolutePath()+"/" + encSubdir + "/lastFullScan.xml");
 
+          side = "right";
+        } else {
+          //file=new File((new File(".")).getCanonicalPath()+File.separator+"webapps"+File.separator+"ROOT"+File.separator+"encounters"+File.separator+num+File.separator+"lastFullScan.xml");
+          file = new File(encountersDir.getAbsolutePath()+"/" + encSubdir + "/lastFullScan.xml");
+
+        }
+        doc = xmlReader.read(file);
+        root = doc.getRootElement();
+        scanDate = root.attributeValue("scanDate");
+        xmlOK = true;
+        R = root.attributeValue("R");
+        C = root.attributeValue("C");
+        maxTriangleRotation = root.attributeValue("maxTriangleRotation");
+        Sizelim = root.attributeValue("Sizelim");
+        epsilon = root.attributeValue("epsilon");
+      } catch (Exception ioe) {
+        System.out.println("Error accessing the stored scan XML data for encounter: " + num);
+        ioe.printStackTrace();
+        //initresults = myShepherd.matches;
+        xmlOK = false;
       }
-      doc = xmlReader.read(file);
-      root = doc.getRootElement();
-      scanDate = root.attributeValue("scanDate");
-      xmlOK = true;
-      R = root.attributeValue("R");
-      C = root.attributeValue("C");
-      maxTriangleRotation = root.attributeValue("maxTriangleRotation");
-      Sizelim = root.attributeValue("Sizelim");
-      epsilon = root.attributeValue("epsilon");
-    } catch (Exception ioe) {
-      System.out.println("Error accessing the stored scan XML data for encounter: " + num);
-      ioe.printStackTrace();
-      //initresults = myShepherd.matches;
-      xmlOK = false;
     }
 
   //}
@@ -259,11 +286,8 @@ File encountersDir=new File(shepherdDataDir.getAbsolutePath()+"/encounters");
 
     //System.out.println("Base URL is: " + baseURL);
     if (xmlOK) {
-      if ((request.getParameter("rightSide") != null) && (request.getParameter("rightSide").equals("true"))) {
-        feedURL = baseURL + encSubdir + "/lastFullRightScan.xml?";
-      } else {
-        feedURL = baseURL + encSubdir + "/lastFullScan.xml?";
-      }
+      //exported from the store (or the old XML file) on request
+      feedURL = "//" + CommonConfiguration.getURLLocation(request) + "/ScanResultsExport?number=" + num + (rightSideScan ? "&rightSide=true" : "") + "&";
     }
     String rightSA = "";
     if ((request.getParameter("rightSide") != null) && (request.getParameter("rightSide").equals("true"))) {
@@ -358,6 +382,52 @@ File encountersDir=new File(shepherdDataDir.getAbsolutePath()+"/encounters");
             //end for loop
           }
 
+//or one page of the saved results
+        } else if (store != null) {
+          for (ScanResultStore.Match match : store.getPage(pageStart, pageSize)) {
+            ScanResultStore.EncounterInfo enc1 = match.encounter;
+            String adjustedpoints = Double.toString(match.adjustedPoints);
+            if (adjustedpoints.length() > 5) {
+              adjustedpoints = adjustedpoints.substring(0, 5);
+            }
+            String evaluation = (match.evaluation != null) ? match.evaluation : "&nbsp;";
+            String keywords = "";
+            for (String keyword : match.keywords) {
+              keywords = keywords + "<li>" + keyword + "</li>";
+            }
+            if (keywords.length() <= 1) {
+              keywords = "&nbsp;";
+            }
+        %>
+        <tr align="left" valign="top">
+          <td>
+            <a href="//<%=CommonConfiguration.getURLLocation(request)%>/individuals.jsp?number=<%=enc1.individualID%>">
+            	<%=enc1.individualID%>
+            </a>
+          </td>
+          <%if ((enc1.number == null) || enc1.number.equals("N/A")) {%>
+          <td>N/A</td>
+          <%} else {%>
+          <td><a
+            href="//<%=CommonConfiguration.getURLLocation(request)%>/encounters/encounter.jsp?number=<%=enc1.number%>">Link
+          </a></td>
+          <%}%>
+          <td><%=adjustedpoints%>
+          </td>
+          <td><%=match.getScoreString()%>
+          </td>
+          <td><font size="-2"><%=match.logMStdDev%>
+          </font></td>
+          <td><font size="-2"><%=evaluation%>
+          </font></td>
+          <td><font size="-2">
+            <ul><%=keywords%>
+            </ul>
+          </font></td>
+        </tr>
+        <%
+          }
+
 //or use XML output here	
         } else {
           doc = xmlReader.read(file);
@@ -458,6 +528,21 @@ File encountersDir=new File(shepherdDataDir.getAbsolutePath()+"/encounters");
         %>
 </tbody>
       </table>
+<%
+  if ((store != null) && (store.size() > pageSize)) {
+    String pageLink = "scanEndApplet.jsp?writeThis=true&number=" + num + (rightSideScan ? "&rightSide=true" : "") + "&start=";
+%>
+      <p>Matches <%=Math.min(pageStart + 1, store.size())%> to <%=Math.min(pageStart + pageSize, store.size())%> of <%=store.size()%>
+      <%if (pageStart > 0) {%>
+        &nbsp;<a href="<%=pageLink + Math.max(0, pageStart - pageSize)%>#resultstable">Previous</a>
+      <%}
+      if (pageStart + pageSize < store.size()) {%>
+        &nbsp;<a href="<%=pageLink + (pageStart + pageSize)%>#resultstable">Next</a>
+      <%}%>
+      </p>
+<%
+  }
+%>
 
 
 
@@ -467,6 +552,10 @@ File encountersDir=new File(shepherdDataDir.getAbsolutePath()+"/encounters");
 
 	//myShepherd.closeDBTransaction();
     //myShepherd = null;
+    if (store != null) {
+      store.close();
+      store = null;
+    }
     doc = null;
     root = null;
     initresults = null;
@@ -208,20 +208,20 @@ if (allSpotMAs != null) {
 			
 			<p class="para"><strong><em>Pattern Matching Results</em></strong></p>
 			<%
-  			File leftScanResults = new File(encounterDir.getAbsolutePath() + "/lastFullScan.xml");
-  			File rightScanResults = new File(encounterDir.getAbsolutePath() + "/lastFullRightScan.xml");
-  			File I3SScanResults = new File(encounterDir.getAbsolutePath() + "/lastFullI3SScan.xml");
-  			File rightI3SScanResults = new File(encounterDir.getAbsolutePath() + "/lastFullRightI3SScan.xml");
+  			boolean leftScanResults = org.ecocean.grid.ScanResultStore.exists(encounterDir.getAbsolutePath(), false, false);
+  			boolean rightScanResults = org.ecocean.grid.ScanResultStore.exists(encounterDir.getAbsolutePath(), true, false);
+  			boolean I3SScanResults = org.ecocean.grid.ScanResultStore.exists(encounterDir.getAbsolutePath(), false, true);
+  			boolean rightI3SScanResults = org.ecocean.grid.ScanResultStore.exists(encounterDir.getAbsolutePath(), true, true);
 
   	//if((CommonConfiguration.getProperty("algorithms", context)!=null)&&(CommonConfiguration.getProperty("algorithms", context).indexOf("ModifiedGroth")!=-1)){
   				
-	  		if((leftScanResults.exists())&&(enc.getNumSpots()>0)) {
+	  		if((leftScanResults)&&(enc.getNumSpots()>0)) {
 	  		%> 
 	  			
 	  			<a class="para" href="scanEndApplet.jsp?writeThis=true&number=<%=encNum%>">Groth: Left-side scan results</a><br />
 	  		<%
 	  		}
-	  		if((rightScanResults.exists())&&(enc.getNumRightSpots()>0)) {
+	  		if((rightScanResults)&&(enc.getNumRightSpots()>0)) {
 	  		%> 
 	  			
 	  			<a class="para" href="scanEndApplet.jsp?writeThis=true&number=<%=encNum%>&rightSide=true">Groth: Right-side scan results</a><br /> 
@@ -231,12 +231,12 @@ if (allSpotMAs != null) {
 	  		
   	//if((CommonConfiguration.getProperty("algorithms", context)!=null)&&(CommonConfiguration.getProperty("algorithms", context).indexOf("I3S")!=-1)){
 			
-	  		if((I3SScanResults.exists())&&(enc.getNumSpots()>0)) {
+	  		if((I3SScanResults)&&(enc.getNumSpots()>0)) {
 	  		%> 
 	  			
 	  			<a class="para" href="i3sScanEndApplet.jsp?writeThis=true&number=<%=encNum%>&I3S=true">I3S: Left-side scan results</a><br /> <%
 	  		}
-	  		if((rightI3SScanResults.exists())&&(enc.getNumRightSpots()>0)) {
+	  		if((rightI3SScanResults)&&(enc.getNumRightSpots()>0)) {
 	  		%> 
 	  			
 	  			<a class="para" href="i3sScanEndApplet.jsp?writeThis=true&number=<%=encNum%>&rightSide=true&I3S=true">I3S: Right-side scan results</a><br /> 
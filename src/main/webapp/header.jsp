@@ -515,11 +515,13 @@ String urlLoc = "//" + CommonConfiguration.getURLLocation(request);
                 else if (ui.item.type == "locationID") {
                 	window.location.replace("<%=("//" + CommonConfiguration.getURLLocation(request)+"/encounters/searchResultsAnalysis.jsp?locationCodeField=") %>" + ui.item.value);
                 }
-                /*
-                //restore user later
+                else if (ui.item.type == "encounter") {
+                	window.location.replace("<%=("//" + CommonConfiguration.getURLLocation(request)+"/encounters/encounter.jsp?number=") %>" + ui.item.value);
+                }
                 else if (ui.item.type == "user") {
-                    window.location.replace("/user/" + ui.item.value);
+                	window.location.replace("<%=("//" + CommonConfiguration.getURLLocation(request)+"/appadmin/users.jsp?context=context0&isEdit=true&username=") %>" + encodeURIComponent(ui.item.value) + "#editUser");
                 }
+                /*
                 else {
                     alertplus.alert("Unknown result [" + ui.item.value + "] of type [" + ui.item.type + "]");
                 }
@@ -540,6 +542,9 @@ String urlLoc = "//" + CommonConfiguration.getURLLocation(request);
                             if ((item.type == "individual")&&(item.species!=null)) {
 //                                label = item.species + ": ";
                             }
+                            else if (item.type == "encounter") {
+                                label = "Encounter: ";
+                            }
                             else if (item.type == "user") {
                                 label = "User: ";
                             } else {
@@ -1,6 +1,6 @@
 
 <%@ page contentType="text/html; charset=iso-8859-1" language="java" import="java.util.ArrayList, java.util.List" %>
-<%@ page import="org.ecocean.*,org.ecocean.servlet.ServletUtilities, org.ecocean.security.Collaboration, java.util.Properties, java.util.Date, java.text.SimpleDateFormat,
+<%@ page import="org.ecocean.*,org.ecocean.servlet.ServletUtilities, org.ecocean.security.Collaboration, org.ecocean.security.CollaborationAuditLog, java.util.Properties, java.util.Date, java.text.SimpleDateFormat,
 javax.servlet.http.HttpSession,
 java.io.*" %>
 
@@ -263,13 +263,15 @@ if((CommonConfiguration.getProperty("allowFlickrLogin", "context0")!=null)&&(Com
 		String rootWebappPath = getServletContext().getRealPath("/");
 		File webappsDir = new File(rootWebappPath).getParentFile();
 		File shepherdDataDir = new File(webappsDir, CommonConfiguration.getDataDirectoryName(context));
-		File collabLogFile = new File(shepherdDataDir, "/users/" + thisUser.getUsername() + "/collaboration.log");
-		if (collabLogFile.exists()) {
+		//the log plus any older files it has been rotated into, oldest first
+		List<File> collabLogFiles = CollaborationAuditLog.logFiles(new File(shepherdDataDir, "/users/" + thisUser.getUsername()));
+		if (collabLogFiles.size() > 0) {
 			long since = new Date().getTime() - (14 * 24*60*60*1000);
 			SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 			h = "";
-			BufferedReader br = new BufferedReader(new FileReader(collabLogFile));
 			boolean hasOther = false;
+			for (File collabLogFile : collabLogFiles) {
+			BufferedReader br = new BufferedReader(new FileReader(collabLogFile));
 			try {
 				StringBuilder sb = new StringBuilder();
 				String line = br.readLine();
@@ -289,6 +291,7 @@ if((CommonConfiguration.getProperty("allowFlickrLogin", "context0")!=null)&&(Com
 			} finally {
 				br.close();
 			}
+			}
 			out.println("<div class=\"collab-log\"><h1>Queries by collaborators</h1><div class=\"scrollbox\">" + h + "</div></div>");
 			if (hasOther) out.println("<a href=\"myCollabLog.jsp\">See entire log of queries</a>");
 		}
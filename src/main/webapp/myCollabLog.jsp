@@ -1,5 +1,5 @@
 <%@ page contentType="text/html; charset=iso-8859-1" language="java" %>
-<%@ page import="org.ecocean.*,org.ecocean.servlet.ServletUtilities, org.ecocean.security.Collaboration, java.util.Properties, java.util.Date, java.util.List, java.text.SimpleDateFormat, java.io.*" %>
+<%@ page import="org.ecocean.*,org.ecocean.servlet.ServletUtilities, org.ecocean.security.Collaboration, org.ecocean.security.CollaborationAuditLog, java.util.Properties, java.util.Date, java.util.List, java.text.SimpleDateFormat, java.io.*" %>
 
 
 <%
@@ -47,11 +47,13 @@ Properties props=ShepherdProperties.getProperties("users.properties", langCode,c
 		String rootWebappPath = getServletContext().getRealPath("/");
 		File webappsDir = new File(rootWebappPath).getParentFile();
 		File shepherdDataDir = new File(webappsDir, CommonConfiguration.getDataDirectoryName(context));
-		File collabLogFile = new File(shepherdDataDir, "/users/" + thisUser.getUsername() + "/collaboration.log");
+		//the log plus any older files it has been rotated into, oldest first
+		List<File> collabLogFiles = CollaborationAuditLog.logFiles(new File(shepherdDataDir, "/users/" + thisUser.getUsername()));
 		String h = "";
-		if (collabLogFile.exists()) {
+		if (collabLogFiles.size() > 0) {
 			//long since = new Date().getTime() - (10 * 24*60*60*1000);
 			SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+			for (File collabLogFile : collabLogFiles) {
 			BufferedReader br = new BufferedReader(new FileReader(collabLogFile));
 			try {
 				StringBuilder sb = new StringBuilder();
@@ -69,6 +71,7 @@ Properties props=ShepherdProperties.getProperties("users.properties", langCode,c
 			} finally {
 				br.close();
 			}
+			}
 			out.println("<div class=\"collab-log\"><h1>Queries by collaborators</h1><div >" + h + "</div></div>");
 		}
 
@@ -0,0 +1,104 @@
+package org.ecocean;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks OccurrenceClusterer against a brute force all-pairs single linkage on a few thousand points, then times
+ * it on a synthetic import-sized set (bursts of photos taken along a few days of drives).  Not a unit test; run
+ * it by hand:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; org.ecocean.OccurrenceClustererBenchmark [points]
+ * </pre>
+ */
+public class OccurrenceClustererBenchmark {
+
+  public static void main(String[] args) {
+    int numPoints = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+    OccurrenceClusterer clusterer = new OccurrenceClusterer();
+
+    for (int round = 0; round < 5; round++) {
+      double[][] pts = points(3000, new Random(round));
+      int[] fast = clusterer.cluster(pts[0], pts[1], pts[2]);
+      int[] slow = bruteForce(clusterer, pts[0], pts[1], pts[2]);
+      if (!Arrays.equals(fast, slow)) throw new IllegalStateException("clusters differ from brute force in round " + round);
+    }
+    System.out.println("matches brute force single linkage");
+
+    double[][] pts = points(numPoints, new Random(42));
+    for (int round = 0; round < 3; round++) {
+      long t0 = System.nanoTime();
+      int[] labels = clusterer.cluster(pts[0], pts[1], pts[2]);
+      long t1 = System.nanoTime();
+      int max = 0;
+      for (int l : labels) max = Math.max(max, l);
+      System.out.println(String.format("%,d points -> %,d occurrences in %,.0f ms", numPoints, max, (t1 - t0) / 1e6));
+    }
+  }
+
+  //bursts of 1-30 photos a few seconds apart at one spot, the car moving on a few km between bursts
+  private static double[][] points(int n, Random rnd) {
+    double[] secs = new double[n];
+    double[] lats = new double[n];
+    double[] lons = new double[n];
+    double t = 1.45e9;
+    double lat = 0.3 + rnd.nextDouble();
+    double lon = 36.5 + rnd.nextDouble();
+    int i = 0;
+    while (i < n) {
+      t += 300 + rnd.nextInt(7200);
+      lat += (rnd.nextDouble() - 0.5) * 0.1;
+      lon += (rnd.nextDouble() - 0.5) * 0.1;
+      int burst = 1 + rnd.nextInt(30);
+      for (int b = 0; (b < burst) && (i < n); b++, i++) {
+        secs[i] = t + b * (1 + rnd.nextInt(10));
+        lats[i] = lat + rnd.nextGaussian() * 0.0005;
+        lons[i] = lon + rnd.nextGaussian() * 0.0005;
+      }
+    }
+    //imports don't come in time order
+    for (int k = n - 1; k > 0; k--) {
+      int j = rnd.nextInt(k + 1);
+      swap(secs, k, j);
+      swap(lats, k, j);
+      swap(lons, k, j);
+    }
+    return new double[][] { secs, lats, lons };
+  }
+
+  private static void swap(double[] a, int i, int j) {
+    double tmp = a[i];
+    a[i] = a[j];
+    a[j] = tmp;
+  }
+
+  private static int[] bruteForce(OccurrenceClusterer clusterer, double[] secs, double[] lats, double[] lons) {
+    int n = secs.length;
+    int[] comp = new int[n];
+    Arrays.fill(comp, -1);
+    int numComps = 0;
+    int[] stack = new int[n];
+    for (int start = 0; start < n; start++) {
+      if (comp[start] >= 0) continue;
+      int top = 0;
+      stack[top++] = start;
+      comp[start] = numComps;
+      while (top > 0) {
+        int i = stack[--top];
+        for (int j = 0; j < n; j++) {
+          if (comp[j] >= 0) continue;
+          if (clusterer.distanceKm(lats[i], lons[i], secs[i], lats[j], lons[j], secs[j]) <= clusterer.getThresholdKm()) {
+            comp[j] = numComps;
+            stack[top++] = j;
+          }
+        }
+      }
+      numComps++;
+    }
+    //components are found in order of their first point, so these are already labelled by first appearance
+    int[] labels = new int[n];
+    for (int i = 0; i < n; i++) labels[i] = comp[i] + 1;
+    return labels;
+  }
+
+}
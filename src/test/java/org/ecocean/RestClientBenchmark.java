@@ -0,0 +1,159 @@
+package org.ecocean;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs RestClient against a local stub of the IA list endpoints (answers after a fixed delay, with one value per
+ * uuid in annot_uuid_list) and compares fetching one field for many annotations one uuid at a time with list
+ * requests fanned out through getAll(), plus parsing one big response the old way (lines concatenated into a
+ * String) and off the stream.  Not a unit test; run it by hand:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; org.ecocean.RestClientBenchmark [uuids] [latencyMs] [bigResponseKB]
+ * </pre>
+ */
+public class RestClientBenchmark {
+
+  private static final int LIST_SIZE = 100;
+  private static final AtomicInteger requests = new AtomicInteger();
+  private static final AtomicInteger connections = new AtomicInteger();
+
+  public static void main(String[] args) throws Exception {
+    final int numUUIDs = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+    final int latency = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+    final int bigKB = (args.length > 2) ? Integer.parseInt(args[2]) : 20000;
+
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/api/", new HttpHandler() {
+      public void handle(HttpExchange ex) throws java.io.IOException {
+        requests.incrementAndGet();
+        try { Thread.sleep(latency); } catch (InterruptedException ie) {}
+        String q = URLDecoder.decode(ex.getRequestURI().getRawQuery(), "UTF-8");
+        JSONArray uuids = new JSONArray(q.substring(q.indexOf('=') + 1));
+        JSONArray resp = new JSONArray();
+        for (int i = 0; i < uuids.length(); i++) {
+          resp.put(uuids.getJSONObject(i).getString("__UUID__").hashCode() % 1000);
+        }
+        reply(ex, new JSONObject().put("response", resp).toString().getBytes("UTF-8"));
+      }
+    });
+    final byte[] big = bigResponse(bigKB);
+    server.createContext("/big/", new HttpHandler() {
+      public void handle(HttpExchange ex) throws java.io.IOException {
+        requests.incrementAndGet();
+        reply(ex, big);
+      }
+    });
+    server.setExecutor(Executors.newFixedThreadPool(16));
+    server.start();
+    String base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+    List<String> uuids = new ArrayList<String>();
+    for (int i = 0; i < numUUIDs; i++) {
+      uuids.add(java.util.UUID.randomUUID().toString());
+    }
+
+    for (int round = 0; round < 3; round++) {
+      //one uuid per request, one after another (as IBEISIA.iaDateTimeFromAnnotUUID() etc get used)
+      requests.set(0);
+      long t0 = System.nanoTime();
+      long sum1 = 0;
+      for (String u : uuids) {
+        JSONObject r = RestClient.get(new URL(base + "/api/annot/image/unixtime/json/?annot_uuid_list=" + list(uuids.subList(uuids.indexOf(u), uuids.indexOf(u) + 1))));
+        sum1 += r.getJSONArray("response").getLong(0);
+      }
+      long t1 = System.nanoTime();
+      int singleRequests = requests.get();
+
+      //lists of LIST_SIZE, all at once
+      requests.set(0);
+      List<URL> urls = new ArrayList<URL>();
+      for (int start = 0; start < uuids.size(); start += LIST_SIZE) {
+        urls.add(new URL(base + "/api/annot/image/unixtime/json/?annot_uuid_list=" + list(uuids.subList(start, Math.min(start + LIST_SIZE, uuids.size())))));
+      }
+      long sum2 = 0;
+      for (JSONObject r : RestClient.getAll(urls)) {
+        JSONArray a = r.getJSONArray("response");
+        for (int i = 0; i < a.length(); i++) {
+          sum2 += a.getLong(i);
+        }
+      }
+      long t2 = System.nanoTime();
+      if (sum1 != sum2) throw new IllegalStateException("results differ: " + sum1 + " != " + sum2);
+
+      //one big response
+      long t3 = System.nanoTime();
+      JSONObject oldWay = oldGet(new URL(base + "/big/"));
+      long t4 = System.nanoTime();
+      JSONObject newWay = RestClient.get(new URL(base + "/big/"));
+      long t5 = System.nanoTime();
+      if (oldWay.getJSONArray("response").length() != newWay.getJSONArray("response").length()) throw new IllegalStateException("big responses differ");
+
+      System.out.println(String.format("round %d: %,d uuids one at a time %,.0f ms (%,d requests); lists via getAll %,.0f ms (%,d requests); %,d KB response: string %,.0f ms, stream %,.0f ms",
+        round, numUUIDs, (t1 - t0) / 1e6, singleRequests, (t2 - t1) / 1e6, requests.get(), big.length / 1024, (t4 - t3) / 1e6, (t5 - t4) / 1e6));
+    }
+    System.out.println("connections accepted: " + connections.get());
+    RestClient.cleanup();
+    server.stop(0);
+    System.exit(0);
+  }
+
+  private static void reply(HttpExchange ex, byte[] body) throws java.io.IOException {
+    //a new connection's first request has no keep-alive history; count distinct remote ports instead
+    if (seenPorts.add(ex.getRemoteAddress().getPort())) connections.incrementAndGet();
+    ex.getResponseHeaders().set("Content-Type", "application/json");
+    ex.sendResponseHeaders(200, body.length);
+    OutputStream os = ex.getResponseBody();
+    os.write(body);
+    os.close();
+  }
+  private static final java.util.Set<Integer> seenPorts = java.util.Collections.synchronizedSet(new java.util.HashSet<Integer>());
+
+  private static String list(List<String> uuids) throws Exception {
+    JSONArray arr = new JSONArray();
+    for (String u : uuids) {
+      arr.put(new JSONObject().put("__UUID__", u));
+    }
+    return java.net.URLEncoder.encode(arr.toString(), "UTF-8");
+  }
+
+  private static byte[] bigResponse(int kb) throws Exception {
+    StringBuilder sb = new StringBuilder("{\"response\": [\n");
+    int i = 0;
+    while (sb.length() < kb * 1024) {
+      if (i > 0) sb.append(",\n");
+      sb.append("{\"score\": ").append(i * 0.001).append(", \"uuid\": {\"__UUID__\": \"").append(java.util.UUID.randomUUID()).append("\"}}");
+      i++;
+    }
+    sb.append("]}");
+    return sb.toString().getBytes("UTF-8");
+  }
+
+  //how RestClient read responses before
+  private static JSONObject oldGet(URL url) throws Exception {
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream()));
+    String output;
+    String jtext = "";
+    while ((output = br.readLine()) != null) {
+      jtext += output;
+    }
+    br.close();
+    return new JSONObject(jtext);
+  }
+}
@@ -0,0 +1,142 @@
+package org.ecocean;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads a SiteSearchIndex with synthetic individuals, encounters and users, then has many threads "type" IDs and
+ * nicknames one character at a time (one search per keystroke, as the header autocomplete does) while another thread
+ * keeps updating individuals, and reports per-search latency.  For scale, also times the per-keystroke linear
+ * substring scan that the old JDOQL query amounts to.  Not a unit test; run it by hand:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; org.ecocean.SiteSearchIndexBenchmark [individuals] [encounters] [typists]
+ * </pre>
+ */
+public class SiteSearchIndexBenchmark {
+    private static final String[] SYLLABLES = {"ka", "lo", "mi", "ra", "te", "nu", "sha", "bo", "el", "vi", "an", "tor"};
+
+    public static void main(String[] args) throws Exception {
+        int numInd = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int numEnc = (args.length > 1) ? Integer.parseInt(args[1]) : 500000;
+        final int typists = (args.length > 2) ? Integer.parseInt(args[2]) : 400;
+        final int wordsEach = 50;
+        Random rnd = new Random(42);
+
+        List<SiteSearchIndex.Entry> all = new ArrayList<SiteSearchIndex.Entry>();
+        final List<String> typed = new ArrayList<String>();
+        for (int i = 0 ; i < numInd ; i++) {
+            String id = "WS-" + String.format("%06d", i);
+            String nick = (rnd.nextInt(3) == 0) ? name(rnd) : null;
+            String alt = (rnd.nextInt(5) == 0) ? "ALT" + rnd.nextInt(1000000) : null;
+            all.add(SiteSearchIndex.individualEntry(id, nick, alt, "Rhincodon typus"));
+            typed.add(id);
+            if (nick != null) typed.add(nick);
+        }
+        for (int i = 0 ; i < numEnc ; i++) {
+            all.add(SiteSearchIndex.encounterEntry(UUID.randomUUID().toString()));
+        }
+        for (int i = 0 ; i < 2000 ; i++) {
+            all.add(SiteSearchIndex.userEntry("user" + i, name(rnd)));
+        }
+
+        final SiteSearchIndex idx = SiteSearchIndex.get("bench");
+        System.gc();
+        long mem0 = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+        long t = System.nanoTime();
+        idx.load(all);
+        double loadMs = (System.nanoTime() - t) / 1e6;
+        System.gc();
+        long mem1 = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+        System.out.println(String.format("loaded %,d entries in %,.0f ms, ~%,d MB: %s", all.size(), loadMs, (mem1 - mem0) >> 20, idx.toJSONObject()));
+
+        //what the db does for each keystroke: every row, substring match on each field
+        String[] haystack = new String[all.size()];
+        for (int i = 0 ; i < haystack.length ; i++) {
+            haystack[i] = Arrays.toString(all.get(i).terms);
+        }
+        t = System.nanoTime();
+        int scans = 20;
+        int hits = 0;
+        for (int i = 0 ; i < scans ; i++) {
+            String q = typed.get(rnd.nextInt(typed.size())).toLowerCase().substring(0, 4);
+            for (String h : haystack) {
+                if (h.contains(q)) hits++;
+            }
+        }
+        System.out.println(String.format("linear substring scan (in memory, no db): %.2f ms per keystroke", (System.nanoTime() - t) / 1e6 / scans));
+
+        //writer: individuals renamed/added while people type
+        final AtomicLong writes = new AtomicLong();
+        final boolean[] stop = {false};
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                Random r = new Random(7);
+                while (!stop[0]) {
+                    idx.put(SiteSearchIndex.individualEntry("WS-" + String.format("%06d", r.nextInt(200000)), name(r), null, null));
+                    writes.incrementAndGet();
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException ie) {}
+                }
+            }
+        });
+        writer.start();
+
+        final long[][] latencies = new long[typists][];
+        final CountDownLatch done = new CountDownLatch(typists);
+        t = System.nanoTime();
+        for (int i = 0 ; i < typists ; i++) {
+            final int n = i;
+            new Thread(new Runnable() {
+                public void run() {
+                    Random r = new Random(n);
+                    long[] lat = new long[wordsEach * 12];
+                    int k = 0;
+                    for (int w = 0 ; w < wordsEach ; w++) {
+                        String word = typed.get(r.nextInt(typed.size()));
+                        for (int c = 1 ; (c <= word.length()) && (k < lat.length) ; c++) {
+                            long s = System.nanoTime();
+                            idx.search(word.substring(0, c), 30, null);
+                            lat[k++] = System.nanoTime() - s;
+                        }
+                    }
+                    latencies[n] = Arrays.copyOf(lat, k);
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        double ms = (System.nanoTime() - t) / 1e6;
+        stop[0] = true;
+        writer.join();
+
+        int total = 0;
+        for (long[] l : latencies) total += l.length;
+        long[] merged = new long[total];
+        int p = 0;
+        for (long[] l : latencies) {
+            System.arraycopy(l, 0, merged, p, l.length);
+            p += l.length;
+        }
+        Arrays.sort(merged);
+        System.out.println(String.format("%d typists: %,d searches in %,.0f ms = %,.0f/s, with %,d concurrent updates; latency p50 %.1f us, p99 %.1f us, max %.1f us",
+            typists, total, ms, total * 1000 / ms, writes.get(),
+            merged[total / 2] / 1e3, merged[(int)(total * 0.99)] / 1e3, merged[total - 1] / 1e3));
+        System.out.println("sample: " + idx.search("sha", 5, null) + " " + idx.search("ws-00012", 5, null) + " (" + hits + ")");
+    }
+
+    private static String name(Random r) {
+        StringBuilder sb = new StringBuilder();
+        int n = 2 + r.nextInt(2);
+        for (int i = 0 ; i < n ; i++) {
+            sb.append(SYLLABLES[r.nextInt(SYLLABLES.length)]);
+        }
+        sb.setCharAt(0, Character.toUpperCase(sb.charAt(0)));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,196 @@
+package org.ecocean.grid;
+
+import com.reijns.I3S.Pair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Compares GridWireFormat with the java serialization grid nodes used to get: bytes on the wire and
+ * encode/decode time for a batch of work items (first batch to a node, and a later batch whose patterns the
+ * node already has) and for a batch of results.  Not a unit test; run it by hand:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; org.ecocean.grid.GridWireFormatBenchmark [batchSize] [spots]
+ * </pre>
+ */
+public class GridWireFormatBenchmark {
+
+  private static final int ROUNDS = 2000;
+
+  public static void main(String[] args) throws Exception {
+    int batchSize = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+    int numSpots = (args.length > 1) ? Integer.parseInt(args[1]) : 40;
+    Random rnd = new Random(42);
+
+    EncounterLite newEnc = pattern("new", numSpots, rnd);
+    Vector<ScanWorkItem> first = new Vector<ScanWorkItem>();
+    Vector<ScanWorkItem> later = new Vector<ScanWorkItem>();
+    for (int i = 0; i < batchSize; i++) {
+      first.add(new ScanWorkItem(newEnc, pattern("a" + i, numSpots, rnd), "wi" + i, "task1", 0.01, 50, 0.9999, 10, 0.99, true, false));
+      later.add(new ScanWorkItem(newEnc, first.get(i).getExistingEncounterLite(), "wi" + (i + batchSize), "task1", 0.01, 50, 0.9999, 10, 0.99, true, false));
+    }
+    Vector<ScanWorkItemResult> results = new Vector<ScanWorkItemResult>();
+    for (int i = 0; i < batchSize; i++) {
+      results.add(new ScanWorkItemResult("task1", "wi" + i, matchObject(numSpots, rnd)));
+    }
+
+    //check the round trip is lossless before timing anything
+    GridWireFormat.PatternCache cache = new GridWireFormat.PatternCache();
+    HashMap<String, Integer> sent = new HashMap<String, Integer>();
+    Vector<ScanWorkItem> decoded = GridWireFormat.readWorkItems(new ByteArrayInputStream(encodeWork(first, sent)), cache);
+    decoded = GridWireFormat.readWorkItems(new ByteArrayInputStream(encodeWork(later, sent)), cache);
+    for (int i = 0; i < batchSize; i++) {
+      double[][] a = later.get(i).getExistingEncounterLite().getPatternArrays();
+      double[][] b = decoded.get(i).getExistingEncounterLite().getPatternArrays();
+      for (int j = 0; j < a.length; j++) {
+        if (!java.util.Arrays.equals(a[j], b[j])) throw new IllegalStateException("pattern mismatch for item " + i);
+      }
+    }
+    Vector<ScanWorkItemResult> decodedResults = GridWireFormat.readResults(new ByteArrayInputStream(encodeResults(results)));
+    for (int i = 0; i < batchSize; i++) {
+      MatchObject a = results.get(i).getResult();
+      MatchObject b = decodedResults.get(i).getResult();
+      if ((a.matchValue != b.matchValue) || (a.scores.size() != b.scores.size()) || (a.Points.size() != b.Points.size())) throw new IllegalStateException("result mismatch for item " + i);
+    }
+
+    //warm-up
+    serializeNanos(first);
+    deserializeNanos(serialize(first));
+    encodeNanos(first, false);
+    decodeNanos(encodeWork(first, null));
+    serializeNanos(results);
+    encodeResultsNanos(results);
+    decodeResultsNanos(encodeResults(results));
+
+    System.out.println(String.format("batch of %d items, %d spots per pattern, %d rounds", batchSize, numSpots, ROUNDS));
+    report("work, java serialization", serialize(first), serializeNanos(first), deserializeNanos(serialize(first)));
+    report("work, binary, first batch", encodeWork(first, null), encodeNanos(first, false), decodeNanos(encodeWork(first, null)));
+    HashMap<String, Integer> all = new HashMap<String, Integer>();
+    encodeWork(first, all);
+    byte[] laterBytes = encodeWork(later, all);
+    report("work, binary, cached patterns", laterBytes, encodeNanos(later, true), decodeNanos(laterBytes, cache));
+    report("results, java serialization", serialize(results), serializeNanos(results), deserializeNanos(serialize(results)));
+    report("results, binary", encodeResults(results), encodeResultsNanos(results), decodeResultsNanos(encodeResults(results)));
+  }
+
+  private static void report(String name, byte[] bytes, long encodeNanos, long decodeNanos) {
+    System.out.println(String.format("  %-32s %,9d bytes  encode %,8.1f us  decode %,8.1f us",
+      name, bytes.length, encodeNanos / 1000.0 / ROUNDS, decodeNanos / 1000.0 / ROUNDS));
+  }
+
+  private static EncounterLite pattern(String id, int numSpots, Random rnd) {
+    double[][] arrays = new double[8][];
+    for (int i = 0; i < arrays.length; i++) {
+      int n = (i < 4) ? numSpots : 3;
+      arrays[i] = new double[n];
+      for (int j = 0; j < n; j++) {
+        arrays[i][j] = rnd.nextDouble() * 1000;
+      }
+    }
+    return new EncounterLite(id, "indiv-" + id, "female", "2016-01-01", 6.5, arrays);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static MatchObject matchObject(int numSpots, Random rnd) {
+    MatchObject mo = new MatchObject();
+    mo.individualName = "indiv";
+    mo.encounterNumber = "enc";
+    mo.matchValue = rnd.nextDouble();
+    mo.adjustedMatchValue = rnd.nextDouble();
+    mo.logMbreakdown = new double[]{rnd.nextDouble(), rnd.nextDouble()};
+    mo.scores = new ArrayList();
+    for (int i = 0; i < numSpots / 2; i++) {
+      mo.scores.add(new VertexPointMatch(rnd.nextDouble(), rnd.nextDouble(), rnd.nextDouble(), rnd.nextDouble(), i));
+    }
+    mo.Points = new Vector();
+    for (int i = 0; i < numSpots / 2; i++) {
+      Pair p = new Pair();
+      p.m1 = i;
+      p.m2 = i + 1;
+      p.dist = rnd.nextDouble();
+      mo.Points.add(p);
+    }
+    return mo;
+  }
+
+  private static byte[] encodeWork(List<ScanWorkItem> items, HashMap<String, Integer> sent) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GridWireFormat.writeWorkItems(bytes, items, sent);
+    return bytes.toByteArray();
+  }
+
+  private static byte[] encodeResults(List<ScanWorkItemResult> results) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GridWireFormat.writeResults(bytes, results);
+    return bytes.toByteArray();
+  }
+
+  private static byte[] serialize(Object obj) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(obj);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static long serializeNanos(Object obj) throws Exception {
+    long t = System.nanoTime();
+    for (int r = 0; r < ROUNDS; r++) {
+      serialize(obj);
+    }
+    return System.nanoTime() - t;
+  }
+
+  private static long deserializeNanos(byte[] bytes) throws Exception {
+    long t = System.nanoTime();
+    for (int r = 0; r < ROUNDS; r++) {
+      new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    }
+    return System.nanoTime() - t;
+  }
+
+  private static long encodeNanos(List<ScanWorkItem> items, boolean cached) throws Exception {
+    HashMap<String, Integer> sent = new HashMap<String, Integer>();
+    if (cached) encodeWork(items, sent);
+    long t = System.nanoTime();
+    for (int r = 0; r < ROUNDS; r++) {
+      encodeWork(items, cached ? sent : null);
+    }
+    return System.nanoTime() - t;
+  }
+
+  private static long decodeNanos(byte[] bytes) throws Exception {
+    return decodeNanos(bytes, new GridWireFormat.PatternCache());
+  }
+
+  private static long decodeNanos(byte[] bytes, GridWireFormat.PatternCache cache) throws Exception {
+    long t = System.nanoTime();
+    for (int r = 0; r < ROUNDS; r++) {
+      GridWireFormat.readWorkItems(new ByteArrayInputStream(bytes), cache);
+    }
+    return System.nanoTime() - t;
+  }
+
+  private static long encodeResultsNanos(List<ScanWorkItemResult> results) throws Exception {
+    long t = System.nanoTime();
+    for (int r = 0; r < ROUNDS; r++) {
+      encodeResults(results);
+    }
+    return System.nanoTime() - t;
+  }
+
+  private static long decodeResultsNanos(byte[] bytes) throws Exception {
+    long t = System.nanoTime();
+    for (int r = 0; r < ROUNDS; r++) {
+      GridWireFormat.readResults(new ByteArrayInputStream(bytes));
+    }
+    return System.nanoTime() - t;
+  }
+}
@@ -0,0 +1,199 @@
+package org.ecocean.grid;
+
+import org.ecocean.SuperSpot;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of one comparison by the old SpotTriangle matcher (EncounterLite.getPointsForBestMatch(SuperSpot[], ...))
+ * against the same by GrothMatcher, over a catalog of random patterns plus noisy, rotated and rescaled copies of the
+ * new patterns (so there are real matches).  The setup first checks that the two give exactly the same MatchObject
+ * (GrothMatcherTest does the same as a unit test).  The catalog triangles are built during warmup and reused after
+ * that, as on a grid node.  Run it with:
+ * <pre>
+ *   mvn test-compile
+ *   java -cp target/test-classes:target/classes:&lt;test classpath&gt; org.openjdk.jmh.Main GrothMatcherBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GrothMatcherBenchmark {
+
+  static final double EPSILON = 0.01;
+  static final double R = 50;
+  static final double SIZELIM = 0.9999;
+  static final double MAX_ROTATION = 10;
+  static final double C = 0.99;
+
+  private static final int NEW_PATTERNS = 4;
+
+  @Param({"20", "30", "50"})
+  public int numSpots;
+
+  @Param({"40"})
+  public int catalogSize;
+
+  private EncounterLite[] newEncs;
+  private SuperSpot[][] newSpots;
+  private EncounterLite[] catalog;
+  private int next = 0;
+  private PrintStream out;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random rnd = new Random(7);
+    newEncs = new EncounterLite[NEW_PATTERNS];
+    newSpots = new SuperSpot[NEW_PATTERNS][];
+    for (int i = 0; i < newEncs.length; i++) {
+      newEncs[i] = randomPattern("new" + i, numSpots, rnd);
+      newSpots[i] = spots(newEncs[i], false);
+    }
+    catalog = new EncounterLite[catalogSize];
+    for (int i = 0; i < catalogSize; i++) {
+      if (i % 2 == 0) {
+        catalog[i] = copyOf(newEncs[i % newEncs.length], "copy" + i, rnd);
+      } else {
+        catalog[i] = randomPattern("cat" + i, numSpots + rnd.nextInt(11) - 5, rnd);
+      }
+    }
+
+    //both matchers print as they go
+    out = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      public void write(int b) {
+      }
+    }));
+
+    //only time the two if they agree, on both sides
+    for (EncounterLite newEnc : newEncs) {
+      for (EncounterLite cat : catalog) {
+        for (boolean right : new boolean[]{false, true}) {
+          MatchObject expected = cat.getPointsForBestMatch(spots(newEnc, right), EPSILON, R, SIZELIM, MAX_ROTATION, C, true, right);
+          MatchObject actual = cat.getPointsForBestMatch(newEnc, EPSILON, R, SIZELIM, MAX_ROTATION, C, true, right);
+          String diff = difference(expected, actual);
+          if (diff != null) {
+            System.setOut(out);
+            throw new IllegalStateException(newEnc.getEncounterNumber() + " vs " + cat.getEncounterNumber() + " (right=" + right + "): " + diff);
+          }
+        }
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    System.setOut(out);
+  }
+
+  @Benchmark
+  public MatchObject spotTriangleMatcher() {
+    int i = next++ % (NEW_PATTERNS * catalogSize);
+    return catalog[i % catalogSize].getPointsForBestMatch(newSpots[i / catalogSize], EPSILON, R, SIZELIM, MAX_ROTATION, C, true, false);
+  }
+
+  @Benchmark
+  public MatchObject grothMatcher() {
+    int i = next++ % (NEW_PATTERNS * catalogSize);
+    return catalog[i % catalogSize].getPointsForBestMatch(newEncs[i / catalogSize], EPSILON, R, SIZELIM, MAX_ROTATION, C, true, false);
+  }
+
+  public static void main(String[] args) throws Exception {
+    org.openjdk.jmh.Main.main(new String[]{GrothMatcherBenchmark.class.getSimpleName()});
+  }
+
+  static SuperSpot[] spots(EncounterLite el, boolean right) {
+    ArrayList list = right ? el.getRightSpots() : el.getSpots();
+    SuperSpot[] spots = new SuperSpot[list.size()];
+    return (SuperSpot[]) list.toArray(spots);
+  }
+
+  static EncounterLite randomPattern(String id, int n, Random rnd) {
+    double[][] arrays = new double[8][];
+    for (int i = 0; i < 4; i++) {
+      arrays[i] = new double[n];
+      for (int j = 0; j < n; j++) {
+        arrays[i][j] = 50 + rnd.nextDouble() * 900;
+      }
+    }
+    for (int i = 4; i < 8; i++) {
+      arrays[i] = new double[3];
+    }
+    return new EncounterLite(id, "indiv-" + id, "unknown", "2016-01-01", 7.0, arrays);
+  }
+
+  //the same animal photographed again: rotated a little, rescaled, shifted, with jitter and a couple of spots lost
+  static EncounterLite copyOf(EncounterLite el, String id, Random rnd) {
+    double[][] src = el.getPatternArrays();
+    double[][] arrays = new double[8][];
+    for (int side = 0; side < 2; side++) {
+      double[] x = src[side * 2], y = src[side * 2 + 1];
+      double angle = Math.toRadians(rnd.nextDouble() * 6 - 3);
+      double scale = 0.8 + rnd.nextDouble() * 0.4;
+      int keep = x.length - rnd.nextInt(3);
+      double[] nx = new double[keep], ny = new double[keep];
+      for (int j = 0; j < keep; j++) {
+        double px = x[j] - 500, py = y[j] - 500;
+        nx[j] = 600 + scale * (px * Math.cos(angle) - py * Math.sin(angle)) + rnd.nextGaussian() * 2;
+        ny[j] = 600 + scale * (px * Math.sin(angle) + py * Math.cos(angle)) + rnd.nextGaussian() * 2;
+      }
+      arrays[side * 2] = nx;
+      arrays[side * 2 + 1] = ny;
+    }
+    for (int i = 4; i < 8; i++) {
+      arrays[i] = new double[3];
+    }
+    return new EncounterLite(id, "indiv-" + id, "unknown", "2016-01-01", 7.0, arrays);
+  }
+
+  static String difference(MatchObject a, MatchObject b) {
+    if (!same(a.matchValue, b.matchValue)) return "matchValue " + a.matchValue + " != " + b.matchValue;
+    if (!same(a.adjustedMatchValue, b.adjustedMatchValue)) return "adjustedMatchValue " + a.adjustedMatchValue + " != " + b.adjustedMatchValue;
+    if (a.numTriangles != b.numTriangles) return "numTriangles " + a.numTriangles + " != " + b.numTriangles;
+    if (!equal(a.pointBreakdown, b.pointBreakdown)) return "pointBreakdown " + a.pointBreakdown + " != " + b.pointBreakdown;
+    if (!Arrays.equals(a.logMbreakdown, b.logMbreakdown)) return "logMbreakdown differs";
+    if (!equal(a.individualName, b.individualName) || !equal(a.encounterNumber, b.encounterNumber)) return "names differ";
+    if ((a.scores == null) != (b.scores == null)) return "scores null vs not null";
+    if (a.scores != null) {
+      if (a.scores.size() != b.scores.size()) return "scores size " + a.scores.size() + " != " + b.scores.size();
+      for (int i = 0; i < a.scores.size(); i++) {
+        VertexPointMatch va = (VertexPointMatch) a.scores.get(i);
+        VertexPointMatch vb = (VertexPointMatch) b.scores.get(i);
+        if (!same(va.newX, vb.newX) || !same(va.newY, vb.newY) || !same(va.oldX, vb.oldX) || !same(va.oldY, vb.oldY) || (va.points != vb.points)) {
+          return "score " + i + " differs";
+        }
+      }
+    }
+    return null;
+  }
+
+  private static boolean same(double a, double b) {
+    return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+  }
+
+  private static boolean equal(String a, String b) {
+    return (a == null) ? (b == null) : a.equals(b);
+  }
+}
@@ -0,0 +1,60 @@
+package org.ecocean.grid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GrothMatcherTest {
+
+  private static final double EPSILON = GrothMatcherBenchmark.EPSILON;
+  private static final double R = GrothMatcherBenchmark.R;
+  private static final double SIZELIM = GrothMatcherBenchmark.SIZELIM;
+  private static final double MAX_ROTATION = GrothMatcherBenchmark.MAX_ROTATION;
+  private static final double C = GrothMatcherBenchmark.C;
+
+  //GrothMatcher has to give exactly the MatchObject the old SpotTriangle matcher gives, on matches and non-matches
+  @Test
+  public void testSameAsSpotTriangleMatcher() {
+    Random rnd = new Random(7);
+    EncounterLite[] newEncs = new EncounterLite[2];
+    for (int i = 0; i < newEncs.length; i++) {
+      newEncs[i] = GrothMatcherBenchmark.randomPattern("new" + i, 20, rnd);
+    }
+    ArrayList<EncounterLite> catalog = new ArrayList<EncounterLite>();
+    for (int i = 0; i < 8; i++) {
+      if (i % 2 == 0) {
+        catalog.add(GrothMatcherBenchmark.copyOf(newEncs[i % newEncs.length], "copy" + i, rnd));
+      } else {
+        catalog.add(GrothMatcherBenchmark.randomPattern("cat" + i, 15 + rnd.nextInt(11), rnd));
+      }
+    }
+
+    int matches = 0;
+    for (EncounterLite newEnc : newEncs) {
+      for (EncounterLite cat : catalog) {
+        for (boolean right : new boolean[]{false, true}) {
+          MatchObject expected = cat.getPointsForBestMatch(GrothMatcherBenchmark.spots(newEnc, right), EPSILON, R, SIZELIM, MAX_ROTATION, C, true, right);
+          MatchObject actual = cat.getPointsForBestMatch(newEnc, EPSILON, R, SIZELIM, MAX_ROTATION, C, true, right);
+          assertNull(newEnc.getEncounterNumber() + " vs " + cat.getEncounterNumber() + " (right=" + right + ")",
+            GrothMatcherBenchmark.difference(expected, actual));
+          if (expected.matchValue > 0) matches++;
+        }
+      }
+    }
+    assertTrue("no comparison scored above 0", matches > 0);
+  }
+
+  //a second comparison against the same catalog pattern reuses its cached triangles and must score the same
+  @Test
+  public void testCachedTriangles() {
+    Random rnd = new Random(5);
+    EncounterLite newEnc = GrothMatcherBenchmark.randomPattern("new", 20, rnd);
+    EncounterLite cat = GrothMatcherBenchmark.copyOf(newEnc, "copy", rnd);
+    MatchObject first = cat.getPointsForBestMatch(newEnc, EPSILON, R, SIZELIM, MAX_ROTATION, C, true, false);
+    MatchObject second = cat.getPointsForBestMatch(newEnc, EPSILON, R, SIZELIM, MAX_ROTATION, C, true, false);
+    assertNull(GrothMatcherBenchmark.difference(first, second));
+  }
+}
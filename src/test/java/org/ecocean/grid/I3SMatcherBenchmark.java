@@ -0,0 +1,159 @@
+package org.ecocean.grid;
+
+import com.reijns.I3S.Pair;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Checks that I3SMatcher (EncounterLite.i3sScan) scores every comparison the same as the old Compare-based
+ * EncounterLite.i3sScanLegacy, with the same pairs, over a catalog of random patterns plus noisy, rotated and
+ * rescaled copies of the new patterns, then times the two.  Not a unit test; run it by hand:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; org.ecocean.grid.I3SMatcherBenchmark [spots] [catalogSize]
+ * </pre>
+ */
+public class I3SMatcherBenchmark {
+
+  //relative difference allowed between the two scores
+  static final double TOLERANCE = 1e-9;
+
+  public static void main(String[] args) throws Exception {
+    int numSpots = (args.length > 0) ? Integer.parseInt(args[0]) : 30;
+    int catalogSize = (args.length > 1) ? Integer.parseInt(args[1]) : 60;
+    Random rnd = new Random(11);
+
+    EncounterLite[] newEncs = new EncounterLite[4];
+    for (int i = 0; i < newEncs.length; i++) {
+      newEncs[i] = randomPattern("new" + i, numSpots, rnd, i != 3);
+    }
+    ArrayList<EncounterLite> catalog = new ArrayList<EncounterLite>();
+    for (int i = 0; i < catalogSize; i++) {
+      if (i % 2 == 0) {
+        catalog.add(copyOf(newEncs[i % newEncs.length], "copy" + i, rnd));
+      } else {
+        catalog.add(randomPattern("cat" + i, numSpots + rnd.nextInt(11) - 5, rnd, i % 5 != 1));
+      }
+    }
+
+    PrintStream out = System.out;
+    PrintStream quiet = new PrintStream(new OutputStream() {
+      public void write(int b) {
+      }
+    });
+
+    int compared = 0, identical = 0, matches = 0;
+    double worst = 0;
+    System.setOut(quiet);
+    try {
+      for (EncounterLite newEnc : newEncs) {
+        for (EncounterLite cat : catalog) {
+          for (boolean right : new boolean[]{false, true}) {
+            I3SMatchObject expected = cat.i3sScanLegacy(newEnc, right);
+            I3SMatchObject actual = cat.i3sScan(newEnc, right);
+            double a = expected.getI3SMatchValue(), b = actual.getI3SMatchValue();
+            double rel = Math.abs(a - b) / Math.max(Math.abs(a), 1e-300);
+            if ((a != b) && !(rel <= TOLERANCE)) {
+              System.setOut(out);
+              throw new IllegalStateException(newEnc.getEncounterNumber() + " vs " + cat.getEncounterNumber() + " (right=" + right + "): score " + a + " != " + b);
+            }
+            String diff = difference(expected.getMap(), actual.getMap());
+            if (diff != null) {
+              System.setOut(out);
+              throw new IllegalStateException(newEnc.getEncounterNumber() + " vs " + cat.getEncounterNumber() + " (right=" + right + "): " + diff);
+            }
+            compared++;
+            if (a == b) identical++;
+            worst = Math.max(worst, (a == b) ? 0 : rel);
+            if (a < 2) matches++;
+          }
+        }
+      }
+    } finally {
+      System.setOut(out);
+    }
+    System.out.println(String.format("%d comparisons within tolerance (%d bit-identical, worst relative difference %.2g, %d scored < 2), %d spots per pattern",
+      compared, identical, worst, matches, numSpots));
+
+    //timing; the prints are normalized on the first pass and reused after that, as on a grid node
+    for (int round = 0; round < 3; round++) {
+      System.setOut(quiet);
+      long t0 = System.nanoTime();
+      for (EncounterLite newEnc : newEncs) {
+        for (EncounterLite cat : catalog) {
+          cat.i3sScanLegacy(newEnc, false);
+        }
+      }
+      long t1 = System.nanoTime();
+      for (EncounterLite newEnc : newEncs) {
+        for (EncounterLite cat : catalog) {
+          cat.i3sScan(newEnc, false);
+        }
+      }
+      long t2 = System.nanoTime();
+      System.setOut(out);
+      int n = newEncs.length * catalog.size();
+      System.out.println(String.format("round %d: Compare %,9.1f us/comparison, I3SMatcher %,9.1f us/comparison (%.1fx)",
+        round, (t1 - t0) / 1000.0 / n, (t2 - t1) / 1000.0 / n, (double) (t1 - t0) / (t2 - t1)));
+    }
+  }
+
+  static String difference(TreeMap a, TreeMap b) {
+    if (!a.keySet().equals(b.keySet())) return "pair keys " + a.keySet() + " != " + b.keySet();
+    for (Iterator it = a.keySet().iterator(); it.hasNext(); ) {
+      Object key = it.next();
+      Pair pa = (Pair) a.get(key), pb = (Pair) b.get(key);
+      if ((pa.m1 != pb.m1) || (pa.m2 != pb.m2) || (Double.doubleToLongBits(pa.dist) != Double.doubleToLongBits(pb.dist))) {
+        return "pair " + key + " differs";
+      }
+    }
+    return null;
+  }
+
+  //withRefs false leaves out the reference spots, so the fiducial points are made up from the spots' extent
+  static EncounterLite randomPattern(String id, int n, Random rnd, boolean withRefs) {
+    double[][] arrays = new double[8][];
+    for (int i = 0; i < 4; i++) {
+      arrays[i] = new double[n];
+      for (int j = 0; j < n; j++) {
+        arrays[i][j] = 50 + rnd.nextDouble() * 900;
+      }
+    }
+    if (withRefs) {
+      for (int side = 0; side < 2; side++) {
+        arrays[4 + side * 2] = new double[]{100 + rnd.nextGaussian() * 10, 900 + rnd.nextGaussian() * 10, 500 + rnd.nextGaussian() * 10};
+        arrays[5 + side * 2] = new double[]{100 + rnd.nextGaussian() * 10, 100 + rnd.nextGaussian() * 10, 800 + rnd.nextGaussian() * 10};
+      }
+    }
+    return new EncounterLite(id, "indiv-" + id, "unknown", "2016-01-01", 7.0, arrays);
+  }
+
+  //the same animal photographed again: rotated a little, rescaled, shifted, with jitter and a couple of spots lost
+  static EncounterLite copyOf(EncounterLite el, String id, Random rnd) {
+    double[][] src = el.getPatternArrays();
+    double[][] arrays = new double[8][];
+    for (int side = 0; side < 2; side++) {
+      double angle = Math.toRadians(rnd.nextDouble() * 6 - 3);
+      double scale = 0.8 + rnd.nextDouble() * 0.4;
+      for (int part = 0; part < 2; part++) {
+        double[] x = src[part * 4 + side * 2], y = src[part * 4 + side * 2 + 1];
+        if (x == null) continue;
+        int keep = (part == 0) ? x.length - rnd.nextInt(3) : x.length;
+        double jitter = (part == 0) ? 2 : 0.5;
+        double[] nx = new double[keep], ny = new double[keep];
+        for (int j = 0; j < keep; j++) {
+          double px = x[j] - 500, py = y[j] - 500;
+          nx[j] = 600 + scale * (px * Math.cos(angle) - py * Math.sin(angle)) + rnd.nextGaussian() * jitter;
+          ny[j] = 600 + scale * (px * Math.sin(angle) + py * Math.cos(angle)) + rnd.nextGaussian() * jitter;
+        }
+        arrays[part * 4 + side * 2] = nx;
+        arrays[part * 4 + side * 2 + 1] = ny;
+      }
+    }
+    return new EncounterLite(id, "indiv-" + id, "unknown", "2016-01-01", 7.0, arrays);
+  }
+}
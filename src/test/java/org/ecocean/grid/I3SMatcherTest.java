@@ -0,0 +1,44 @@
+package org.ecocean.grid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class I3SMatcherTest {
+
+  //I3SMatcher has to score every comparison as the Compare-based i3sScanLegacy does, within TOLERANCE, with the same pairs
+  @Test
+  public void testSameAsLegacyScan() {
+    Random rnd = new Random(11);
+    EncounterLite[] newEncs = new EncounterLite[2];
+    for (int i = 0; i < newEncs.length; i++) {
+      //the second has no reference spots, so its fiducial points come from the spots' extent
+      newEncs[i] = I3SMatcherBenchmark.randomPattern("new" + i, 20, rnd, i == 0);
+    }
+    ArrayList<EncounterLite> catalog = new ArrayList<EncounterLite>();
+    for (int i = 0; i < 8; i++) {
+      if (i % 2 == 0) {
+        catalog.add(I3SMatcherBenchmark.copyOf(newEncs[i % newEncs.length], "copy" + i, rnd));
+      } else {
+        catalog.add(I3SMatcherBenchmark.randomPattern("cat" + i, 15 + rnd.nextInt(11), rnd, i % 3 != 0));
+      }
+    }
+
+    for (EncounterLite newEnc : newEncs) {
+      for (EncounterLite cat : catalog) {
+        for (boolean right : new boolean[]{false, true}) {
+          String which = newEnc.getEncounterNumber() + " vs " + cat.getEncounterNumber() + " (right=" + right + ")";
+          I3SMatchObject expected = cat.i3sScanLegacy(newEnc, right);
+          I3SMatchObject actual = cat.i3sScan(newEnc, right);
+          double a = expected.getI3SMatchValue(), b = actual.getI3SMatchValue();
+          assertEquals(which, a, b, Math.abs(a) * I3SMatcherBenchmark.TOLERANCE);
+          assertNull(which, I3SMatcherBenchmark.difference(expected.getMap(), actual.getMap()));
+          assertEquals(which, expected.getIndividualName(), actual.getIndividualName());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package org.ecocean.grid;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks that a MatchGraphStore snapshot plus journal reads back exactly what was written (including a torn last
+ * journal record), then times writing and loading a catalog-sized snapshot.  Not a unit test; run it by hand:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; org.ecocean.grid.MatchGraphStoreBenchmark [encounters] [spots]
+ * </pre>
+ */
+public class MatchGraphStoreBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int numEncounters = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+    int numSpots = (args.length > 1) ? Integer.parseInt(args[1]) : 40;
+    Random rnd = new Random(3);
+    File dir = new File(System.getProperty("java.io.tmpdir"), "matchGraphStoreBenchmark" + System.nanoTime());
+    dir.mkdirs();
+    File snapshot = new File(dir, "matchGraph.bin");
+
+    //round trip, with a journal on top of the snapshot
+    HashMap<String, EncounterLite> graph = new HashMap<String, EncounterLite>();
+    for (int i = 0; i < 100; i++) {
+      graph.put("enc" + i, pattern("enc" + i, numSpots, rnd));
+    }
+    MatchGraphStore store = new MatchGraphStore(snapshot);
+    store.writeSnapshot(graph);
+    for (int i = 0; i < 10; i++) {
+      EncounterLite el = pattern("enc" + i, numSpots, rnd);
+      graph.put("enc" + i, el);
+      store.put("enc" + i, el, graph);
+    }
+    graph.remove("enc50");
+    store.remove("enc50", graph);
+    store.close();
+    compare(graph, load(snapshot));
+
+    //a crash part way through appending a record loses only that record
+    File journal = new File(snapshot.getPath() + ".journal");
+    store = new MatchGraphStore(snapshot);
+    store.put("torn", pattern("torn", numSpots, rnd), graph);
+    store.close();
+    RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+    raf.setLength(raf.length() - 20);
+    raf.close();
+    compare(graph, load(snapshot));
+    System.out.println("snapshot + journal round trip identical, torn journal record ignored");
+
+    //timing
+    graph.clear();
+    for (int i = 0; i < numEncounters; i++) {
+      graph.put("enc" + i, pattern("enc" + i, numSpots, rnd));
+    }
+    store = new MatchGraphStore(snapshot);
+    long t0 = System.nanoTime();
+    store.writeSnapshot(graph);
+    long t1 = System.nanoTime();
+    for (int round = 0; round < 3; round++) {
+      long t2 = System.nanoTime();
+      HashMap<String, EncounterLite> loaded = new HashMap<String, EncounterLite>();
+      store.load(loaded);
+      long t3 = System.nanoTime();
+      System.out.println(String.format("%,d encounters, %d spots each, %,d byte snapshot: write %,.0f ms, load %,.0f ms",
+        loaded.size(), numSpots, snapshot.length(), (t1 - t0) / 1e6, (t3 - t2) / 1e6));
+    }
+    store.close();
+
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  private static HashMap<String, EncounterLite> load(File snapshot) throws Exception {
+    HashMap<String, EncounterLite> loaded = new HashMap<String, EncounterLite>();
+    new MatchGraphStore(snapshot).load(loaded);
+    return loaded;
+  }
+
+  private static void compare(Map<String, EncounterLite> expected, Map<String, EncounterLite> actual) {
+    if (!expected.keySet().equals(actual.keySet())) throw new IllegalStateException("keys differ");
+    for (String id : expected.keySet()) {
+      EncounterLite a = expected.get(id), b = actual.get(id);
+      double[][] pa = a.getPatternArrays(), pb = b.getPatternArrays();
+      for (int i = 0; i < pa.length; i++) {
+        if (!Arrays.equals(pa[i], pb[i])) throw new IllegalStateException("pattern differs for " + id);
+      }
+      if (!b.getEncounterNumber().equals(id) || !a.getDate().equals(b.getDate()) || (a.getSize() != b.getSize())) {
+        throw new IllegalStateException("fields differ for " + id);
+      }
+    }
+  }
+
+  private static EncounterLite pattern(String id, int numSpots, Random rnd) {
+    double[][] arrays = new double[8][];
+    boolean hasRight = rnd.nextBoolean();
+    for (int i = 0; i < arrays.length; i++) {
+      if ((i == 2 || i == 3) && !hasRight) continue;
+      int n = (i < 4) ? numSpots : 3;
+      arrays[i] = new double[n];
+      for (int j = 0; j < n; j++) {
+        arrays[i][j] = rnd.nextDouble() * 1000;
+      }
+    }
+    return new EncounterLite(id, "indiv-" + id, "female", "2016-01-01", 6.5, arrays);
+  }
+}
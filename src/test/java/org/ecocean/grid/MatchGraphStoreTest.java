@@ -0,0 +1,172 @@
+package org.ecocean.grid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class MatchGraphStoreTest {
+
+  private File dir;
+  private File snapshot;
+  private Random rnd;
+
+  @Before
+  public void setUp() {
+    dir = new File(System.getProperty("java.io.tmpdir"), "MatchGraphStoreTest" + System.nanoTime());
+    dir.mkdirs();
+    snapshot = new File(dir, "matchGraph.bin");
+    rnd = new Random(3);
+  }
+
+  @After
+  public void tearDown() {
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  private EncounterLite pattern(String id) {
+    double[][] arrays = new double[8][];
+    for (int i = 0; i < 4; i++) {
+      arrays[i] = new double[5];
+      for (int j = 0; j < 5; j++) {
+        arrays[i][j] = rnd.nextDouble() * 1000;
+      }
+    }
+    //no right reference spots
+    arrays[4] = new double[]{1, 2, 3};
+    arrays[5] = new double[]{4, 5, 6};
+    return new EncounterLite(id, (rnd.nextInt(3) == 0) ? null : "indiv-" + id, "unknown", "2016-01-01", 7.0, arrays);
+  }
+
+  private Map<String, EncounterLite> load() throws Exception {
+    HashMap<String, EncounterLite> graph = new HashMap<String, EncounterLite>();
+    MatchGraphStore store = new MatchGraphStore(snapshot);
+    store.load(graph);
+    store.close();
+    return graph;
+  }
+
+  private static void assertSameGraph(Map<String, EncounterLite> expected, Map<String, EncounterLite> actual) {
+    assertEquals(expected.keySet(), actual.keySet());
+    for (String id : expected.keySet()) {
+      EncounterLite a = expected.get(id), b = actual.get(id);
+      assertEquals(id, a.getBelongsToMarkedIndividual(), b.getBelongsToMarkedIndividual());
+      assertEquals(id, a.getSex(), b.getSex());
+      assertEquals(id, a.getDate(), b.getDate());
+      assertEquals(a.getSize(), b.getSize(), 0);
+      double[][] pa = a.getPatternArrays(), pb = b.getPatternArrays();
+      for (int i = 0; i < pa.length; i++) {
+        if (pa[i] == null) {
+          assertNull(id + " array " + i, pb[i]);
+        } else {
+          assertArrayEquals(pa[i], pb[i], 0);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSnapshotAndJournal() throws Exception {
+    HashMap<String, EncounterLite> graph = new HashMap<String, EncounterLite>();
+    for (int i = 0; i < 50; i++) {
+      graph.put("enc" + i, pattern("enc" + i));
+    }
+    MatchGraphStore store = new MatchGraphStore(snapshot);
+    assertFalse(store.exists());
+    store.writeSnapshot(graph);
+    assertTrue(store.exists());
+    for (int i = 0; i < 5; i++) {
+      EncounterLite el = pattern("enc" + i);
+      graph.put("enc" + i, el);
+      store.put("enc" + i, el, graph);
+    }
+    graph.remove("enc20");
+    store.remove("enc20", graph);
+    assertEquals(6, store.getNumJournalRecords());
+    store.close();
+
+    assertSameGraph(graph, load());
+  }
+
+  //a crash part way through appending a record loses only that record
+  @Test
+  public void testTornJournalRecord() throws Exception {
+    HashMap<String, EncounterLite> graph = new HashMap<String, EncounterLite>();
+    graph.put("a", pattern("a"));
+    MatchGraphStore store = new MatchGraphStore(snapshot);
+    store.writeSnapshot(graph);
+    EncounterLite b = pattern("b");
+    graph.put("b", b);
+    store.put("b", b, graph);
+    store.put("torn", pattern("torn"), graph);
+    store.close();
+    RandomAccessFile raf = new RandomAccessFile(new File(snapshot.getPath() + ".journal"), "rw");
+    raf.setLength(raf.length() - 20);
+    raf.close();
+
+    assertSameGraph(graph, load());
+  }
+
+  @Test
+  public void testNoSnapshot() throws Exception {
+    MatchGraphStore store = new MatchGraphStore(snapshot);
+    assertEquals(-1, store.load(new HashMap<String, EncounterLite>()));
+  }
+
+  //enough changes to fold the journal into a new snapshot in the background, with more coming in meanwhile
+  @Test
+  public void testCompaction() throws Exception {
+    ConcurrentHashMap<String, EncounterLite> graph = new ConcurrentHashMap<String, EncounterLite>();
+    MatchGraphStore store = new MatchGraphStore(snapshot);
+    store.writeSnapshot(graph);
+    for (int i = 0; i < 5000; i++) {
+      String id = "enc" + rnd.nextInt(1500);
+      if (rnd.nextInt(5) == 0) {
+        graph.remove(id);
+        store.remove(id, graph);
+      } else {
+        EncounterLite el = pattern(id);
+        graph.put(id, el);
+        store.put(id, el, graph);
+      }
+    }
+    store.awaitCompaction();
+    assertTrue(store.getNumJournalRecords() < 5000);
+    store.close();
+
+    assertSameGraph(graph, load());
+  }
+
+  //a journal set aside by a compaction that never finished is replayed before the current one
+  @Test
+  public void testUnfinishedCompaction() throws Exception {
+    HashMap<String, EncounterLite> graph = new HashMap<String, EncounterLite>();
+    graph.put("a", pattern("a"));
+    MatchGraphStore store = new MatchGraphStore(snapshot);
+    store.writeSnapshot(graph);
+    EncounterLite first = pattern("b");
+    store.put("b", first, graph);
+    store.close();
+    File journal = new File(snapshot.getPath() + ".journal");
+    assertTrue(journal.renameTo(new File(snapshot.getPath() + ".journal.compacting")));
+
+    store = new MatchGraphStore(snapshot);
+    EncounterLite second = pattern("b");
+    graph.put("b", second);
+    store.put("b", second, graph);
+    store.close();
+
+    assertSameGraph(graph, load());
+  }
+}
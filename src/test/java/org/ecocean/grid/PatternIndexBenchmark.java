@@ -0,0 +1,115 @@
+package org.ecocean.grid;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reports how well PatternIndex's candidates stand in for a full scan: over a catalog of random patterns with a
+ * few re-photographed copies of each query pattern mixed in, how many of the copies and how many of the full
+ * Groth scan's top matches make the candidate list, and how long the index query plus the reduced scan take
+ * against the full scan.  Not a unit test; run it by hand:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; org.ecocean.grid.PatternIndexBenchmark [catalogSize] [candidates] [spots]
+ * </pre>
+ */
+public class PatternIndexBenchmark {
+
+  private static final double EPSILON = 0.01;
+  private static final double R = 50;
+  private static final double SIZELIM = 0.9999;
+  private static final double MAX_ROTATION = 10;
+  private static final double C = 0.99;
+
+  private static final int NUM_QUERIES = 5;
+  private static final int COPIES = 3;
+  private static final int TOP = 10;
+
+  public static void main(String[] args) throws Exception {
+    int catalogSize = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+    int numCandidates = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+    int numSpots = (args.length > 2) ? Integer.parseInt(args[2]) : 25;
+    Random rnd = new Random(5);
+
+    EncounterLite[] queries = new EncounterLite[NUM_QUERIES];
+    HashMap<String, EncounterLite> graph = new HashMap<String, EncounterLite>();
+    HashMap<String, String> copyOf = new HashMap<String, String>();
+    for (int q = 0; q < NUM_QUERIES; q++) {
+      queries[q] = GrothMatcherBenchmark.randomPattern("query" + q, numSpots, rnd);
+      for (int c = 0; c < COPIES; c++) {
+        EncounterLite copy = GrothMatcherBenchmark.copyOf(queries[q], "copy" + q + "-" + c, rnd);
+        graph.put(copy.getEncounterNumber(), copy);
+        copyOf.put(copy.getEncounterNumber(), queries[q].getEncounterNumber());
+      }
+    }
+    while (graph.size() < catalogSize) {
+      EncounterLite el = GrothMatcherBenchmark.randomPattern("cat" + graph.size(), numSpots + rnd.nextInt(11) - 5, rnd);
+      graph.put(el.getEncounterNumber(), el);
+    }
+
+    PrintStream out = System.out;
+    PrintStream quiet = new PrintStream(new OutputStream() {
+      public void write(int b) {
+      }
+    });
+
+    System.setOut(quiet);
+    long t0 = System.nanoTime();
+    PatternIndex index = new PatternIndex(false, EPSILON, R, C, SIZELIM);
+    index.putAll(graph);
+    long t1 = System.nanoTime();
+    System.setOut(out);
+    System.out.println(String.format("indexed %,d patterns in %,.0f ms", index.size(), (t1 - t0) / 1e6));
+
+    int copiesFound = 0, topFound = 0, topTotal = 0;
+    long fullNanos = 0, queryNanos = 0, reducedNanos = 0;
+    for (EncounterLite query : queries) {
+      //full scan
+      System.setOut(quiet);
+      long s0 = System.nanoTime();
+      final HashMap<String, Double> scores = new HashMap<String, Double>();
+      for (EncounterLite el : graph.values()) {
+        scores.put(el.getEncounterNumber(), el.getPointsForBestMatch(query, EPSILON, R, SIZELIM, MAX_ROTATION, C, true, false).matchValue);
+      }
+      long s1 = System.nanoTime();
+      List<String> candidates = index.candidates(query, numCandidates);
+      long s2 = System.nanoTime();
+      for (String id : candidates) {
+        graph.get(id).getPointsForBestMatch(query, EPSILON, R, SIZELIM, MAX_ROTATION, C, true, false);
+      }
+      long s3 = System.nanoTime();
+      System.setOut(out);
+      fullNanos += s1 - s0;
+      queryNanos += s2 - s1;
+      reducedNanos += s3 - s2;
+
+      HashSet<String> kept = new HashSet<String>(candidates);
+      for (String id : copyOf.keySet()) {
+        if (copyOf.get(id).equals(query.getEncounterNumber()) && kept.contains(id)) copiesFound++;
+      }
+      List<String> ranked = new ArrayList<String>(scores.keySet());
+      Collections.sort(ranked, new Comparator<String>() {
+        public int compare(String a, String b) {
+          return Double.compare(scores.get(b), scores.get(a));
+        }
+      });
+      for (int i = 0; (i < TOP) && (i < ranked.size()); i++) {
+        if (scores.get(ranked.get(i)) <= 0) break;
+        topTotal++;
+        if (kept.contains(ranked.get(i))) topFound++;
+      }
+    }
+
+    System.out.println(String.format("%d candidates of %,d: copies recalled %d/%d, full scan top-%d (score > 0) recalled %d/%d",
+      numCandidates, graph.size(), copiesFound, NUM_QUERIES * COPIES, TOP, topFound, topTotal));
+    System.out.println(String.format("per scan: full %,.0f ms, index query %,.1f ms + candidates %,.0f ms (%.1fx)",
+      fullNanos / 1e6 / NUM_QUERIES, queryNanos / 1e6 / NUM_QUERIES, reducedNanos / 1e6 / NUM_QUERIES,
+      (double) fullNanos / (queryNanos + reducedNanos)));
+  }
+}
@@ -0,0 +1,144 @@
+package org.ecocean.grid;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares saving and showing a scan's Groth results the old way (sort every MatchObject, build the whole XML
+ * document, pretty-print it, and parse it all back for the results page) with ScanResultStore (a top-K
+ * Collector fed as results arrive, a compact store, and one page read back), and checks that the store keeps
+ * the same best matches in the same order.  Not a unit test; run it by hand:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; org.ecocean.grid.ScanResultStoreBenchmark [results] [topK]
+ * </pre>
+ */
+public class ScanResultStoreBenchmark {
+
+  private static final int PAGE = 100;
+
+  public static void main(String[] args) throws Exception {
+    int numResults = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+    int topK = (args.length > 1) ? Integer.parseInt(args[1]) : ScanResultStore.DEFAULT_TOP_K;
+    Random rnd = new Random(3);
+    MatchObject[] results = new MatchObject[numResults];
+    for (int i = 0; i < numResults; i++) {
+      results[i] = randomResult("enc" + i, rnd);
+    }
+    File dir = new File(System.getProperty("java.io.tmpdir"));
+    File xmlFile = new File(dir, "ScanResultStoreBenchmark.xml");
+    File storeFile = new File(dir, "ScanResultStoreBenchmark.dat");
+
+    for (int round = 0; round < 3; round++) {
+      //old: everything sorted, written and parsed back
+      long t0 = System.nanoTime();
+      MatchObject[] all = Arrays.copyOf(results, numResults);
+      Arrays.sort(all, new MatchComparator());
+      Document document = DocumentHelper.createDocument();
+      Element root = document.addElement("matchSet");
+      int numXMLMatches = 0;
+      for (MatchObject mo : all) {
+        if (!ScanResultStore.isGrothMatch(mo)) continue;
+        Element match = root.addElement("match");
+        match.addAttribute("points", Double.toString(mo.getMatchValue()));
+        match.addAttribute("adjustedpoints", Double.toString(mo.getAdjustedMatchValue()));
+        match.addAttribute("pointBreakdown", mo.getPointBreakdown());
+        match.addAttribute("finalscore", toMatch(mo).getScoreString());
+        match.addAttribute("evaluation", mo.getEvaluation());
+        Element enc = match.addElement("encounter");
+        enc.addAttribute("number", mo.getEncounterNumber());
+        Element enc2 = match.addElement("encounter");
+        enc2.addAttribute("number", "new");
+        for (VertexPointMatch vpm : mo.getScores()) {
+          enc.addElement("spot").addAttribute("x", Double.toString(vpm.getOldX())).addAttribute("y", Double.toString(vpm.getOldY()));
+          enc2.addElement("spot").addAttribute("x", Double.toString(vpm.getNewX())).addAttribute("y", Double.toString(vpm.getNewY()));
+        }
+        numXMLMatches++;
+      }
+      FileWriter fw = new FileWriter(xmlFile);
+      org.dom4j.io.XMLWriter writer = new org.dom4j.io.XMLWriter(fw, org.dom4j.io.OutputFormat.createPrettyPrint());
+      writer.write(document);
+      writer.close();
+      long t1 = System.nanoTime();
+      List xmlMatches = new SAXReader().read(xmlFile).getRootElement().elements("match");
+      long t2 = System.nanoTime();
+
+      //new: top-K as they arrive, a compact store, one page read back
+      ScanResultStore.Collector collector = new ScanResultStore.Collector(topK);
+      for (MatchObject mo : results) {
+        collector.add(mo);
+      }
+      ArrayList<ScanResultStore.Match> saved = new ArrayList<ScanResultStore.Match>();
+      for (MatchObject mo : collector.getGrothMatches()) {
+        saved.add(toMatch(mo));
+      }
+      ScanResultStore.write(storeFile, false, false, System.currentTimeMillis(), new LinkedHashMap<String, String>(), new ScanResultStore.EncounterInfo(), saved);
+      long t3 = System.nanoTime();
+      ScanResultStore store = ScanResultStore.open(storeFile);
+      List<ScanResultStore.Match> page = store.getPage(0, PAGE);
+      long t4 = System.nanoTime();
+
+      //the store should hold the first topK matches of the old file, in order
+      int expected = Math.min(topK, numXMLMatches);
+      if (store.size() != expected) throw new IllegalStateException("store has " + store.size() + " matches, expected " + expected);
+      List<ScanResultStore.Match> everything = store.getPage(0, store.size());
+      for (int i = 0; i < expected; i++) {
+        String old = ((Element) xmlMatches.get(i)).attributeValue("finalscore");
+        if (!old.equals(everything.get(i).getScoreString())) throw new IllegalStateException("match " + i + ": " + old + " != " + everything.get(i).getScoreString());
+      }
+      if (page.size() != Math.min(PAGE, expected)) throw new IllegalStateException("page has " + page.size() + " matches");
+      int exported = store.toXML().getRootElement().elements("match").size();
+      if (exported != expected) throw new IllegalStateException("export has " + exported + " matches");
+      store.close();
+
+      System.out.println(String.format("round %d: %,d results, %,d matches: XML write %,.0f ms + parse %,.0f ms (%,d KB); store %,.1f ms + page %,.2f ms (%,d KB, top %d)",
+        round, numResults, numXMLMatches, (t1 - t0) / 1e6, (t2 - t1) / 1e6, xmlFile.length() / 1024,
+        (t3 - t2) / 1e6, (t4 - t3) / 1e6, storeFile.length() / 1024, topK));
+    }
+    xmlFile.delete();
+    storeFile.delete();
+  }
+
+  private static ScanResultStore.Match toMatch(MatchObject mo) {
+    ScanResultStore.Match match = new ScanResultStore.Match();
+    match.score = mo.getMatchValue() * mo.getAdjustedMatchValue();
+    match.points = mo.getMatchValue();
+    match.adjustedPoints = mo.getAdjustedMatchValue();
+    match.pointBreakdown = mo.getPointBreakdown();
+    match.evaluation = mo.getEvaluation();
+    match.encounter.number = mo.getEncounterNumber();
+    VertexPointMatch[] scores = mo.getScores();
+    match.spots = new double[scores.length * 2];
+    match.newSpots = new double[scores.length * 2];
+    for (int k = 0; k < scores.length; k++) {
+      match.spots[2 * k] = scores[k].getOldX();
+      match.spots[2 * k + 1] = scores[k].getOldY();
+      match.newSpots[2 * k] = scores[k].getNewX();
+      match.newSpots[2 * k + 1] = scores[k].getNewY();
+    }
+    return match;
+  }
+
+  //most comparisons score low; a few are real matches
+  private static MatchObject randomResult(String id, Random rnd) {
+    double points = (rnd.nextInt(20) == 0) ? 20 + rnd.nextDouble() * 200 : rnd.nextDouble() * 8;
+    double adjusted = rnd.nextDouble();
+    ArrayList scores = new ArrayList();
+    int numSpots = 10 + rnd.nextInt(20);
+    StringBuffer breakdown = new StringBuffer();
+    for (int k = 0; k < numSpots; k++) {
+      scores.add(new VertexPointMatch(rnd.nextDouble() * 1000, rnd.nextDouble() * 1000, rnd.nextDouble() * 1000, rnd.nextDouble() * 1000, rnd.nextInt(5)));
+      breakdown.append(rnd.nextInt(5)).append(" + ");
+    }
+    return new MatchObject("indiv-" + id, points, adjusted, numSpots * 3, scores, id, breakdown.toString(), null, "unknown", "2016-01-01", 7.0);
+  }
+}
@@ -0,0 +1,150 @@
+package org.ecocean.grid;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ScanResultStoreTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("ScanResultStoreTest", ".dat");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private ScanResultStore.Match match(int i) {
+    ScanResultStore.Match m = new ScanResultStore.Match();
+    m.score = 100 - i;
+    m.points = 20 + i;
+    m.adjustedPoints = 0.5;
+    m.pointBreakdown = "1 + 2 + " + i;
+    m.logMStdDev = (i % 2 == 0) ? null : "0.25";
+    m.evaluation = "Moderate";
+    m.encounter.number = "enc" + i;
+    m.encounter.individualID = (i % 3 == 0) ? null : "indiv" + i;
+    m.encounter.size = "7.0 meters";
+    m.spots = new double[]{i, i + 1, i + 2, i + 3};
+    m.newSpots = new double[]{10 * i, 10 * i + 1, 10 * i + 2, 10 * i + 3};
+    m.keywords = (i % 2 == 0) ? new String[0] : new String[]{"left", "raï"};
+    return m;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    LinkedHashMap<String, String> parameters = new LinkedHashMap<String, String>();
+    parameters.put("R", "50");
+    parameters.put("epsilon", "0.01");
+    ScanResultStore.EncounterInfo newEnc = new ScanResultStore.EncounterInfo();
+    newEnc.number = "new1";
+    newEnc.sex = "female";
+    List<ScanResultStore.Match> matches = new ArrayList<ScanResultStore.Match>();
+    for (int i = 0; i < 25; i++) {
+      matches.add(match(i));
+    }
+    ScanResultStore.write(file, false, true, 1234567890L, parameters, newEnc, matches);
+
+    ScanResultStore store = ScanResultStore.open(file);
+    try {
+      assertFalse(store.isI3S());
+      assertTrue(store.isRightSide());
+      assertEquals(1234567890L, store.getScanDate());
+      assertEquals("50", store.getParameter("R"));
+      assertEquals("0.01", store.getParameter("epsilon"));
+      assertNull(store.getParameter("C"));
+      assertEquals("new1", store.getNewEncounter().number);
+      assertEquals("female", store.getNewEncounter().sex);
+      assertNull(store.getNewEncounter().date);
+      assertEquals(25, store.size());
+
+      //a page in the middle, and one that runs off the end
+      List<ScanResultStore.Match> page = store.getPage(10, 5);
+      assertEquals(5, page.size());
+      for (int i = 0; i < 5; i++) {
+        assertSameMatch(matches.get(10 + i), page.get(i));
+      }
+      assertEquals(3, store.getPage(22, 10).size());
+      assertEquals(0, store.getPage(25, 10).size());
+      assertSameMatch(matches.get(24), store.get(24));
+    } finally {
+      store.close();
+    }
+  }
+
+  @Test
+  public void testXML() throws IOException {
+    List<ScanResultStore.Match> matches = new ArrayList<ScanResultStore.Match>();
+    matches.add(match(1));
+    ScanResultStore.EncounterInfo newEnc = new ScanResultStore.EncounterInfo();
+    newEnc.number = "new1";
+    ScanResultStore.write(file, false, false, 0L, new LinkedHashMap<String, String>(), newEnc, matches);
+    ScanResultStore store = ScanResultStore.open(file);
+    try {
+      Document doc = store.toXML();
+      Element m = (Element) doc.getRootElement().elements("match").get(0);
+      assertEquals("21.0", m.attributeValue("points"));
+      assertEquals("99.0", m.attributeValue("finalscore"));
+      List encs = m.elements("encounter");
+      assertEquals("enc1", ((Element) encs.get(0)).attributeValue("number"));
+      assertEquals("7.0 meters", ((Element) encs.get(0)).attributeValue("size"));
+      assertEquals(2, ((Element) encs.get(0)).elements("spot").size());
+      assertEquals("new1", ((Element) encs.get(1)).attributeValue("number"));
+      assertEquals(2, m.element("keywords").elements("keyword").size());
+    } finally {
+      store.close();
+    }
+  }
+
+  //the collector has to keep the same best matches, in the same order, as sorting everything would
+  @Test
+  public void testCollectorKeepsTopK() {
+    ScanResultStore.Collector collector = new ScanResultStore.Collector(10);
+    List<MatchObject> all = new ArrayList<MatchObject>();
+    Random rnd = new Random(3);
+    for (int i = 0; i < 500; i++) {
+      MatchObject mo = new MatchObject("indiv" + i, rnd.nextDouble() * 50, rnd.nextDouble(), 3, new ArrayList(), "enc" + i, "", null, "unknown", "2016-01-01", 7.0);
+      all.add(mo);
+      collector.add(mo);
+    }
+    List<MatchObject> expected = new ArrayList<MatchObject>();
+    for (MatchObject mo : all) {
+      if (ScanResultStore.isGrothMatch(mo)) expected.add(mo);
+    }
+    MatchObject[] sorted = expected.toArray(new MatchObject[expected.size()]);
+    Arrays.sort(sorted, new MatchComparator());
+    assertEquals(500, collector.getNumAdded());
+    assertArrayEquals(Arrays.copyOf(sorted, 10), collector.getGrothMatches());
+  }
+
+  private static void assertSameMatch(ScanResultStore.Match expected, ScanResultStore.Match actual) {
+    assertEquals(expected.score, actual.score, 0);
+    assertEquals(expected.points, actual.points, 0);
+    assertEquals(expected.adjustedPoints, actual.adjustedPoints, 0);
+    assertEquals(expected.pointBreakdown, actual.pointBreakdown);
+    assertEquals(expected.logMStdDev, actual.logMStdDev);
+    assertEquals(expected.evaluation, actual.evaluation);
+    assertEquals(expected.encounter.number, actual.encounter.number);
+    assertEquals(expected.encounter.individualID, actual.encounter.individualID);
+    assertEquals(expected.encounter.size, actual.encounter.size);
+    assertArrayEquals(expected.spots, actual.spots, 0);
+    assertArrayEquals(expected.newSpots, actual.newSpots, 0);
+    assertArrayEquals(expected.keywords, actual.keywords);
+  }
+}
@@ -0,0 +1,92 @@
+package org.ecocean.grid;
+
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmark of GridManager's work item store: a grid node's round trip (check out a group of items, check
+ * each one in) at 10k, 100k and 1M outstanding items, with several threads standing in for grid nodes.  Each
+ * checked-in item is replaced by a new one so the queue stays at its size.  Run it with:
+ * <pre>
+ *   mvn test-compile
+ *   java -cp target/test-classes:target/classes:&lt;test classpath&gt; org.openjdk.jmh.Main WorkItemQueueBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkItemQueueBenchmark {
+
+  private static final int GROUP_SIZE = 20;
+  private static final int TASKS = 10;
+
+  @Param({"10000", "100000", "1000000"})
+  public int size;
+
+  private WorkItemQueue queue;
+  private Properties props;
+  private final AtomicLong nextID = new AtomicLong();
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    props = new Properties();
+    props.setProperty("epsilon", "0.01");
+    props.setProperty("R", "50");
+    props.setProperty("Sizelim", "0.9999");
+    props.setProperty("maxTriangleRotation", "10");
+    props.setProperty("C", "0.99");
+    props.setProperty("secondRun", "true");
+    props.setProperty("rightScan", "false");
+
+    queue = new WorkItemQueue();
+    for (int i = 0; i < size; i++) {
+      addItem();
+    }
+  }
+
+  private void addItem() {
+    long i = nextID.getAndIncrement();
+    String taskID = "task" + (i % TASKS);
+    queue.add(new ScanWorkItem((EncounterLite)null, (EncounterLite)null, taskID + "_" + i, taskID, props));
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void checkoutAndCheckin(Blackhole bh) {
+    ArrayList<ScanWorkItem> items = queue.checkout(GROUP_SIZE, 120000);
+    for (ScanWorkItem swi : items) {
+      bh.consume(queue.checkin(new ScanWorkItemResult(swi.getTaskIdentifier(), swi.getUniqueNumber(), null), true));
+      addItem();
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void itemsForTask(Blackhole bh) {
+    bh.consume(queue.getItemsForTask("task" + (nextID.get() % TASKS)));
+  }
+
+  public static void main(String[] args) throws Exception {
+    org.openjdk.jmh.Main.main(new String[]{WorkItemQueueBenchmark.class.getSimpleName()});
+  }
+}
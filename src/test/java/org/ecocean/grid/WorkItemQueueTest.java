@@ -0,0 +1,99 @@
+package org.ecocean.grid;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class WorkItemQueueTest {
+
+  private WorkItemQueue queue;
+  private Properties props;
+
+  @Before
+  public void setUp() {
+    queue = new WorkItemQueue();
+    props = new Properties();
+    props.setProperty("epsilon", "0.01");
+    props.setProperty("R", "50");
+    props.setProperty("Sizelim", "0.9999");
+    props.setProperty("maxTriangleRotation", "10");
+    props.setProperty("C", "0.99");
+    props.setProperty("secondRun", "true");
+    props.setProperty("rightScan", "false");
+  }
+
+  private ScanWorkItem item(String taskID, int n) {
+    return new ScanWorkItem((EncounterLite)null, (EncounterLite)null, taskID + "_" + n, taskID, props);
+  }
+
+  private ScanWorkItemResult result(ScanWorkItem swi) {
+    return new ScanWorkItemResult(swi.getTaskIdentifier(), swi.getUniqueNumber(), null);
+  }
+
+  @Test
+  public void testCheckoutAndCheckin() {
+    for (int i = 0; i < 5; i++) queue.add(item("a", i));
+    ArrayList<ScanWorkItem> out = queue.checkout(3, 120000);
+    assertEquals(3, out.size());
+    assertTrue(queue.checkin(result(out.get(0)), true));
+    assertFalse(queue.checkin(result(out.get(0)), true));  //collision
+    assertEquals(1, queue.getNumCollisions());
+    assertEquals(4, queue.getNumIncompleteForTask("a"));
+    assertEquals(1, queue.getNumCompleteForTask("a"));
+    assertTrue(queue.containsResult("a", out.get(0).getUniqueNumber()));
+    assertFalse(queue.containsItem(out.get(0).getUniqueNumber()));
+  }
+
+  @Test
+  public void testItemsForTask() {
+    for (int i = 0; i < 4; i++) queue.add(item("a", i));
+    for (int i = 0; i < 3; i++) queue.add(item("b", i));
+    queue.add(item("c", 0), false);  //tracked but never offered
+    queue.checkout(2, 120000);
+
+    assertEquals(4, queue.getItemsForTask("a").size());
+    assertEquals(3, queue.getItemsForTask("b").size());
+    assertEquals(1, queue.getItemsForTask("c").size());
+    assertEquals(0, queue.getItemsForTask("none").size());
+
+    queue.remove("a_1");
+    assertEquals(3, queue.getItemsForTask("a").size());
+    for (ScanWorkItem swi : queue.getItemsForTask("a")) assertEquals("a", swi.getTaskIdentifier());
+  }
+
+  @Test
+  public void testLateResultForRemovedTask() {
+    queue.add(item("a", 0));
+    ScanWorkItem swi = queue.checkout(1, 120000).get(0);
+    queue.removeItemsForTask("a");
+    queue.removeResultsForTask("a");
+    assertEquals(0, queue.getItemsForTask("a").size());
+
+    //the node that had it checks it in afterwards
+    assertFalse(queue.checkin(result(swi), true));
+    assertEquals(0, queue.getNumCompleteForTask("a"));
+    assertEquals(0, queue.numResults());
+    assertEquals(0, queue.getAllResults().size());
+    assertEquals(0, queue.checkout(1, 120000).size());
+  }
+
+  //all checked in, then the results collected: the task goes, though its deques still hold the checked-in entries
+  @Test
+  public void testTaskDroppedAfterResultsRemoved() {
+    for (int i = 0; i < 3; i++) queue.add(item("a", i));
+    ArrayList<ScanWorkItem> out = queue.checkout(2, 120000);
+    for (ScanWorkItem swi : out) assertTrue(queue.checkin(result(swi), true));
+    assertTrue(queue.checkin(result(queue.getItem("a_2")), true));
+    assertEquals(3, queue.getNumCompleteForTask("a"));
+    queue.removeResultsForTask("a");
+
+    //a late duplicate finds no task, rather than counting as a new result of a live one
+    assertFalse(queue.checkin(result(out.get(0)), true));
+    assertEquals(0, queue.getNumCompleteForTask("a"));
+    assertEquals(0, queue.getNumCollisions());
+  }
+}
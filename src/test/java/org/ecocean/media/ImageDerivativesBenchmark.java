@@ -0,0 +1,144 @@
+package org.ecocean.media;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+ * Writes a batch of synthetic camera-sized jpegs, then makes the standard children (master, mid, thumb, watermark)
+ * for each one, as a burst of uploads would: once decoding each source once for all children through
+ * ImageDerivatives (subsampled where possible, on its bounded pool), and once the way the old per-child
+ * processes did it, a full decode for every child.  Reports images/s and peak heap for both.  Not a unit test; run
+ * it by hand:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; org.ecocean.media.ImageDerivativesBenchmark [images] [width] [height] [uploaders]
+ * </pre>
+ */
+public class ImageDerivativesBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numImages = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+        int width = (args.length > 1) ? Integer.parseInt(args[1]) : 3000;
+        int height = (args.length > 2) ? Integer.parseInt(args[2]) : 2000;
+        int uploaders = (args.length > 3) ? Integer.parseInt(args[3]) : 16;
+
+        File dir = new File(System.getProperty("java.io.tmpdir"), "imageDerivativesBench");
+        dir.mkdirs();
+        File mark = new File(dir, "watermark.png");
+        BufferedImage wm = new BufferedImage(120, 40, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = wm.createGraphics();
+        g.setColor(new Color(255, 255, 255, 128));
+        g.fillRoundRect(0, 0, 120, 40, 10, 10);
+        g.dispose();
+        ImageIO.write(wm, "png", mark);
+
+        //a few distinct sources, reused, so writing them does not dominate
+        Random rnd = new Random(42);
+        File[] sources = new File[Math.min(numImages, 20)];
+        for (int i = 0 ; i < sources.length ; i++) {
+            sources[i] = new File(dir, "src" + i + ".jpg");
+            if (!sources[i].exists()) ImageIO.write(synthetic(rnd, width, height), "jpeg", sources[i]);
+        }
+        System.out.println(String.format("%d images of %dx%d (%d KB each), %d uploaders, %d cores",
+            numImages, width, height, sources[0].length() >> 10, uploaders, Runtime.getRuntime().availableProcessors()));
+
+        run("warmup", sources, Math.min(numImages, 20), uploaders, mark, dir, false);
+        run("per-child decode", sources, numImages, uploaders, mark, dir, false);
+        run("single decode, pooled", sources, numImages, uploaders, mark, dir, true);
+        ImageDerivatives.cleanup();
+    }
+
+    private static void run(String label, final File[] sources, final int numImages, int uploaders, final File mark, final File dir, final boolean pooled) throws Exception {
+        System.gc();
+        for (MemoryPoolMXBean mp : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (mp.getType() == MemoryType.HEAP) mp.resetPeakUsage();
+        }
+        final AtomicLong next = new AtomicLong();
+        final AtomicLong made = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(uploaders);
+        long t = System.nanoTime();
+        for (int u = 0 ; u < uploaders ; u++) {
+            final int n = u;
+            new Thread(new Runnable() {
+                public void run() {
+                    long i;
+                    while ((i = next.getAndIncrement()) < numImages) {
+                        File source = sources[(int)(i % sources.length)];
+                        List<ImageDerivatives.Spec> specs = specs(dir, n, mark);
+                        try {
+                            if (pooled) {
+                                ImageDerivatives.derive(source, specs, true);
+                            } else {
+                                //the old structure minus the process spawn: every child decodes the full source
+                                for (ImageDerivatives.Spec spec : specs) {
+                                    BufferedImage img = ImageIO.read(source);
+                                    ImageDerivatives.render(img, 1, ImageDerivatives.exifOrientation(source), spec);
+                                }
+                            }
+                        } catch (Exception ex) {
+                            ex.printStackTrace();
+                        }
+                        for (ImageDerivatives.Spec spec : specs) {
+                            if (spec.target.exists()) made.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        double secs = (System.nanoTime() - t) / 1e9;
+        long peak = 0;
+        for (MemoryPoolMXBean mp : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (mp.getType() == MemoryType.HEAP) peak += mp.getPeakUsage().getUsed();
+        }
+        System.out.println(String.format("%-22s %,d images (%,d children) in %.1f s = %.1f images/s, peak heap %,d MB",
+            label, numImages, made.get(), secs, numImages / secs, peak >> 20));
+    }
+
+    private static List<ImageDerivatives.Spec> specs(File dir, int n, File mark) {
+        List<ImageDerivatives.Spec> specs = new ArrayList<ImageDerivatives.Spec>();
+        ImageDerivatives.Spec s = new ImageDerivatives.Spec("master", "maintainAspectRatio", 4096, 4096, new File(dir, n + "-master.jpg"));
+        s.quality = 90;
+        specs.add(s);
+        specs.add(new ImageDerivatives.Spec("thumb", "resize", 100, 75, new File(dir, n + "-thumb.jpg")));
+        specs.add(new ImageDerivatives.Spec("mid", "resize", 1024, 768, new File(dir, n + "-mid.jpg")));
+        s = new ImageDerivatives.Spec("watermark", "watermark", 250, 200, new File(dir, n + "-watermark.jpg"));
+        s.quality = 70;
+        s.watermarkImage = mark;
+        s.comment = "benchmark";
+        specs.add(s);
+        for (ImageDerivatives.Spec spec : specs) {
+            spec.target.delete();
+        }
+        return specs;
+    }
+
+    //gradient plus noisy blocks, so it compresses (and decodes) something like a photo
+    private static BufferedImage synthetic(Random rnd, int w, int h) {
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(rnd.nextInt(0xffffff)), w, h, new Color(rnd.nextInt(0xffffff))));
+        g.fillRect(0, 0, w, h);
+        for (int i = 0 ; i < 400 ; i++) {
+            g.setColor(new Color(rnd.nextInt(0xffffff)));
+            g.fillOval(rnd.nextInt(w), rnd.nextInt(h), 20 + rnd.nextInt(w / 8), 20 + rnd.nextInt(h / 8));
+        }
+        g.dispose();
+        for (int i = 0 ; i < w * h / 20 ; i++) {
+            img.setRGB(rnd.nextInt(w), rnd.nextInt(h), rnd.nextInt(0xffffff));
+        }
+        return img;
+    }
+}
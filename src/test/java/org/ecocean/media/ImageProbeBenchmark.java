@@ -0,0 +1,99 @@
+package org.ecocean.media;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+import com.drew.imaging.ImageMetadataReader;
+
+/**
+ * Writes a few large synthetic jpegs, then gets their dimensions and exif the old way (ImageIO.read() for
+ * width/height plus ImageMetadataReader) and through ImageProbe, cold and cached, reporting time per file and
+ * peak heap.  Not a unit test; run it by hand:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; org.ecocean.media.ImageProbeBenchmark [files] [width] [height] [rounds]
+ * </pre>
+ */
+public class ImageProbeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numFiles = (args.length > 0) ? Integer.parseInt(args[0]) : 10;
+        int width = (args.length > 1) ? Integer.parseInt(args[1]) : 7360;
+        int height = (args.length > 2) ? Integer.parseInt(args[2]) : 4912;
+        int rounds = (args.length > 3) ? Integer.parseInt(args[3]) : 3;
+
+        File dir = new File(System.getProperty("java.io.tmpdir"), "imageProbeBench");
+        dir.mkdirs();
+        Random rnd = new Random(42);
+        File[] files = new File[numFiles];
+        for (int i = 0 ; i < numFiles ; i++) {
+            files[i] = new File(dir, "p" + i + "-" + width + "x" + height + ".jpg");
+            if (files[i].exists()) continue;
+            BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = img.createGraphics();
+            for (int k = 0 ; k < 300 ; k++) {
+                g.setColor(new Color(rnd.nextInt(0xffffff)));
+                g.fillRect(rnd.nextInt(width), rnd.nextInt(height), 50 + rnd.nextInt(width / 4), 50 + rnd.nextInt(height / 4));
+            }
+            g.dispose();
+            ImageIO.write(img, "jpeg", files[i]);
+        }
+        System.out.println(String.format("%d files of %dx%d (%d KB each)", numFiles, width, height, files[0].length() >> 10));
+
+        for (int r = 0 ; r < rounds ; r++) {
+            resetPeak();
+            long t = System.nanoTime();
+            long sum = 0;
+            for (File f : files) {
+                BufferedImage bimg = ImageIO.read(f);
+                sum += bimg.getWidth() + bimg.getHeight();
+                try {
+                    ImageMetadataReader.readMetadata(f);
+                } catch (Exception ex) {}
+            }
+            report("ImageIO.read + exif", t, numFiles, sum);
+
+            ImageProbe.clearCache();
+            resetPeak();
+            t = System.nanoTime();
+            sum = 0;
+            for (File f : files) {
+                ImageProbe.Result p = ImageProbe.probe(f);
+                sum += p.getWidth() + p.getHeight();
+            }
+            report("ImageProbe (cold)", t, numFiles, sum);
+
+            resetPeak();
+            t = System.nanoTime();
+            sum = 0;
+            for (File f : files) {
+                ImageProbe.Result p = ImageProbe.probe(f);
+                sum += p.getWidth() + p.getHeight();
+            }
+            report("ImageProbe (cached)", t, numFiles, sum);
+        }
+        System.out.println(ImageProbe.statusJSON());
+    }
+
+    private static void resetPeak() {
+        System.gc();
+        for (MemoryPoolMXBean mp : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (mp.getType() == MemoryType.HEAP) mp.resetPeakUsage();
+        }
+    }
+
+    private static void report(String label, long t, int n, long sum) {
+        double ms = (System.nanoTime() - t) / 1e6;
+        long peak = 0;
+        for (MemoryPoolMXBean mp : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (mp.getType() == MemoryType.HEAP) peak += mp.getPeakUsage().getUsed();
+        }
+        System.out.println(String.format("%-20s %10.3f ms/file, peak heap %,5d MB  (%d)", label, ms / n, peak >> 20, sum));
+    }
+}
@@ -0,0 +1,106 @@
+package org.ecocean.queue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes a backlog to a FileQueue in a temp dir and times how long QueueConsumer takes to drain it with 1..N
+ * worker threads (handler sleeps a fixed time, like a handler waiting on IA), next to what finding the oldest file
+ * the old way (list + stat the whole dir per message) costs on the same backlog.  Not a unit test; run it by hand:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; org.ecocean.queue.FileQueueBenchmark [messages] [handlerMs] [maxThreads]
+ * </pre>
+ */
+public class FileQueueBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int numMessages = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        final int handlerMs = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        final int maxThreads = (args.length > 2) ? Integer.parseInt(args[2]) : 8;
+
+        File base = Files.createTempDirectory("FileQueueBenchmark").toFile();
+        java.lang.reflect.Field f = FileQueue.class.getDeclaredField("queueBaseDir");
+        f.setAccessible(true);
+        f.set(null, base);
+
+        //old getNextFile(): list + stat everything, once per message
+        FileQueue q0 = new FileQueue("scan");
+        for (int i = 0 ; i < numMessages ; i++) {
+            q0.publish("{\"n\": " + i + "}");
+        }
+        File dir = new File(base, "scan");
+        long t = System.nanoTime();
+        int scans = Math.min(numMessages, 200);
+        for (int i = 0 ; i < scans ; i++) {
+            oldestFile(dir);
+        }
+        double perScan = (System.nanoTime() - t) / 1e6 / scans;
+        System.out.println(String.format("old getNextFile() with %,d files: %.2f ms per message just to find it (%,.0f ms for the backlog), plus a 10s wait between messages",
+            numMessages, perScan, perScan * numMessages));
+
+        for (int threads = 1 ; threads <= maxThreads ; threads *= 2) {
+            final int nthreads = threads;
+            FileQueue q = new FileQueue("drain" + threads) {
+                @Override
+                public int getConsumerSetting(String label, int def) {
+                    return "threads".equals(label) ? nthreads : def;
+                }
+            };
+            for (int i = 0 ; i < numMessages ; i++) {
+                q.publish("{\"n\": " + i + "}");
+            }
+            final CountDownLatch done = new CountDownLatch(numMessages);
+            long t0 = System.nanoTime();
+            q.consume(new QueueMessageHandler() {
+                public boolean handler(String msg) {
+                    try {
+                        Thread.sleep(handlerMs);
+                    } catch (InterruptedException ie) {}
+                    done.countDown();
+                    return true;
+                }
+            });
+            if (!done.await(10, TimeUnit.MINUTES)) throw new IllegalStateException("did not drain");
+            double ms = (System.nanoTime() - t0) / 1e6;
+            System.out.println(String.format("QueueConsumer %d thread(s): %,d messages (%d ms handler) in %,.0f ms = %,.0f/s; stats %s",
+                threads, numMessages, handlerMs, ms, numMessages * 1000 / ms, q.getStats().toJSONObject()));
+        }
+
+        //a message published while the consumers are idle should be picked up right away, not after a poll
+        final CountDownLatch one = new CountDownLatch(1);
+        FileQueue idle = new FileQueue("idle");
+        idle.consume(new QueueMessageHandler() {
+            public boolean handler(String msg) {
+                one.countDown();
+                return true;
+            }
+        });
+        Thread.sleep(500);
+        long t1 = System.nanoTime();
+        //written by "another process": straight to the dir, so only the watcher can see it
+        File tmp = new File(new File(base, "idle"), "x.tmp");
+        Files.write(tmp.toPath(), "{}".getBytes());
+        tmp.renameTo(new File(tmp.getParentFile(), java.util.UUID.randomUUID().toString()));
+        one.await(2, TimeUnit.MINUTES);
+        System.out.println(String.format("idle consumer picked up an externally written file in %,.0f ms", (System.nanoTime() - t1) / 1e6));
+
+        QueueUtil.cleanup();
+        System.exit(0);
+    }
+
+    private static File oldestFile(File dir) throws Exception {
+        java.nio.file.attribute.FileTime oldestTime = null;
+        File oldest = null;
+        for (File f : dir.listFiles()) {
+            if (f.isDirectory() || !org.ecocean.Util.isUUID(f.getName())) continue;
+            java.nio.file.attribute.BasicFileAttributes attr = Files.readAttributes(f.toPath(), java.nio.file.attribute.BasicFileAttributes.class);
+            if ((oldestTime == null) || (oldestTime.compareTo(attr.creationTime()) > 0)) {
+                oldestTime = attr.creationTime();
+                oldest = f;
+            }
+        }
+        return oldest;
+    }
+}
@@ -0,0 +1,138 @@
+package org.ecocean.queue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class FileQueueTest {
+
+    private File base;
+    private File oldBase;
+    private FileQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        base = Files.createTempDirectory("FileQueueTest").toFile();
+        oldBase = (File) baseDirField().get(null);
+        baseDirField().set(null, base);
+        queue = new FileQueue("test");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        queue.shutdown();
+        baseDirField().set(null, oldBase);
+        File dir = new File(base, "test");
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+        base.delete();
+    }
+
+    private static java.lang.reflect.Field baseDirField() throws Exception {
+        java.lang.reflect.Field f = FileQueue.class.getDeclaredField("queueBaseDir");
+        f.setAccessible(true);
+        return f;
+    }
+
+    private Set<String> filesEndingWith(String ext) {
+        Set<String> names = new HashSet<String>();
+        for (File f : new File(base, "test").listFiles()) {
+            if (f.getName().endsWith(ext)) names.add(f.getName().substring(0, f.getName().length() - ext.length()));
+        }
+        return names;
+    }
+
+    @Test
+    public void testPublishAndClaim() throws Exception {
+        Set<String> published = new HashSet<String>();
+        for (int i = 0 ; i < 20 ; i++) {
+            queue.publish("{\"n\": " + i + "}");
+            published.add("{\"n\": " + i + "}");
+        }
+        //no consumer yet, so nothing is tracking the dir
+        assertEquals(-1, queue.getDepth());
+
+        List<Queue.Message> batch = queue.claimBatch(15);
+        assertEquals(15, batch.size());
+        assertEquals(5, queue.getDepth());
+        Set<String> ids = new HashSet<String>();
+        Set<String> bodies = new HashSet<String>();
+        for (Queue.Message msg : batch) {
+            ids.add(msg.id);
+            bodies.add(msg.body);
+        }
+        assertEquals(ids, filesEndingWith(".active"));
+
+        batch.addAll(queue.claimBatch(15));
+        assertEquals(20, batch.size());
+        assertEquals(0, queue.claimBatch(15).size());
+        bodies.clear();
+        for (Queue.Message msg : batch) {
+            bodies.add(msg.body);
+        }
+        assertEquals(published, bodies);
+    }
+
+    @Test
+    public void testCompleteAndDeadLetter() throws Exception {
+        queue.publish("{\"ok\": true}");
+        queue.publish("{\"ok\": false}");
+        List<Queue.Message> batch = queue.claimBatch(2);
+        assertEquals(2, batch.size());
+        Queue.Message good = batch.get(0).body.contains("true") ? batch.get(0) : batch.get(1);
+        Queue.Message bad = (good == batch.get(0)) ? batch.get(1) : batch.get(0);
+        queue.complete(good);
+        queue.deadLetter(bad);
+
+        assertEquals(0, filesEndingWith(".active").size());
+        assertTrue(filesEndingWith(".complete").contains(good.id));
+        assertTrue(filesEndingWith(".failed").contains(bad.id));
+        assertNull(queue.getNext());
+    }
+
+    @Test
+    public void testGetNext() throws Exception {
+        queue.publish("{\"n\": 1}");
+        assertEquals("{\"n\": 1}", queue.getNext());
+        assertEquals(1, filesEndingWith(".complete").size());
+        assertNull(queue.getNext());
+    }
+
+    //files already in the dir (e.g. from before a restart, or another process) are found when the queue starts
+    @Test
+    public void testExistingFiles() throws Exception {
+        File dir = new File(base, "test");
+        String id = java.util.UUID.randomUUID().toString();
+        Files.write(new File(dir, id).toPath(), "{\"old\": true}".getBytes("UTF-8"));
+        //not a message: wrong name
+        Files.write(new File(dir, "notes.txt").toPath(), "ignore me".getBytes("UTF-8"));
+
+        List<Queue.Message> batch = queue.claimBatch(10);
+        assertEquals(1, batch.size());
+        assertEquals(id, batch.get(0).id);
+        assertEquals("{\"old\": true}", batch.get(0).body);
+    }
+
+    @Test
+    public void testStopFile() throws Exception {
+        queue.publish("{}");
+        queue.shutdown();
+        Files.write(new File(new File(base, "test"), "STOP").toPath(), new byte[0]);
+        try {
+            queue.claimBatch(1);
+            fail("claimed a message with a STOP file in the queue dir");
+        } catch (java.io.IOException ex) {
+            //expected
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.ecocean.servlet.importer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Writes an import-shaped .xlsx (header plus rows of strings, numbers, blanks and booleans), then reads every row
+ * the old way (WorkbookFactory, the whole workbook in memory) and through SheetRowReader's streaming reader,
+ * checking both see the same values and reporting time and peak heap.  Not a unit test; run it by hand:
+ * <pre>
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; org.ecocean.servlet.importer.SheetRowReaderBenchmark [rows]
+ * </pre>
+ */
+public class SheetRowReaderBenchmark {
+  static final String[] HEADER = { "Encounter.mediaAsset0", "Encounter.mediaAsset1", "Encounter.year", "Encounter.month",
+    "Encounter.day", "Encounter.decimalLatitude", "Encounter.decimalLongitude", "Encounter.individualID", "Encounter.sex",
+    "Encounter.occurrenceRemarks", "Encounter.keyword00", "Occurrence.occurrenceID", "Encounter.measurement.length", "Survey.onEffort" };
+
+  public static void main(String[] args) throws Exception {
+    int rows = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+    File file = new File(System.getProperty("java.io.tmpdir"), "sheetRowReaderBench-" + rows + ".xlsx");
+    if (!file.exists()) write(file, rows);
+    System.out.println(String.format("%,d rows x %d cols (%,d KB)", rows, HEADER.length, file.length() >> 10));
+
+    for (int r = 0; r < 2; r++) {
+      resetPeak();
+      long t = System.nanoTime();
+      List<String> old = readWorkbook(file);
+      report("WorkbookFactory", t, old.size());
+
+      resetPeak();
+      t = System.nanoTime();
+      final List<String> streamed = new ArrayList<String>();
+      SheetRowReader.read(file, new SheetRowReader.RowHandler() {
+        public void row(SheetRowReader.SheetRow row) {
+          streamed.add(row.rowNum + ":" + join(row.cells));
+        }
+      });
+      report("SheetRowReader", t, streamed.size());
+      if (!old.equals(streamed)) throw new RuntimeException("rows differ, e.g. " + firstDifference(old, streamed));
+    }
+  }
+
+  private static void write(File file, int rows) throws Exception {
+    SXSSFWorkbook wb = new SXSSFWorkbook(100);
+    Sheet sheet = wb.createSheet();
+    Row header = sheet.createRow(0);
+    for (int c = 0; c < HEADER.length; c++) header.createCell(c).setCellValue(HEADER[c]);
+    for (int i = 1; i <= rows; i++) {
+      Row row = sheet.createRow(i);
+      row.createCell(0).setCellValue("photos/2017/IMG_" + i + ".JPG");
+      if (i % 3 == 0) row.createCell(1).setCellValue("photos/2017/IMG_" + i + "b.jpg");
+      row.createCell(2).setCellValue(2000 + (i % 18));
+      row.createCell(3).setCellValue(1 + (i % 12));
+      row.createCell(4).setCellValue(1 + (i % 28));
+      row.createCell(5).setCellValue(-20.5 + (i % 100) / 1000.0);
+      row.createCell(6).setCellValue(57.25 + (i % 100) / 1000.0);
+      row.createCell(7).setCellValue("ind-" + (i % 500));
+      if (i % 4 != 0) row.createCell(8).setCellValue((i % 2 == 0) ? "female" : "male");
+      if (i % 7 == 0) row.createCell(9).setCellValue("seen near the reef, with calf & \"friends\" <" + i + ">");
+      row.createCell(10).setCellValue("left");
+      row.createCell(11).setCellValue("occ-" + (i / 5));
+      if (i % 5 == 0) row.createCell(12).setCellValue(3.5 + i % 10);
+      row.createCell(13).setCellValue(i % 2 == 0);
+    }
+    FileOutputStream fos = new FileOutputStream(file);
+    try {
+      wb.write(fos);
+    } finally {
+      fos.close();
+    }
+    wb.dispose();
+  }
+
+  private static List<String> readWorkbook(File file) throws Exception {
+    List<String> out = new ArrayList<String>();
+    Workbook wb = WorkbookFactory.create(file);
+    for (Row row : wb.getSheetAt(0)) {
+      Object[] cells = new Object[Math.max(0, row.getLastCellNum())];
+      for (Cell cell : row) {
+        switch (cell.getCellType()) {
+          case Cell.CELL_TYPE_NUMERIC: cells[cell.getColumnIndex()] = cell.getNumericCellValue(); break;
+          case Cell.CELL_TYPE_STRING: cells[cell.getColumnIndex()] = cell.getStringCellValue(); break;
+          case Cell.CELL_TYPE_BOOLEAN: cells[cell.getColumnIndex()] = cell.getBooleanCellValue(); break;
+          default: break;
+        }
+      }
+      out.add(row.getRowNum() + ":" + join(cells));
+    }
+    return out;
+  }
+
+  // trailing empty cells do not count, as a row's last cell may or may not be recorded as blank
+  private static String join(Object[] cells) {
+    int n = cells.length;
+    while ((n > 0) && (cells[n - 1] == null)) n--;
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < n; i++) sb.append(cells[i]).append('|');
+    return sb.toString();
+  }
+
+  private static String firstDifference(List<String> a, List<String> b) {
+    for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+      if (!a.get(i).equals(b.get(i))) return a.get(i) + " vs " + b.get(i);
+    }
+    return a.size() + " rows vs " + b.size();
+  }
+
+  private static void resetPeak() {
+    System.gc();
+    for (MemoryPoolMXBean mp : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (mp.getType() == MemoryType.HEAP) mp.resetPeakUsage();
+    }
+  }
+
+  private static void report(String label, long t, int rows) {
+    double ms = (System.nanoTime() - t) / 1e6;
+    long peak = 0;
+    for (MemoryPoolMXBean mp : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (mp.getType() == MemoryType.HEAP) peak += mp.getPeakUsage().getUsed();
+    }
+    System.out.println(String.format("%-16s %,8.0f ms for %,d rows, peak heap %,5d MB", label, ms, rows, peak >> 20));
+  }
+}